@@ -28,7 +28,10 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.tensorflow.demo.Classifier;
 import org.tensorflow.demo.env.BorderedText;
@@ -52,6 +55,114 @@ public class DetectorTrackerModule {
 
     private DetectorTrackerModuleCallbackInterface onFinishedCallback = null;
 
+    /**
+     * A frame and the buffers it uses in the pipeline. Frames are recycled once tracked or
+     * dropped, so the buffers are only allocated for the frames in flight.
+     */
+    private static class PipelineFrame {
+        long timestamp;
+        long captureTimeMs;
+        long stageStartMs;
+        // The Y, U and V planes. The Y plane is also the luminance given to the tracker.
+        final byte[][] yuvBytes = new byte[3][];
+        int yRowStride;
+        int uvRowStride;
+        int uvPixelStride;
+        // True if rgbBytes were already filled at capture, from a Bitmap.
+        boolean fromBitmap;
+        byte[] argbBytes;
+        byte[] yuv420spBytes;
+        final int[] rgbBytes;
+        final Bitmap rgbFrameBitmap;
+        final Bitmap croppedBitmap;
+        Matrix frameToCropTransform;
+        Matrix cropToFrameTransform;
+        List<Classifier.Recognition> recognitions;
+
+        PipelineFrame(final int width, final int height, final int cropSize) {
+            rgbBytes = new int[width * height];
+            rgbFrameBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+            croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+        }
+    }
+
+    /**
+     * Hands the latest frame from one stage to the next.
+     */
+    private static class FrameSlot {
+        private PipelineFrame frame = null;
+        private int dropped = 0;
+
+        /**
+         * Puts a frame in the slot.
+         * @return the frame dropped, either the one that was waiting or the given one if the
+         *         waiting frame is newer, or null if the slot was empty.
+         */
+        synchronized PipelineFrame offer(final PipelineFrame newFrame) {
+            if (frame == null) {
+                frame = newFrame;
+                return null;
+            }
+            ++dropped;
+            if (frame.timestamp > newFrame.timestamp) {
+                return newFrame;
+            }
+            final PipelineFrame stale = frame;
+            frame = newFrame;
+            return stale;
+        }
+
+        /**
+         * Takes the frame from the slot.
+         * @return the frame, or null if the slot is empty.
+         */
+        synchronized PipelineFrame poll() {
+            final PipelineFrame result = frame;
+            frame = null;
+            return result;
+        }
+
+        synchronized int getDropped() {
+            return dropped;
+        }
+    }
+
+    /**
+     * Latency and throughput of a pipeline stage.
+     */
+    private static class StageStats {
+        private static final long WINDOW_MS = 1000;
+        private final String name;
+        private long windowStartMs = 0;
+        private int windowFrames = 0;
+        private float framesPerSecond = 0;
+        private float latencyMs = 0;
+
+        StageStats(final String name) {
+            this.name = name;
+        }
+
+        synchronized void record(final long startMs) {
+            final long now = SystemClock.uptimeMillis();
+            final long latency = now - startMs;
+            latencyMs = windowStartMs == 0 ? latency : 0.9f * latencyMs + 0.1f * latency;
+            if (windowStartMs == 0) {
+                windowStartMs = now;
+            }
+            ++windowFrames;
+            if (now - windowStartMs >= WINDOW_MS) {
+                framesPerSecond = windowFrames * 1000.0f / (now - windowStartMs);
+                windowStartMs = now;
+                windowFrames = 0;
+            }
+        }
+
+        synchronized String toString(final FrameSlot input) {
+            final String line = String.format("%s: %.1fms, %.1f fps", name, latencyMs, framesPerSecond);
+            return input == null ? line : line + ", " + input.getDropped() + " dropped";
+        }
+    }
+
     private final float IS_FACING_CAMERA_TH = 20;
 
     private static final Logger LOGGER = new Logger();
@@ -119,12 +230,8 @@ public class DetectorTrackerModule {
 
     private int previewWidth = 0;
     private int previewHeight = 0;
-    private byte[][] yuvBytes;
-    private int[] rgbBytes = null;
-    private Bitmap rgbFrameBitmap = null;
-    private Bitmap croppedBitmap = null;
+    private int cropSize = 0;
     private Bitmap scaledLoadedBitmap = null;
-    private AtomicBoolean computing = new AtomicBoolean(false);
 
     private long timestamp = 0;
 
@@ -137,17 +244,32 @@ public class DetectorTrackerModule {
 
     private MultiBoxTracker tracker;
 
-    private byte[] luminance;
-
     private BorderedText borderedText;
 
-    private long lastProcessingTimeMs;
-
     final private int rotation = 90;
     final int screenOrientation = 0; //PORTRAIT
 
+    // Frames go through four stages: capture on the caller's thread, conversion and cropping
+    // on a small pool, inference on the inference thread, then tracking on its own thread.
+    // Each stage hands its output to the next one through a slot holding only the latest
+    // frame, so a stage that falls behind drops stale frames instead of queueing them.
+    private static final int PREPROCESS_THREADS = 2;
+
     private Handler handler;
     private HandlerThread handlerThread;
+    private Handler trackingHandler;
+    private HandlerThread trackingHandlerThread;
+    private ExecutorService preprocessExecutor;
+
+    private final FrameSlot preprocessSlot = new FrameSlot();
+    private final FrameSlot inferenceSlot = new FrameSlot();
+    private final FrameSlot trackingSlot = new FrameSlot();
+    private final ConcurrentLinkedQueue<PipelineFrame> freeFrames = new ConcurrentLinkedQueue<>();
+
+    private final StageStats preprocessStats = new StageStats("Preprocess");
+    private final StageStats inferenceStats = new StageStats("Inference");
+    private final StageStats trackingStats = new StageStats("Tracking");
+    private final StageStats pipelineStats = new StageStats("Capture to track");
 
     MultiBoxTracker.TrackedRecognition largest_person = null;
     private final Paint boxPaint = new Paint();
@@ -173,7 +295,6 @@ public class DetectorTrackerModule {
     {
         tracker = new MultiBoxTracker(context);
 
-        int cropSize;
         if (MODE == DetectorMode.YOLO) {
             detector =
                     TensorFlowYoloDetector.create(
@@ -216,9 +337,6 @@ public class DetectorTrackerModule {
         sensorOrientation += screenOrientation;
 
         LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-        rgbBytes = new int[previewWidth * previewHeight];
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
 
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
@@ -238,8 +356,6 @@ public class DetectorTrackerModule {
         cropToFileTransform = new Matrix();
         fileToCropTransform.invert(cropToFileTransform);
 
-        yuvBytes = new byte[3][];
-
 
         face_detector = new FaceDetector.Builder(context)
                 .setLandmarkType(FaceDetector.NO_LANDMARKS)
@@ -264,6 +380,10 @@ public class DetectorTrackerModule {
         handlerThread = new HandlerThread("Cellbots Inference");
         handlerThread.start();
         handler = new Handler(handlerThread.getLooper());
+        trackingHandlerThread = new HandlerThread("Cellbots Tracking");
+        trackingHandlerThread.start();
+        trackingHandler = new Handler(trackingHandlerThread.getLooper());
+        preprocessExecutor = Executors.newFixedThreadPool(PREPROCESS_THREADS);
 
         boxPaint.setColor(Color.RED);
         boxPaint.setStyle(Style.STROKE);
@@ -285,7 +405,10 @@ public class DetectorTrackerModule {
 
         lines.add("Frame: " + previewWidth + "x" + previewHeight);
         lines.add("Rotation: " + sensorOrientation);
-        lines.add("Inference time: " + lastProcessingTimeMs + "ms");
+        lines.add(preprocessStats.toString(preprocessSlot));
+        lines.add(inferenceStats.toString(inferenceSlot));
+        lines.add(trackingStats.toString(trackingSlot));
+        lines.add(pipelineStats.toString(null));
         return lines;
     }
 
@@ -351,6 +474,32 @@ public class DetectorTrackerModule {
         }
     }
 
+    private synchronized void runInTracking(final Runnable r) {
+        if (trackingHandler != null) {
+            trackingHandler.post(r);
+        }
+    }
+
+    private synchronized void runInPreprocess(final Runnable r) {
+        if (preprocessExecutor != null) {
+            preprocessExecutor.execute(r);
+        }
+    }
+
+    private PipelineFrame obtainFrame() {
+        final PipelineFrame frame = freeFrames.poll();
+        if (frame != null) {
+            return frame;
+        }
+        return new PipelineFrame(previewWidth, previewHeight, cropSize);
+    }
+
+    private void recycleFrame(final PipelineFrame frame) {
+        if (frame != null) {
+            frame.recognitions = null;
+            freeFrames.offer(frame);
+        }
+    }
 
     private void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
         // Because of the variable row stride it's not possible to know in
@@ -404,56 +553,40 @@ public class DetectorTrackerModule {
         Bitmap scaled_image = Bitmap.createScaledBitmap(image,previewWidth,previewHeight,true);
         scaledLoadedBitmap = scaled_image.copy(scaled_image.getConfig(),true);
 
-        LOGGER.d("scaled_image byte sizes: %d %d",scaled_image.getByteCount(),scaled_image.getAllocationByteCount());
         ++timestamp;
-        final long currTimestamp = timestamp;
         Trace.beginSection("imageAvailable");
+        final PipelineFrame frame = obtainFrame();
+        frame.timestamp = timestamp;
+        frame.captureTimeMs = SystemClock.uptimeMillis();
+        frame.fromBitmap = true;
+
+        final int argbSize = scaled_image.getHeight() * scaled_image.getRowBytes();
+        if (frame.argbBytes == null || frame.argbBytes.length != argbSize
+                || frame.yuvBytes[0] == null
+                || frame.yuvBytes[0].length != scaled_image.getWidth() * scaled_image.getHeight()) {
+            frame.argbBytes = new byte[argbSize];
+            frame.yuv420spBytes =
+                    new byte[ImageUtils.getYUVByteSize(scaled_image.getWidth(), scaled_image.getHeight())];
+            frame.yuvBytes[0] = new byte[scaled_image.getWidth() * scaled_image.getHeight()];
+        }
+        scaled_image.copyPixelsToBuffer(ByteBuffer.wrap(frame.argbBytes));
+        // The luminance is needed by the tracker now, so the conversion is done at capture.
+        convert_ARGB8888_to_int(frame.argbBytes, frame.rgbBytes);
+        ImageUtils.convertARGB8888ToYUV420SP(
+                frame.rgbBytes, frame.yuv420spBytes, scaled_image.getWidth(), scaled_image.getHeight());
+        System.arraycopy(frame.yuv420spBytes, 0, frame.yuvBytes[0], 0, frame.yuvBytes[0].length);
 
-        ByteBuffer buffer2 = ByteBuffer.allocate(scaled_image.getHeight() * scaled_image.getRowBytes());
-        scaled_image.copyPixelsToBuffer(buffer2);
-        byte[] yuvbytes = new byte[ImageUtils.getYUVByteSize(scaled_image.getWidth(), scaled_image.getHeight())];
-        convert_ARGB8888_to_int(buffer2.array(),rgbBytes);
-        //System.arraycopy(buffer2.array(),0,rgbBytes,0,buffer2.remaining());
-        //tmprgbbytes.get(rgbBytes);
-        ImageUtils.convertARGB8888ToYUV420SP(rgbBytes.clone(),yuvbytes,scaled_image.getWidth(),scaled_image.getHeight());
-        int uvsize = ((scaled_image.getWidth() + 1) / 2) * ((scaled_image.getHeight() + 1) / 2) * 2;
-        if (yuvBytes[0] == null) {
-            LOGGER.d("Initializing buffer %d at size %d", 0, scaled_image.getWidth()*scaled_image.getHeight());
-            yuvBytes[0] = new byte[scaled_image.getWidth()*scaled_image.getHeight()];
-            yuvBytes[1] = new byte[uvsize];
-            yuvBytes[2] = new byte[uvsize];
-        }
-        System.arraycopy(yuvbytes, 0, yuvBytes[0], 0, scaled_image.getWidth()*scaled_image.getHeight());
-        System.arraycopy(yuvbytes, 0, yuvBytes[1], 0, uvsize);
-        System.arraycopy(yuvbytes, 0, yuvBytes[2], 0, uvsize);
-
-        LOGGER.d("ROW BYTES COUNT: %d",scaled_image.getRowBytes());
         tracker.onFrame(
                 previewWidth,
                 previewHeight,
                 scaled_image.getHeight(),
                 sensorOrientation,
-                yuvBytes[0],
+                frame.yuvBytes[0],
                 timestamp);
 
-        LOGGER.d("feed frame called");
-
-        if (computing.get()) {
-            return false;
-        }
-        computing.set(true);
-
-        rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
-
-
-
-
-        final Canvas canvas = new Canvas(croppedBitmap);
-
-
-        canvas.drawBitmap(rgbFrameBitmap,sensorOrientation == 0 ? fileToCropTransform : frameToCropTransform,null);
-
-        detect_track(currTimestamp,canvas,sensorOrientation == 0 ? cropToFileTransform : cropToFrameTransform);
+        frame.frameToCropTransform = sensorOrientation == 0 ? fileToCropTransform : frameToCropTransform;
+        frame.cropToFrameTransform = sensorOrientation == 0 ? cropToFileTransform : cropToFrameTransform;
+        submitFrame(frame);
 
         Trace.endSection();
         LOGGER.d("feed frame ended");
@@ -472,204 +605,234 @@ public class DetectorTrackerModule {
         ++timestamp;
         final long currTimestamp = timestamp;
         tracker.sensorOrientation = sensorOrientation;
+        if (image == null) {
+            return false;
+        }
+        final PipelineFrame frame = obtainFrame();
         try {
-            if (image == null) {
-                return false;
-            }
-
             Trace.beginSection("imageAvailable");
 
             final Plane[] planes = image.getPlanes();
-            this.fillBytes(planes, yuvBytes);
+            this.fillBytes(planes, frame.yuvBytes);
+            frame.timestamp = currTimestamp;
+            frame.captureTimeMs = SystemClock.uptimeMillis();
+            frame.fromBitmap = false;
+            frame.yRowStride = planes[0].getRowStride();
+            frame.uvRowStride = planes[1].getRowStride();
+            frame.uvPixelStride = planes[1].getPixelStride();
             tracker.onFrame(
                     previewWidth,
                     previewHeight,
-                    planes[0].getRowStride(),
+                    frame.yRowStride,
                     sensorOrientation,
-                    yuvBytes[0],
-                    timestamp);
-
-            // No mutex needed as this method is not reentrant.
-            if (computing.get()) {
-                image.close();
-                return false;
-            }
-            computing.set(true);
-
-            final int yRowStride = planes[0].getRowStride();
-            final int uvRowStride = planes[1].getRowStride();
-            final int uvPixelStride = planes[1].getPixelStride();
-            LOGGER.d("yRowStride = %d",yRowStride);
-            LOGGER.d("uvRowStride = %d",uvRowStride);
-            LOGGER.d("uvPixelStride = %d",uvPixelStride);
-            LOGGER.d("Image: ",image.getWidth(),image.getHeight());
-            ImageUtils.convertYUV420ToARGB8888(
-                    yuvBytes[0],
-                    yuvBytes[1],
-                    yuvBytes[2],
-                    previewWidth,
-                    previewHeight,
-                    yRowStride,
-                    uvRowStride,
-                    uvPixelStride,
-                    rgbBytes);
-
+                    frame.yuvBytes[0],
+                    currTimestamp);
             image.close();
         } catch (final Exception e) {
             image.close();
+            recycleFrame(frame);
             LOGGER.e(e, "Exception!");
             Trace.endSection();
             return false;
         }
 
-        rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+        frame.frameToCropTransform = frameToCropTransform;
+        frame.cropToFrameTransform = cropToFrameTransform;
+        submitFrame(frame);
 
+        Trace.endSection();
+        return true;
+    }
 
+    public synchronized void setSensorOrientation(final int o) {
+        sensorOrientation = o;
+    }
 
+    /**
+     * Hands a captured frame to the preprocessing stage.
+     */
+    private void submitFrame(final PipelineFrame frame)
+    {
+        frame.stageStartMs = SystemClock.uptimeMillis();
+        recycleFrame(preprocessSlot.offer(frame));
+        runInPreprocess(preprocessTask);
+    }
 
-        final Canvas canvas = new Canvas(croppedBitmap);
+    /**
+     * Converts the latest captured frame to ARGB and crops it to the detector input.
+     */
+    private final Runnable preprocessTask = new Runnable() {
+        @Override
+        public void run() {
+            final PipelineFrame frame = preprocessSlot.poll();
+            if (frame == null) {
+                return;
+            }
+            final long startTime = frame.stageStartMs;
+            if (!frame.fromBitmap) {
+                ImageUtils.convertYUV420ToARGB8888(
+                        frame.yuvBytes[0],
+                        frame.yuvBytes[1],
+                        frame.yuvBytes[2],
+                        previewWidth,
+                        previewHeight,
+                        frame.yRowStride,
+                        frame.uvRowStride,
+                        frame.uvPixelStride,
+                        frame.rgbBytes);
+            }
+            frame.rgbFrameBitmap.setPixels(
+                    frame.rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            final Canvas canvas = new Canvas(frame.croppedBitmap);
+            canvas.drawBitmap(frame.rgbFrameBitmap, frame.frameToCropTransform, null);
+            if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(frame.croppedBitmap);
+            }
+            preprocessStats.record(startTime);
 
+            frame.stageStartMs = SystemClock.uptimeMillis();
+            recycleFrame(inferenceSlot.offer(frame));
+            runInBackground(inferenceTask);
+        }
+    };
 
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+    /**
+     * Runs the detectors on the latest preprocessed frame.
+     */
+    private final Runnable inferenceTask = new Runnable() {
+        @Override
+        public void run() {
+            final PipelineFrame frame = inferenceSlot.poll();
+            if (frame == null) {
+                return;
+            }
+            final long startTime = frame.stageStartMs;
+            List<Classifier.Recognition> results = new LinkedList<>();
+            final DetectorTarget detection_target = getDetectorTarget();
 
+            if (detection_target == DetectorTarget.PERSON_ONLY ||
+                    detection_target == DetectorTarget.BOTH_FACE_PERSON) {
+                results = detector.recognizeImage(frame.croppedBitmap);
+            }
+            Frame visionFrame = new Frame.Builder().setBitmap(frame.croppedBitmap).build();
 
-        detect_track(currTimestamp,canvas,cropToFrameTransform);
+            SparseArray<Face> faces = new SparseArray<>();
+            if (detection_target == DetectorTarget.FACE_ONLY ||
+                    detection_target == DetectorTarget.BOTH_FACE_PERSON) {
+                faces = face_detector.detect(visionFrame);
+            }
 
-        Trace.endSection();
-        return true;
-    }
+            Paint mFacePositionPaint = new Paint();
+            mFacePositionPaint.setColor(Color.YELLOW);
+            mFacePositionPaint.setStyle(Style.STROKE);
+            mFacePositionPaint.setStrokeWidth(2.0f);
+            ArrayList<Classifier.Recognition> face_recognitions = new ArrayList<>();
+
+            cropCopyBitmap = Bitmap.createBitmap(frame.croppedBitmap);
+            final Canvas canvas = new Canvas(cropCopyBitmap);
+
+
+            for (int i = 0; i < faces.size(); ++i) {
+                Face face = faces.valueAt(i);
+                float left = face.getPosition().x;
+                float top = face.getPosition().y;
+                float right = (face.getPosition().x + face.getWidth());
+                float bottom = (face.getPosition().y + face.getHeight());
+                RectF rect = new RectF(left,top,right,bottom);
+                final float face_y_rotation = face.getEulerY();
+
+                final boolean facing_camera = face_y_rotation > -IS_FACING_CAMERA_TH && face_y_rotation < IS_FACING_CAMERA_TH;
+                LOGGER.d("face %d is eulerY = %f",face.getId(),face_y_rotation);
+                Classifier.FaceRecognition face_recognition = new Classifier.FaceRecognition(
+                        String.valueOf(i+results.size()),"face",1.f,rect,facing_camera);
+                face_recognition.setY_rotation(face_y_rotation);
+                face_recognitions.add(face_recognition);
+
+                //float x = (face.getPosition().x + face.getWidth() / 2);
+                //float y = (face.getPosition().y + face.getHeight() / 2);
+                //canvas.drawCircle(x, y, 5, mFacePositionPaint);
+
+
+                for (Landmark landmark : face.getLandmarks()) {
+                    int cx = (int) (landmark.getPosition().x * 1);
+                    int cy = (int) (landmark.getPosition().y * 1);
+                    canvas.drawCircle(cx, cy, 5, mFacePositionPaint);
+                }
+            }
 
-    public synchronized void setSensorOrientation(final int o) {
-        sensorOrientation = o;
-    }
+            final Paint paint = new Paint();
+            paint.setColor(Color.RED);
+            paint.setStyle(Style.STROKE);
+            paint.setStrokeWidth(2.0f);
 
-    private void detect_track(final long currTimestamp,final Canvas canvas,final Matrix fixDetectionsMatrix)
-    {
+            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+            switch (MODE) {
+                case TF_OD_API: minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API; break;
+                case MULTIBOX: minimumConfidence = MINIMUM_CONFIDENCE_MULTIBOX; break;
+                case YOLO: minimumConfidence = MINIMUM_CONFIDENCE_YOLO; break;
+            }
 
+            final List<Classifier.Recognition> mappedRecognitions =
+                    new LinkedList<>();
 
+            for (final Classifier.Recognition result : results) {
+                if (!result.getTitle().startsWith("person"))
+                {
+                    continue;
+                }
+                final RectF location = result.getLocation();
+                if (location != null && result.getConfidence() >= minimumConfidence) {
+                    canvas.drawRect(location, paint);
 
+                    frame.cropToFrameTransform.mapRect(location);
+                    result.setLocation(location);
+                    mappedRecognitions.add(result);
+                }
+            }
+            for (final Classifier.Recognition result : face_recognitions) {
+                final RectF location = result.getLocation();
+                if (location != null && result.getConfidence() >= minimumConfidence) {
+                    canvas.drawRect(location, mFacePositionPaint);
+
+                    frame.cropToFrameTransform.mapRect(location);
+                    result.setLocation(location);
+                    mappedRecognitions.add(result);
+                }
+            }
+            frame.recognitions = mappedRecognitions;
+            inferenceStats.record(startTime);
 
+            frame.stageStartMs = SystemClock.uptimeMillis();
+            recycleFrame(trackingSlot.offer(frame));
+            runInTracking(trackingTask);
+        }
+    };
 
-        if (SAVE_PREVIEW_BITMAP) {
-            ImageUtils.saveBitmap(croppedBitmap);
-        }
-
-        if (luminance == null) {
-            luminance = new byte[yuvBytes[0].length];
-        }
-        System.arraycopy(yuvBytes[0], 0, luminance, 0, luminance.length);
-
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        final long startTime = SystemClock.uptimeMillis();
-                        List<Classifier.Recognition> results = new LinkedList<>();
-                        final DetectorTarget detection_target = getDetectorTarget();
-
-                        if (detection_target == DetectorTarget.PERSON_ONLY ||
-                                detection_target == DetectorTarget.BOTH_FACE_PERSON) {
-                            results = detector.recognizeImage(croppedBitmap);
-                        }
-                        Frame frame = new Frame.Builder().setBitmap(croppedBitmap).build();
-
-                        SparseArray<Face> faces = new SparseArray<>();
-                        if (detection_target == DetectorTarget.FACE_ONLY ||
-                                detection_target == DetectorTarget.BOTH_FACE_PERSON) {
-                            faces = face_detector.detect(frame);
-                        }
-                        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-                        Paint mFacePositionPaint = new Paint();
-                        mFacePositionPaint.setColor(Color.YELLOW);
-                        mFacePositionPaint.setStyle(Style.STROKE);
-                        mFacePositionPaint.setStrokeWidth(2.0f);
-                        ArrayList<Classifier.Recognition> face_recognitions = new ArrayList<>();
-
-                        cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-                        final Canvas canvas = new Canvas(cropCopyBitmap);
-
-
-                        for (int i = 0; i < faces.size(); ++i) {
-                            Face face = faces.valueAt(i);
-                            float left = face.getPosition().x;
-                            float top = face.getPosition().y;
-                            float right = (face.getPosition().x + face.getWidth());
-                            float bottom = (face.getPosition().y + face.getHeight());
-                            RectF rect = new RectF(left,top,right,bottom);
-                            final float face_y_rotation = face.getEulerY();
-
-                            final boolean facing_camera = face_y_rotation > -IS_FACING_CAMERA_TH && face_y_rotation < IS_FACING_CAMERA_TH;
-                            LOGGER.d("face %d is eulerY = %f",face.getId(),face_y_rotation);
-                            Classifier.FaceRecognition face_recognition = new Classifier.FaceRecognition(
-                                    String.valueOf(i+results.size()),"face",1.f,rect,facing_camera);
-                            face_recognition.setY_rotation(face_y_rotation);
-                            face_recognitions.add(face_recognition);
-
-                            //float x = (face.getPosition().x + face.getWidth() / 2);
-                            //float y = (face.getPosition().y + face.getHeight() / 2);
-                            //canvas.drawCircle(x, y, 5, mFacePositionPaint);
-
-
-                            for (Landmark landmark : face.getLandmarks()) {
-                                int cx = (int) (landmark.getPosition().x * 1);
-                                int cy = (int) (landmark.getPosition().y * 1);
-                                canvas.drawCircle(cx, cy, 5, mFacePositionPaint);
-                            }
-                        }
-
-                        final Paint paint = new Paint();
-                        paint.setColor(Color.RED);
-                        paint.setStyle(Style.STROKE);
-                        paint.setStrokeWidth(2.0f);
-
-                        float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                        switch (MODE) {
-                            case TF_OD_API: minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API; break;
-                            case MULTIBOX: minimumConfidence = MINIMUM_CONFIDENCE_MULTIBOX; break;
-                            case YOLO: minimumConfidence = MINIMUM_CONFIDENCE_YOLO; break;
-                        }
-
-                        final List<Classifier.Recognition> mappedRecognitions =
-                                new LinkedList<>();
-
-                        for (final Classifier.Recognition result : results) {
-                            if (!result.getTitle().startsWith("person"))
-                            {
-                                continue;
-                            }
-                            final RectF location = result.getLocation();
-                            if (location != null && result.getConfidence() >= minimumConfidence) {
-                                canvas.drawRect(location, paint);
-
-                                fixDetectionsMatrix.mapRect(location);
-                                result.setLocation(location);
-                                mappedRecognitions.add(result);
-                            }
-                        }
-                        for (final Classifier.Recognition result : face_recognitions) {
-                            final RectF location = result.getLocation();
-                            if (location != null && result.getConfidence() >= minimumConfidence) {
-                                canvas.drawRect(location, mFacePositionPaint);
-
-                                fixDetectionsMatrix.mapRect(location);
-                                result.setLocation(location);
-                                mappedRecognitions.add(result);
-                            }
-                        }
-                        synchronized (detections_tracking_mutex) {
-                            latestRecognitions = new ArrayList<>(mappedRecognitions);
-                            tracker.trackResults(mappedRecognitions, luminance, currTimestamp);
-                        }
-                        if (onFinishedCallback!=null)
-                        {
-                            onFinishedCallback.onComputeFinished();
-                        }
-                        LOGGER.d("Compute ended.");
-                        computing.set(false);
-                    }
-                });
-    }
+    /**
+     * Feeds the detections of the latest inferred frame to the tracker.
+     */
+    private final Runnable trackingTask = new Runnable() {
+        @Override
+        public void run() {
+            final PipelineFrame frame = trackingSlot.poll();
+            if (frame == null) {
+                return;
+            }
+            final long startTime = frame.stageStartMs;
+            synchronized (detections_tracking_mutex) {
+                latestRecognitions = new ArrayList<>(frame.recognitions);
+                tracker.trackResults(frame.recognitions, frame.yuvBytes[0], frame.timestamp);
+            }
+            trackingStats.record(startTime);
+            pipelineStats.record(frame.captureTimeMs);
+            recycleFrame(frame);
+            if (onFinishedCallback!=null)
+            {
+                onFinishedCallback.onComputeFinished();
+            }
+            LOGGER.d("Compute ended.");
+        }
+    };
 
     public MultiBoxTracker.TrackedRecognition getLargestPerson()
     {
@@ -744,11 +907,24 @@ public class DetectorTrackerModule {
 
     public void closeLib()
     {
+        final ExecutorService executor;
+        synchronized (this) {
+            executor = preprocessExecutor;
+            preprocessExecutor = null;
+        }
+        executor.shutdown();
         handlerThread.quitSafely();
+        trackingHandlerThread.quitSafely();
         try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
             handlerThread.join();
-            handlerThread = null;
-            handler = null;
+            trackingHandlerThread.join();
+            synchronized (this) {
+                handlerThread = null;
+                handler = null;
+                trackingHandlerThread = null;
+                trackingHandler = null;
+            }
         } catch (final InterruptedException e) {
             LOGGER.e(e, "Exception!");
         }
@@ -20,33 +20,40 @@ import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.Trace;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 import org.tensorflow.demo.Classifier;
-import org.tensorflow.demo.env.Logger;
 import org.tensorflow.demo.env.SplitTimer;
 
 /** An object detector that uses TF and a YOLO model to detect objects. */
 class TensorFlowYoloDetector implements Classifier {
-  private static final Logger LOGGER = new Logger();
-
   // Only return this many results with at least this confidence.
   private static final int MAX_RESULTS = 5;
 
+  // Anchors at or below this confidence are dropped before suppression.
+  private static final float MINIMUM_CONFIDENCE = 0.01f;
+
+  // The objectness logit at which expit() reaches MINIMUM_CONFIDENCE.
+  private static final float MINIMUM_OBJECTNESS_LOGIT =
+      (float) Math.log(MINIMUM_CONFIDENCE / (1 - MINIMUM_CONFIDENCE));
+
+  // Boxes of the same class overlapping a better box by more than this are suppressed.
+  private static final float NMS_THRESHOLD = 0.5f;
+
+  private static final float LOG2_E = 1.442695f;
+
   private static final int NUM_CLASSES = 20;
 
   private static final int NUM_BOXES_PER_BLOCK = 5;
 
   // TODO(andrewharp): allow loading anchors and classes
   // from files.
-  private static final double[] ANCHORS = {
-    1.08, 1.19,
-    3.42, 4.41,
-    6.63, 11.38,
-    9.42, 5.11,
-    16.62, 10.52
+  private static final float[] ANCHORS = {
+    1.08f, 1.19f,
+    3.42f, 4.41f,
+    6.63f, 11.38f,
+    9.42f, 5.11f,
+    16.62f, 10.52f
   };
 
   private static final String[] LABELS = {
@@ -80,6 +87,13 @@ class TensorFlowYoloDetector implements Classifier {
   private int[] intValues;
   private float[] floatValues;
   private String[] outputNames;
+  private float[] output;
+
+  // Decoded candidates, one entry per anchor, reused across frames.
+  private float[] candidateBoxes;
+  private float[] candidateScores;
+  private int[] candidateClasses;
+  private int[] candidateOffsets;
 
   private int blockSize;
 
@@ -112,22 +126,47 @@ class TensorFlowYoloDetector implements Classifier {
 
   private TensorFlowYoloDetector() {}
 
-  private float expit(final float x) {
-    return (float) (1. / (1. + Math.exp(-x)));
+  /**
+   * Computes e^x as 2^i * 2^f with a polynomial for the fraction. The relative error is below
+   * 1e-5, which is plenty for box sizes and scores, without the double precision Math.exp.
+   */
+  static float fastExp(final float x) {
+    final float t = Math.max(-126f, Math.min(127f, x * LOG2_E));
+    final float i = (float) Math.floor(t);
+    final float f = t - i;
+    final float p =
+        1f + f * (0.6931472f + f * (0.2402265f + f * (0.05550411f
+            + f * (0.009618129f + f * (0.001333355f + f * 0.0001540353f)))));
+    return Float.intBitsToFloat(((int) i + 127) << 23) * p;
   }
 
-  private void softmax(final float[] vals) {
-    float max = Float.NEGATIVE_INFINITY;
-    for (final float val : vals) {
-      max = Math.max(max, val);
-    }
-    float sum = 0.0f;
-    for (int i = 0; i < vals.length; ++i) {
-      vals[i] = (float) Math.exp(vals[i] - max);
-      sum += vals[i];
+  private static float expit(final float x) {
+    return 1f / (1f + fastExp(-x));
+  }
+
+  private static float intersectionOverUnion(final float[] boxes, final int a, final int b) {
+    final float left = Math.max(boxes[a * 4], boxes[b * 4]);
+    final float top = Math.max(boxes[a * 4 + 1], boxes[b * 4 + 1]);
+    final float right = Math.min(boxes[a * 4 + 2], boxes[b * 4 + 2]);
+    final float bottom = Math.min(boxes[a * 4 + 3], boxes[b * 4 + 3]);
+    if (right <= left || bottom <= top) {
+      return 0f;
     }
-    for (int i = 0; i < vals.length; ++i) {
-      vals[i] = vals[i] / sum;
+    final float intersection = (right - left) * (bottom - top);
+    final float areaA = (boxes[a * 4 + 2] - boxes[a * 4]) * (boxes[a * 4 + 3] - boxes[a * 4 + 1]);
+    final float areaB = (boxes[b * 4 + 2] - boxes[b * 4]) * (boxes[b * 4 + 3] - boxes[b * 4 + 1]);
+    return intersection / (areaA + areaB - intersection);
+  }
+
+  /** Reallocates the scratch buffers if the output grid changed size. */
+  private void ensureCapacity(final int gridWidth, final int gridHeight) {
+    final int anchors = gridWidth * gridHeight * NUM_BOXES_PER_BLOCK;
+    if (output == null || output.length != anchors * (NUM_CLASSES + 5)) {
+      output = new float[anchors * (NUM_CLASSES + 5)];
+      candidateBoxes = new float[anchors * 4];
+      candidateScores = new float[anchors];
+      candidateClasses = new int[anchors];
+      candidateOffsets = new int[anchors];
     }
   }
 
@@ -168,80 +207,116 @@ class TensorFlowYoloDetector implements Classifier {
     Trace.beginSection("fetch");
     final int gridWidth = bitmap.getWidth() / blockSize;
     final int gridHeight = bitmap.getHeight() / blockSize;
-    final float[] output =
-        new float[gridWidth * gridHeight * (NUM_CLASSES + 5) * NUM_BOXES_PER_BLOCK];
+    ensureCapacity(gridWidth, gridHeight);
     inferenceInterface.fetch(outputNames[0], output);
     Trace.endSection();
 
-    // Find the best detections.
-    final PriorityQueue<Recognition> pq =
-        new PriorityQueue<>(
-            1,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(final Recognition lhs, final Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-
-    for (int y = 0; y < gridHeight; ++y) {
-      for (int x = 0; x < gridWidth; ++x) {
-        for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-          final int offset =
-              (gridWidth * (NUM_BOXES_PER_BLOCK * (NUM_CLASSES + 5))) * y
-                  + (NUM_BOXES_PER_BLOCK * (NUM_CLASSES + 5)) * x
-                  + (NUM_CLASSES + 5) * b;
-
-          final float xPos = (x + expit(output[offset])) * blockSize;
-          final float yPos = (y + expit(output[offset + 1])) * blockSize;
+    final int candidates = decode(gridWidth, gridHeight, bitmap.getWidth(), bitmap.getHeight());
+    timer.endSplit("decoded results");
 
-          final float w = (float) (Math.exp(output[offset + 2]) * ANCHORS[2 * b]) * blockSize;
-          final float h = (float) (Math.exp(output[offset + 3]) * ANCHORS[2 * b + 1]) * blockSize;
+    final List<Recognition> recognitions = suppress(candidates);
+    Trace.endSection(); // "recognizeImage"
 
-          final RectF rect =
-              new RectF(
-                  Math.max(0, xPos - w / 2),
-                  Math.max(0, yPos - h / 2),
-                  Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                  Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-          final float confidence = expit(output[offset + 4]);
+    timer.endSplit("processed results");
 
-          int detectedClass = -1;
-          float maxClass = 0;
+    return recognitions;
+  }
 
-          final float[] classes = new float[NUM_CLASSES];
-          for (int c = 0; c < NUM_CLASSES; ++c) {
-            classes[c] = output[offset + 5 + c];
+  /**
+   * Decodes the anchors above the confidence threshold into the candidate arrays. Anchors are
+   * rejected on their objectness logit before any class or box work, since the class
+   * probability can only lower the confidence.
+   *
+   * @return the number of candidates
+   */
+  private int decode(
+      final int gridWidth, final int gridHeight, final int imageWidth, final int imageHeight) {
+    int candidates = 0;
+    int offset = 0;
+    for (int y = 0; y < gridHeight; ++y) {
+      for (int x = 0; x < gridWidth; ++x) {
+        for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b, offset += NUM_CLASSES + 5) {
+          if (output[offset + 4] <= MINIMUM_OBJECTNESS_LOGIT) {
+            continue;
           }
-          softmax(classes);
+          final float confidence = expit(output[offset + 4]);
 
-          for (int c = 0; c < NUM_CLASSES; ++c) {
-            if (classes[c] > maxClass) {
+          // The softmax of the best class is 1 / sum(exp(c - max)).
+          int detectedClass = 0;
+          float maxLogit = output[offset + 5];
+          for (int c = 1; c < NUM_CLASSES; ++c) {
+            if (output[offset + 5 + c] > maxLogit) {
               detectedClass = c;
-              maxClass = classes[c];
+              maxLogit = output[offset + 5 + c];
             }
           }
-
-          final float confidenceInClass = maxClass * confidence;
-          if (confidenceInClass > 0.01) {
-            LOGGER.i(
-                "%s (%d) %f %s", LABELS[detectedClass], detectedClass, confidenceInClass, rect);
-            pq.add(new Recognition("" + offset, LABELS[detectedClass], confidenceInClass, rect));
+          float sum = 0f;
+          for (int c = 0; c < NUM_CLASSES; ++c) {
+            sum += fastExp(output[offset + 5 + c] - maxLogit);
+          }
+          final float confidenceInClass = confidence / sum;
+          if (confidenceInClass <= MINIMUM_CONFIDENCE) {
+            continue;
           }
+
+          final float xPos = (x + expit(output[offset])) * blockSize;
+          final float yPos = (y + expit(output[offset + 1])) * blockSize;
+          final float w = fastExp(output[offset + 2]) * ANCHORS[2 * b] * blockSize;
+          final float h = fastExp(output[offset + 3]) * ANCHORS[2 * b + 1] * blockSize;
+
+          final int box = candidates * 4;
+          candidateBoxes[box] = Math.max(0, xPos - w / 2);
+          candidateBoxes[box + 1] = Math.max(0, yPos - h / 2);
+          candidateBoxes[box + 2] = Math.min(imageWidth - 1, xPos + w / 2);
+          candidateBoxes[box + 3] = Math.min(imageHeight - 1, yPos + h / 2);
+          candidateScores[candidates] = confidenceInClass;
+          candidateClasses[candidates] = detectedClass;
+          candidateOffsets[candidates] = offset;
+          ++candidates;
         }
       }
     }
-    timer.endSplit("decoded results");
+    return candidates;
+  }
 
-    final ArrayList<Recognition> recognitions = new ArrayList<>();
-    for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-      recognitions.add(pq.poll());
+  /**
+   * Runs class-aware non-max suppression over the candidates, repeatedly taking the best
+   * remaining candidate and dropping the candidates of the same class overlapping it.
+   *
+   * @return the best MAX_RESULTS candidates left, by decreasing confidence
+   */
+  private List<Recognition> suppress(final int candidates) {
+    final ArrayList<Recognition> recognitions = new ArrayList<>(MAX_RESULTS);
+    while (recognitions.size() < MAX_RESULTS) {
+      int best = -1;
+      for (int i = 0; i < candidates; ++i) {
+        if (candidateScores[i] > 0 && (best < 0 || candidateScores[i] > candidateScores[best])) {
+          best = i;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      final int box = best * 4;
+      recognitions.add(
+          new Recognition(
+              "" + candidateOffsets[best],
+              LABELS[candidateClasses[best]],
+              candidateScores[best],
+              new RectF(
+                  candidateBoxes[box],
+                  candidateBoxes[box + 1],
+                  candidateBoxes[box + 2],
+                  candidateBoxes[box + 3])));
+      candidateScores[best] = 0;
+      for (int i = 0; i < candidates; ++i) {
+        if (candidateScores[i] > 0
+            && candidateClasses[i] == candidateClasses[best]
+            && intersectionOverUnion(candidateBoxes, i, best) > NMS_THRESHOLD) {
+          candidateScores[i] = 0;
+        }
+      }
     }
-    Trace.endSection(); // "recognizeImage"
-
-    timer.endSplit("processed results");
-
     return recognitions;
   }
 
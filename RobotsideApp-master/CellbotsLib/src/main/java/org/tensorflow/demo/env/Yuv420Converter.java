@@ -0,0 +1,190 @@
+/* Copyright 2015 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Java conversion of YUV 4:2:0 planes to ARGB 8888, with the same output as the native
+ * implementation. The fixed point products of each channel are looked up in tables, each row
+ * of chroma is shared by the two rows of luminance it covers, and large images are converted
+ * in bands of rows on all cores.
+ */
+public final class Yuv420Converter {
+    // Images with fewer pixels are converted on the calling thread.
+    private static final int PARALLEL_MIN_PIXELS = 64 * 1024;
+
+    // The fixed point products of the conversion, indexed by the unsigned byte.
+    private static final int[] Y_TABLE = new int[256];
+    private static final int[] RV_TABLE = new int[256];
+    private static final int[] GV_TABLE = new int[256];
+    private static final int[] GU_TABLE = new int[256];
+    private static final int[] BU_TABLE = new int[256];
+
+    // Maps a channel sum shifted right by 10 bits to the clamped eight bit value. The shifted
+    // sums range from (-2066 * 128) >> 10 = -259 to (1192 * 239 + 2066 * 127) >> 10 = 534.
+    private static final int CLAMP_OFFSET = 512;
+    private static final int[] CLAMP_TABLE = new int[3 * CLAMP_OFFSET];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_TABLE[i] = 1192 * Math.max(0, i - 16);
+            RV_TABLE[i] = 1634 * (i - 128);
+            GV_TABLE[i] = -833 * (i - 128);
+            GU_TABLE[i] = -400 * (i - 128);
+            BU_TABLE[i] = 2066 * (i - 128);
+        }
+        for (int i = 0; i < CLAMP_TABLE.length; i++) {
+            CLAMP_TABLE[i] = Math.min(255, Math.max(0, i - CLAMP_OFFSET));
+        }
+    }
+
+    private static ExecutorService executor = null;
+
+    private Yuv420Converter() {
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r, "Yuv420Converter");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Converts YUV 4:2:0 planes to ARGB 8888. The input and output must already be allocated.
+     *
+     * @param yData         The luminance plane.
+     * @param uData         The U plane.
+     * @param vData         The V plane.
+     * @param width         The width of the image.
+     * @param height        The height of the image.
+     * @param yRowStride    The row stride of the luminance plane.
+     * @param uvRowStride   The row stride of the chroma planes.
+     * @param uvPixelStride The pixel stride of the chroma planes.
+     * @param out           The output, width * height pixels.
+     */
+    public static void convert(
+            final byte[] yData,
+            final byte[] uData,
+            final byte[] vData,
+            final int width,
+            final int height,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final int[] out) {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        if (threads < 2 || width * height < PARALLEL_MIN_PIXELS) {
+            convertRows(yData, uData, vData, width, 0, height,
+                    yRowStride, uvRowStride, uvPixelStride, out);
+            return;
+        }
+        // Bands start on even rows so no chroma row is split between two bands.
+        final int bandHeight = ((height + threads - 1) / threads + 1) & ~1;
+        final List<Future<?>> futures = new ArrayList<>(threads);
+        for (int first = bandHeight; first < height; first += bandHeight) {
+            final int bandFirst = first;
+            final int bandLast = Math.min(height, first + bandHeight);
+            futures.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    convertRows(yData, uData, vData, width, bandFirst, bandLast,
+                            yRowStride, uvRowStride, uvPixelStride, out);
+                }
+            }));
+        }
+        convertRows(yData, uData, vData, width, 0, Math.min(height, bandHeight),
+                yRowStride, uvRowStride, uvPixelStride, out);
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted during YUV conversion", e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("YUV conversion failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Converts a band of rows, two rows for each row of chroma.
+     *
+     * @param firstRow The first row, which must be even.
+     * @param lastRow  The row after the last row.
+     */
+    static void convertRows(
+            final byte[] yData,
+            final byte[] uData,
+            final byte[] vData,
+            final int width,
+            final int firstRow,
+            final int lastRow,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final int[] out) {
+        for (int y = firstRow; y < lastRow; y += 2) {
+            final boolean hasSecondRow = y + 1 < lastRow;
+            final int pY0 = yRowStride * y;
+            final int pY1 = pY0 + yRowStride;
+            final int pOut0 = width * y;
+            final int pOut1 = pOut0 + width;
+            int pUV = uvRowStride * (y >> 1);
+            for (int x = 0; x < width; x += 2, pUV += uvPixelStride) {
+                final int u = uData[pUV] & 0xFF;
+                final int v = vData[pUV] & 0xFF;
+                final int rv = RV_TABLE[v];
+                final int guv = GV_TABLE[v] + GU_TABLE[u];
+                final int bu = BU_TABLE[u];
+
+                out[pOut0 + x] = toArgb(Y_TABLE[yData[pY0 + x] & 0xFF], rv, guv, bu);
+                if (hasSecondRow) {
+                    out[pOut1 + x] = toArgb(Y_TABLE[yData[pY1 + x] & 0xFF], rv, guv, bu);
+                }
+                if (x + 1 < width) {
+                    out[pOut0 + x + 1] = toArgb(Y_TABLE[yData[pY0 + x + 1] & 0xFF], rv, guv, bu);
+                    if (hasSecondRow) {
+                        out[pOut1 + x + 1] =
+                                toArgb(Y_TABLE[yData[pY1 + x + 1] & 0xFF], rv, guv, bu);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int toArgb(final int luma, final int rv, final int guv, final int bu) {
+        return 0xff000000
+                | (CLAMP_TABLE[((luma + rv) >> 10) + CLAMP_OFFSET] << 16)
+                | (CLAMP_TABLE[((luma + guv) >> 10) + CLAMP_OFFSET] << 8)
+                | CLAMP_TABLE[((luma + bu) >> 10) + CLAMP_OFFSET];
+    }
+}
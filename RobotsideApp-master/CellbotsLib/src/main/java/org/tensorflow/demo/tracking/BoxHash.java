@@ -0,0 +1,191 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import java.util.Arrays;
+
+/**
+ * A coarse uniform grid over the frame that buckets boxes by the cells they cover, so the boxes
+ * overlapping a query box can be found without testing every box. Boxes are stored in slots of
+ * primitive arrays, which are numbered in insertion order and kept until the next reset. Boxes
+ * outside the frame are clamped to the border cells.
+ */
+final class BoxHash {
+  private final int columns;
+  private final int rows;
+  private float cellWidth = 1.0f;
+  private float cellHeight = 1.0f;
+
+  // The slots of the boxes in each cell.
+  private final int[][] cellSlots;
+  private final int[] cellCounts;
+
+  // The boxes, indexed by slot.
+  private int slotCount = 0;
+  private float[] lefts = new float[0];
+  private float[] tops = new float[0];
+  private float[] rights = new float[0];
+  private float[] bottoms = new float[0];
+  private boolean[] present = new boolean[0];
+
+  // The query that last returned each slot, so slots covering several cells are returned once.
+  private int[] slotQueries = new int[0];
+  private int query = 0;
+  private int[] candidates = new int[0];
+
+  BoxHash(final int columns, final int rows) {
+    this.columns = columns;
+    this.rows = rows;
+    cellSlots = new int[columns * rows][4];
+    cellCounts = new int[columns * rows];
+  }
+
+  /**
+   * Removes all boxes and sets the size of the area covered by the grid.
+   */
+  void reset(final float width, final float height) {
+    cellWidth = Math.max(1.0f, width / columns);
+    cellHeight = Math.max(1.0f, height / rows);
+    Arrays.fill(cellCounts, 0);
+    slotCount = 0;
+  }
+
+  /**
+   * Adds a box.
+   *
+   * @return The slot of the box.
+   */
+  int add(final float left, final float top, final float right, final float bottom) {
+    if (slotCount == lefts.length) {
+      final int capacity = Math.max(16, 2 * slotCount);
+      lefts = Arrays.copyOf(lefts, capacity);
+      tops = Arrays.copyOf(tops, capacity);
+      rights = Arrays.copyOf(rights, capacity);
+      bottoms = Arrays.copyOf(bottoms, capacity);
+      present = Arrays.copyOf(present, capacity);
+      slotQueries = Arrays.copyOf(slotQueries, capacity);
+      candidates = new int[capacity];
+    }
+    final int slot = slotCount++;
+    lefts[slot] = left;
+    tops[slot] = top;
+    rights[slot] = right;
+    bottoms[slot] = bottom;
+    present[slot] = true;
+    slotQueries[slot] = query;
+
+    final int firstColumn = column(left);
+    final int lastColumn = column(right);
+    final int lastRow = row(bottom);
+    for (int row = row(top); row <= lastRow; ++row) {
+      for (int column = firstColumn; column <= lastColumn; ++column) {
+        final int cell = row * columns + column;
+        if (cellCounts[cell] == cellSlots[cell].length) {
+          cellSlots[cell] = Arrays.copyOf(cellSlots[cell], 2 * cellCounts[cell]);
+        }
+        cellSlots[cell][cellCounts[cell]++] = slot;
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * Removes the box in a slot.
+   */
+  void remove(final int slot) {
+    if (!present[slot]) {
+      return;
+    }
+    present[slot] = false;
+    final int firstColumn = column(lefts[slot]);
+    final int lastColumn = column(rights[slot]);
+    final int lastRow = row(bottoms[slot]);
+    for (int row = row(tops[slot]); row <= lastRow; ++row) {
+      for (int column = firstColumn; column <= lastColumn; ++column) {
+        final int cell = row * columns + column;
+        final int[] slots = cellSlots[cell];
+        for (int i = 0; i < cellCounts[cell]; ++i) {
+          if (slots[i] == slot) {
+            slots[i] = slots[--cellCounts[cell]];
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the boxes sharing a cell with a box, which includes every box intersecting it. The
+   * slots are then read with getCandidate.
+   *
+   * @return The number of candidates.
+   */
+  int query(final float left, final float top, final float right, final float bottom) {
+    ++query;
+    int count = 0;
+    final int firstColumn = column(left);
+    final int lastColumn = column(right);
+    final int lastRow = row(bottom);
+    for (int row = row(top); row <= lastRow; ++row) {
+      for (int column = firstColumn; column <= lastColumn; ++column) {
+        final int cell = row * columns + column;
+        final int[] slots = cellSlots[cell];
+        for (int i = 0; i < cellCounts[cell]; ++i) {
+          final int slot = slots[i];
+          if (slotQueries[slot] != query) {
+            slotQueries[slot] = query;
+            candidates[count++] = slot;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  int getCandidate(final int index) {
+    return candidates[index];
+  }
+
+  /**
+   * Computes the intersection over union of the box in a slot and another box.
+   *
+   * @return The intersection over union, or zero if the boxes do not intersect.
+   */
+  float intersectionOverUnion(
+      final int slot, final float left, final float top, final float right, final float bottom) {
+    final float intersectLeft = Math.max(lefts[slot], left);
+    final float intersectTop = Math.max(tops[slot], top);
+    final float intersectRight = Math.min(rights[slot], right);
+    final float intersectBottom = Math.min(bottoms[slot], bottom);
+    if (intersectLeft >= intersectRight || intersectTop >= intersectBottom) {
+      return 0.0f;
+    }
+    final float intersectArea = (intersectRight - intersectLeft) * (intersectBottom - intersectTop);
+    final float totalArea =
+        (rights[slot] - lefts[slot]) * (bottoms[slot] - tops[slot])
+            + (right - left) * (bottom - top)
+            - intersectArea;
+    return intersectArea / totalArea;
+  }
+
+  private int column(final float x) {
+    return Math.min(columns - 1, Math.max(0, (int) Math.floor(x / cellWidth)));
+  }
+
+  private int row(final float y) {
+    return Math.min(rows - 1, Math.max(0, (int) Math.floor(y / cellHeight)));
+  }
+}
@@ -25,9 +25,11 @@ import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.text.TextUtils;
-import android.util.Pair;
 import android.util.TypedValue;
 import android.widget.Toast;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -58,6 +60,9 @@ public class MultiBoxTracker {
   // Consider object to be lost if correlation falls below this threshold.
   private static final float MIN_CORRELATION = 0.3f;
 
+  // The number of columns and rows of the grid used to find overlapping boxes.
+  private static final int GRID_SIZE = 8;
+
   @SuppressWarnings("SpellCheckingInspection")
   private static final int[] COLORS = {
     Color.BLUE, Color.RED, Color.GREEN, Color.YELLOW, Color.CYAN, Color.MAGENTA, Color.WHITE,
@@ -70,7 +75,9 @@ public class MultiBoxTracker {
 
   public ObjectTracker objectTracker;
 
-  final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
+  // The detections of the last results on screen, as left, top, right, bottom and confidence.
+  private float[] screenRects = new float[0];
+  private int screenRectCount = 0;
 
   public static class TrackedRecognition {
     public ObjectTracker.TrackedObject trackedObject;
@@ -80,7 +87,18 @@ public class MultiBoxTracker {
     public String title;
   }
 
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
+  private final List<TrackedRecognition> trackedObjects = new ArrayList<TrackedRecognition>();
+
+  // Scratch state reused by processResults.
+  private final Matrix rgbFrameToScreen = new Matrix();
+  private final RectF screenRect = new RectF();
+  private final List<Recognition> rectsToTrack = new ArrayList<Recognition>();
+
+  // The tracked boxes of the current results, and the recognition and correlation of each slot.
+  private final BoxHash trackedBoxes = new BoxHash(GRID_SIZE, GRID_SIZE);
+  private TrackedRecognition[] slotRecognitions = new TrackedRecognition[0];
+  private float[] slotCorrelations = new float[0];
+  private int[] removeSlots = new int[0];
 
   private final Paint boxPaint = new Paint();
 
@@ -130,11 +148,14 @@ public class MultiBoxTracker {
     boxPaint.setAlpha(200);
     boxPaint.setStyle(Style.STROKE);
 
-    for (final Pair<Float, RectF> detection : screenRects) {
-      final RectF rect = detection.second;
+    final RectF rect = new RectF();
+    for (int i = 0; i < screenRectCount; ++i) {
+      rect.set(screenRects[5 * i], screenRects[5 * i + 1],
+          screenRects[5 * i + 2], screenRects[5 * i + 3]);
+      final float confidence = screenRects[5 * i + 4];
       canvas.drawRect(rect, boxPaint);
-      canvas.drawText("" + detection.first, rect.left, rect.top, textPaint);
-      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + detection.first);
+      canvas.drawText("" + confidence, rect.left, rect.top, textPaint);
+      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + confidence);
     }
 
     if (objectTracker == null) {
@@ -244,15 +265,15 @@ public class MultiBoxTracker {
     objectTracker.nextFrame(frame, null, timestamp, null, true);
 
     // Clean up any objects not worth tracking any more.
-    final LinkedList<TrackedRecognition> copyList =
-        new LinkedList<TrackedRecognition>(trackedObjects);
-    for (final TrackedRecognition recognition : copyList) {
+    final Iterator<TrackedRecognition> iterator = trackedObjects.iterator();
+    while (iterator.hasNext()) {
+      final TrackedRecognition recognition = iterator.next();
       final ObjectTracker.TrackedObject trackedObject = recognition.trackedObject;
       final float correlation = trackedObject.getCurrentCorrelation();
       if (correlation < MIN_CORRELATION) {
         logger.v("Removing tracked object %s because NCC is %.2f", trackedObject, correlation);
         trackedObject.stopTracking();
-        trackedObjects.remove(recognition);
+        iterator.remove();
 
         availableColors.add(recognition.color);
       }
@@ -261,30 +282,40 @@ public class MultiBoxTracker {
 
   private void processResults(
       final long timestamp, final List<Recognition> results, final byte[] originalFrame) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
+    rectsToTrack.clear();
 
-    screenRects.clear();
-    final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
+    screenRectCount = 0;
+    if (screenRects.length < 5 * results.size()) {
+      screenRects = new float[5 * results.size()];
+    }
+    if (getFrameToCanvasMatrix() != null) {
+      rgbFrameToScreen.set(getFrameToCanvasMatrix());
+    } else {
+      rgbFrameToScreen.reset();
+    }
 
     for (final Recognition result : results) {
-      if (result.getLocation() == null) {
+      final RectF detectionFrameRect = result.getLocation();
+      if (detectionFrameRect == null) {
         continue;
       }
-      final RectF detectionFrameRect = new RectF(result.getLocation());
 
-      final RectF detectionScreenRect = new RectF();
-      rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
+      rgbFrameToScreen.mapRect(screenRect, detectionFrameRect);
 
-      logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+      logger.v("Result! Frame: " + detectionFrameRect + " mapped to screen:" + screenRect);
 
-      screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
+      screenRects[5 * screenRectCount] = screenRect.left;
+      screenRects[5 * screenRectCount + 1] = screenRect.top;
+      screenRects[5 * screenRectCount + 2] = screenRect.right;
+      screenRects[5 * screenRectCount + 3] = screenRect.bottom;
+      screenRects[5 * screenRectCount + 4] = result.getConfidence();
+      ++screenRectCount;
 
       if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE) {
         logger.w("Degenerate rectangle! " + detectionFrameRect);
         continue;
       }
-      rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
+      rectsToTrack.add(result);
     }
 
     if (rectsToTrack.isEmpty()) {
@@ -294,12 +325,12 @@ public class MultiBoxTracker {
 
     if (objectTracker == null) {
       trackedObjects.clear();
-      for (final Pair<Float, Recognition> potential : rectsToTrack) {
+      for (final Recognition potential : rectsToTrack) {
         final TrackedRecognition trackedRecognition = new TrackedRecognition();
-        trackedRecognition.detectionConfidence = potential.first;
-        trackedRecognition.location = new RectF(potential.second.getLocation());
+        trackedRecognition.detectionConfidence = potential.getConfidence();
+        trackedRecognition.location = new RectF(potential.getLocation());
         trackedRecognition.trackedObject = null;
-        trackedRecognition.title = potential.second.getTitle();
+        trackedRecognition.title = potential.getTitle();
         trackedRecognition.color = COLORS[trackedObjects.size()];
         trackedObjects.add(trackedRecognition);
 
@@ -311,20 +342,60 @@ public class MultiBoxTracker {
     }
 
     logger.i("%d rects to track", rectsToTrack.size());
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
+
+    // Bucket the currently tracked boxes, so each detection is only compared against the boxes
+    // near it. The positions and correlations do not change until the next frame.
+    trackedBoxes.reset(frameWidth, frameHeight);
+    Arrays.fill(slotRecognitions, null);
+    for (final TrackedRecognition trackedRecognition : trackedObjects) {
+      final RectF position = trackedRecognition.trackedObject.getTrackedPositionInPreviewFrame();
+      if (position != null) {
+        addSlot(trackedRecognition, position,
+            trackedRecognition.trackedObject.getCurrentCorrelation());
+      }
+    }
+
+    for (final Recognition potential : rectsToTrack) {
       handleDetection(originalFrame, timestamp, potential);
     }
   }
 
+  /**
+   * Adds a tracked recognition to the spatial hash, with its position and correlation.
+   */
+  private void addSlot(
+      final TrackedRecognition trackedRecognition, final RectF position, final float correlation) {
+    final int slot =
+        trackedBoxes.add(position.left, position.top, position.right, position.bottom);
+    if (slot >= slotRecognitions.length) {
+      final int capacity = Math.max(COLORS.length, 2 * slotRecognitions.length);
+      slotRecognitions = Arrays.copyOf(slotRecognitions, capacity);
+      slotCorrelations = Arrays.copyOf(slotCorrelations, capacity);
+    }
+    slotRecognitions[slot] = trackedRecognition;
+    slotCorrelations[slot] = correlation;
+  }
+
+  /**
+   * Removes a tracked recognition from the spatial hash and from the tracked objects.
+   */
+  private void removeSlot(final int slot) {
+    trackedBoxes.remove(slot);
+    trackedObjects.remove(slotRecognitions[slot]);
+    slotRecognitions[slot] = null;
+  }
+
   private void handleDetection(
-      final byte[] frameCopy, final long timestamp, final Pair<Float, Recognition> potential) {
+      final byte[] frameCopy, final long timestamp, final Recognition potential) {
+    final float potentialConfidence = potential.getConfidence();
     final ObjectTracker.TrackedObject potentialObject =
-        objectTracker.trackObject(potential.second.getLocation(), timestamp, frameCopy);
+        objectTracker.trackObject(potential.getLocation(), timestamp, frameCopy);
 
     final float potentialCorrelation = potentialObject.getCurrentCorrelation();
+    final RectF b = potentialObject.getTrackedPositionInPreviewFrame();
     logger.v(
         "Tracked object went from %s to %s with correlation %.2f",
-        potential.second, potentialObject.getTrackedPositionInPreviewFrame(), potentialCorrelation);
+        potential, b, potentialCorrelation);
 
     if (potentialCorrelation < MARGINAL_CORRELATION) {
       logger.v("Correlation too low to begin tracking %s.", potentialObject);
@@ -332,44 +403,48 @@ public class MultiBoxTracker {
       return;
     }
 
-    final List<TrackedRecognition> removeList = new LinkedList<TrackedRecognition>();
+    if (b == null) {
+      logger.v("No tracked position to begin tracking %s.", potentialObject);
+      potentialObject.stopTracking();
+      return;
+    }
 
     float maxIntersect = 0.0f;
 
-    // This is the current tracked object whose color we will take. If left null we'll take the
-    // first one from the color queue.
-    TrackedRecognition recogToReplace = null;
+    // This is the slot of the current tracked object whose color we will take. If left -1 we'll
+    // take the first one from the color queue.
+    int slotToReplace = -1;
 
     // Look for intersections that will be overridden by this object or an intersection that would
-    // prevent this one from being placed.
-    for (final TrackedRecognition trackedRecognition : trackedObjects) {
-      final RectF a = trackedRecognition.trackedObject.getTrackedPositionInPreviewFrame();
-      final RectF b = potentialObject.getTrackedPositionInPreviewFrame();
-      final RectF intersection = new RectF();
-      final boolean intersects = intersection.setIntersect(a, b);
-
-      final float intersectArea = intersection.width() * intersection.height();
-      final float totalArea = a.width() * a.height() + b.width() * b.height() - intersectArea;
-      final float intersectOverUnion = intersectArea / totalArea;
+    // prevent this one from being placed. Only the boxes sharing a grid cell can intersect.
+    final int candidates = trackedBoxes.query(b.left, b.top, b.right, b.bottom);
+    if (removeSlots.length < candidates + 1) {
+      removeSlots = new int[Math.max(COLORS.length, 2 * (candidates + 1))];
+    }
+    int removeCount = 0;
+    for (int i = 0; i < candidates; ++i) {
+      final int slot = trackedBoxes.getCandidate(i);
+      final float intersectOverUnion =
+          trackedBoxes.intersectionOverUnion(slot, b.left, b.top, b.right, b.bottom);
 
       // If there is an intersection with this currently tracked box above the maximum overlap
       // percentage allowed, either the new recognition needs to be dismissed or the old
       // recognition needs to be removed and possibly replaced with the new one.
-      if (intersects && intersectOverUnion > MAX_OVERLAP) {
-        if (potential.first < trackedRecognition.detectionConfidence
-            && trackedRecognition.trackedObject.getCurrentCorrelation() > MARGINAL_CORRELATION) {
+      if (intersectOverUnion > MAX_OVERLAP) {
+        if (potentialConfidence < slotRecognitions[slot].detectionConfidence
+            && slotCorrelations[slot] > MARGINAL_CORRELATION) {
           // If track for the existing object is still going strong and the detection score was
           // good, reject this new object.
           potentialObject.stopTracking();
           return;
         } else {
-          removeList.add(trackedRecognition);
+          removeSlots[removeCount++] = slot;
 
           // Let the previously tracked object with max intersection amount donate its color to
           // the new object.
           if (intersectOverUnion > maxIntersect) {
             maxIntersect = intersectOverUnion;
-            recogToReplace = trackedRecognition;
+            slotToReplace = slot;
           }
         }
       }
@@ -378,33 +453,39 @@ public class MultiBoxTracker {
     // If we're already tracking the max object and no intersections were found to bump off,
     // pick the worst current tracked object to remove, if it's also worse than this candidate
     // object.
-    if (availableColors.isEmpty() && removeList.isEmpty()) {
-      for (final TrackedRecognition candidate : trackedObjects) {
-        if (candidate.detectionConfidence < potential.first) {
-          if (recogToReplace == null
-              || candidate.detectionConfidence < recogToReplace.detectionConfidence) {
+    if (availableColors.isEmpty() && removeCount == 0) {
+      for (int slot = 0; slot < slotRecognitions.length; ++slot) {
+        final TrackedRecognition candidate = slotRecognitions[slot];
+        if (candidate != null && candidate.detectionConfidence < potentialConfidence) {
+          if (slotToReplace == -1
+              || candidate.detectionConfidence
+                  < slotRecognitions[slotToReplace].detectionConfidence) {
             // Save it so that we use this color for the new object.
-            recogToReplace = candidate;
+            slotToReplace = slot;
           }
         }
       }
-      if (recogToReplace != null) {
+      if (slotToReplace != -1) {
         logger.v("Found non-intersecting object to remove.");
-        removeList.add(recogToReplace);
+        removeSlots[removeCount++] = slotToReplace;
       } else {
         logger.v("No non-intersecting object found to remove");
       }
     }
 
+    final TrackedRecognition recogToReplace =
+        slotToReplace != -1 ? slotRecognitions[slotToReplace] : null;
+
     // Remove everything that got intersected.
-    for (final TrackedRecognition trackedRecognition : removeList) {
+    for (int i = 0; i < removeCount; ++i) {
+      final TrackedRecognition trackedRecognition = slotRecognitions[removeSlots[i]];
       logger.v(
           "Removing tracked object %s with detection confidence %.2f, correlation %.2f",
           trackedRecognition.trackedObject,
           trackedRecognition.detectionConfidence,
-          trackedRecognition.trackedObject.getCurrentCorrelation());
+          slotCorrelations[removeSlots[i]]);
       trackedRecognition.trackedObject.stopTracking();
-      trackedObjects.remove(trackedRecognition);
+      removeSlot(removeSlots[i]);
       if (trackedRecognition != recogToReplace) {
         availableColors.add(trackedRecognition.color);
       }
@@ -420,17 +501,18 @@ public class MultiBoxTracker {
     logger.v(
         "Tracking object %s (%s) with detection confidence %.2f at position %s",
         potentialObject,
-        potential.second.getTitle(),
-        potential.first,
-        potential.second.getLocation());
+        potential.getTitle(),
+        potentialConfidence,
+        potential.getLocation());
     final TrackedRecognition trackedRecognition = new TrackedRecognition();
-    trackedRecognition.detectionConfidence = potential.first;
+    trackedRecognition.detectionConfidence = potentialConfidence;
     trackedRecognition.trackedObject = potentialObject;
-    trackedRecognition.title = potential.second.getTitle();
+    trackedRecognition.title = potential.getTitle();
 
     // Use the color from a replaced object before taking one from the color queue.
     trackedRecognition.color =
         recogToReplace != null ? recogToReplace.color : availableColors.poll();
     trackedObjects.add(trackedRecognition);
+    addSlot(trackedRecognition, b, potentialCorrelation);
   }
 }
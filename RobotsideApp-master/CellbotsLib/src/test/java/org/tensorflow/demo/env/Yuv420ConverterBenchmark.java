@@ -0,0 +1,60 @@
+package org.tensorflow.demo.env;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the Yuv420Converter against the per pixel reference conversion on a camera sized
+ * frame. Run with main, it is not part of the unit tests.
+ */
+public class Yuv420ConverterBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) {
+        final int uvPixelStride = 2;
+        final int uvRowStride = WIDTH;
+        final byte[] yData = new byte[WIDTH * HEIGHT];
+        final byte[] uData = new byte[uvRowStride * HEIGHT / 2];
+        final byte[] vData = new byte[uvRowStride * HEIGHT / 2];
+        final Random random = new Random(0);
+        random.nextBytes(yData);
+        random.nextBytes(uData);
+        random.nextBytes(vData);
+
+        final int[] expected = new int[WIDTH * HEIGHT];
+        final int[] actual = new int[WIDTH * HEIGHT];
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                Yuv420ConverterTest.convertReference(yData, uData, vData, WIDTH, HEIGHT,
+                        WIDTH, uvRowStride, uvPixelStride, expected);
+            }
+            report("reference", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                Yuv420Converter.convertRows(yData, uData, vData, WIDTH, 0, HEIGHT,
+                        WIDTH, uvRowStride, uvPixelStride, actual);
+            }
+            report("tables", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                Yuv420Converter.convert(yData, uData, vData, WIDTH, HEIGHT,
+                        WIDTH, uvRowStride, uvPixelStride, actual);
+            }
+            report("parallel", System.nanoTime() - start);
+
+            if (!Arrays.equals(expected, actual)) {
+                throw new AssertionError("Output differs from the reference conversion");
+            }
+        }
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.println(String.format("%s: %.2f ms per frame", name,
+                nanos / 1e6 / ITERATIONS));
+    }
+}
@@ -0,0 +1,102 @@
+package org.tensorflow.demo.env;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests that the Yuv420Converter matches the reference per pixel conversion, which is the same
+ * as the native implementation.
+ */
+public class Yuv420ConverterTest {
+    private static final int MAX_CHANNEL_VALUE = 262143;
+
+    /**
+     * Converts YUV 4:2:0 planes one pixel at a time, as the native implementation does.
+     */
+    static void convertReference(byte[] yData, byte[] uData, byte[] vData, int width, int height,
+            int yRowStride, int uvRowStride, int uvPixelStride, int[] out) {
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            int pY = yRowStride * y;
+            int pUV = uvRowStride * (y >> 1);
+            for (int x = 0; x < width; x++) {
+                int uvOffset = pUV + (x >> 1) * uvPixelStride;
+                int nY = Math.max(0, (yData[pY + x] & 0xFF) - 16);
+                int nU = (uData[uvOffset] & 0xFF) - 128;
+                int nV = (vData[uvOffset] & 0xFF) - 128;
+                int nR = Math.min(MAX_CHANNEL_VALUE, Math.max(0, 1192 * nY + 1634 * nV));
+                int nG = Math.min(MAX_CHANNEL_VALUE, Math.max(0, 1192 * nY - 833 * nV - 400 * nU));
+                int nB = Math.min(MAX_CHANNEL_VALUE, Math.max(0, 1192 * nY + 2066 * nU));
+                out[i++] = 0xff000000 | ((nR << 6) & 0x00ff0000) | ((nG >> 2) & 0x0000FF00)
+                        | ((nB >> 10) & 0xff);
+            }
+        }
+    }
+
+    /**
+     * Converts random planes with both converters and compares the output.
+     */
+    private static void check(Random random, int width, int height, int uvPixelStride) {
+        int yRowStride = width + random.nextInt(3);
+        int uvWidth = (width + 1) / 2;
+        int uvRowStride = uvWidth * uvPixelStride + random.nextInt(3);
+        int uvHeight = (height + 1) / 2;
+        byte[] yData = new byte[yRowStride * height];
+        byte[] uData = new byte[uvRowStride * uvHeight];
+        byte[] vData = new byte[uvRowStride * uvHeight];
+        random.nextBytes(yData);
+        random.nextBytes(uData);
+        random.nextBytes(vData);
+
+        int[] expected = new int[width * height];
+        int[] actual = new int[width * height];
+        convertReference(yData, uData, vData, width, height,
+                yRowStride, uvRowStride, uvPixelStride, expected);
+        Yuv420Converter.convert(yData, uData, vData, width, height,
+                yRowStride, uvRowStride, uvPixelStride, actual);
+        assertArrayEquals(width + "x" + height, expected, actual);
+    }
+
+    @Test
+    public void testSmallImages() {
+        Random random = new Random(1);
+        for (int width = 1; width <= 9; width++) {
+            for (int height = 1; height <= 9; height++) {
+                check(random, width, height, 1);
+                check(random, width, height, 2);
+            }
+        }
+    }
+
+    @Test
+    public void testLargeImages() {
+        Random random = new Random(2);
+        check(random, 640, 480, 2);
+        check(random, 641, 481, 1);
+        check(random, 1281, 723, 2);
+    }
+
+    @Test
+    public void testAllValues() {
+        // Every combination of Y, U and V, so the tables are checked over their whole range.
+        byte[] yData = new byte[256 * 256 * 256];
+        byte[] uData = new byte[256 * 256 * 256];
+        byte[] vData = new byte[256 * 256 * 256];
+        for (int i = 0; i < yData.length; i++) {
+            yData[i] = (byte) i;
+            uData[i] = (byte) (i >> 8);
+            vData[i] = (byte) (i >> 16);
+        }
+        int[] expected = new int[yData.length];
+        int[] actual = new int[yData.length];
+        // A single row, where each pair of pixels shares the chroma of the first, which has
+        // the same U and V as the second.
+        convertReference(yData, uData, vData, yData.length, 1, yData.length, 0, 2, expected);
+        Yuv420Converter.convertRows(yData, uData, vData, yData.length, 0, 1, yData.length, 0, 2,
+                actual);
+        assertArrayEquals(expected, actual);
+    }
+}
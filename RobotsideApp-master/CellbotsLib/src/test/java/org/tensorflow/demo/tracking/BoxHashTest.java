@@ -0,0 +1,100 @@
+package org.tensorflow.demo.tracking;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the BoxHash candidates include every intersecting box, against a brute force
+ * intersection test over all the boxes.
+ */
+public class BoxHashTest {
+    private static final float WIDTH = 640.0f;
+    private static final float HEIGHT = 480.0f;
+    private static final float DELTA = 1e-6f;
+
+    /**
+     * Makes a random box, sometimes outside or partly outside of the frame.
+     */
+    private static float[] randomBox(Random random) {
+        float left = random.nextFloat() * WIDTH * 1.4f - WIDTH * 0.2f;
+        float top = random.nextFloat() * HEIGHT * 1.4f - HEIGHT * 0.2f;
+        float width = 1.0f + random.nextFloat() * WIDTH * (random.nextBoolean() ? 0.1f : 0.6f);
+        float height = 1.0f + random.nextFloat() * HEIGHT * (random.nextBoolean() ? 0.1f : 0.6f);
+        return new float[]{left, top, left + width, top + height};
+    }
+
+    /**
+     * Computes the intersection over union of two boxes directly.
+     */
+    private static float intersectionOverUnion(float[] a, float[] b) {
+        float width = Math.min(a[2], b[2]) - Math.max(a[0], b[0]);
+        float height = Math.min(a[3], b[3]) - Math.max(a[1], b[1]);
+        if (width <= 0 || height <= 0) {
+            return 0.0f;
+        }
+        float intersection = width * height;
+        return intersection / ((a[2] - a[0]) * (a[3] - a[1]) + (b[2] - b[0]) * (b[3] - b[1])
+                - intersection);
+    }
+
+    /**
+     * Adds and removes random boxes, and checks random queries against all the present boxes.
+     */
+    @Test
+    public void testRandomBoxes() {
+        Random random = new Random(1);
+        BoxHash hash = new BoxHash(8, 8);
+        for (int round = 0; round < 50; round++) {
+            hash.reset(WIDTH, HEIGHT);
+            List<float[]> boxes = new ArrayList<>();
+            List<Boolean> present = new ArrayList<>();
+            int count = random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                float[] box = randomBox(random);
+                assertEquals(i, hash.add(box[0], box[1], box[2], box[3]));
+                boxes.add(box);
+                present.add(true);
+            }
+            for (int i = 0; i < count; i++) {
+                if (random.nextInt(3) == 0) {
+                    hash.remove(i);
+                    present.set(i, false);
+                }
+            }
+            // Removing a box twice does nothing.
+            if (count > 0 && !present.get(0)) {
+                hash.remove(0);
+            }
+
+            for (int q = 0; q < 50; q++) {
+                float[] query = randomBox(random);
+                int candidateCount = hash.query(query[0], query[1], query[2], query[3]);
+                Set<Integer> candidates = new HashSet<>();
+                for (int i = 0; i < candidateCount; i++) {
+                    int slot = hash.getCandidate(i);
+                    // Each slot is returned once, and removed slots are not returned.
+                    assertTrue(candidates.add(slot));
+                    assertTrue(present.get(slot));
+                }
+                for (int slot = 0; slot < count; slot++) {
+                    float expected = intersectionOverUnion(boxes.get(slot), query);
+                    if (present.get(slot) && expected > 0) {
+                        assertTrue("Missing slot " + slot, candidates.contains(slot));
+                    }
+                    if (candidates.contains(slot)) {
+                        assertEquals(expected, hash.intersectionOverUnion(
+                                slot, query[0], query[1], query[2], query[3]), DELTA);
+                    }
+                }
+            }
+        }
+    }
+}
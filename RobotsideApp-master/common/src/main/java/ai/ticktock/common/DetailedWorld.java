@@ -4,47 +4,98 @@ import android.util.Log;
 
 import org.apache.commons.io.IOUtils;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 import ai.cellbots.common.data.SmootherParams;
 
 /**
- * A world's detailed information.
+ * A world's detailed information. The world file is kept in memory, and only indexed when the
+ * world is loaded: the transforms and
+ * floor plan levels are decoded on first access, and the smoothed path is computed on first
+ * access or read from a cache file that is keyed by the content of the path and smoother params.
  */
 public final class DetailedWorld extends World {
     private static final String TAG = "DetailedWorld";
 
-    private final List<Transform> mTransforms;
-    private final List<FloorPlanLevel> mLevels;
-    private final List<Transform> mSmoothedTransforms;
-    private final List<Transform> mCustomTransforms;
-    private final String mUserUuid;
+    // The contents of the world file, or null for an empty world.
+    private final ByteBuffer mData;
+    private final Index mIndex;
+    private final double mDeviation;
+    private final double mSmoothness;
+    // The file storing the smoothed path, or null if it is not cached.
+    private final File mSmoothedCacheFile;
+    private final Object mSmoothedLock = new Object();
+
+    // Decoded from mData on first access.
+    private List<Transform> mTransforms = null;
+    private List<FloorPlanLevel> mLevels = null;
+    private List<Transform> mCustomTransforms = null;
+    private List<Transform> mSmoothedTransforms = null;
 
     private static final double SMOOTHER_DEFAULT_DEVIATION = 0.1;
     private static final double SMOOTHER_DEFAULT_SMOOTHNESS = 0.3;
     private static final double MIN_NODES_DISTANCE_SQUARED = 0.04;  // In squared meters.
 
+    // Header of the smoothed path cache files, changed if the format or the smoother changes.
+    private static final int SMOOTHED_CACHE_MAGIC = 0x43425350;
+    private static final int SMOOTHED_CACHE_VERSION = 1;
+    private static final int SMOOTHED_CACHE_HEADER_LENGTH = 4 + 4 + 4 + 8 + 8 + 8 + 8 + 4;
+    private static final String SMOOTHED_CACHE_SUFFIX = ".smoothed";
+
+    // The worlds recently loaded from files, keyed by getWorldCacheKey().
+    private static final int WORLD_CACHE_SIZE = 2;
+    private static final Map<String, DetailedWorld> sWorldCache
+            = new LinkedHashMap<String, DetailedWorld>(WORLD_CACHE_SIZE + 1, 1.0f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DetailedWorld> eldest) {
+            return size() > WORLD_CACHE_SIZE;
+        }
+    };
+
     public static final DetailedWorld VPS_WORLD = new DetailedWorld(World.VPS_WORLD);
 
+    /**
+     * The offsets and counts of the sections of a world file. The counts only include the
+     * elements that are valid, so decoding them does not fail.
+     */
+    private static final class Index {
+        private String mUserUuid = null;
+        private int mTransformsOffset = 0;
+        private int mTransformsEnd = 0;
+        private int mTransformCount = 0;
+        private int mCustomTransformsOffset = 0;
+        private int mCustomTransformCount = 0;
+        private int mLevelsOffset = 0;
+        private int mLevelCount = 0;
+    }
+
     /**
      * Create an empty world with a parent world.
      * @param world Parent world.
      */
     private DetailedWorld(World world) {
         super(world);
+        mData = null;
+        mIndex = new Index();
+        mDeviation = SMOOTHER_DEFAULT_DEVIATION;
+        mSmoothness = SMOOTHER_DEFAULT_SMOOTHNESS;
+        mSmoothedCacheFile = null;
         mTransforms = Collections.emptyList();
         mLevels = Collections.emptyList();
         mSmoothedTransforms = Collections.emptyList();
         mCustomTransforms = Collections.emptyList();
-        mUserUuid = null;
     }
 
     /**
@@ -60,69 +111,121 @@ public final class DetailedWorld extends World {
             @SuppressWarnings("SameParameterValue") String uuid,
             @SuppressWarnings("SameParameterValue") String name, InputStream file,
             SmootherParams smootherParams) {
-        List<Transform> transforms = new ArrayList<>();
-        List<Transform> customTransforms = new ArrayList<>();
-        List<FloorPlanLevel> levels = new ArrayList<>();
-        Map<String, Object> params = new HashMap<>();
-        if (!loadFromInputStream(uuid, file, transforms, customTransforms, levels, params)) {
+        ByteBuffer data;
+        try {
+            data = ByteBuffer.wrap(IOUtils.toByteArray(file));
+            file.close();
+        } catch (IOException e) {
+            // Does nothing
+            Log.e(TAG, "Error reading file.", e);
             return null;
         }
-
-        String userUuid = params.containsKey("user_uuid") ? (String) params.get("user_uuid") : null;
-
-        return new DetailedWorld(uuid, name, transforms, customTransforms, levels, userUuid, smootherParams);
+        Index index = indexWorld(uuid, data);
+        if (index == null) {
+            return null;
+        }
+        return new DetailedWorld(uuid, name, data, index, smootherParams, null);
     }
 
     /**
-     * Internal function to load a world from a input stream.
+     * Loads a detailed world from a file. The file is copied to memory rather than mapped, since
+     * it may be downloaded again in place while the world is still used, which would fault the
+     * lazy decoding of a mapping. The smoothed path is cached in the cache directory, and the most
+     * recently loaded worlds are kept in memory so loading an unchanged file again returns the
+     * same world.
      *
-     * @param uuid                The uuid of the world.
-     * @param fs                  The input stream.
-     * @param transforms          The transforms list to be loaded from the file.
-     * @param customTransforms    The transforms list to be loaded from the file.
-     * @param levels              The levels list to be loaded from the file.
-     * @param params              The map of additional data read.
-     * @return True if the world was valid, else null.
+     * @param uuid The uuid of the world to load.
+     * @param name The name of the world to load.
+     * @param file The world data file.
+     * @param cacheDirectory The directory for the smoothed path cache, or null to disable it.
+     * @param smootherParams The smoother params.
+     * @return The world, or null if it is invalid.
      */
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private static boolean loadFromInputStream(String uuid, InputStream fs,
-            List<Transform> transforms,
-            List<Transform> customTransforms,
-            List<FloorPlanLevel> levels,
-            Map<String, Object> params) {
-        boolean first_node;
+    public static DetailedWorld loadDetailedWorldFromFile(String uuid, String name, File file,
+            File cacheDirectory, SmootherParams smootherParams) {
+        String key = getWorldCacheKey(name, file, cacheDirectory, smootherParams);
+        synchronized (sWorldCache) {
+            DetailedWorld world = sWorldCache.get(key);
+            if (world != null) {
+                return world;
+            }
+        }
+
+        ByteBuffer data;
         try {
-            final byte[] bytes = IOUtils.toByteArray(fs);
-            fs.close();
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                long length = input.length();
+                if (length > Integer.MAX_VALUE) {
+                    Log.e(TAG, "World file is too large: " + file);
+                    return null;
+                }
+                byte[] bytes = new byte[(int) length];
+                input.readFully(bytes);
+                data = ByteBuffer.wrap(bytes);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading file: " + file, e);
+            return null;
+        }
+        Index index = indexWorld(uuid, data);
+        if (index == null) {
+            return null;
+        }
 
-            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        File smoothedCacheFile = cacheDirectory == null ? null
+                : new File(cacheDirectory, uuid + SMOOTHED_CACHE_SUFFIX);
+        DetailedWorld world = new DetailedWorld(uuid, name, data, index, smootherParams,
+                smoothedCacheFile);
+        synchronized (sWorldCache) {
+            sWorldCache.put(key, world);
+        }
+        return world;
+    }
 
+    /**
+     * Get the key of a world file in the world cache.
+     *
+     * @param name The name of the world.
+     * @param file The world data file.
+     * @param cacheDirectory The directory for the smoothed path cache.
+     * @param smootherParams The smoother params.
+     * @return The key, which changes if the file is modified.
+     */
+    private static String getWorldCacheKey(String name, File file, File cacheDirectory,
+            SmootherParams smootherParams) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified()
+                + ":" + name + ":" + cacheDirectory
+                + ":" + getDeviation(smootherParams) + ":" + getSmoothness(smootherParams);
+    }
+
+    /**
+     * Internal function to index the sections of a world file, checking that they are valid.
+     *
+     * @param uuid The uuid of the world.
+     * @param data The content of the world file, which position is not changed.
+     * @return The index, or null if the world is invalid.
+     */
+    private static Index indexWorld(String uuid, ByteBuffer data) {
+        ByteBuffer byteBuffer = data.duplicate();
+        Index index = new Index();
+        try {
             byte version = byteBuffer.get();
 
             if (version == 0) {
-                first_node = true;
+                index.mTransformsOffset = byteBuffer.position();
+                index.mTransformsEnd = byteBuffer.position();
                 while (byteBuffer.remaining() > 0) {
                     try {
-                        Transform transform =  new Transform(byteBuffer);
-                        if (first_node) {
-                            transforms.add(transform);
-                            first_node = false;
-                        } else {
-                            // Discard nodes which are less than 0.2m apart to avoid over sampling
-                            if (transform.planarDistanceToSquared(
-                                    transforms.get(transforms.size() - 1)) >
-                                        MIN_NODES_DISTANCE_SQUARED) {
-                                transforms.add(transform);
-                            }
-                        }
+                        Transform.skip(byteBuffer);
                     } catch (ParsingException e) {
                         Log.e(TAG, "World " + uuid + " parsing error for version 0", e);
                         break;
                     }
-                }
-
-                for (Transform t : transforms) {
-                    Log.d(TAG, "Transform: " + t);
+                    index.mTransformCount++;
+                    index.mTransformsEnd = byteBuffer.position();
                 }
             } else if (version == 1 || version == 2 || version == 3) {
                 try {
@@ -131,40 +234,35 @@ public final class DetailedWorld extends World {
                         if (userNameLen > 0) {
                             byte[] userBytes = new byte[userNameLen];
                             byteBuffer.get(userBytes);
-                            params.put("user_uuid", new String(userBytes));
+                            index.mUserUuid = new String(userBytes);
                         }
                     }
 
                     int tfCount = byteBuffer.getInt();
-                    first_node = true;
+                    index.mTransformsOffset = byteBuffer.position();
+                    index.mTransformsEnd = byteBuffer.position();
                     while (tfCount > 0) {
-                        if (first_node) {
-                            transforms.add(new Transform(byteBuffer));
-                            tfCount--;
-                            first_node = false;
-                        } else {
-                            Transform aux = new Transform(byteBuffer);
-                            // Discard nodes which are less than 0.2m apart to avoid over sampling
-                            if (aux.planarDistanceToSquared(
-                                    transforms.get(transforms.size() - 1)) >
-                                        MIN_NODES_DISTANCE_SQUARED) {
-                                transforms.add(aux);
-                            }
-                            tfCount--;
-                        }
+                        Transform.skip(byteBuffer);
+                        index.mTransformCount++;
+                        index.mTransformsEnd = byteBuffer.position();
+                        tfCount--;
                     }
 
                     if (version >= 3) {
                         int customTfCount = byteBuffer.getInt();
+                        index.mCustomTransformsOffset = byteBuffer.position();
                         while (customTfCount > 0) {
-                            customTransforms.add(new Transform(byteBuffer));
+                            Transform.skip(byteBuffer);
+                            index.mCustomTransformCount++;
                             customTfCount--;
                         }
                     }
 
                     int fpCount = byteBuffer.getInt();
+                    index.mLevelsOffset = byteBuffer.position();
                     while (fpCount > 0) {
-                        levels.add(new World.FloorPlanLevel(byteBuffer));
+                        World.FloorPlanLevel.skip(byteBuffer);
+                        index.mLevelCount++;
                         fpCount--;
                     }
 
@@ -176,46 +274,80 @@ public final class DetailedWorld extends World {
                 throw new Error("File version is not zero");
             }
 
-        } catch (IOException e) {
-            // Does nothing
-            Log.e(TAG, "Error reading file.", e);
-            return false;
         } catch (BufferUnderflowException e) {
             Log.e(TAG, "Error getting elements of buffer.", e);
-            return false;
+            return null;
         }
-        return true;
+        return index;
     }
 
     /**
-     * Creates a world and load the metadata.
+     * Creates a world from an indexed world file.
      *
      * @param uuid                  The UUID of the world.
      * @param name                  The name of the world.
-     * @param transforms            The list of transforms.
-     * @param customTransforms      The list of transforms.
-     * @param levels                The list of levels.
-     * @param userUuid              The user uuid.
+     * @param data                  The content of the world file.
+     * @param index                 The index of the world file.
      * @param params                The smoother params.
+     * @param smoothedCacheFile     The smoothed path cache file, or null.
      */
-    private DetailedWorld(String uuid, String name, List<Transform> transforms,
-            List<Transform> customTransforms,
-            List<FloorPlanLevel> levels, String userUuid, SmootherParams params) {
+    private DetailedWorld(String uuid, String name, ByteBuffer data, Index index,
+            SmootherParams params, File smoothedCacheFile) {
         super(uuid, name);
+        mData = data;
+        mIndex = index;
+        mDeviation = getDeviation(params);
+        mSmoothness = getSmoothness(params);
+        mSmoothedCacheFile = smoothedCacheFile;
+    }
+
+    /**
+     * Get the smoother deviation.
+     *
+     * @param params The smoother params, or null for the default.
+     * @return The deviation.
+     */
+    private static double getDeviation(SmootherParams params) {
+        // If smoother params from Firebase are null, then set default values.
+        return params == null ? SMOOTHER_DEFAULT_DEVIATION : params.getDeviation();
+    }
 
-        mTransforms = Collections.unmodifiableList(transforms);
-        mCustomTransforms = Collections.unmodifiableList(customTransforms);
-        mLevels = Collections.unmodifiableList(levels);
-        mUserUuid = userUuid;
+    /**
+     * Get the smoother smoothness.
+     *
+     * @param params The smoother params, or null for the default.
+     * @return The smoothness.
+     */
+    private static double getSmoothness(SmootherParams params) {
+        return params == null ? SMOOTHER_DEFAULT_SMOOTHNESS : params.getSmoothness();
+    }
 
-        // Take nodes from current world and calculate smooth path.
-        // Remember that if no node is added, smoothedNodes() may return null list.
-        List<Transform> smoothed_nodes = smoothedNodes(params);
-        if (smoothed_nodes != null) {
-            mSmoothedTransforms = Collections.unmodifiableList(smoothed_nodes);
-        } else {
-            mSmoothedTransforms = Collections.emptyList();
+    /**
+     * Decode transforms from the world file.
+     *
+     * @param offset The offset of the first transform.
+     * @param count The number of transforms.
+     * @param filter If true, discard nodes too close to the previous node.
+     * @return The transforms.
+     */
+    private List<Transform> decodeTransforms(int offset, int count, boolean filter) {
+        List<Transform> transforms = new ArrayList<>(count);
+        ByteBuffer byteBuffer = mData.duplicate();
+        byteBuffer.position(offset);
+        try {
+            for (int i = 0; i < count; i++) {
+                Transform transform = new Transform(byteBuffer);
+                // Discard nodes which are less than 0.2m apart to avoid over sampling
+                if (!filter || transforms.isEmpty() || transform.planarDistanceToSquared(
+                        transforms.get(transforms.size() - 1)) > MIN_NODES_DISTANCE_SQUARED) {
+                    transforms.add(transform);
+                }
+            }
+        } catch (ParsingException e) {
+            // Only if the file was changed since it was indexed.
+            Log.e(TAG, "World " + getUuid() + " parsing error after indexing", e);
         }
+        return transforms;
     }
 
     /**
@@ -224,8 +356,22 @@ public final class DetailedWorld extends World {
      * @return The levels.
      */
     @SuppressWarnings("unused")
-    public List<FloorPlanLevel> getLevels() {
-        return Collections.unmodifiableList(mLevels);
+    public synchronized List<FloorPlanLevel> getLevels() {
+        if (mLevels == null) {
+            List<FloorPlanLevel> levels = new ArrayList<>(mIndex.mLevelCount);
+            ByteBuffer byteBuffer = mData.duplicate();
+            byteBuffer.position(mIndex.mLevelsOffset);
+            try {
+                for (int i = 0; i < mIndex.mLevelCount; i++) {
+                    levels.add(new FloorPlanLevel(byteBuffer));
+                }
+            } catch (ParsingException e) {
+                // Only if the file was changed since it was indexed.
+                Log.e(TAG, "World " + getUuid() + " parsing error after indexing", e);
+            }
+            mLevels = Collections.unmodifiableList(levels);
+        }
+        return mLevels;
     }
 
     /**
@@ -264,7 +410,7 @@ public final class DetailedWorld extends World {
      * @return transform for the specified node.
      */
     public Transform getSmoothedTransform(int index) {
-        return mSmoothedTransforms.get(index);
+        return getSmoothedPath().get(index);
     }
 
     /**
@@ -273,7 +419,22 @@ public final class DetailedWorld extends World {
      * @return list of transform for the smoothed path.
      */
     public List<Transform> getSmoothedPath() {
-        return Collections.unmodifiableList(mSmoothedTransforms);
+        synchronized (mSmoothedLock) {
+            if (mSmoothedTransforms == null) {
+                List<Transform> smoothedNodes = readSmoothedCache();
+                if (smoothedNodes == null) {
+                    // Take nodes from current world and calculate smooth path.
+                    // Remember that if no node is added, smoothedNodes() may return null list.
+                    smoothedNodes = smoothedNodes();
+                    if (smoothedNodes == null) {
+                        smoothedNodes = Collections.emptyList();
+                    }
+                    writeSmoothedCache(smoothedNodes);
+                }
+                mSmoothedTransforms = Collections.unmodifiableList(smoothedNodes);
+            }
+            return mSmoothedTransforms;
+        }
     }
 
     /**
@@ -285,9 +446,10 @@ public final class DetailedWorld extends World {
         double[] lower_lim = {Double.MAX_VALUE, Double.MAX_VALUE};
         double[] upper_lim = {-Double.MAX_VALUE, -Double.MAX_VALUE};
 
-        for (int i = 0; i< mSmoothedTransforms.size(); i++) {
-            double x = mSmoothedTransforms.get(i).getPosition(0);
-            double y = mSmoothedTransforms.get(i).getPosition(1);
+        List<Transform> smoothedTransforms = getSmoothedPath();
+        for (int i = 0; i< smoothedTransforms.size(); i++) {
+            double x = smoothedTransforms.get(i).getPosition(0);
+            double y = smoothedTransforms.get(i).getPosition(1);
             if(x < lower_lim[0]) {
                 lower_lim[0] = x;
             }
@@ -309,8 +471,12 @@ public final class DetailedWorld extends World {
      *
      * @return list of transform for the original path
      */
-    public List<Transform> getOriginalPath() {
-        return Collections.unmodifiableList(mTransforms);
+    public synchronized List<Transform> getOriginalPath() {
+        if (mTransforms == null) {
+            mTransforms = Collections.unmodifiableList(decodeTransforms(
+                    mIndex.mTransformsOffset, mIndex.mTransformCount, true));
+        }
+        return mTransforms;
     }
     /**
      * Gets the number of transforms in the smoothed path list.
@@ -318,7 +484,7 @@ public final class DetailedWorld extends World {
      * @return the number of smoothed nodes.
      */
     public int getSmoothedTransformCount() {
-        return mSmoothedTransforms.size();
+        return getSmoothedPath().size();
     }
 
     /**
@@ -326,8 +492,12 @@ public final class DetailedWorld extends World {
      *
      * @return list of transform for the custom path
      */
-    public List<Transform> getCustomTransforms() {
-        return Collections.unmodifiableList(mCustomTransforms);
+    public synchronized List<Transform> getCustomTransforms() {
+        if (mCustomTransforms == null) {
+            mCustomTransforms = Collections.unmodifiableList(decodeTransforms(
+                    mIndex.mCustomTransformsOffset, mIndex.mCustomTransformCount, false));
+        }
+        return mCustomTransforms;
     }
 
     /**
@@ -336,7 +506,7 @@ public final class DetailedWorld extends World {
      * @return the transform
      */
     public Transform getCustomTransform(int index) {
-        return mCustomTransforms.get(index);
+        return getCustomTransforms().get(index);
     }
 
     /**
@@ -348,9 +518,10 @@ public final class DetailedWorld extends World {
         double[] lower_lim = {Double.MAX_VALUE, Double.MAX_VALUE};
         double[] upper_lim = {Double.MIN_VALUE, Double.MIN_VALUE};
 
-        for (int i = 0; i< mCustomTransforms.size(); i++) {
-            double x = mCustomTransforms.get(i).getPosition(0);
-            double y = mCustomTransforms.get(i).getPosition(1);
+        List<Transform> customTransforms = getCustomTransforms();
+        for (int i = 0; i< customTransforms.size(); i++) {
+            double x = customTransforms.get(i).getPosition(0);
+            double y = customTransforms.get(i).getPosition(1);
             if(x < lower_lim[0]) {
                 lower_lim[0] = x;
             }
@@ -373,7 +544,7 @@ public final class DetailedWorld extends World {
      * @return the number of custom nodes.
      */
     public int getCustomTransformCount() {
-        return mCustomTransforms.size();
+        return mIndex.mCustomTransformCount;
     }
 
     /**
@@ -383,46 +554,39 @@ public final class DetailedWorld extends World {
      */
     @SuppressWarnings({"WeakerAccess", "unused"})
     public String getUserUuid() {
-        return mUserUuid;
+        return mIndex.mUserUuid;
     }
 
     /**
      * Gets world and compute the smooth path.
      *
-     * @param params The smoother params.
      * @return The transform list for the smooth path. Returns null if a smooth path cannot be
      * calculated.
      */
-    private List<Transform> smoothedNodes(SmootherParams params) {
-        double deviation;
-        double smoothness;
+    private List<Transform> smoothedNodes() {
+        List<Transform> transforms = getOriginalPath();
 
         // Print world's transforms. TESTING PURPOSE.
-        Log.v("Original Path LENGTH", Integer.toString(mTransforms.size()));
-        for (int i = 0; i < mTransforms.size(); i++) {
-            Log.v("Original Path", ((mTransforms.get(i)).toString()));
-        }
-
-        if (params != null) {
-            deviation = params.getDeviation();
-            smoothness = params.getSmoothness();
-        } else {
-            // If smoother params from Firebase are null, then set default values.
-            deviation = SMOOTHER_DEFAULT_DEVIATION;
-            smoothness = SMOOTHER_DEFAULT_SMOOTHNESS;
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v("Original Path LENGTH", Integer.toString(transforms.size()));
+            for (int i = 0; i < transforms.size(); i++) {
+                Log.v("Original Path", ((transforms.get(i)).toString()));
+            }
         }
 
-        PathPlanner pathPlanner = new PathPlanner(mTransforms, 0, deviation,
-                smoothness, 0.0000001);
+        PathPlanner pathPlanner = new PathPlanner(transforms, 0, mDeviation,
+                mSmoothness, 0.0000001);
         pathPlanner.smoothPathCalculator();
 
         if (pathPlanner.getSmoothPathTransforms() != null) {
             // Print transforms of the smoothed path. TESTING PURPOSE
-            Log.v("Smoothed Path LENGTH",
-                    Integer.toString(pathPlanner.getSmoothPathTransforms().size()));
-            for (int i = 0; i < (pathPlanner.getSmoothPathTransforms()).size(); i++) {
-                Log.v("Smoother Path", (((pathPlanner.getSmoothPathTransforms()).get(
-                        i)).toString()));
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v("Smoothed Path LENGTH",
+                        Integer.toString(pathPlanner.getSmoothPathTransforms().size()));
+                for (int i = 0; i < (pathPlanner.getSmoothPathTransforms()).size(); i++) {
+                    Log.v("Smoother Path", (((pathPlanner.getSmoothPathTransforms()).get(
+                            i)).toString()));
+                }
             }
             return pathPlanner.getSmoothPathTransforms();
         } else {
@@ -430,6 +594,137 @@ public final class DetailedWorld extends World {
         }
     }
 
+    /**
+     * Compute the checksum of the path section of the world file, which is the input of the
+     * smoother.
+     *
+     * @return The CRC32 of the section.
+     */
+    private long getPathChecksum() {
+        CRC32 crc = new CRC32();
+        ByteBuffer section = mData.duplicate();
+        section.position(mIndex.mTransformsOffset);
+        section.limit(mIndex.mTransformsEnd);
+        if (section.hasArray()) {
+            crc.update(section.array(), section.arrayOffset() + section.position(),
+                    section.remaining());
+        } else {
+            byte[] chunk = new byte[8192];
+            while (section.hasRemaining()) {
+                int length = Math.min(chunk.length, section.remaining());
+                section.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Write the cache header for the smoothed path of this world.
+     *
+     * @param output The buffer to write.
+     * @param checksum The checksum of the path section.
+     * @param count The number of smoothed transforms.
+     */
+    private void writeSmoothedCacheHeader(ByteBuffer output, long checksum, int count) {
+        output.putInt(SMOOTHED_CACHE_MAGIC);
+        output.putInt(SMOOTHED_CACHE_VERSION);
+        output.putInt(mIndex.mTransformsEnd - mIndex.mTransformsOffset);
+        output.putLong(checksum);
+        output.putDouble(mDeviation);
+        output.putDouble(mSmoothness);
+        output.putDouble(MIN_NODES_DISTANCE_SQUARED);
+        output.putInt(count);
+    }
+
+    /**
+     * Read the smoothed path from the cache file.
+     *
+     * @return The smoothed path, or null if it is not cached for the current path and params.
+     */
+    private List<Transform> readSmoothedCache() {
+        if (mSmoothedCacheFile == null || !mSmoothedCacheFile.isFile()) {
+            return null;
+        }
+        try {
+            byte[] bytes;
+            RandomAccessFile input = new RandomAccessFile(mSmoothedCacheFile, "r");
+            try {
+                bytes = new byte[(int) input.length()];
+                input.readFully(bytes);
+            } finally {
+                input.close();
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+            if (byteBuffer.remaining() < SMOOTHED_CACHE_HEADER_LENGTH) {
+                return null;
+            }
+            int count = byteBuffer.getInt(SMOOTHED_CACHE_HEADER_LENGTH - 4);
+            ByteBuffer expected = ByteBuffer.allocate(SMOOTHED_CACHE_HEADER_LENGTH);
+            writeSmoothedCacheHeader(expected, getPathChecksum(), count);
+            expected.flip();
+            byteBuffer.limit(SMOOTHED_CACHE_HEADER_LENGTH);
+            if (count < 0 || !byteBuffer.equals(expected)) {
+                Log.i(TAG, "Smoothed path cache is stale for world " + getUuid());
+                return null;
+            }
+            byteBuffer.limit(byteBuffer.capacity());
+            byteBuffer.position(SMOOTHED_CACHE_HEADER_LENGTH);
+            List<Transform> smoothedNodes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                smoothedNodes.add(new Transform(byteBuffer));
+            }
+            return smoothedNodes;
+        } catch (IOException | ParsingException | BufferUnderflowException e) {
+            Log.w(TAG, "Error reading smoothed path cache for world " + getUuid(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the smoothed path to the cache file. The file is replaced atomically, so a partially
+     * written file is never read.
+     *
+     * @param smoothedNodes The smoothed path.
+     */
+    private void writeSmoothedCache(List<Transform> smoothedNodes) {
+        if (mSmoothedCacheFile == null) {
+            return;
+        }
+        int length = SMOOTHED_CACHE_HEADER_LENGTH;
+        for (Transform transform : smoothedNodes) {
+            length += transform.getByteLength();
+        }
+        ByteBuffer output = ByteBuffer.allocate(length);
+        writeSmoothedCacheHeader(output, getPathChecksum(), smoothedNodes.size());
+        for (Transform transform : smoothedNodes) {
+            transform.toByteBuffer(output);
+        }
+
+        File directory = mSmoothedCacheFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create smoothed path cache directory: " + directory);
+            return;
+        }
+        File temporary = new File(mSmoothedCacheFile.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temporary);
+            try {
+                stream.write(output.array());
+            } finally {
+                stream.close();
+            }
+            if (!temporary.renameTo(mSmoothedCacheFile)) {
+                Log.w(TAG, "Could not write smoothed path cache: " + mSmoothedCacheFile);
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing smoothed path cache for world " + getUuid(), e);
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
 
     /**
      * Gets user id of a world.
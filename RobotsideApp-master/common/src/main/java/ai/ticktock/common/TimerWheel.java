@@ -0,0 +1,136 @@
+package ai.cellbots.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A hashed timer wheel that tracks keys expiring at given times. Keys are bucketed by their
+ * expiry tick in a ring of slots, so advancing the wheel only visits the slots of the elapsed
+ * ticks instead of every key. Keys expiring further away than the ring are kept in their slot
+ * until a later turn of the wheel. A key may be scheduled more than once, in which case it is
+ * returned once for every schedule, so callers should check their own state on expiry.
+ *
+ * This class is not thread safe.
+ *
+ * @param <K> The key type.
+ */
+public final class TimerWheel<K> {
+    private final long mTickMillisecond; // The duration of a slot
+    private final List<List<Entry<K>>> mSlots; // The scheduled keys, by expiry tick
+    private long mCurrentTick = Long.MIN_VALUE; // The last tick that has been advanced to
+    private int mSize = 0; // The number of scheduled keys
+
+    /**
+     * A scheduled key.
+     *
+     * @param <K> The key type.
+     */
+    private static final class Entry<K> {
+        private final K mKey;
+        private final long mExpiry;
+
+        private Entry(K key, long expiry) {
+            mKey = key;
+            mExpiry = expiry;
+        }
+    }
+
+    /**
+     * Creates the timer wheel.
+     *
+     * @param tickMillisecond The duration of a slot in milliseconds.
+     * @param slots           The number of slots in the ring.
+     */
+    public TimerWheel(long tickMillisecond, int slots) {
+        if (tickMillisecond <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("Invalid timer wheel size: " + tickMillisecond
+                    + " ms, " + slots + " slots");
+        }
+        mTickMillisecond = tickMillisecond;
+        mSlots = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            mSlots.add(new ArrayList<Entry<K>>());
+        }
+    }
+
+    /**
+     * Schedules a key.
+     *
+     * @param key    The key.
+     * @param expiry The time at which the key expires, in milliseconds.
+     */
+    public void schedule(K key, long expiry) {
+        long tick = expiry / mTickMillisecond;
+        if (mCurrentTick != Long.MIN_VALUE && tick < mCurrentTick) {
+            // Already due, so return it on the next advance.
+            tick = mCurrentTick;
+        }
+        getSlot(tick).add(new Entry<>(key, expiry));
+        mSize++;
+    }
+
+    /**
+     * Advances the wheel and collects the expired keys.
+     *
+     * @param time    The current time in milliseconds.
+     * @param expired The collection the keys expiring at or before the time are added to.
+     */
+    public void advance(long time, Collection<? super K> expired) {
+        long tick = time / mTickMillisecond;
+        if (mCurrentTick == Long.MIN_VALUE) {
+            // On the first advance every slot may hold due keys.
+            mCurrentTick = tick - mSlots.size();
+        }
+        if (tick < mCurrentTick) {
+            return;
+        }
+        // The slot of the current tick is visited again, as it may hold keys expiring later
+        // within the tick.
+        long first = Math.max(mCurrentTick, tick - mSlots.size() + 1);
+        for (long t = first; t <= tick; t++) {
+            List<Entry<K>> slot = getSlot(t);
+            int kept = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                Entry<K> entry = slot.get(i);
+                if (entry.mExpiry <= time) {
+                    expired.add(entry.mKey);
+                    mSize--;
+                } else {
+                    slot.set(kept++, entry);
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+        mCurrentTick = tick;
+    }
+
+    /**
+     * Gets the number of scheduled keys.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all scheduled keys.
+     */
+    public void clear() {
+        for (List<Entry<K>> slot : mSlots) {
+            slot.clear();
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Gets the slot of a tick.
+     *
+     * @param tick The tick.
+     * @return The slot.
+     */
+    private List<Entry<K>> getSlot(long tick) {
+        return mSlots.get((int) (((tick % mSlots.size()) + mSlots.size()) % mSlots.size()));
+    }
+}
@@ -343,6 +343,39 @@ public class Transform {
         }
     }
 
+    /**
+     * Skip a transform in a byte buffer without decoding it, checking it as the ByteBuffer
+     * constructor would.
+     *
+     * @param byteBuffer The buffer to read from.
+     * @throws ParsingException Thrown if an invalid transform is read.
+     */
+    public static void skip(ByteBuffer byteBuffer) throws ParsingException {
+        if (byteBuffer.remaining() < 10) {
+            throw new ParsingException("WorldTransform cannot be read from header, need at "
+                    + "least 10 bytes but have " + byteBuffer.remaining());
+        }
+
+        int posLen = (int) byteBuffer.get();
+        int rotLen = (int) byteBuffer.get();
+
+        if ((posLen < 1) || (posLen > 127)) {
+            throw new ParsingException("WorldTransform cannot be read from buffer since"
+                    + " it has an invalid position length: " + posLen);
+        }
+        if ((rotLen < 1) || (rotLen > 127)) {
+            throw new ParsingException("WorldTransform cannot be read from buffer since"
+                    + " it has an invalid rotation length: " + posLen);
+        }
+
+        int need = 8 + (8 * posLen) + (8 * rotLen);
+        if (byteBuffer.remaining() < need) {
+            throw new ParsingException("WorldTransform cannot be read from header, need at "
+                    + "least " + need + " but have " + byteBuffer.remaining());
+        }
+        byteBuffer.position(byteBuffer.position() + need);
+    }
+
     /**
      * Write the transform out to a byte buffer.
      *
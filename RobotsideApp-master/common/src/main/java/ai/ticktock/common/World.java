@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.util.Log;
 
 import java.io.File;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -117,6 +118,26 @@ public class World {
             }
         }
 
+        /**
+         * Skip a polygon in a byte buffer without decoding it.
+         * @param input The buffer to read from.
+         * @throws ParsingException Thrown if an invalid polygon is read.
+         */
+        private static void skip(ByteBuffer input) throws ParsingException {
+            if (input.remaining() < 1 + 8 + 4) {
+                throw new BufferUnderflowException();
+            }
+            input.position(input.position() + 1 + 8 + 4);
+            int len = input.getInt();
+            if (len <= 0) {
+                throw new ParsingException("Zero length polygon");
+            }
+            if (input.remaining() < (long) len * 8 * 2) {
+                throw new BufferUnderflowException();
+            }
+            input.position(input.position() + (len * 8 * 2));
+        }
+
         private void toByteBuffer(ByteBuffer output) {
             output.put((byte) (mClosed ? 1 : 0));
             output.putDouble(mArea);
@@ -175,6 +196,24 @@ public class World {
             }
         }
 
+        /**
+         * Skip a level in a byte buffer without decoding it.
+         * @param input The buffer to read from.
+         * @throws ParsingException Thrown if an invalid level is read.
+         */
+        public static void skip(ByteBuffer input) throws ParsingException {
+            input.getDouble();
+            input.getDouble();
+            int pc = input.getInt();
+            if (pc < 0) {
+                throw new ParsingException("Negative polygon count");
+            }
+            while (pc > 0) {
+                FloorPlanPolygon.skip(input);
+                pc--;
+            }
+        }
+
         public int getByteLength() {
             int len = 8 + 8 + 4;
             for (FloorPlanPolygon polygon : mPolygons) {
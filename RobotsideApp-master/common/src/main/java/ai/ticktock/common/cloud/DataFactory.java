@@ -14,6 +14,7 @@ import ai.cellbots.common.Strings;
  */
 final public class DataFactory<T> {
     private final Listener<T> mListener;
+    private final Class<T> mClass;
     private final boolean mHaveUser;
     private final boolean mHaveRobot;
 
@@ -72,6 +73,7 @@ final public class DataFactory<T> {
      */
     public DataFactory(Listener<T> listener, Class<T> tClass, boolean haveUser, boolean haveRobot) {
         mListener = listener;
+        mClass = tClass;
         mHaveUser = haveUser;
         mHaveRobot = haveRobot;
         if (!UserUuidData.class.isAssignableFrom(tClass) && haveUser) {
@@ -82,6 +84,14 @@ final public class DataFactory<T> {
         }
     }
 
+    /**
+     * Get the class of the objects created by the factory.
+     * @return The class.
+     */
+    public Class<T> getDataClass() {
+        return mClass;
+    }
+
     /**
      * Get if we require the user uuid.
      * @return True if we require the user.
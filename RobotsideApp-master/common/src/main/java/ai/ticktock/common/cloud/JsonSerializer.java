@@ -9,16 +9,28 @@ import com.google.gson.FieldAttributes;
 import com.google.gson.FieldNamingStrategy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
- * Convert objects to and from JSON.
+ * Convert objects to and from JSON. A single Gson instance is shared by all calls, so the
+ * reflective TypeAdapter of each data class, including its field names and exclusions, is built
+ * once and cached by Gson. The streaming methods write to a Writer or ByteBuffer owned by the
+ * caller, so that hot paths do not create a String for each message.
  */
 public enum JsonSerializer {
     ;
     private static final String TAG = JsonSerializer.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     // Excludes all elements with the firebase Exclude parameter.
     private static final ExclusionStrategy EXCLUSION_STRATEGY = new ExclusionStrategy() {
@@ -61,25 +73,96 @@ public enum JsonSerializer {
         }
     };
 
+    // The shared Gson instance, which is thread-safe and caches a TypeAdapter per type.
+    private static final Gson GSON = createGson();
+
+    // The writer used by toJson(Object, ByteBuffer) on each thread.
+    private static final ThreadLocal<ByteBufferWriter> BYTE_BUFFER_WRITER
+            = new ThreadLocal<ByteBufferWriter>() {
+        @Override
+        protected ByteBufferWriter initialValue() {
+            return new ByteBufferWriter();
+        }
+    };
+
     /**
-     * Convert a data object to JSON.
-     * @param arg The argument object to convert.
-     * @return A JSON string representation, or null in the event of an error.
+     * Create a Gson instance with the firebase naming and exclusion strategies.
+     * @return The Gson instance.
      */
-    public static String toJson(Object arg) {
-        Gson gson = new GsonBuilder()
+    static Gson createGson() {
+        return new GsonBuilder()
                 .addSerializationExclusionStrategy(EXCLUSION_STRATEGY)
                 .addDeserializationExclusionStrategy(EXCLUSION_STRATEGY)
                 .setFieldNamingStrategy(FIELD_NAMING_STRATEGY)
                 .create();
+    }
+
+    /**
+     * Convert a data object to JSON.
+     * @param arg The argument object to convert.
+     * @return A JSON string representation, or null in the event of an error.
+     */
+    public static String toJson(Object arg) {
         try {
-            return gson.toJson(arg);
+            return GSON.toJson(arg);
         } catch (Exception ex) {
             Log.i(TAG, "Exception during serialization: ", ex);
             return null;
         }
     }
 
+    /**
+     * Convert a data object to JSON, writing it to a writer.
+     * @param arg The argument object to convert.
+     * @param writer The writer, which is flushed but not closed.
+     * @return True if the object was written, false in the event of an error.
+     */
+    public static boolean toJson(Object arg, Writer writer) {
+        try {
+            JsonWriter jsonWriter = GSON.newJsonWriter(writer);
+            if (arg == null) {
+                jsonWriter.nullValue();
+            } else {
+                GSON.toJson(arg, arg.getClass(), jsonWriter);
+            }
+            jsonWriter.flush();
+            return true;
+        } catch (BufferOverflowException ex) {
+            // Thrown by the ByteBufferWriter, handled by toJson(Object, ByteBuffer)
+            throw ex;
+        } catch (Exception ex) {
+            Log.i(TAG, "Exception during serialization: ", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Convert a data object to UTF-8 JSON, writing it to a buffer at its position.
+     * @param arg The argument object to convert.
+     * @param buffer The buffer, which position is advanced past the JSON.
+     * @return The number of bytes written, or -1 in the event of an error.
+     * @throws BufferOverflowException If the buffer is too small, in which case the position of
+     *                                 the buffer is unchanged.
+     */
+    public static int toJson(Object arg, ByteBuffer buffer) {
+        int start = buffer.position();
+        ByteBufferWriter writer = BYTE_BUFFER_WRITER.get();
+        writer.reset(buffer);
+        try {
+            if (!toJson(arg, (Writer) writer)) {
+                buffer.position(start);
+                return -1;
+            }
+            writer.finish();
+        } catch (BufferOverflowException ex) {
+            buffer.position(start);
+            throw ex;
+        } finally {
+            writer.reset(null);
+        }
+        return buffer.position() - start;
+    }
+
     /**
      * Convert a data object from JSON.
      * @param data The JSON string.
@@ -88,16 +171,148 @@ public enum JsonSerializer {
      * @return The object, or null if it could not be deserialized.
      */
     public static <T> T fromJson(String data, Class<T> tClass) {
-        Gson gson = new GsonBuilder()
-                .addSerializationExclusionStrategy(EXCLUSION_STRATEGY)
-                .addDeserializationExclusionStrategy(EXCLUSION_STRATEGY)
-                .setFieldNamingStrategy(FIELD_NAMING_STRATEGY)
-                .create();
         try {
-            return gson.fromJson(data, tClass);
+            return GSON.fromJson(data, tClass);
         } catch (Exception ex) {
             Log.i(TAG, "Exception during deserialization: ", ex);
             return null;
         }
     }
+
+    /**
+     * Convert a data object from JSON, reading it from a reader.
+     * @param reader The reader.
+     * @param tClass The class of the object.
+     * @param <T> The type template of the object.
+     * @return The object, or null if it could not be deserialized.
+     */
+    public static <T> T fromJson(Reader reader, Class<T> tClass) {
+        try {
+            return GSON.fromJson(reader, tClass);
+        } catch (Exception ex) {
+            Log.i(TAG, "Exception during deserialization: ", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Convert a data object from UTF-8 JSON, reading the remaining bytes of a buffer.
+     * @param buffer The buffer, which position is advanced to its limit.
+     * @param tClass The class of the object.
+     * @param <T> The type template of the object.
+     * @return The object, or null if it could not be deserialized.
+     */
+    public static <T> T fromJson(ByteBuffer buffer, Class<T> tClass) {
+        ByteArrayInputStream stream;
+        if (buffer.hasArray()) {
+            stream = new ByteArrayInputStream(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            stream = new ByteArrayInputStream(data);
+        }
+        return fromJson(new InputStreamReader(stream, UTF_8), tClass);
+    }
+
+    /**
+     * A writer that encodes UTF-8 directly into a ByteBuffer, without an intermediate String or
+     * byte array. Unpaired surrogates are written as '?', as String.getBytes() does.
+     */
+    private static final class ByteBufferWriter extends Writer {
+        private ByteBuffer mBuffer = null;
+        private char mHighSurrogate = 0;
+
+        /**
+         * Set the buffer to write to.
+         * @param buffer The buffer, or null to release the previous buffer.
+         */
+        private void reset(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mHighSurrogate = 0;
+        }
+
+        /**
+         * Write any pending unpaired surrogate.
+         */
+        private void finish() {
+            if (mHighSurrogate != 0) {
+                mHighSurrogate = 0;
+                mBuffer.put((byte) '?');
+            }
+        }
+
+        @Override
+        public void write(int c) {
+            writeChar((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                writeChar(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                writeChar(str.charAt(i));
+            }
+        }
+
+        /**
+         * Write a UTF-16 character, combining surrogate pairs.
+         * @param c The character.
+         */
+        private void writeChar(char c) {
+            if (mHighSurrogate != 0) {
+                char high = mHighSurrogate;
+                mHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    writeCodePoint(Character.toCodePoint(high, c));
+                    return;
+                }
+                mBuffer.put((byte) '?');
+            }
+            if (Character.isHighSurrogate(c)) {
+                mHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                mBuffer.put((byte) '?');
+            } else {
+                writeCodePoint(c);
+            }
+        }
+
+        /**
+         * Write a code point as UTF-8.
+         * @param codePoint The code point.
+         */
+        private void writeCodePoint(int codePoint) {
+            if (codePoint < 0x80) {
+                mBuffer.put((byte) codePoint);
+            } else if (codePoint < 0x800) {
+                mBuffer.put((byte) (0xC0 | (codePoint >> 6)));
+                mBuffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (codePoint < 0x10000) {
+                mBuffer.put((byte) (0xE0 | (codePoint >> 12)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                mBuffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                mBuffer.put((byte) (0xF0 | (codePoint >> 18)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                mBuffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
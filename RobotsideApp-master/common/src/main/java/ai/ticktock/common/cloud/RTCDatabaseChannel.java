@@ -2,8 +2,11 @@ package ai.cellbots.common.cloud;
 
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,6 +30,10 @@ import ai.cellbots.common.webrtc.RTCConnection;
  * - user: optional user UUID string
  * The content is the result of calling JsonSerializer on an object.
  *
+ * Once both sides of a connection have negotiated it, hot paths are instead sent in the compact
+ * binary format described in RTCWireFormat, with a path id instead of the JSON header and a
+ * binary codec for types such as Teleop.
+ *
  * To send data, all that must be done is that an object must be fed in with a database path. The
  * object will automatically be serialized and sent through the WebRTC data stream.
  *
@@ -41,11 +48,62 @@ import ai.cellbots.common.webrtc.RTCConnection;
  */
 public class RTCDatabaseChannel {
     private final String TAG = RTCDatabaseChannel.class.getSimpleName();
-    private final Map<RTCConnection, LinkedList<byte[]>> mConnections = new HashMap<>();
+    // Initial size of the receive buffer of each connection.
+    private static final int RECEIVE_BUFFER_SIZE = 4096;
+    // Initial size of the buffer used to encode binary messages.
+    private static final int ENCODE_BUFFER_SIZE = 256;
+    // The hello message sent to each new connection, which advertises the latest wire version.
+    private static final byte[] HELLO_MESSAGE = createHelloMessage();
+
+    private final Map<RTCConnection, ConnectionState> mConnections = new HashMap<>();
     private final Map<CloudPath, Object> mLatestValues = new HashMap<>();
     private final Map<CloudPath, DataFactory> mStorePaths;
+    // The JSON array string of each path that has been sent in a JSON header.
+    private final Map<CloudPath, String> mJsonPaths = new HashMap<>();
+    private ByteBuffer mEncodeBuffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
     private boolean mShutdown = false;
 
+    /**
+     * The state of a connection.
+     */
+    private static final class ConnectionState {
+        // The received bytes that are not yet parsed, in write mode.
+        private ByteBuffer mReceived = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        // The wire version used to send messages to the connection.
+        private byte mVersion = RTCWireFormat.VERSION_JSON;
+
+        /**
+         * Add a message to the received bytes, growing the buffer if needed.
+         * @param message The message.
+         */
+        private void append(byte[] message) {
+            if (mReceived.remaining() < message.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(mReceived.capacity() * 2,
+                        mReceived.position() + message.length));
+                mReceived.flip();
+                grown.put(mReceived);
+                mReceived = grown;
+            }
+            mReceived.put(message);
+        }
+    }
+
+    /**
+     * Create the hello message.
+     * @return The hello message bytes.
+     */
+    private static byte[] createHelloMessage() {
+        byte[] header = ("{\"" + RTCWireFormat.HELLO_KEY + "\":" + RTCWireFormat.VERSION_LATEST + "}")
+                .getBytes(RTCWireFormat.UTF_8);
+        byte[] output = new byte[RTCWireFormat.JSON_HEADER_LENGTH + header.length];
+        ByteBuffer message = ByteBuffer.wrap(output);
+        message.put(RTCWireFormat.VERSION_JSON);
+        message.putInt(header.length);
+        message.putInt(0);
+        message.put(header);
+        return output;
+    }
+
     /**
      * Create a new RTC database channel.
      * @param storePaths The mapping of CloudPath -> DataFactory for the objects to store.
@@ -60,7 +118,8 @@ public class RTCDatabaseChannel {
     }
 
     /**
-     * Attach a new connection, called from the listener.
+     * Attach a new connection, called from the listener. Sends the hello message to negotiate
+     * the wire version.
      * @param connection The connection to store.
      */
     public synchronized void onNewConnection(RTCConnection connection) {
@@ -68,8 +127,9 @@ public class RTCDatabaseChannel {
             return;
         }
         if (!mConnections.containsKey(connection)) {
-            mConnections.put(connection, new LinkedList<byte[]>());
+            mConnections.put(connection, new ConnectionState());
             Log.i(TAG, "New connection: " + (connection.haveSetRemote() ? "remote" : "local"));
+            connection.sendDataMessage(HELLO_MESSAGE);
         }
     }
 
@@ -87,7 +147,7 @@ public class RTCDatabaseChannel {
     }
 
     /**
-     * Send data to the system.
+     * Send data to the system. The object is encoded at most once per wire version.
      * @param user The username to send.
      * @param robot The robot name to send.
      * @param dataPath The firebase CloudPath to send the object to.
@@ -100,46 +160,156 @@ public class RTCDatabaseChannel {
         if (dataPath.hasUserPath() && user == null) {
             throw new IllegalArgumentException("CloudPath is user path, user is not set");
         }
-        String json = JsonSerializer.toJson(object);
-        if (json == null) {
-            return;
-        }
-        byte[] jsonContent = json.getBytes();
-        JSONObject header = new JSONObject();
-        try {
-            header.put("path", dataPath.toJSONArray());
-            if (robot != null) {
-                header.put("robot", robot);
-            }
-            if (user != null) {
-                header.put("user", user);
-            }
-        } catch (JSONException e) {
-            Log.e(TAG, "Invalid JSON object for path:", e);
-            return;
-        }
-        byte[] jsonHeader = header.toString().getBytes();
-        byte[] output = new byte[1 + 4 + 4 + jsonHeader.length + jsonContent.length];
-        ByteBuffer message = ByteBuffer.wrap(output);
-        message.put((byte)0);
-        message.putInt(jsonHeader.length);
-        message.putInt(jsonContent.length);
-        message.put(jsonHeader);
-        message.put(jsonContent);
+        short pathId = RTCWireFormat.getPathId(dataPath);
 
         synchronized (this) {
             if (mShutdown) {
                 return;
             }
-            for (RTCConnection connection : mConnections.keySet()) {
+            byte[] jsonMessage = null;
+            byte[] binaryMessage = null;
+            boolean jsonEncoded = false;
+            boolean binaryEncoded = false;
+            for (Map.Entry<RTCConnection, ConnectionState> entry : mConnections.entrySet()) {
+                RTCConnection connection = entry.getKey();
                 if ((user == null || Strings.compare(user, connection.getUserUuid()))
                         && (robot == null || Strings.compare(robot, connection.getRobotUuid()))) {
-                    connection.sendDataMessage(output);
+                    byte[] output;
+                    if (entry.getValue().mVersion >= RTCWireFormat.VERSION_BINARY
+                            && pathId != RTCWireFormat.NO_PATH_ID) {
+                        if (!binaryEncoded) {
+                            binaryMessage = encodeBinary(pathId, object);
+                            binaryEncoded = true;
+                        }
+                        output = binaryMessage;
+                    } else {
+                        if (!jsonEncoded) {
+                            jsonMessage = encodeJson(user, robot, dataPath, object);
+                            jsonEncoded = true;
+                        }
+                        output = jsonMessage;
+                    }
+                    // Only the latest value of a path is stored by the receiver, so an unsent
+                    // older value of the same path can be replaced.
+                    if (output != null) {
+                        connection.sendDataMessage(dataPath, output);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Encode a message in the JSON wire format, streaming the content into the encode buffer.
+     * @param user The username to send.
+     * @param robot The robot name to send.
+     * @param dataPath The firebase CloudPath to send the object to.
+     * @param object The object to send over the wire.
+     * @return The message, or null if it could not be encoded.
+     */
+    private byte[] encodeJson(String user, String robot, CloudPath dataPath, Object object) {
+        String path = mJsonPaths.get(dataPath);
+        if (path == null) {
+            JSONArray pathArray = dataPath.toJSONArray();
+            if (pathArray == null) {
+                Log.e(TAG, "Invalid JSON object for path: " + dataPath);
+                return null;
+            }
+            path = pathArray.toString();
+            mJsonPaths.put(dataPath, path);
+        }
+        StringBuilder header = new StringBuilder("{\"path\":").append(path);
+        if (robot != null) {
+            header.append(",\"robot\":").append(JSONObject.quote(robot));
+        }
+        if (user != null) {
+            header.append(",\"user\":").append(JSONObject.quote(user));
+        }
+        header.append('}');
+        byte[] jsonHeader = header.toString().getBytes(RTCWireFormat.UTF_8);
+
+        resetEncodeBuffer(RTCWireFormat.JSON_HEADER_LENGTH + jsonHeader.length);
+        mEncodeBuffer.position(RTCWireFormat.JSON_HEADER_LENGTH);
+        mEncodeBuffer.put(jsonHeader);
+        if (!writeJsonContent(object)) {
+            return null;
+        }
+        mEncodeBuffer.put(0, RTCWireFormat.VERSION_JSON);
+        mEncodeBuffer.putInt(1, jsonHeader.length);
+        mEncodeBuffer.putInt(5, mEncodeBuffer.position()
+                - RTCWireFormat.JSON_HEADER_LENGTH - jsonHeader.length);
+        return copyEncodeBuffer();
+    }
+
+    /**
+     * Encode a message in the binary wire format. Objects with a codec are written by the codec,
+     * others are sent as JSON content.
+     * @param pathId The id of the path.
+     * @param object The object to send over the wire.
+     * @return The message, or null if it could not be encoded.
+     */
+    private byte[] encodeBinary(short pathId, Object object) {
+        byte codecId = RTCWireFormat.getCodecId(object);
+        RTCWireFormat.Codec<?> codec = RTCWireFormat.getCodec(codecId);
+        if (codec != null) {
+            resetEncodeBuffer(RTCWireFormat.BINARY_HEADER_LENGTH + codec.getMaxLength());
+            mEncodeBuffer.position(RTCWireFormat.BINARY_HEADER_LENGTH);
+            RTCWireFormat.encode(codec, object, mEncodeBuffer);
+        } else {
+            resetEncodeBuffer(RTCWireFormat.BINARY_HEADER_LENGTH);
+            mEncodeBuffer.position(RTCWireFormat.BINARY_HEADER_LENGTH);
+            if (!writeJsonContent(object)) {
+                return null;
+            }
+        }
+        mEncodeBuffer.put(0, RTCWireFormat.VERSION_BINARY);
+        mEncodeBuffer.putShort(1, pathId);
+        mEncodeBuffer.put(3, codecId);
+        mEncodeBuffer.putInt(4, mEncodeBuffer.position() - RTCWireFormat.BINARY_HEADER_LENGTH);
+        return copyEncodeBuffer();
+    }
+
+    /**
+     * Clear the encode buffer, making sure it has at least a given capacity.
+     * @param capacity The capacity in bytes.
+     */
+    private void resetEncodeBuffer(int capacity) {
+        if (mEncodeBuffer.capacity() < capacity) {
+            mEncodeBuffer = ByteBuffer.allocate(Math.max(mEncodeBuffer.capacity() * 2, capacity));
+        }
+        mEncodeBuffer.clear();
+    }
+
+    /**
+     * Write the JSON of an object into the encode buffer at its position, growing the buffer
+     * until the JSON fits.
+     * @param object The object.
+     * @return False if the object could not be serialized.
+     */
+    private boolean writeJsonContent(Object object) {
+        while (true) {
+            try {
+                return JsonSerializer.toJson(object, mEncodeBuffer) >= 0;
+            } catch (BufferOverflowException e) {
+                ByteBuffer grown = ByteBuffer.allocate(mEncodeBuffer.capacity() * 2);
+                mEncodeBuffer.flip();
+                grown.put(mEncodeBuffer);
+                mEncodeBuffer = grown;
+            }
+        }
+    }
+
+    /**
+     * Copy the encoded message out of the encode buffer, since the connection queues it.
+     * @return The message bytes.
+     */
+    private byte[] copyEncodeBuffer() {
+        byte[] output = new byte[mEncodeBuffer.position()];
+        mEncodeBuffer.rewind();
+        mEncodeBuffer.get(output);
+        return output;
+    }
+
     /**
      * Called when a new message is received from the connection listener.
      * @param connection The connection to check.
@@ -152,10 +322,45 @@ public class RTCDatabaseChannel {
         if (!mConnections.containsKey(connection)) {
             onNewConnection(connection);
         }
-        if (mConnections.containsKey(connection)) {
-            mConnections.get(connection).add(message);
-        } else {
+        ConnectionState state = mConnections.get(connection);
+        if (state == null) {
             Log.i(TAG, "Message ignored!");
+        } else if (!readHello(connection, state, message)) {
+            state.append(message);
+        }
+    }
+
+    /**
+     * Read the hello message of a connection, which sets the wire version for the connection.
+     * @param connection The connection.
+     * @param state The state of the connection.
+     * @param message The message received.
+     * @return True if the message was a hello message.
+     */
+    private boolean readHello(RTCConnection connection, ConnectionState state, byte[] message) {
+        if (message.length <= RTCWireFormat.JSON_HEADER_LENGTH
+                || message[0] != RTCWireFormat.VERSION_JSON) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        int headerLen = buffer.getInt(1);
+        int contentLen = buffer.getInt(5);
+        if (contentLen != 0 || headerLen != message.length - RTCWireFormat.JSON_HEADER_LENGTH) {
+            return false;
+        }
+        try {
+            JSONObject header = new JSONObject(new String(message,
+                    RTCWireFormat.JSON_HEADER_LENGTH, headerLen, RTCWireFormat.UTF_8));
+            if (header.has("path") || !header.has(RTCWireFormat.HELLO_KEY)) {
+                return false;
+            }
+            state.mVersion = (byte) Math.max(RTCWireFormat.VERSION_JSON,
+                    Math.min(header.getInt(RTCWireFormat.HELLO_KEY), RTCWireFormat.VERSION_LATEST));
+            Log.i(TAG, "Connection " + connection.getCallUuid() + " uses wire version "
+                    + state.mVersion);
+            return true;
+        } catch (JSONException e) {
+            return false;
         }
     }
 
@@ -203,94 +408,32 @@ public class RTCDatabaseChannel {
         LinkedList<CloudPath> removePaths = new LinkedList<>();
         LinkedList<RTCConnection> removeConnections = new LinkedList<>();
 
-        for (RTCConnection connection : mConnections.keySet()) {
+        for (Map.Entry<RTCConnection, ConnectionState> entry : mConnections.entrySet()) {
+            RTCConnection connection = entry.getKey();
             if (connection.isShutdown()) {
                 removeConnections.add(connection);
             } else if (Strings.compare(user, connection.getUserUuid())
                     && Strings.compare(robot, connection.getRobotUuid())) {
-                int len = 0;
-                for (byte[] message : mConnections.get(connection)) {
-                    len += message.length;
-                }
-                ByteBuffer messages = ByteBuffer.allocate(len);
-                for (byte[] message : mConnections.get(connection)) {
-                    messages.put(message);
-                }
-                messages.rewind();
-                mConnections.get(connection).clear();
-                while (messages.remaining() > 9) {
-                    byte version = messages.get();
-                    if (version != 0) {
+                ByteBuffer messages = entry.getValue().mReceived;
+                messages.flip();
+                while (messages.hasRemaining()) {
+                    byte version = messages.get(messages.position());
+                    boolean complete;
+                    if (version == RTCWireFormat.VERSION_JSON) {
+                        complete = readJsonMessage(connection, messages);
+                    } else if (version == RTCWireFormat.VERSION_BINARY) {
+                        complete = readBinaryMessage(connection, messages);
+                    } else {
                         Log.w(TAG, "Invalid message version: " + version);
-                        continue;
-                    }
-                    int headerLen = messages.getInt();
-                    if (headerLen < 0) {
-                        Log.w(TAG, "Invalid message, header length negative");
-                        continue;
-                    }
-                    int contentLen = messages.getInt();
-                    if (contentLen < 0) {
-                        Log.w(TAG, "Invalid message, content length negative");
-                        continue;
+                        messages.position(messages.limit());
+                        complete = true;
                     }
-
-                    // If the message is too long, then we write it back for later
-                    if (contentLen + headerLen > messages.remaining()) {
-                        byte[] fragment = new byte[messages.remaining()];
-                        byte[] newMessage = new byte[fragment.length + 9];
-                        messages.get(fragment);
-                        ByteBuffer rewrite = ByteBuffer.wrap(newMessage);
-                        rewrite.put((byte)0);
-                        rewrite.putInt(headerLen);
-                        rewrite.putInt(contentLen);
-                        rewrite.put(fragment);
-                        mConnections.get(connection).add(newMessage);
+                    // If the message is too long, then we keep it for later
+                    if (!complete) {
                         break;
                     }
-
-                    byte[] header = new byte[headerLen], content = new byte[contentLen];
-                    messages.get(header);
-                    messages.get(content);
-
-                    JSONObject headerObject;
-                    CloudPath targetPath = null;
-                    try {
-                        headerObject = new JSONObject(new String(header));
-                        if ((!headerObject.has("user") || Strings.compare(headerObject.getString("user"), connection.getUserUuid()))
-                            && (!headerObject.has("robot") || Strings.compare(headerObject.getString("robot"), connection.getRobotUuid()))
-                                && headerObject.has("path")) {
-                            targetPath = new CloudPath(headerObject.getJSONArray("path"));
-                        }
-                        if (targetPath != null && targetPath.hasUserPath() && !headerObject.has("user")) {
-                            targetPath = null;
-                        }
-                        if (targetPath != null && targetPath.hasRobotPath() && !headerObject.has("robot")) {
-                            targetPath = null;
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "Invalid header: " + new String(header));
-                        targetPath = null;
-                    }
-                    if (targetPath != null && mStorePaths.containsKey(targetPath)) {
-                        DataFactory factory = mStorePaths.get(targetPath);
-                        Object result = factory.create(connection.getUserUuid(), connection.getRobotUuid(), new String(content));
-                        if (result != null && result instanceof TimestampManager.Timestamped) {
-                            long oldTime = 0;
-                            if (mLatestValues.containsKey(targetPath)
-                                    && mLatestValues.get(targetPath) instanceof TimestampManager.Timestamped) {
-                                oldTime = ((TimestampManager.Timestamped) mLatestValues.get(targetPath)).getTimestamp();
-                            }
-                            if (oldTime < ((TimestampManager.Timestamped) result).getTimestamp()) {
-                                mLatestValues.put(targetPath, result);
-                            }
-                        } else {
-                            Log.i(TAG, "Invalid object: " + result);
-                        }
-                    } else {
-                        Log.i(TAG, "Ignoring path: " + targetPath);
-                    }
                 }
+                messages.compact();
             }
         }
 
@@ -309,6 +452,140 @@ public class RTCDatabaseChannel {
         }
     }
 
+    /**
+     * Read a JSON wire format message from the received bytes.
+     * @param connection The connection of the message.
+     * @param messages The received bytes, positioned at the start of the message.
+     * @return False if the message is not yet complete, in which case the position is unchanged.
+     */
+    private boolean readJsonMessage(RTCConnection connection, ByteBuffer messages) {
+        int start = messages.position();
+        if (messages.remaining() < RTCWireFormat.JSON_HEADER_LENGTH) {
+            return false;
+        }
+        int headerLen = messages.getInt(start + 1);
+        int contentLen = messages.getInt(start + 5);
+        if (headerLen < 0 || contentLen < 0) {
+            Log.w(TAG, "Invalid message, negative length, dropping received data");
+            messages.position(messages.limit());
+            return true;
+        }
+        if (RTCWireFormat.JSON_HEADER_LENGTH + headerLen + contentLen > messages.remaining()) {
+            return false;
+        }
+        int headerStart = messages.arrayOffset() + start + RTCWireFormat.JSON_HEADER_LENGTH;
+        String header = new String(messages.array(), headerStart, headerLen, RTCWireFormat.UTF_8);
+        messages.position(start + RTCWireFormat.JSON_HEADER_LENGTH + headerLen + contentLen);
+
+        CloudPath targetPath = null;
+        try {
+            JSONObject headerObject = new JSONObject(header);
+            if ((!headerObject.has("user") || Strings.compare(headerObject.getString("user"), connection.getUserUuid()))
+                && (!headerObject.has("robot") || Strings.compare(headerObject.getString("robot"), connection.getRobotUuid()))
+                    && headerObject.has("path")) {
+                targetPath = new CloudPath(headerObject.getJSONArray("path"));
+            }
+            if (targetPath != null && targetPath.hasUserPath() && !headerObject.has("user")) {
+                targetPath = null;
+            }
+            if (targetPath != null && targetPath.hasRobotPath() && !headerObject.has("robot")) {
+                targetPath = null;
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Invalid header: " + header);
+            targetPath = null;
+        }
+        if (targetPath != null && mStorePaths.containsKey(targetPath)) {
+            DataFactory factory = mStorePaths.get(targetPath);
+            String content = new String(messages.array(), headerStart + headerLen, contentLen,
+                    RTCWireFormat.UTF_8);
+            storeObject(targetPath,
+                    factory.create(connection.getUserUuid(), connection.getRobotUuid(), content));
+        } else {
+            Log.i(TAG, "Ignoring path: " + targetPath);
+        }
+        return true;
+    }
+
+    /**
+     * Read a binary wire format message from the received bytes. The user and robot of the
+     * message are those of the connection.
+     * @param connection The connection of the message.
+     * @param messages The received bytes, positioned at the start of the message.
+     * @return False if the message is not yet complete, in which case the position is unchanged.
+     */
+    private boolean readBinaryMessage(RTCConnection connection, ByteBuffer messages) {
+        int start = messages.position();
+        if (messages.remaining() < RTCWireFormat.BINARY_HEADER_LENGTH) {
+            return false;
+        }
+        short pathId = messages.getShort(start + 1);
+        byte codecId = messages.get(start + 3);
+        int contentLen = messages.getInt(start + 4);
+        if (contentLen < 0) {
+            Log.w(TAG, "Invalid message, negative length, dropping received data");
+            messages.position(messages.limit());
+            return true;
+        }
+        if (RTCWireFormat.BINARY_HEADER_LENGTH + contentLen > messages.remaining()) {
+            return false;
+        }
+        int contentStart = start + RTCWireFormat.BINARY_HEADER_LENGTH;
+        int contentEnd = contentStart + contentLen;
+
+        CloudPath targetPath = RTCWireFormat.getPath(pathId);
+        if (targetPath != null && mStorePaths.containsKey(targetPath)) {
+            DataFactory factory = mStorePaths.get(targetPath);
+            Object result = null;
+            if (codecId == RTCWireFormat.CODEC_JSON) {
+                result = factory.create(connection.getUserUuid(), connection.getRobotUuid(),
+                        new String(messages.array(), messages.arrayOffset() + contentStart,
+                                contentLen, RTCWireFormat.UTF_8));
+            } else {
+                RTCWireFormat.Codec<?> codec = RTCWireFormat.getCodec(codecId);
+                if (codec == null || codec.getDataClass() != factory.getDataClass()) {
+                    Log.w(TAG, "Invalid codec " + codecId + " for path: " + targetPath);
+                } else {
+                    int limit = messages.limit();
+                    messages.position(contentStart);
+                    messages.limit(contentEnd);
+                    try {
+                        result = codec.decode(connection.getUserUuid(),
+                                connection.getRobotUuid(), messages);
+                    } catch (BufferUnderflowException e) {
+                        Log.w(TAG, "Invalid message, content too short for path: " + targetPath);
+                    }
+                    messages.limit(limit);
+                }
+            }
+            storeObject(targetPath, result);
+        } else {
+            Log.i(TAG, "Ignoring path id: " + pathId);
+        }
+        messages.position(contentEnd);
+        return true;
+    }
+
+    /**
+     * Store a received object if it is newer than the current value.
+     * @param targetPath The path of the object.
+     * @param result The object, may be null if it could not be created.
+     */
+    private void storeObject(CloudPath targetPath, Object result) {
+        if (result != null && result instanceof TimestampManager.Timestamped) {
+            long oldTime = 0;
+            if (mLatestValues.containsKey(targetPath)
+                    && mLatestValues.get(targetPath) instanceof TimestampManager.Timestamped) {
+                oldTime = ((TimestampManager.Timestamped) mLatestValues.get(targetPath)).getTimestamp();
+            }
+            if (oldTime < ((TimestampManager.Timestamped) result).getTimestamp()) {
+                mLatestValues.put(targetPath, result);
+            }
+        } else {
+            Log.i(TAG, "Invalid object: " + result);
+        }
+    }
+
     /**
      * Shutdown the database channel.
      */
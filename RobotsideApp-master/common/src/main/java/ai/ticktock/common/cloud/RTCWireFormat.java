@@ -0,0 +1,205 @@
+package ai.cellbots.common.cloud;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ai.cellbots.common.data.Teleop;
+
+/**
+ * The wire formats used by RTCDatabaseChannel to send data messages. Each message starts with a
+ * version byte:
+ * - VERSION_JSON (0), the original format described in RTCDatabaseChannel, with a JSON header and
+ *   JSON content. Every peer understands this version.
+ * - VERSION_BINARY (1), a compact format of the following:
+ *   - version, byte, always 1
+ *   - path id, int16, the index of the CloudPath in PATHS
+ *   - codec id, byte, the codec used for the content, CODEC_JSON for JSON content
+ *   - contentLength, int32
+ *   - content bytes, byte array of contentLength
+ *   The user and robot are those of the connection, so they are not sent.
+ *
+ * The version is negotiated per connection: each side sends a hello message, which is a
+ * VERSION_JSON message with an empty content and a header of {"wire": version}. Old peers ignore
+ * the hello since it has no path. A connection only uses VERSION_BINARY after the hello of the
+ * remote side has advertised it, and falls back to VERSION_JSON for paths that have no id.
+ */
+public enum RTCWireFormat {
+    ;
+    public static final byte VERSION_JSON = 0;
+    public static final byte VERSION_BINARY = 1;
+    // The newest version supported by this side.
+    public static final byte VERSION_LATEST = VERSION_BINARY;
+
+    // The header key for the wire version in the hello message.
+    static final String HELLO_KEY = "wire";
+
+    // Length of the fixed size part of each message.
+    static final int JSON_HEADER_LENGTH = 1 + 4 + 4;
+    static final int BINARY_HEADER_LENGTH = 1 + 2 + 1 + 4;
+
+    // Returned by getPathId() for paths that can only be sent as VERSION_JSON.
+    static final short NO_PATH_ID = -1;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The paths with precomputed ids, the id being the index in this array. Since the ids are sent
+    // over the wire, new paths must only be appended to the end of the array.
+    private static final CloudPath[] PATHS = {
+            CloudPath.ROBOT_TELEOP_PATH,
+            CloudPath.ROBOT_NAVIGATION_STATE_PATH,
+            CloudPath.ROBOT_SPEED_STATE_PATH,
+            CloudPath.ROBOT_EXECUTIVE_STATE_PATH,
+            CloudPath.ROBOT_METADATA_PATH,
+    };
+    private static final Map<CloudPath, Short> PATH_IDS;
+
+    static {
+        Map<CloudPath, Short> pathIds = new HashMap<>();
+        for (short i = 0; i < PATHS.length; i++) {
+            pathIds.put(PATHS[i], i);
+        }
+        PATH_IDS = Collections.unmodifiableMap(pathIds);
+    }
+
+    /**
+     * Encodes and decodes a data type in the binary format.
+     * @param <T> The type of the data.
+     */
+    public interface Codec<T> {
+        /**
+         * Get the class encoded by the codec.
+         * @return The class.
+         */
+        Class<T> getDataClass();
+
+        /**
+         * Get the maximum length of an encoded object.
+         * @return The length in bytes.
+         */
+        int getMaxLength();
+
+        /**
+         * Write an object to the buffer.
+         * @param object The object.
+         * @param buffer The buffer, with at least getMaxLength() bytes remaining.
+         */
+        void encode(T object, ByteBuffer buffer);
+
+        /**
+         * Read an object from the buffer.
+         * @param userUuid The user uuid of the connection.
+         * @param robotUuid The robot uuid of the connection.
+         * @param buffer The buffer, positioned at the start of the content.
+         * @return The object.
+         */
+        T decode(String userUuid, String robotUuid, ByteBuffer buffer);
+    }
+
+    /**
+     * Codec for data.Teleop, which is sent at a high rate by the joystick.
+     */
+    private static final Codec<Teleop> TELEOP_CODEC = new Codec<Teleop>() {
+        @Override
+        public Class<Teleop> getDataClass() {
+            return Teleop.class;
+        }
+
+        @Override
+        public int getMaxLength() {
+            return 6 * 8 + 1 + 8;
+        }
+
+        @Override
+        public void encode(Teleop object, ByteBuffer buffer) {
+            buffer.putDouble(object.getVx());
+            buffer.putDouble(object.getVy());
+            buffer.putDouble(object.getVz());
+            buffer.putDouble(object.getRx());
+            buffer.putDouble(object.getRy());
+            buffer.putDouble(object.getRz());
+            buffer.put((byte) ((object.getAction1() ? 1 : 0) | (object.getAction2() ? 2 : 0)));
+            buffer.putLong(object.getTimestamp());
+        }
+
+        @Override
+        public Teleop decode(String userUuid, String robotUuid, ByteBuffer buffer) {
+            double vx = buffer.getDouble();
+            double vy = buffer.getDouble();
+            double vz = buffer.getDouble();
+            double rx = buffer.getDouble();
+            double ry = buffer.getDouble();
+            double rz = buffer.getDouble();
+            byte actions = buffer.get();
+            long timestamp = buffer.getLong();
+            return new Teleop(userUuid, robotUuid, vx, vy, vz, rx, ry, rz,
+                    (actions & 1) != 0, (actions & 2) != 0, timestamp);
+        }
+    };
+
+    // The codec ids. CODEC_JSON means the content is JSON from JsonSerializer, while the others
+    // are an index into CODECS. Like the path ids, new codecs must only be appended.
+    static final byte CODEC_JSON = 0;
+    private static final Codec<?>[] CODECS = {null, TELEOP_CODEC};
+
+    /**
+     * Get the id of a path for the binary format.
+     * @param path The path.
+     * @return The id, or NO_PATH_ID if the path has no id.
+     */
+    static short getPathId(CloudPath path) {
+        Short id = PATH_IDS.get(path);
+        return id == null ? NO_PATH_ID : id;
+    }
+
+    /**
+     * Get the path for an id from the binary format.
+     * @param id The id.
+     * @return The path, or null if the id is invalid.
+     */
+    static CloudPath getPath(short id) {
+        if (id < 0 || id >= PATHS.length) {
+            return null;
+        }
+        return PATHS[id];
+    }
+
+    /**
+     * Get the codec id for an object.
+     * @param object The object.
+     * @return The codec id, CODEC_JSON if there is no binary codec for the object.
+     */
+    static byte getCodecId(Object object) {
+        for (byte i = 1; i < CODECS.length; i++) {
+            if (CODECS[i].getDataClass() == object.getClass()) {
+                return i;
+            }
+        }
+        return CODEC_JSON;
+    }
+
+    /**
+     * Get the codec for an id.
+     * @param id The codec id.
+     * @return The codec, or null if the id is CODEC_JSON or invalid.
+     */
+    static Codec<?> getCodec(byte id) {
+        if (id <= CODEC_JSON || id >= CODECS.length) {
+            return null;
+        }
+        return CODECS[id];
+    }
+
+    /**
+     * Encode an object using a codec, avoiding unchecked casts at the call site.
+     * @param codec The codec.
+     * @param object The object, of the class of the codec.
+     * @param buffer The buffer to write.
+     * @param <T> The type of the codec.
+     */
+    static <T> void encode(Codec<T> codec, Object object, ByteBuffer buffer) {
+        codec.encode(codec.getDataClass().cast(object), buffer);
+    }
+}
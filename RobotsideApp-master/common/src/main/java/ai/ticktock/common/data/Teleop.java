@@ -304,6 +304,36 @@ public class Teleop implements DataFactory.UserUuidData, DataFactory.RobotUuidDa
         mTimestampManager = new TimestampManager(this, root);
     }
 
+    /**
+     * Create teleop object from all of its values, used when decoding binary messages.
+     * @param userUuid The user uuid
+     * @param robotUuid The robot uuid
+     * @param vx The X velocity.
+     * @param vy The Y velocity.
+     * @param vz The Z velocity.
+     * @param rx The X rotation.
+     * @param ry The Y rotation.
+     * @param rz The Z rotation.
+     * @param action1 The action 1 setting
+     * @param action2 The action 2 setting
+     * @param timestamp The timestamp
+     */
+    public Teleop(String userUuid, String robotUuid, double vx, double vy, double vz,
+            double rx, double ry, double rz, boolean action1, boolean action2, long timestamp) {
+        mVx = vx;
+        mVy = vy;
+        mVz = vz;
+        mRx = rx;
+        mRy = ry;
+        mRz = rz;
+        mTimestamp = timestamp;
+        mRobotUuid = robotUuid;
+        mUserUuid = userUuid;
+        mAction1 = action1;
+        mAction2 = action2;
+        mTimestampManager = new TimestampManager(this);
+    }
+
     /**
      * Create a teleop object from firebase.
      * @param value The firebase object to copy
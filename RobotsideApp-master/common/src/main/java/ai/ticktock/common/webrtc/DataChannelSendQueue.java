@@ -0,0 +1,176 @@
+package ai.cellbots.common.webrtc;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe queue of messages waiting to be sent on a data channel. Messages are
+ * either events, which are always delivered in order, or states with a key, for which only the
+ * newest message is kept: a new state message replaces the queued message with the same key in
+ * place. If the queue exceeds its bounds, the oldest messages are dropped.
+ */
+final class DataChannelSendQueue {
+    private final int mMaxMessages;
+    private final long mMaxBytes;
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+    // The queued entry of each state key.
+    private final Map<Object, Entry> mStates = new HashMap<>();
+    private long mBytes = 0;
+    private long mDropped = 0;
+    private long mCoalesced = 0;
+
+    /**
+     * A queued message.
+     */
+    static final class Entry {
+        private final Object mKey;
+        private byte[] mData;
+
+        /**
+         * Create an entry.
+         * @param key The state key, or null for an event.
+         * @param data The message data.
+         */
+        private Entry(Object key, byte[] data) {
+            mKey = key;
+            mData = data;
+        }
+
+        /**
+         * Get the message data.
+         * @return The data.
+         */
+        byte[] getData() {
+            return mData;
+        }
+    }
+
+    /**
+     * Create the queue.
+     * @param maxMessages The maximum number of messages queued.
+     * @param maxBytes The maximum number of bytes queued. A single message larger than this is
+     *                 still queued if the queue is otherwise empty.
+     */
+    DataChannelSendQueue(int maxMessages, long maxBytes) {
+        mMaxMessages = maxMessages;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Add a message to the queue.
+     * @param key The state key of the message, or null if the message is an event.
+     * @param data The message data.
+     */
+    synchronized void add(Object key, byte[] data) {
+        if (key != null) {
+            Entry entry = mStates.get(key);
+            if (entry != null) {
+                mBytes += data.length - entry.mData.length;
+                entry.mData = data;
+                mCoalesced++;
+                trim();
+                return;
+            }
+        }
+        Entry entry = new Entry(key, data);
+        mQueue.addLast(entry);
+        if (key != null) {
+            mStates.put(key, entry);
+        }
+        mBytes += data.length;
+        trim();
+    }
+
+    /**
+     * Remove the oldest message from the queue.
+     * @return The entry, or null if the queue is empty.
+     */
+    synchronized Entry poll() {
+        Entry entry = mQueue.pollFirst();
+        if (entry != null) {
+            forget(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Return an entry that could not be sent to the front of the queue. If a newer state message
+     * with the same key has been queued in the meantime, the entry is dropped instead.
+     * @param entry The entry returned by poll().
+     */
+    synchronized void requeue(Entry entry) {
+        if (entry.mKey != null) {
+            if (mStates.containsKey(entry.mKey)) {
+                mCoalesced++;
+                return;
+            }
+            mStates.put(entry.mKey, entry);
+        }
+        mQueue.addFirst(entry);
+        mBytes += entry.mData.length;
+        trim();
+    }
+
+    /**
+     * Remove all messages from the queue.
+     */
+    synchronized void clear() {
+        mQueue.clear();
+        mStates.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Drop the oldest messages until the queue is within its bounds.
+     */
+    private void trim() {
+        while (mQueue.size() > mMaxMessages || (mBytes > mMaxBytes && mQueue.size() > 1)) {
+            forget(mQueue.pollFirst());
+            mDropped++;
+        }
+    }
+
+    /**
+     * Remove the accounting of an entry that left the queue.
+     * @param entry The entry.
+     */
+    private void forget(Entry entry) {
+        if (entry.mKey != null && mStates.get(entry.mKey) == entry) {
+            mStates.remove(entry.mKey);
+        }
+        mBytes -= entry.mData.length;
+    }
+
+    /**
+     * Get the number of queued messages.
+     * @return The number of messages.
+     */
+    synchronized int getDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Get the number of queued bytes.
+     * @return The number of bytes.
+     */
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Get the number of messages dropped because the queue was full.
+     * @return The number of messages.
+     */
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Get the number of state messages replaced by a newer message before being sent.
+     * @return The number of messages.
+     */
+    synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+}
@@ -22,9 +22,12 @@ import org.webrtc.VideoTrack;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ai.cellbots.common.data.WebRTCSession;
 
@@ -73,45 +76,116 @@ final public class RTCConnection {
     // Store the data channel
     private DataChannel mDataChannel = null;
 
+    // Stop sending while the data channel has buffered more than this many bytes.
+    private static final long MAX_BUFFERED_AMOUNT = 64 * 1024;
+    // Bounds of the queue of messages waiting to be sent.
+    private static final int MAX_QUEUED_MESSAGES = 64;
+    private static final long MAX_QUEUED_BYTES = 256 * 1024;
+
     // Store the messages to write to the data channel
-    private final LinkedList<byte[]> mDataChannelMessages = new LinkedList<>();
+    private final DataChannelSendQueue mDataChannelMessages
+            = new DataChannelSendQueue(MAX_QUEUED_MESSAGES, MAX_QUEUED_BYTES);
+    // Sends the queued messages when the data channel drains, since the data channel observer is
+    // called on the WebRTC signaling thread, which must never wait for the connection lock.
+    private final ExecutorService mSendExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mSendScheduled = new AtomicBoolean(false);
 
     /**
-     * Send a message over the data channel. The messages could arrive out of order.
+     * Send an event message over the data channel. Event messages are delivered in order.
      * @param newData The new data to send down the channel.
      */
     public void sendDataMessage(byte[] newData) {
-        synchronized (mDataChannelMessages) {
-            mDataChannelMessages.add(newData);
-        }
+        sendDataMessage(null, newData);
+    }
+
+    /**
+     * Send a message over the data channel. If the message has a state key, any queued message
+     * with the same key that has not yet been sent is replaced, so only the newest state is sent.
+     * @param stateKey The state key of the message, or null if the message is an event.
+     * @param newData The new data to send down the channel.
+     */
+    public void sendDataMessage(Object stateKey, byte[] newData) {
+        mDataChannelMessages.add(stateKey, newData);
         processMessages();
     }
 
     /**
-     * Attempt to send all messages currently buffered through the data channel.
+     * Get the number of messages waiting to be sent.
+     * @return The number of messages.
+     */
+    public int getDataQueueDepth() {
+        return mDataChannelMessages.getDepth();
+    }
+
+    /**
+     * Get the number of bytes waiting to be sent.
+     * @return The number of bytes.
+     */
+    public long getDataQueueBytes() {
+        return mDataChannelMessages.getBytes();
+    }
+
+    /**
+     * Get the number of messages dropped because the send queue was full.
+     * @return The number of messages.
+     */
+    public long getDroppedDataMessageCount() {
+        return mDataChannelMessages.getDroppedCount();
+    }
+
+    /**
+     * Get the number of state messages replaced by a newer state before being sent.
+     * @return The number of messages.
+     */
+    public long getCoalescedDataMessageCount() {
+        return mDataChannelMessages.getCoalescedCount();
+    }
+
+    /**
+     * Attempt to send the messages currently buffered through the data channel, stopping when the
+     * data channel is not open or has buffered more than MAX_BUFFERED_AMOUNT.
      */
     private void processMessages() {
-        byte[][] messages;
-        synchronized (mDataChannelMessages) {
-            messages = mDataChannelMessages.toArray(new byte[0][0]);
-            mDataChannelMessages.clear();
-        }
         synchronized (this) {
-            if (mDataChannel != null && !mShutdown) {
-                for (byte[] message : messages) {
-                    mDataChannel.send(new DataChannel.Buffer(ByteBuffer.wrap(message), false));
-                }
+            if (mDataChannel == null || mShutdown
+                    || mDataChannel.state() != DataChannel.State.OPEN) {
                 return;
             }
-        }
-        // If we could not send the data, return it.
-        synchronized (mDataChannelMessages) {
-            for (byte[] message : messages) {
-                mDataChannelMessages.push(message);
+            while (mDataChannel.bufferedAmount() < MAX_BUFFERED_AMOUNT) {
+                DataChannelSendQueue.Entry entry = mDataChannelMessages.poll();
+                if (entry == null) {
+                    return;
+                }
+                if (!mDataChannel.send(new DataChannel.Buffer(
+                        ByteBuffer.wrap(entry.getData()), false))) {
+                    // If we could not send the data, return it.
+                    mDataChannelMessages.requeue(entry);
+                    return;
+                }
             }
         }
     }
 
+    /**
+     * Schedule processMessages() on the send executor, called from the data channel observer.
+     */
+    private void scheduleProcessMessages() {
+        if (mShutdown || !mSendScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mSendExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mSendScheduled.set(false);
+                    processMessages();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mSendScheduled.set(false);
+        }
+    }
+
     /**
      * The listener for the RTCConnection, called when events occur on the RTC connection.
      */
@@ -384,19 +458,21 @@ final public class RTCConnection {
                                                     new DataChannel.Observer() {
                                                         /**
                                                          * Called when the amount of buffered data
-                                                         * is changed. The amount is ignored.
-                                                         * @param l The bytes buffered.
+                                                         * is changed. Sends queued messages.
+                                                         * @param l The bytes previously buffered.
                                                          */
                                                         @Override
                                                         public void onBufferedAmountChange(long l) {
+                                                            scheduleProcessMessages();
                                                         }
 
                                                         /**
-                                                         * Called when the state changes. The state
-                                                         * is ignored.
+                                                         * Called when the state changes. Sends
+                                                         * queued messages once open.
                                                          */
                                                         @Override
                                                         public void onStateChange() {
+                                                            scheduleProcessMessages();
                                                         }
 
                                                         /**
@@ -457,18 +533,21 @@ final public class RTCConnection {
                 mDataChannel.registerObserver(
                         new DataChannel.Observer() {
                             /**
-                             * Called when the amount of buffered data is changed. The amount is ignored.
-                             * @param l The bytes buffered.
+                             * Called when the amount of buffered data is changed. Sends queued
+                             * messages.
+                             * @param l The bytes previously buffered.
                              */
                             @Override
                             public void onBufferedAmountChange(long l) {
+                                scheduleProcessMessages();
                             }
 
                             /**
-                             * Called when the state changes. The state is ignored.
+                             * Called when the state changes. Sends queued messages once open.
                              */
                             @Override
                             public void onStateChange() {
+                                scheduleProcessMessages();
                             }
 
                             /**
@@ -610,6 +689,8 @@ final public class RTCConnection {
             }
         }
         // Shutdown
+        mSendExecutor.shutdown();
+        mDataChannelMessages.clear();
         mPeerConnection.dispose();
         mPeerConnectionFactory.dispose();
         mDataChannel = null;
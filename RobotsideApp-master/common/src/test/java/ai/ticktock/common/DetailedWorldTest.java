@@ -0,0 +1,244 @@
+package ai.cellbots.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the loading of DetailedWorld files.
+ */
+public class DetailedWorldTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Create a transform at a position.
+     * @param x The x position.
+     * @param y The y position.
+     * @return The transform.
+     */
+    private static Transform transform(double x, double y) {
+        return new Transform(new double[]{x, y, 0.0}, new double[]{0.0, 0.0, 0.0, 1.0}, x + y);
+    }
+
+    /**
+     * Write a version 3 world file.
+     * @param file The file.
+     * @param user The user uuid.
+     * @param transforms The path transforms.
+     * @param customTransforms The custom transforms.
+     * @param levels The floor plan levels.
+     * @throws IOException On error.
+     */
+    private static void writeWorld(File file, String user, List<Transform> transforms,
+            List<Transform> customTransforms, List<World.FloorPlanLevel> levels)
+            throws IOException {
+        ByteBuffer output = ByteBuffer.allocate(1 << 16);
+        output.put((byte) 3);
+        output.putInt(user.length());
+        output.put(user.getBytes());
+        output.putInt(transforms.size());
+        for (Transform transform : transforms) {
+            transform.toByteBuffer(output);
+        }
+        output.putInt(customTransforms.size());
+        for (Transform transform : customTransforms) {
+            transform.toByteBuffer(output);
+        }
+        output.putInt(levels.size());
+        for (World.FloorPlanLevel level : levels) {
+            level.toByteBuffer(output);
+        }
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(output.array(), 0, output.position());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Create a list of path transforms, including nodes too close to be kept.
+     * @param count The number of transforms.
+     * @return The list.
+     */
+    private static List<Transform> path(int count) {
+        List<Transform> transforms = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            transforms.add(transform(i * 0.5, Math.sin(i)));
+            transforms.add(transform(i * 0.5 + 0.01, Math.sin(i)));
+        }
+        return transforms;
+    }
+
+    /**
+     * Create a floor plan level.
+     * @return The level.
+     */
+    private static World.FloorPlanLevel level() {
+        List<float[]> vertices = Arrays.asList(
+                new float[]{0, 0}, new float[]{1, 0}, new float[]{1, 1});
+        return new World.FloorPlanLevel(0.0, 2.0, Arrays.asList(
+                new World.FloorPlanPolygon(vertices, true, 0.5,
+                        World.FloorPlanPolygon.LAYER_WALLS),
+                new World.FloorPlanPolygon(vertices, false, 0.0,
+                        World.FloorPlanPolygon.LAYER_SPACE)));
+    }
+
+    /**
+     * Assert that two transform lists are equal.
+     * @param expected The expected list.
+     * @param actual The actual list.
+     */
+    private static void assertTransformsEqual(List<Transform> expected, List<Transform> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getPosition(), actual.get(i).getPosition(), 0.0);
+            assertArrayEquals(expected.get(i).getRotation(), actual.get(i).getRotation(), 0.0);
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp(), 0.0);
+        }
+    }
+
+    /**
+     * Tests that a file decodes like an input stream.
+     * @throws IOException On error.
+     */
+    @Test
+    public void testLoadFromFile() throws IOException {
+        File file = mFolder.newFile("world.dat");
+        writeWorld(file, "user", path(10), Arrays.asList(transform(1, 2), transform(3, 4)),
+                Arrays.asList(level(), level()));
+
+        DetailedWorld streamWorld = DetailedWorld.loadDetailedWorldFromInputStream(
+                "uuid", "name", new FileInputStream(file), null);
+        DetailedWorld fileWorld = DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "name", file, null, null);
+        assertNotNull(streamWorld);
+        assertNotNull(fileWorld);
+
+        assertEquals("user", fileWorld.getUserUuid());
+        assertEquals(10, fileWorld.getOriginalPath().size());
+        assertTransformsEqual(streamWorld.getOriginalPath(), fileWorld.getOriginalPath());
+        assertEquals(2, fileWorld.getCustomTransformCount());
+        assertTransformsEqual(streamWorld.getCustomTransforms(),
+                fileWorld.getCustomTransforms());
+        assertTransformsEqual(streamWorld.getSmoothedPath(), fileWorld.getSmoothedPath());
+
+        assertEquals(2, fileWorld.getLevels().size());
+        World.FloorPlanLevel level = fileWorld.getLevels().get(1);
+        assertEquals(2.0, level.getMaxZ(), 0.0);
+        assertEquals(2, level.getPolygons().size());
+        assertEquals(World.FloorPlanPolygon.LAYER_WALLS, level.getPolygons().get(0).getLayer());
+        assertArrayEquals(new double[]{1, 1}, level.getPolygons().get(0).getVertices()[2], 0.0);
+    }
+
+    /**
+     * Tests the smoothed path cache and the parsed world cache.
+     * @throws IOException On error.
+     */
+    @Test
+    public void testCaches() throws IOException {
+        File file = mFolder.newFile("world.dat");
+        File cache = new File(mFolder.getRoot(), "cache");
+        writeWorld(file, "user", path(10), new ArrayList<Transform>(),
+                new ArrayList<World.FloorPlanLevel>());
+
+        DetailedWorld world = DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "cached", file, cache, null);
+        assertNotNull(world);
+        List<Transform> smoothed = world.getSmoothedPath();
+        assertTrue(new File(cache, "uuid.smoothed").isFile());
+        assertSame(world, DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "cached", file, cache, null));
+
+        // A different name bypasses the parsed world cache, so the path is read from disk.
+        DetailedWorld other = DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "other", file, cache, null);
+        assertNotNull(other);
+        assertNotSame(world, other);
+        assertTransformsEqual(smoothed, other.getSmoothedPath());
+
+        // A new path invalidates the smoothed path cache.
+        writeWorld(file, "user", path(5), new ArrayList<Transform>(),
+                new ArrayList<World.FloorPlanLevel>());
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(file.lastModified() + 2000);
+        DetailedWorld changed = DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "cached", file, cache, null);
+        assertNotNull(changed);
+        assertNotSame(world, changed);
+        assertEquals(5, changed.getOriginalPath().size());
+        DetailedWorld expected = DetailedWorld.loadDetailedWorldFromInputStream(
+                "uuid", "cached", new FileInputStream(file), null);
+        assertNotNull(expected);
+        assertTransformsEqual(expected.getSmoothedPath(), changed.getSmoothedPath());
+    }
+
+    /**
+     * Tests that a cached world still decodes after its file is rewritten in place, as the cloud
+     * world manager does when it downloads a world again.
+     * @throws IOException On error.
+     */
+    @Test
+    public void testFileRewrittenUnderCachedWorld() throws IOException {
+        File file = mFolder.newFile("world.dat");
+        List<Transform> transforms = path(10);
+        writeWorld(file, "user", transforms, Arrays.asList(transform(1, 2)),
+                Arrays.asList(level()));
+        DetailedWorld world = DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "rewritten", file, null, null);
+        assertNotNull(world);
+
+        // Truncate the file, then write a smaller world over it, before anything is decoded.
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.close();
+        writeWorld(file, "user", path(3), new ArrayList<Transform>(),
+                new ArrayList<World.FloorPlanLevel>());
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(file.lastModified() + 2000);
+
+        assertEquals(10, world.getOriginalPath().size());
+        assertEquals(1, world.getCustomTransformCount());
+        assertEquals(1, world.getLevels().size());
+        assertEquals(3, world.getLevels().get(0).getPolygons().get(0).getVertices().length);
+
+        DetailedWorld changed = DetailedWorld.loadDetailedWorldFromFile(
+                "uuid", "rewritten", file, null, null);
+        assertNotNull(changed);
+        assertNotSame(world, changed);
+        assertEquals(3, changed.getOriginalPath().size());
+    }
+
+    /**
+     * Tests that truncated files are rejected.
+     * @throws IOException On error.
+     */
+    @Test
+    public void testTruncated() throws IOException {
+        File file = mFolder.newFile("world.dat");
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(new byte[]{3, 0, 0});
+        } finally {
+            stream.close();
+        }
+        assertNull(DetailedWorld.loadDetailedWorldFromFile("uuid", "name", file, null, null));
+    }
+}
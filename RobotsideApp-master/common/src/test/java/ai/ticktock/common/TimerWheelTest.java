@@ -0,0 +1,92 @@
+package ai.cellbots.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test cases for TimerWheel.
+ */
+public class TimerWheelTest {
+    // Tests that keys expire at their expiry time and not before.
+    @Test
+    public void testExpiry() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 4);
+        List<String> expired = new ArrayList<>();
+        wheel.schedule("a", 15);
+        wheel.schedule("b", 25);
+        wheel.schedule("c", 1000);
+        assertEquals(3, wheel.size());
+
+        wheel.advance(14, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(15, expired);
+        assertEquals(Collections.singletonList("a"), expired);
+        expired.clear();
+
+        // Advance within the same tick as the expiry of "b".
+        wheel.advance(24, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(29, expired);
+        assertEquals(Collections.singletonList("b"), expired);
+        expired.clear();
+
+        // "c" is many turns of the wheel away.
+        wheel.advance(999, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(5000, expired);
+        assertEquals(Collections.singletonList("c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    // Tests that keys scheduled in the past expire on the next advance.
+    @Test
+    public void testScheduleInPast() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 4);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(100, expired);
+        wheel.schedule("a", 50);
+        wheel.schedule("b", 100);
+        wheel.advance(100, expired);
+        Collections.sort(expired);
+        assertEquals(Arrays.asList("a", "b"), expired);
+    }
+
+    // Tests against a linear scan of random keys.
+    @Test
+    public void testRandom() {
+        Random random = new Random(1);
+        TimerWheel<Integer> wheel = new TimerWheel<>(7, 16);
+        List<long[]> pending = new ArrayList<>();
+        List<Integer> expired = new ArrayList<>();
+        long time = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (random.nextBoolean()) {
+                long expiry = time + random.nextInt(500) - 20;
+                wheel.schedule(i, expiry);
+                pending.add(new long[]{i, expiry});
+            } else {
+                time += random.nextInt(30);
+                wheel.advance(time, expired);
+                List<Integer> expected = new ArrayList<>();
+                for (int j = pending.size() - 1; j >= 0; j--) {
+                    if (pending.get(j)[1] <= time) {
+                        expected.add((int) pending.remove(j)[0]);
+                    }
+                }
+                Collections.sort(expected);
+                Collections.sort(expired);
+                assertEquals(expected, expired);
+                assertEquals(pending.size(), wheel.size());
+                expired.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ai.cellbots.common.cloud;
+
+import com.google.gson.Gson;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import ai.cellbots.common.data.Teleop;
+import ai.cellbots.common.data.Transform;
+
+/**
+ * Compares the throughput and allocation per message of the JsonSerializer streaming methods
+ * against the original serialization path that built a new Gson instance for each message. Run
+ * with main, it is not part of the unit tests.
+ */
+public class JsonSerializerBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MESSAGES = 20000;
+
+    /**
+     * A message serializer under benchmark.
+     */
+    private interface Serializer {
+        /**
+         * Serialize a message to UTF-8 JSON.
+         * @param object The message.
+         * @return The number of bytes.
+         */
+        int serialize(Object object);
+    }
+
+    public static void main(String[] args) {
+        final Object[] messages = {
+                new Teleop("user", "robot", 0.5, 0.0, 0.0, 0.0, 0.0, -0.5, true, false, 1234L),
+                new Transform(1.0, 2.0, 3.0, 1.0, 0.0, 0.0, 0.0, 99.5),
+        };
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (final Object message : messages) {
+            String name = message.getClass().getSimpleName();
+            benchmark(name + " new Gson per message", message, new Serializer() {
+                @Override
+                public int serialize(Object object) {
+                    Gson gson = JsonSerializer.createGson();
+                    return gson.toJson(object).getBytes(UTF_8).length;
+                }
+            });
+            benchmark(name + " cached Gson to String", message, new Serializer() {
+                @Override
+                public int serialize(Object object) {
+                    return JsonSerializer.toJson(object).getBytes(UTF_8).length;
+                }
+            });
+            benchmark(name + " cached Gson to ByteBuffer", message, new Serializer() {
+                @Override
+                public int serialize(Object object) {
+                    buffer.clear();
+                    return JsonSerializer.toJson(object, buffer);
+                }
+            });
+        }
+    }
+
+    /**
+     * Run and print a benchmark.
+     * @param name The name of the benchmark.
+     * @param message The message to serialize.
+     * @param serializer The serializer.
+     */
+    private static void benchmark(String name, Object message, Serializer serializer) {
+        long bytes = 0;
+        // Warm up
+        for (int i = 0; i < MESSAGES / 10; i++) {
+            bytes += serializer.serialize(message);
+        }
+        long allocatedStart = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            bytes += serializer.serialize(message);
+        }
+        long time = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedStart;
+        System.out.println(String.format("%-40s %8.0f msg/s %8d B allocated/msg (%d)", name,
+                MESSAGES * 1e9 / time,
+                allocatedStart < 0 ? -1 : allocated / MESSAGES, bytes));
+    }
+
+    /**
+     * Get the bytes allocated by the current thread, if the JVM supports it.
+     * @return The number of bytes, or -1 if not supported.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,80 @@
+package ai.cellbots.common.cloud;
+
+import org.junit.Test;
+
+import java.io.CharArrayWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import ai.cellbots.common.data.Teleop;
+import ai.cellbots.common.data.Transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the streaming methods of JsonSerializer.
+ */
+public class JsonSerializerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double DELTA = 1e-9;
+
+    // Tests that the streaming ByteBuffer encoding matches the String encoding.
+    @Test
+    public void testToJsonByteBuffer() {
+        Object[] objects = {
+                new Teleop("user", "robot", 0.5, 0.0, 0.0, 0.0, 0.0, -0.5, true, false, 1234L),
+                new Transform(1.0, 2.0, 3.0, 1.0, 0.0, 0.0, 0.0, 99.5),
+                "ascii \u00e9\u4e2d \ud83d\ude00 lone \ud83d",
+        };
+        for (Object object : objects) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            buffer.put((byte) 7);
+            int length = JsonSerializer.toJson(object, buffer);
+            byte[] expected = JsonSerializer.toJson(object).getBytes(UTF_8);
+            assertEquals(expected.length, length);
+            assertEquals(1 + length, buffer.position());
+            assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 1, 1 + length));
+        }
+    }
+
+    // Tests that a full ByteBuffer throws without moving the position.
+    @Test
+    public void testToJsonByteBufferOverflow() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.put((byte) 7);
+        try {
+            JsonSerializer.toJson(new Transform(1.0, 2.0, 3.0, 1.0, 0.0, 0.0, 0.0, 99.5), buffer);
+            fail("Expected BufferOverflowException");
+        } catch (BufferOverflowException ex) {
+            assertEquals(1, buffer.position());
+        }
+    }
+
+    // Tests that objects can be read back from a ByteBuffer.
+    @Test
+    public void testFromJsonByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        JsonSerializer.toJson(new Transform(1.0, 2.0, 3.0, 1.0, 0.0, 0.0, 0.0, 99.5), buffer);
+        buffer.flip();
+        Transform transform = JsonSerializer.fromJson(buffer, Transform.class);
+        assertEquals(0, buffer.remaining());
+        assertEquals(2.0, transform.py, DELTA);
+        assertEquals(99.5, transform.ts, DELTA);
+    }
+
+    // Tests that a reused writer receives the same JSON as the String encoding.
+    @Test
+    public void testToJsonWriter() {
+        CharArrayWriter writer = new CharArrayWriter();
+        Teleop teleop = new Teleop(0.1, 0.2, 0.3, 0.4, 0.5, 0.6);
+        for (int i = 0; i < 2; i++) {
+            writer.reset();
+            JsonSerializer.toJson(teleop, writer);
+            assertEquals(JsonSerializer.toJson(teleop), writer.toString());
+        }
+    }
+}
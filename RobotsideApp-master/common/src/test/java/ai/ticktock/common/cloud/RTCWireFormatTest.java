@@ -0,0 +1,64 @@
+package ai.cellbots.common.cloud;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import ai.cellbots.common.data.Teleop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the binary wire format of RTCWireFormat.
+ */
+public class RTCWireFormatTest {
+    private static final double DELTA = 1e-9;
+
+    // Tests that the path ids map back to the same paths.
+    @Test
+    public void testPathIds() {
+        short id = RTCWireFormat.getPathId(CloudPath.ROBOT_TELEOP_PATH);
+        assertTrue(id >= 0);
+        assertSame(CloudPath.ROBOT_TELEOP_PATH, RTCWireFormat.getPath(id));
+        assertEquals(RTCWireFormat.NO_PATH_ID, RTCWireFormat.getPathId(CloudPath.ROBOT_GOALS_PATH));
+        assertNull(RTCWireFormat.getPath(RTCWireFormat.NO_PATH_ID));
+    }
+
+    // Tests that a Teleop survives encoding and decoding.
+    @Test
+    public void testTeleopCodec() {
+        Teleop teleop = new Teleop("user", "robot", 0.5, -0.25, 0.0, 0.1, 0.2, -1.5,
+                true, false, 123456789L);
+        byte codecId = RTCWireFormat.getCodecId(teleop);
+        RTCWireFormat.Codec<?> codec = RTCWireFormat.getCodec(codecId);
+        assertEquals(Teleop.class, codec.getDataClass());
+
+        ByteBuffer buffer = ByteBuffer.allocate(codec.getMaxLength());
+        RTCWireFormat.encode(codec, teleop, buffer);
+        buffer.flip();
+        Teleop result = (Teleop) codec.decode("user2", "robot2", buffer);
+
+        assertEquals(0, buffer.remaining());
+        assertEquals("user2", result.getUserUuid());
+        assertEquals("robot2", result.getRobotUuid());
+        assertEquals(0.5, result.getVx(), DELTA);
+        assertEquals(-0.25, result.getVy(), DELTA);
+        assertEquals(0.0, result.getVz(), DELTA);
+        assertEquals(0.1, result.getRx(), DELTA);
+        assertEquals(0.2, result.getRy(), DELTA);
+        assertEquals(-1.5, result.getRz(), DELTA);
+        assertTrue(result.getAction1());
+        assertEquals(false, result.getAction2());
+        assertEquals(123456789L, result.getTimestamp());
+    }
+
+    // Tests that objects without a codec are sent as JSON.
+    @Test
+    public void testJsonFallback() {
+        assertEquals(RTCWireFormat.CODEC_JSON, RTCWireFormat.getCodecId("string"));
+        assertNull(RTCWireFormat.getCodec(RTCWireFormat.CODEC_JSON));
+    }
+}
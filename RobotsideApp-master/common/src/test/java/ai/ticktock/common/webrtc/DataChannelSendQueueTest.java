@@ -0,0 +1,79 @@
+package ai.cellbots.common.webrtc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the DataChannelSendQueue.
+ */
+public class DataChannelSendQueueTest {
+    private static final byte[] A = {1};
+    private static final byte[] B = {2, 2};
+    private static final byte[] C = {3, 3, 3};
+
+    // Tests that events are delivered in order.
+    @Test
+    public void testEventsInOrder() {
+        DataChannelSendQueue queue = new DataChannelSendQueue(10, 100);
+        queue.add(null, A);
+        queue.add(null, B);
+        queue.add(null, C);
+        assertEquals(3, queue.getDepth());
+        assertEquals(6, queue.getBytes());
+        assertArrayEquals(A, queue.poll().getData());
+        assertArrayEquals(B, queue.poll().getData());
+        assertArrayEquals(C, queue.poll().getData());
+        assertNull(queue.poll());
+        assertEquals(0, queue.getBytes());
+    }
+
+    // Tests that states with the same key only keep the newest value, in place.
+    @Test
+    public void testStatesCoalesce() {
+        DataChannelSendQueue queue = new DataChannelSendQueue(10, 100);
+        queue.add("teleop", A);
+        queue.add(null, B);
+        queue.add("teleop", C);
+        assertEquals(2, queue.getDepth());
+        assertEquals(5, queue.getBytes());
+        assertEquals(1, queue.getCoalescedCount());
+        assertArrayEquals(C, queue.poll().getData());
+        assertArrayEquals(B, queue.poll().getData());
+        assertNull(queue.poll());
+    }
+
+    // Tests that the oldest messages are dropped when the queue is full.
+    @Test
+    public void testBounds() {
+        DataChannelSendQueue queue = new DataChannelSendQueue(2, 4);
+        queue.add(null, A);
+        queue.add(null, B);
+        queue.add(null, A);
+        assertEquals(2, queue.getDepth());
+        assertEquals(1, queue.getDroppedCount());
+        queue.add(null, C);
+        queue.add(null, C);
+        assertEquals(1, queue.getDepth());
+        assertEquals(4, queue.getDroppedCount());
+        assertArrayEquals(C, queue.poll().getData());
+    }
+
+    // Tests that a requeued state is dropped if a newer state was queued.
+    @Test
+    public void testRequeue() {
+        DataChannelSendQueue queue = new DataChannelSendQueue(10, 100);
+        queue.add("teleop", A);
+        queue.add(null, B);
+        DataChannelSendQueue.Entry entry = queue.poll();
+        queue.requeue(entry);
+        assertArrayEquals(A, queue.poll().getData());
+        queue.add("teleop", C);
+        queue.requeue(entry);
+        assertEquals(2, queue.getDepth());
+        assertArrayEquals(B, queue.poll().getData());
+        assertArrayEquals(C, queue.poll().getData());
+    }
+}
@@ -0,0 +1,271 @@
+package ai.cellbots.companion;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Caches the static layers of the floorplan, rasterized into square tile bitmaps at a few zoom
+ * levels. The shapes are given in the drawing frame of the floorplan, before the pan, rotation
+ * and zoom matrix is applied. Tiles are rendered when first visible, and are kept until the
+ * shapes are cleared or the tiles are evicted to bound the memory use.
+ *
+ * This class is not thread safe, it is meant to be used from the render thread only.
+ */
+final class FloorplanTileCache {
+    // The size of a tile in bitmap pixels.
+    private static final int TILE_SIZE = 256;
+    // The scale of the tile bitmap pixels relative to the drawing frame, for each zoom level.
+    private static final float[] LEVEL_SCALES = {0.125f, 0.25f, 0.5f, 1f, 2f, 4f};
+    // The fraction of the maximum heap memory that may be used by the tile bitmaps.
+    private static final int MEMORY_FRACTION = 8;
+
+    private final List<Shape> mShapes = new ArrayList<>(); // The shapes to rasterize
+    private final RectF mBounds = new RectF(); // The bounds of all shapes
+    private final LruCache<Long, Bitmap> mTiles; // The rendered tiles, by key
+    private final Set<Long> mEmptyTiles = new HashSet<>(); // The keys of tiles without shapes
+
+    private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Canvas mTileCanvas = new Canvas();
+    private final Matrix mInverse = new Matrix();
+    private final RectF mVisible = new RectF();
+    private final RectF mTileRect = new RectF();
+    private final float[] mCorners = new float[8];
+
+    /**
+     * A shape to rasterize, either a path or a circle.
+     */
+    private static final class Shape {
+        private final Path mPath;
+        private final float mX;
+        private final float mY;
+        private final float mRadius;
+        private final Paint mPaint;
+        private final RectF mBounds = new RectF();
+
+        /**
+         * Creates the shape.
+         *
+         * @param path   The path, or null for a circle.
+         * @param x      The x coordinate of the circle center.
+         * @param y      The y coordinate of the circle center.
+         * @param radius The radius of the circle.
+         * @param paint  The paint.
+         */
+        private Shape(Path path, float x, float y, float radius, Paint paint) {
+            mPath = path;
+            mX = x;
+            mY = y;
+            mRadius = radius;
+            mPaint = paint;
+            if (path != null) {
+                path.computeBounds(mBounds, true);
+            } else {
+                mBounds.set(x - radius, y - radius, x + radius, y + radius);
+            }
+            // Include the stroke and a pixel of margin for anti-aliasing.
+            float margin = 1f;
+            if (paint.getStyle() != Paint.Style.FILL) {
+                margin += paint.getStrokeWidth() / 2f;
+            }
+            mBounds.inset(-margin, -margin);
+        }
+
+        /**
+         * Draws the shape.
+         *
+         * @param canvas The canvas.
+         */
+        private void draw(Canvas canvas) {
+            if (mPath != null) {
+                canvas.drawPath(mPath, mPaint);
+            } else {
+                canvas.drawCircle(mX, mY, mRadius, mPaint);
+            }
+        }
+    }
+
+    /**
+     * Creates the cache.
+     */
+    FloorplanTileCache() {
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        mTiles = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue,
+                    Bitmap newValue) {
+                oldValue.recycle();
+            }
+        };
+    }
+
+    /**
+     * Removes all shapes and tiles.
+     */
+    void clear() {
+        mShapes.clear();
+        mBounds.setEmpty();
+        evictTiles();
+    }
+
+    /**
+     * Removes all tiles, keeping the shapes. The tiles are rendered again when next drawn.
+     */
+    void evictTiles() {
+        mTiles.evictAll();
+        mEmptyTiles.clear();
+    }
+
+    /**
+     * Adds a path. The tiles must be cleared before adding shapes.
+     *
+     * @param path  The path, which must not be changed afterwards.
+     * @param paint The paint, which must not be changed afterwards.
+     */
+    void addPath(Path path, Paint paint) {
+        addShape(new Shape(path, 0, 0, 0, paint));
+    }
+
+    /**
+     * Adds a circle. The tiles must be cleared before adding shapes.
+     *
+     * @param x      The x coordinate of the center.
+     * @param y      The y coordinate of the center.
+     * @param radius The radius.
+     * @param paint  The paint, which must not be changed afterwards.
+     */
+    void addCircle(float x, float y, float radius, Paint paint) {
+        addShape(new Shape(null, x, y, radius, paint));
+    }
+
+    /**
+     * Adds a shape.
+     *
+     * @param shape The shape.
+     */
+    private void addShape(Shape shape) {
+        mShapes.add(shape);
+        mBounds.union(shape.mBounds);
+    }
+
+    /**
+     * Draws the visible tiles, rendering the tiles not in the cache.
+     *
+     * @param canvas                The canvas, translated to its center and then transformed by
+     *                              the pan, rotation and zoom matrix.
+     * @param panRotationZoomMatrix The pan, rotation and zoom matrix.
+     */
+    void draw(Canvas canvas, Matrix panRotationZoomMatrix) {
+        if (mShapes.isEmpty() || !panRotationZoomMatrix.invert(mInverse)) {
+            return;
+        }
+        // Find the visible area of the drawing frame from the corners of the canvas.
+        float halfWidth = canvas.getWidth() / 2f;
+        float halfHeight = canvas.getHeight() / 2f;
+        mCorners[0] = -halfWidth;
+        mCorners[1] = -halfHeight;
+        mCorners[2] = halfWidth;
+        mCorners[3] = -halfHeight;
+        mCorners[4] = halfWidth;
+        mCorners[5] = halfHeight;
+        mCorners[6] = -halfWidth;
+        mCorners[7] = halfHeight;
+        mInverse.mapPoints(mCorners);
+        mVisible.set(mCorners[0], mCorners[1], mCorners[0], mCorners[1]);
+        for (int i = 2; i < mCorners.length; i += 2) {
+            mVisible.union(mCorners[i], mCorners[i + 1]);
+        }
+        if (!mVisible.intersect(mBounds)) {
+            return;
+        }
+
+        int level = getLevel(panRotationZoomMatrix.mapRadius(1f));
+        float tileSize = TILE_SIZE / LEVEL_SCALES[level];
+        int minX = (int) Math.floor(mVisible.left / tileSize);
+        int maxX = (int) Math.floor(mVisible.right / tileSize);
+        int minY = (int) Math.floor(mVisible.top / tileSize);
+        int maxY = (int) Math.floor(mVisible.bottom / tileSize);
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                mTileRect.set(x * tileSize, y * tileSize, (x + 1) * tileSize,
+                        (y + 1) * tileSize);
+                Bitmap tile = getTile(level, x, y);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, mTileRect, mTilePaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the zoom level closest to a scale.
+     *
+     * @param scale The scale of the screen pixels relative to the drawing frame.
+     * @return The index of the zoom level.
+     */
+    private static int getLevel(float scale) {
+        int level = 0;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < LEVEL_SCALES.length; i++) {
+            double error = Math.abs(Math.log(LEVEL_SCALES[i] / scale));
+            if (error < best) {
+                best = error;
+                level = i;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Gets a tile, rendering it if it is not in the cache. Requires mTileRect to be set to the
+     * bounds of the tile.
+     *
+     * @param level The zoom level.
+     * @param x     The x index of the tile.
+     * @param y     The y index of the tile.
+     * @return The tile, or null if no shapes overlap the tile.
+     */
+    private Bitmap getTile(int level, int x, int y) {
+        Long key = ((long) level << 60) | ((long) (x & 0x3FFFFFFF) << 30) | (y & 0x3FFFFFFF);
+        Bitmap tile = mTiles.get(key);
+        if (tile != null || mEmptyTiles.contains(key)) {
+            return tile;
+        }
+        for (Shape shape : mShapes) {
+            if (RectF.intersects(shape.mBounds, mTileRect)) {
+                if (tile == null) {
+                    tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                    tile.eraseColor(Color.TRANSPARENT);
+                    mTileCanvas.setBitmap(tile);
+                    mTileCanvas.setMatrix(null);
+                    mTileCanvas.scale(LEVEL_SCALES[level], LEVEL_SCALES[level]);
+                    mTileCanvas.translate(-mTileRect.left, -mTileRect.top);
+                }
+                shape.draw(mTileCanvas);
+            }
+        }
+        if (tile == null) {
+            mEmptyTiles.add(key);
+        } else {
+            mTileCanvas.setBitmap(null);
+            mTiles.put(key, tile);
+        }
+        return tile;
+    }
+}
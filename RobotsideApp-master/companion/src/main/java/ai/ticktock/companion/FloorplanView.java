@@ -70,6 +70,7 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
     private Paint mCustomPathPaint;
     private Paint mOriginalPathPaint;
     private Paint mRobotPathPaint;
+    private Paint mRobotPathPointPaint;
 
     private Paint mRobotMarkerPaint;
 
@@ -78,6 +79,13 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
     private Matrix mCamera;
     private Matrix mCameraInverse;
     private Matrix mPanRotationZoomMatrix;
+
+    // The polygons, paths, POIs and goals, rasterized into tiles. Only used in the render thread.
+    private final FloorplanTileCache mTileCache = new FloorplanTileCache();
+    // True if the static layers must be rasterized again. Synchronized by this.
+    private boolean mStaticLayersChanged = true;
+    // The bounds of the static layers, or null if there is no floorplan. Synchronized by this.
+    private PositionLimiter mStaticLimiter = null;
     private Transform mWaypoint;
     private boolean mDrawWaypoint;
 
@@ -231,6 +239,12 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
         mOriginalPathPaint.setColor(Color.YELLOW);
         mCustomPathPaint = new Paint();
         mCustomPathPaint.setColor(Color.MAGENTA);
+        mRobotPathPointPaint = new Paint();
+        mRobotPathPointPaint.setColor(Color.RED);
+        mRobotPathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mRobotPathPaint.setStyle(Paint.Style.STROKE);
+        mRobotPathPaint.setStrokeWidth(2);
+        mRobotPathPaint.setColor(Color.RED);
 
         mCamera = new Matrix();
         mCameraInverse = new Matrix();
@@ -268,6 +282,8 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
                 }
                 mDrawThread = null;
             }
+            // Release the tile bitmaps while there is no surface to draw on.
+            mTileCache.evictTiles();
         }
     }
 
@@ -305,6 +321,18 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
         private PositionLimiter() {
         }
 
+        /**
+         * Creates a copy of a position limiter.
+         * @param other The position limiter to copy.
+         */
+        private PositionLimiter(PositionLimiter other) {
+            mForce = other.mForce;
+            mMaxX = other.mMaxX;
+            mMinX = other.mMinX;
+            mMaxY = other.mMaxY;
+            mMinY = other.mMinY;
+        }
+
         /**
          * Compute if a point is out of bounds.
          * @param x The point x.
@@ -378,21 +406,22 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
         }
     }
 
-    private void doDraw(Canvas canvas) {
-        // Erase the previous canvas image.
-        canvas.drawColor(getResources().getColor(android.R.color.white));
-
-        // Start drawing from the center of the canvas.
-        translationX = canvas.getWidth() / 2f;
-        translationY = canvas.getHeight() / 2f;
-        canvas.translate(translationX, translationY);
+    /**
+     * Rebuilds the static layers and their bounds. The static layers are the floorplan polygons,
+     * the smoothed, custom and original paths, the POIs and the active goals, which are drawn
+     * from cached tiles until they change. Must be called synchronized by this, in the render
+     * thread.
+     *
+     * @param world The floorplan, or null if there is none.
+     */
+    private void updateStaticLayers(DetailedWorld world) {
+        mTileCache.clear();
+        mStaticLimiter = null;
 
-        DetailedWorld world = mWorld;
-        PositionLimiter limiter;
         List<World.FloorPlanPolygon> drawPolygons = new ArrayList<>();
         if (world != null) {
             if (!world.getLevels().isEmpty()) {
-                limiter = new PositionLimiter();
+                PositionLimiter limiter = new PositionLimiter();
                 for (World.FloorPlanPolygon polygon : world.getLevels().get(0).getPolygons()) {
                     if (polygon.getArea() <= 0) {
                         continue;
@@ -409,77 +438,42 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
                         limiter.update(vertex);
                     }
                 }
-                synchronized (this) {
-                    for (ai.cellbots.common.data.Transform tf : mRobotPath) {
-                        limiter.update(tf);
-                    }
-                    for (PointOfInterest poi : mPOIs) {
-                        if (poi != null && poi.variables != null) {
-                            limiter.update(poi.variables.location);
-                        }
-                    }
-                    for (PlannerGoal goalRaw : mActiveGoals) {
-                        if (goalRaw instanceof DriveGoal) {
-                            DriveGoal goal = (DriveGoal) goalRaw;
-                            limiter.update(goal.parameters.location);
-                        } else if (goalRaw instanceof DrivePointGoal) {
-                            DrivePointGoal goal = (DrivePointGoal) goalRaw;
-                            limiter.update(goal.parameters.location);
-                        } else if (goalRaw instanceof VacuumSpiralGoal) {
-                            VacuumSpiralGoal goal = (VacuumSpiralGoal) goalRaw;
-                            limiter.update(goal.parameters.location);
-                        } else if (goalRaw instanceof PatrolDriverGoal) {
-                            PatrolDriverGoal goal = (PatrolDriverGoal) goalRaw;
-                            limiter.update(goal.parameters.location);
-                        }
-                    }
-                    for (Transform tf : mSmoothedPath) {
-                        limiter.update(tf);
+                for (PointOfInterest poi : mPOIs) {
+                    if (poi != null && poi.variables != null) {
+                        limiter.update(poi.variables.location);
                     }
-                    if (mCustomPath != null) {
-                        for (Transform tf : mCustomPath) {
-                            limiter.update(tf);
-                        }
+                }
+                for (PlannerGoal goalRaw : mActiveGoals) {
+                    if (goalRaw instanceof DriveGoal) {
+                        DriveGoal goal = (DriveGoal) goalRaw;
+                        limiter.update(goal.parameters.location);
+                    } else if (goalRaw instanceof DrivePointGoal) {
+                        DrivePointGoal goal = (DrivePointGoal) goalRaw;
+                        limiter.update(goal.parameters.location);
+                    } else if (goalRaw instanceof VacuumSpiralGoal) {
+                        VacuumSpiralGoal goal = (VacuumSpiralGoal) goalRaw;
+                        limiter.update(goal.parameters.location);
+                    } else if (goalRaw instanceof PatrolDriverGoal) {
+                        PatrolDriverGoal goal = (PatrolDriverGoal) goalRaw;
+                        limiter.update(goal.parameters.location);
                     }
-                    for (Transform tf : mOriginalPath) {
+                }
+                for (Transform tf : mSmoothedPath) {
+                    limiter.update(tf);
+                }
+                if (mCustomPath != null) {
+                    for (Transform tf : mCustomPath) {
                         limiter.update(tf);
                     }
-                    if (mWaypoint != null) {
-                        limiter.update(mWaypoint);
-                    }
-
-                    // Transform the x and y position via the angle rotation and check if it is
-                    // in the bounds. If not, compute a new position by clamping the angle position.
-                    // if that new position differs from the clamped values, set it as the x and y.
-                    double rad = Math.toRadians(mRotationAngle);
-                    double tfPx = Math.cos(rad) * mDragX + Math.sin(rad) * mDragY;
-                    double tfPy = -Math.sin(rad) * mDragX + Math.cos(rad) * mDragY;
-                    if (limiter.isOutOfBounds(-tfPx / SCALE / mScaleFactor, tfPy / SCALE / mScaleFactor)) {
-                        float clampX = (float) -limiter.clampX(-tfPx / SCALE / mScaleFactor) * SCALE * mScaleFactor;
-                        float clampY = (float) limiter.clampY(tfPy / SCALE / mScaleFactor) * SCALE * mScaleFactor;
-                        tfPx = Math.cos(-rad) * clampX + Math.sin(-rad) * clampY;
-                        tfPy = -Math.sin(-rad) * clampX + Math.cos(-rad) * clampY;
-                        if (mDragX != (float) tfPx || mDragY != (float) tfPy) {
-                            mDragX = (float) tfPx;
-                            mDragY = (float) tfPy;
-                            mUpdateDatabase = true;
-                        }
-                    }
                 }
-            }
-        }
-
-        // Update position and orientation based on the device position and orientation.
-        updatePanRotationZoomMatrix();
-        // TODO: the scale should be included here instead of applying it later when drawing.
-        canvas.concat(mPanRotationZoomMatrix);
-
-        // Draw all the polygons. Make a shallow copy in case mPolygons is reset while rendering.
-        if (world != null) {
-            if (!world.getLevels().isEmpty()) {
+                for (Transform tf : mOriginalPath) {
+                    limiter.update(tf);
+                }
+                mStaticLimiter = limiter;
                 drawPolygons = world.getLevels().get(0).getPolygons();
             }
         }
+
         boolean largestSpaceDrawn = false;
         for (World.FloorPlanPolygon polygon : drawPolygons) {
             Paint paint;
@@ -513,9 +507,9 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
             if (polygon.getArea() < 0.0) {
                 paint = mBackgroundPaint;
             }
-            Path path = new Path();
             double[][] vertices = polygon.getVertices();
             if (vertices.length > 0) {
+                Path path = new Path();
                 double[] p = vertices[0];
                 // NOTE: We need to flip the Y axis since the polygon data is in Tango start of
                 // service frame (Y+ forward) and we want to draw image coordinates (Y+ 2D down).
@@ -527,10 +521,123 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
                 if (polygon.getClosed()) {
                     path.close();
                 }
-                canvas.drawPath(path, paint);
+                mTileCache.addPath(path, paint);
+            }
+        }
+
+        // Draw all POIs over the map
+        if (mDrawAllPOIs) {
+            for (int i = 0; i < mPOIs.size(); i++) {
+                mTileCache.addCircle((float) mPOIs.get(i).variables.location.px * SCALE,
+                        -(float) mPOIs.get(i).variables.location.py * SCALE, GOAL_MARKER_SIZE,
+                        mPOIPaint);
+            }
+        }
+
+        // Draw all active goals
+        if (mDrawActiveGoals) {
+            for (PlannerGoal goalRaw : mActiveGoals) {
+                if (goalRaw instanceof DriveGoal) {
+                    DriveGoal goal = (DriveGoal) goalRaw;
+                    mTileCache.addCircle((float) goal.parameters.location.px * SCALE,
+                            -(float) goal.parameters.location.py * SCALE,
+                            GOAL_MARKER_SIZE, mActiveDriveGoalPaint);
+                } else if (goalRaw instanceof DrivePointGoal) {
+                    DrivePointGoal goal = (DrivePointGoal) goalRaw;
+                    mTileCache.addCircle((float) goal.parameters.location.px * SCALE,
+                            -(float) goal.parameters.location.py * SCALE,
+                            GOAL_MARKER_SIZE, mActiveDriveGoalPaint);
+                } else if (goalRaw instanceof VacuumSpiralGoal) {
+                    VacuumSpiralGoal goal = (VacuumSpiralGoal) goalRaw;
+                    mTileCache.addCircle((float) goal.parameters.location.px * SCALE,
+                            -(float) goal.parameters.location.py * SCALE,
+                            GOAL_MARKER_SIZE, mActiveCleanGoalPaint);
+                } else if (goalRaw instanceof PatrolDriverGoal) {
+                    PatrolDriverGoal goal = (PatrolDriverGoal) goalRaw;
+                    mTileCache.addCircle((float) goal.parameters.location.px * SCALE,
+                            -(float) goal.parameters.location.py * SCALE,
+                            GOAL_MARKER_SIZE, mActivePatrolGoalPaint);
+                }
             }
         }
 
+        // Draw smoothed path
+        for (int i = 0; i < mSmoothedPath.size(); i++) {
+            mTileCache.addCircle((float) mSmoothedPath.get(i).getPosition(0) * SCALE,
+                    -(float) mSmoothedPath.get(i).getPosition(1) * SCALE,
+                    SMOOTHED_PATH_MARKER_SIZE, mSmoothedPathPaint);
+        }
+
+        // Draw custom path
+        if (mCustomPath != null) {
+            for (int i = 0; i < mCustomPath.size(); i++) {
+                mTileCache.addCircle((float) mCustomPath.get(i).getPosition(0) * SCALE,
+                        -(float) mCustomPath.get(i).getPosition(1) * SCALE,
+                        CUSTOM_PATH_MARKER_SIZE, mCustomPathPaint);
+            }
+        }
+
+        // Draw original non-smoothed path
+        if (mDrawAdfData) {
+            for (int i = 0; i < mOriginalPath.size(); i++) {
+                mTileCache.addCircle((float) mOriginalPath.get(i).getPosition(0) * SCALE,
+                        -(float) mOriginalPath.get(i).getPosition(1) * SCALE,
+                        SMOOTHED_PATH_MARKER_SIZE, mOriginalPathPaint);
+            }
+        }
+    }
+
+    private void doDraw(Canvas canvas) {
+        // Erase the previous canvas image.
+        canvas.drawColor(getResources().getColor(android.R.color.white));
+
+        // Start drawing from the center of the canvas.
+        translationX = canvas.getWidth() / 2f;
+        translationY = canvas.getHeight() / 2f;
+        canvas.translate(translationX, translationY);
+
+        synchronized (this) {
+            if (mStaticLayersChanged) {
+                updateStaticLayers(mWorld);
+                mStaticLayersChanged = false;
+            }
+            if (mStaticLimiter != null) {
+                PositionLimiter limiter = new PositionLimiter(mStaticLimiter);
+                for (ai.cellbots.common.data.Transform tf : mRobotPath) {
+                    limiter.update(tf);
+                }
+                if (mWaypoint != null) {
+                    limiter.update(mWaypoint);
+                }
+
+                // Transform the x and y position via the angle rotation and check if it is
+                // in the bounds. If not, compute a new position by clamping the angle position.
+                // if that new position differs from the clamped values, set it as the x and y.
+                double rad = Math.toRadians(mRotationAngle);
+                double tfPx = Math.cos(rad) * mDragX + Math.sin(rad) * mDragY;
+                double tfPy = -Math.sin(rad) * mDragX + Math.cos(rad) * mDragY;
+                if (limiter.isOutOfBounds(-tfPx / SCALE / mScaleFactor, tfPy / SCALE / mScaleFactor)) {
+                    float clampX = (float) -limiter.clampX(-tfPx / SCALE / mScaleFactor) * SCALE * mScaleFactor;
+                    float clampY = (float) limiter.clampY(tfPy / SCALE / mScaleFactor) * SCALE * mScaleFactor;
+                    tfPx = Math.cos(-rad) * clampX + Math.sin(-rad) * clampY;
+                    tfPy = -Math.sin(-rad) * clampX + Math.cos(-rad) * clampY;
+                    if (mDragX != (float) tfPx || mDragY != (float) tfPy) {
+                        mDragX = (float) tfPx;
+                        mDragY = (float) tfPy;
+                        mUpdateDatabase = true;
+                    }
+                }
+            }
+        }
+
+        // Update position and orientation based on the device position and orientation.
+        updatePanRotationZoomMatrix();
+        // TODO: the scale should be included here instead of applying it later when drawing.
+        canvas.concat(mPanRotationZoomMatrix);
+
+        // Draw the polygons, paths, POIs and goals from the cached tiles.
+        mTileCache.draw(canvas, mPanRotationZoomMatrix);
+
         synchronized (this) {
             // Draw current robot path
             Path path = new Path();
@@ -544,82 +651,16 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
                 float point[] = {(float) mRobotPath.get(i).px * SCALE,
                         -(float) mRobotPath.get(i).py * SCALE};
                 // Draw point
-                mRobotPathPaint = new Paint();
-                mRobotPathPaint.setColor(Color.RED);
-                canvas.drawCircle(point[0], point[1], ROBOT_PATH_MARKER_SIZE, mRobotPathPaint);
+                canvas.drawCircle(point[0], point[1], ROBOT_PATH_MARKER_SIZE,
+                        mRobotPathPointPaint);
                 // Draw line to the next one if it is not the first Transform
-                mRobotPathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-                mRobotPathPaint.setStyle(Paint.Style.STROKE);
-                mRobotPathPaint.setStrokeWidth(2);
-                mRobotPathPaint.setColor(Color.RED);
                 path.lineTo(point[0], point[1]);
                 path.moveTo(point[0], point[1]);
             }
-            if (!mRobotPath.isEmpty() && mRobotPathPaint != null) {
+            if (!mRobotPath.isEmpty()) {
                 canvas.drawPath(path, mRobotPathPaint);
             }
 
-            // Draw all POIs over the map
-            if (mDrawAllPOIs) {
-                for (int i = 0; i < mPOIs.size(); i++) {
-                    canvas.drawCircle((float) mPOIs.get(i).variables.location.px * SCALE,
-                            -(float) mPOIs.get(i).variables.location.py * SCALE, GOAL_MARKER_SIZE,
-                            mPOIPaint);
-                }
-            }
-
-            // Draw all active goals
-            if (mDrawActiveGoals) {
-                for (PlannerGoal goalRaw : mActiveGoals) {
-                    if (goalRaw instanceof DriveGoal) {
-                        DriveGoal goal = (DriveGoal) goalRaw;
-                        canvas.drawCircle((float) goal.parameters.location.px * SCALE,
-                                -(float) goal.parameters.location.py * SCALE,
-                                GOAL_MARKER_SIZE, mActiveDriveGoalPaint);
-                    } else if (goalRaw instanceof DrivePointGoal) {
-                        DrivePointGoal goal = (DrivePointGoal) goalRaw;
-                        canvas.drawCircle((float) goal.parameters.location.px * SCALE,
-                                -(float) goal.parameters.location.py * SCALE,
-                                GOAL_MARKER_SIZE, mActiveDriveGoalPaint);
-                    } else if (goalRaw instanceof VacuumSpiralGoal) {
-                        VacuumSpiralGoal goal = (VacuumSpiralGoal) goalRaw;
-                        canvas.drawCircle((float) goal.parameters.location.px * SCALE,
-                                -(float) goal.parameters.location.py * SCALE,
-                                GOAL_MARKER_SIZE, mActiveCleanGoalPaint);
-                    } else if (goalRaw instanceof PatrolDriverGoal) {
-                        PatrolDriverGoal goal = (PatrolDriverGoal) goalRaw;
-                        canvas.drawCircle((float) goal.parameters.location.px * SCALE,
-                                -(float) goal.parameters.location.py * SCALE,
-                                GOAL_MARKER_SIZE, mActivePatrolGoalPaint);
-                    }
-                }
-            }
-
-            // Draw smoothed path
-            for (int i = 0; i < mSmoothedPath.size(); i++) {
-                canvas.drawCircle((float) mSmoothedPath.get(i).getPosition(0) * SCALE,
-                        -(float) mSmoothedPath.get(i).getPosition(1) * SCALE,
-                        SMOOTHED_PATH_MARKER_SIZE, mSmoothedPathPaint);
-            }
-
-            // Draw custom path
-            if (mCustomPath != null) {
-                for (int i = 0; i < mCustomPath.size(); i++) {
-                    canvas.drawCircle((float) mCustomPath.get(i).getPosition(0) * SCALE,
-                            -(float) mCustomPath.get(i).getPosition(1) * SCALE,
-                            CUSTOM_PATH_MARKER_SIZE, mCustomPathPaint);
-                }
-            }
-
-            // Draw original non-smoothed path
-            if (mDrawAdfData) {
-                for (int i = 0; i < mOriginalPath.size(); i++) {
-                    canvas.drawCircle((float) mOriginalPath.get(i).getPosition(0) * SCALE,
-                            -(float) mOriginalPath.get(i).getPosition(1) * SCALE,
-                            SMOOTHED_PATH_MARKER_SIZE, mOriginalPathPaint);
-                }
-            }
-
             // Draw a single marker if there is any available
             if (mDrawWaypoint) {
                 Transform waypointView = new Transform(mWaypoint);
@@ -641,6 +682,7 @@ public class FloorplanView extends SurfaceView implements SurfaceHolder.Callback
         mOriginalPath = mWorld.getOriginalPath();
         mSmoothedPath = mWorld.getSmoothedPath();
         mCustomPath = mWorld.getCustomTransforms();
+        mStaticLayersChanged = true;
     }
 
     /**
@@ -978,12 +1020,14 @@ private class LongPressListener extends GestureDetector.SimpleOnGestureListener
     public void setPOIs(List<PointOfInterest> POIs) {
         synchronized (this) {
             mPOIs = new ArrayList<>(POIs);
+            mStaticLayersChanged = true;
         }
     }
 
     public void setActiveGoals(List<PlannerGoal> activeGoals) {
         synchronized (this) {
             mActiveGoals = new ArrayList<>(activeGoals);
+            mStaticLayersChanged = true;
         }
     }
 
@@ -993,7 +1037,12 @@ private class LongPressListener extends GestureDetector.SimpleOnGestureListener
      * @param state true for drawing all pois.
      */
     public void drawAllPOIs(boolean state) {
-        mDrawAllPOIs = state;
+        synchronized (this) {
+            if (mDrawAllPOIs != state) {
+                mDrawAllPOIs = state;
+                mStaticLayersChanged = true;
+            }
+        }
     }
 
     /**
@@ -1002,14 +1051,24 @@ private class LongPressListener extends GestureDetector.SimpleOnGestureListener
      * @param state true fro drawing active goals
      */
     public void drawActiveGoals(boolean state) {
-        mDrawActiveGoals = state;
+        synchronized (this) {
+            if (mDrawActiveGoals != state) {
+                mDrawActiveGoals = state;
+                mStaticLayersChanged = true;
+            }
+        }
     }
 
     /**
      * Sets flag to draw the ADF data on the map.
      */
     public void drawOriginalPath(boolean state) {
-        mDrawAdfData = state;
+        synchronized (this) {
+            if (mDrawAdfData != state) {
+                mDrawAdfData = state;
+                mStaticLayersChanged = true;
+            }
+        }
     }
 
 /**
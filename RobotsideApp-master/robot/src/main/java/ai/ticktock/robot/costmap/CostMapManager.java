@@ -2,6 +2,7 @@ package ai.cellbots.robot.costmap;
 
 import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -34,6 +35,8 @@ public class CostMapManager implements CostMap.Listener, ThreadedShutdown {
     private final Map<CostMap.Source, Map<CostMapInflator.Type, CostMap>> mCostMapByType = new HashMap<>();
     private final CostMapInflator mCostMapInflator;
     private final CostMapFuser mCostMapFuser;
+    // Persists the inflated static CostMaps of the world, or null if disabled.
+    private final StaticCostMapCache mStaticCostMapCache;
     // CostMap generated by fusing the static sources
     // that were inflated using the full robot radius.
     private CostMap mFullyInflatedStaticCostMap = null;
@@ -126,11 +129,36 @@ public class CostMapManager implements CostMap.Listener, ThreadedShutdown {
      */
     public CostMapManager(ROSNodeManager rosNodeManager, RobotSessionGlobals session, Collection<CostMap> costMaps,
                           Listener listener, CostMapInflator inflator, CostMapFuser fuser, double resolution) {
+        this(rosNodeManager, session, costMaps, listener, inflator, fuser, resolution, null);
+    }
+
+    /**
+     * Creates the CostMap manager.
+     *
+     * @param rosNodeManager The ROS node manager.
+     * @param session        The session.
+     * @param costMaps       The collection of CostMaps to store.
+     * @param listener       The listeners for the CostMap updates.
+     * @param inflator       The CostMapInflator.
+     * @param fuser          The CostMapFuser.
+     * @param resolution     The resolution in meters per square.
+     * @param cacheDirectory The directory to persist the inflated static CostMaps of the world,
+     *                       or null to always compute them.
+     */
+    public CostMapManager(ROSNodeManager rosNodeManager, RobotSessionGlobals session, Collection<CostMap> costMaps,
+                          Listener listener, CostMapInflator inflator, CostMapFuser fuser, double resolution,
+                          File cacheDirectory) {
         mROSNodeManager = rosNodeManager;
         mListener = listener;
         mSession = session;
         mCostMapFuser = fuser;
         mCostMapInflator = inflator;
+        if (cacheDirectory != null && session != null && session.getWorld() != null) {
+            mStaticCostMapCache = new StaticCostMapCache(cacheDirectory,
+                    session.getWorld().getUuid(), inflator, fuser);
+        } else {
+            mStaticCostMapCache = null;
+        }
         Map<CostMap.Source, CostMap> costMapsBySource = new HashMap<>();
 
         for (CostMap costMap : costMaps) {
@@ -218,6 +246,15 @@ public class CostMapManager implements CostMap.Listener, ThreadedShutdown {
                         || mCostMapLastUpdate.get(costMap.getSource())
                         != costMap.getUpdateCount()) {
                     mCostMapLastUpdate.put(costMap.getSource(), costMap.getUpdateCount());
+                    boolean cacheable = mStaticCostMapCache != null
+                            && STATIC_SOURCES.contains(costMap.getSource());
+                    Map<CostMapInflator.Type, CostMap> cachedCostMaps = cacheable
+                            ? mStaticCostMapCache.getInflatedCostMaps(costMap) : null;
+                    if (cachedCostMaps != null) {
+                        mCostMapByType.put(costMap.getSource(), cachedCostMaps);
+                        mUpdatedCostMaps.add(costMap.getSource());
+                        continue;
+                    }
                     byte[] fullRadiusInflatedCostMapByteArray = costMap.requiresInflation()
                             ? mCostMapInflator.inflateCostMapFullRadius(costMap)
                             : costMap.getFullCostRegion();
@@ -236,6 +273,9 @@ public class CostMapManager implements CostMap.Listener, ThreadedShutdown {
                     costMaps.put(CostMapInflator.Type.FULL_RADIUS, fullRadiusInflatedCostMap);
                     costMaps.put(CostMapInflator.Type.FACTOR_RADIUS, factorRadiusInflatedCostMap);
                     mCostMapByType.put(costMap.getSource(), costMaps);
+                    if (cacheable) {
+                        mStaticCostMapCache.putInflatedCostMaps(costMap.getSource(), costMaps);
+                    }
                     Log.i(TAG, "Merged in CostMap " + costMap.getSource() + ": X: ["
                             + costMap.getLowerXLimit() + ", " + costMap.getUpperXLimit()
                             + "] Y: [" + costMap.getLowerYLimit()
@@ -257,9 +297,11 @@ public class CostMapManager implements CostMap.Listener, ThreadedShutdown {
         // See if we need a static update and store all static maps
         List<CostMap> fullyInflatedStaticMaps = new LinkedList<>();
         List<CostMap> proportionallyInflatedStaticMaps = new LinkedList<>();
+        List<CostMap.Source> staticSources = new LinkedList<>();
         boolean staticUpdate = false;
         for (CostMap.Source source : STATIC_SOURCES) {
             if (ALL_SOURCES.contains(source) && mCostMapByType.containsKey(source)) {
+                staticSources.add(source);
                 fullyInflatedStaticMaps.add(mCostMapByType.get(source).get(
                         CostMapInflator.Type.FULL_RADIUS));
                 proportionallyInflatedStaticMaps.add(mCostMapByType.get(source).get(
@@ -269,13 +311,29 @@ public class CostMapManager implements CostMap.Listener, ThreadedShutdown {
         }
         if (staticUpdate || mFullyInflatedStaticCostMap == null ||
                 mProportionallyInflatedStaticCostMap == null) {
-            Log.i(TAG, "Fusing " + mCostMapByType.size() + " static CostMaps");
-            mFullyInflatedStaticCostMap = mCostMapFuser.fuseCostMaps(
-                    fullyInflatedStaticMaps,
-                    CostMap.Source.STATIC_COSTMAP_FULLY_INFLATED);
-            mProportionallyInflatedStaticCostMap = mCostMapFuser.fuseCostMaps(
-                    proportionallyInflatedStaticMaps,
-                    CostMap.Source.STATIC_COSTMAP_PROPORTIONALLY_INFLATED);
+            Map<CostMapInflator.Type, CostMap> cachedCostMaps = mStaticCostMapCache != null
+                    ? mStaticCostMapCache.getFusedCostMaps(staticSources) : null;
+            if (cachedCostMaps != null) {
+                mFullyInflatedStaticCostMap = cachedCostMaps.get(CostMapInflator.Type.FULL_RADIUS);
+                mProportionallyInflatedStaticCostMap = cachedCostMaps.get(
+                        CostMapInflator.Type.FACTOR_RADIUS);
+            } else {
+                Log.i(TAG, "Fusing " + mCostMapByType.size() + " static CostMaps");
+                mFullyInflatedStaticCostMap = mCostMapFuser.fuseCostMaps(
+                        fullyInflatedStaticMaps,
+                        CostMap.Source.STATIC_COSTMAP_FULLY_INFLATED);
+                mProportionallyInflatedStaticCostMap = mCostMapFuser.fuseCostMaps(
+                        proportionallyInflatedStaticMaps,
+                        CostMap.Source.STATIC_COSTMAP_PROPORTIONALLY_INFLATED);
+                if (mStaticCostMapCache != null) {
+                    Map<CostMapInflator.Type, CostMap> fusedCostMaps = new HashMap<>();
+                    fusedCostMaps.put(CostMapInflator.Type.FULL_RADIUS,
+                            mFullyInflatedStaticCostMap);
+                    fusedCostMaps.put(CostMapInflator.Type.FACTOR_RADIUS,
+                            mProportionallyInflatedStaticCostMap);
+                    mStaticCostMapCache.putFusedCostMaps(staticSources, fusedCostMaps);
+                }
+            }
         }
 
         List<CostMap> fullyInflatedDynamicMaps = new LinkedList<>();
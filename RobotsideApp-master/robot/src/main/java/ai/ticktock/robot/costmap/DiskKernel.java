@@ -0,0 +1,246 @@
+package ai.cellbots.robot.costmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A disk of grid cells, stored as the half width of each of its rows, so it is stamped on a grid
+ * as one span per row. The cell (x, y) is in the disk of radius r around (0, 0) if
+ * x * x + y * y <= r * r. Kernels are immutable, and are shared for each radius.
+ *
+ * A kernel can also sweep a capsule between two cells, being all the cells within the radius of
+ * the segment between them, so consecutive nodes of a path are covered without stamping the disk
+ * again at each node.
+ */
+public final class DiskKernel {
+    private static final Map<Integer, DiskKernel> sKernels = new HashMap<>(); // Radius to kernel
+
+    private final int mRadius; // The radius in cells
+    private final int[] mHalfWidths; // The half width of each row, from -radius to radius
+
+    /**
+     * Creates the kernel.
+     *
+     * @param radius The radius in cells.
+     */
+    private DiskKernel(int radius) {
+        mRadius = radius;
+        mHalfWidths = new int[2 * radius + 1];
+        int halfWidth = radius;
+        for (int y = 0; y <= radius; y++) {
+            while (halfWidth * halfWidth + y * y > radius * radius) {
+                halfWidth--;
+            }
+            mHalfWidths[radius + y] = halfWidth;
+            mHalfWidths[radius - y] = halfWidth;
+        }
+    }
+
+    /**
+     * Gets the kernel of a radius.
+     *
+     * @param radius The radius in cells. Negative radii are treated as zero.
+     * @return The kernel.
+     */
+    public static DiskKernel forRadius(int radius) {
+        radius = Math.max(0, radius);
+        synchronized (sKernels) {
+            DiskKernel kernel = sKernels.get(radius);
+            if (kernel == null) {
+                kernel = new DiskKernel(radius);
+                sKernels.put(radius, kernel);
+            }
+            return kernel;
+        }
+    }
+
+    /**
+     * Gets the radius.
+     *
+     * @return The radius in cells.
+     */
+    public int getRadius() {
+        return mRadius;
+    }
+
+    /**
+     * Gets the half width of a row of the disk.
+     *
+     * @param y The y offset of the row from the center, in cells.
+     * @return The half width of the row in cells, or -1 if the row is outside the disk.
+     */
+    public int getHalfWidth(int y) {
+        if (y < -mRadius || y > mRadius) {
+            return -1;
+        }
+        return mHalfWidths[y + mRadius];
+    }
+
+    /**
+     * Checks if two cells are close enough for their disks to overlap on the segment between
+     * them, so sweeping the capsule between them does not join distant cells.
+     *
+     * @param x0 The x coordinate of the first cell.
+     * @param y0 The y coordinate of the first cell.
+     * @param x1 The x coordinate of the second cell.
+     * @param y1 The y coordinate of the second cell.
+     * @return True if the cells are at most the radius apart.
+     */
+    public boolean isWithinRadius(int x0, int y0, int x1, int y1) {
+        long dx = x1 - x0;
+        long dy = y1 - y0;
+        return dx * dx + dy * dy <= (long) mRadius * mRadius;
+    }
+
+    /**
+     * Sets the cost of the cells of the disk around a cell of a grid. Cells outside of the grid
+     * are ignored.
+     *
+     * @param grid    The grid, in rows of width cells.
+     * @param width   The width of the grid.
+     * @param height  The height of the grid.
+     * @param startX  The x coordinate of the first column of the grid, in grid cells.
+     * @param startY  The y coordinate of the first row of the grid, in grid cells.
+     * @param centerX The x coordinate of the center, in grid cells.
+     * @param centerY The y coordinate of the center, in grid cells.
+     * @param cost    The cost to set.
+     */
+    public void stamp(byte[] grid, int width, int height, int startX, int startY,
+            int centerX, int centerY, byte cost) {
+        int minY = Math.max(centerY - mRadius, startY);
+        int maxY = Math.min(centerY + mRadius, startY + height - 1);
+        for (int y = minY; y <= maxY; y++) {
+            int halfWidth = mHalfWidths[y - centerY + mRadius];
+            fillSpan(grid, width, startX, startY, y, centerX - halfWidth, centerX + halfWidth,
+                    cost);
+        }
+    }
+
+    /**
+     * Sets the cost of the cells within the radius of the segment between two cells of a grid,
+     * including both disks at the ends. Cells outside of the grid are ignored.
+     *
+     * @param grid   The grid, in rows of width cells.
+     * @param width  The width of the grid.
+     * @param height The height of the grid.
+     * @param startX The x coordinate of the first column of the grid, in grid cells.
+     * @param startY The y coordinate of the first row of the grid, in grid cells.
+     * @param x0     The x coordinate of the first cell, in grid cells.
+     * @param y0     The y coordinate of the first cell, in grid cells.
+     * @param x1     The x coordinate of the second cell, in grid cells.
+     * @param y1     The y coordinate of the second cell, in grid cells.
+     * @param cost   The cost to set.
+     */
+    public void sweep(byte[] grid, int width, int height, int startX, int startY,
+            int x0, int y0, int x1, int y1, byte cost) {
+        long dx = x1 - x0;
+        long dy = y1 - y0;
+        long lengthSquared = dx * dx + dy * dy;
+        // A cell (x0 + u, y0 + v) is beside the segment if its projection on the segment,
+        // u * dx + v * dy, is in [0, lengthSquared] and its distance to the line, proportional to
+        // u * dy - v * dx, is at most the radius. Both are integers, so the bounds are exact.
+        long maxCross = sqrtFloor((long) mRadius * mRadius * lengthSquared);
+        int minY = Math.max(Math.min(y0, y1) - mRadius, startY);
+        int maxY = Math.min(Math.max(y0, y1) + mRadius, startY + height - 1);
+        for (int y = minY; y <= maxY; y++) {
+            long minX = Long.MAX_VALUE;
+            long maxX = Long.MIN_VALUE;
+            int halfWidth = getHalfWidth(y - y0);
+            if (halfWidth >= 0) {
+                minX = x0 - halfWidth;
+                maxX = x0 + halfWidth;
+            }
+            halfWidth = getHalfWidth(y - y1);
+            if (halfWidth >= 0) {
+                minX = Math.min(minX, x1 - halfWidth);
+                maxX = Math.max(maxX, x1 + halfWidth);
+            }
+            if (lengthSquared > 0) {
+                long v = y - y0;
+                // Solve 0 <= u * dx + v * dy <= lengthSquared for u.
+                long[] dot = solve(dx, v * dy, 0, lengthSquared);
+                // Solve -maxCross <= u * dy - v * dx <= maxCross for u.
+                long[] cross = solve(dy, -v * dx, -maxCross, maxCross);
+                if (dot != null && cross != null) {
+                    long minU = Math.max(dot[0], cross[0]);
+                    long maxU = Math.min(dot[1], cross[1]);
+                    if (minU <= maxU) {
+                        minX = Math.min(minX, x0 + minU);
+                        maxX = Math.max(maxX, x0 + maxU);
+                    }
+                }
+            }
+            // The capsule is convex, so the cells of each row form a single span.
+            if (minX <= maxX) {
+                fillSpan(grid, width, startX, startY, y,
+                        (int) Math.max(minX, Integer.MIN_VALUE),
+                        (int) Math.min(maxX, Integer.MAX_VALUE), cost);
+            }
+        }
+    }
+
+    /**
+     * Sets the cost of a span of a row of a grid, clipped to the grid.
+     *
+     * @param grid   The grid, in rows of width cells.
+     * @param width  The width of the grid.
+     * @param startX The x coordinate of the first column of the grid, in grid cells.
+     * @param startY The y coordinate of the first row of the grid, in grid cells.
+     * @param y      The y coordinate of the row, in grid cells. Must be inside the grid.
+     * @param minX   The x coordinate of the first cell of the span, in grid cells.
+     * @param maxX   The x coordinate of the last cell of the span, in grid cells. Inclusive.
+     * @param cost   The cost to set.
+     */
+    private static void fillSpan(byte[] grid, int width, int startX, int startY, int y,
+            int minX, int maxX, byte cost) {
+        int from = Math.max(minX, startX) - startX;
+        int to = Math.min(maxX, startX + width - 1) - startX;
+        if (from <= to) {
+            int row = (y - startY) * width;
+            Arrays.fill(grid, row + from, row + to + 1, cost);
+        }
+    }
+
+    /**
+     * Solves low <= a * u + b <= high for the integer u.
+     *
+     * @return The range {minU, maxU} of u, or null if there is no solution.
+     */
+    private static long[] solve(long a, long b, long low, long high) {
+        if (a == 0) {
+            return (low <= b && b <= high) ? new long[]{Long.MIN_VALUE / 2, Long.MAX_VALUE / 2}
+                    : null;
+        }
+        if (a < 0) {
+            a = -a;
+            b = -b;
+            long swap = low;
+            low = -high;
+            high = -swap;
+        }
+        return new long[]{-floorDiv(b - low, a), floorDiv(high - b, a)};
+    }
+
+    /**
+     * Divides rounding towards negative infinity, for a positive divisor.
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor < 0) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Computes the integer square root, rounded down.
+     */
+    private static long sqrtFloor(long value) {
+        long root = (long) Math.sqrt((double) value);
+        while (root * root > value) {
+            root--;
+        }
+        while ((root + 1) * (root + 1) <= value) {
+            root++;
+        }
+        return root;
+    }
+}
@@ -75,7 +75,10 @@ public class FloorplanCostMap extends GridCostMap {
 
         // Create the grid.
         makeGrid(positions, MIN_COST);
-        // For every furniture or wall polygon.
+        // Rasterize every furniture or wall polygon in a single pass. Walls are room outlines, so
+        // only their sides are obstacles and the rooms they enclose stay free. Furniture is
+        // filled, and holes, with negative area, are cut out of the furniture around them.
+        PolygonRasterizer rasterizer = new PolygonRasterizer(getResolution());
         for (World.FloorPlanPolygon polygon : polygons) {
             if ((polygon.getLayer() == World.FloorPlanPolygon.LAYER_WALLS) ||
                     (polygon.getLayer() == World.FloorPlanPolygon.LAYER_FURNITURE)) {
@@ -83,35 +86,16 @@ public class FloorplanCostMap extends GridCostMap {
                 // though.
                 if (polygon.getVertices().length < 2) continue;
                 // Drop too small polygon.
-                if (polygon.getArea() < MIN_POLYGON_SIZE) continue;
-                // Rasterize polygon vertices.
-                int[][] discretizedVertices = discretizePolygonVertices(polygon.getVertices());
-                // Draw the polygon on the grid.
-                drawPolygonOnGrid(discretizedVertices);
+                if (Math.abs(polygon.getArea()) < MIN_POLYGON_SIZE) continue;
+                if (polygon.getLayer() == World.FloorPlanPolygon.LAYER_FURNITURE
+                        && polygon.getClosed()) {
+                    rasterizer.addPolygon(polygon.getVertices(), polygon.getArea() < 0);
+                } else {
+                    rasterizer.addPolyline(polygon.getVertices(), polygon.getClosed());
+                }
             }
         }
-    }
-
-    /**
-     * Given polygon vertices in double[][] coordinates, it returns discretized coordinates int[][].
-     *
-     * @param vertices Vertices of the polygon in double[][] coordinates.
-     * @return Discretized coordinates int[][].
-     */
-    private int[][] discretizePolygonVertices(double[][] vertices) {
-        // Sanity checks
-        if (vertices == null) {
-            Log.w(TAG, "discretizePolygonVertices: null vertices");
-            return null;
-        }
-
-        int[][] discretizedVertices = new int[vertices.length][vertices[0].length];
-        for (int x = 0; x < vertices.length; x++) {
-            for (int y = 0; y < vertices[0].length; y++) {
-                discretizedVertices[x][y] = (int) Math.floor(vertices[x][y] / getResolution());
-            }
-        }
-        return discretizedVertices;
+        fillPolygonsOnGrid(rasterizer, OBSTACLE_COST);
     }
 
     /**
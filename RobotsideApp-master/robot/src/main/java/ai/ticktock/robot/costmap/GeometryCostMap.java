@@ -4,11 +4,13 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import ai.cellbots.common.Polygon;
+import ai.cellbots.common.TimerWheel;
 import ai.cellbots.common.Transform;
 
 /**
@@ -29,7 +31,7 @@ public class GeometryCostMap extends GridCostMap {
 
         /**
          * Creates a geometry object.
-         * @param expireTime The time to expire the object in ms (currently not used).
+         * @param expireTime The time to expire the object in ms.
          * @param cost       The cost of the object (currently not used).
          * @param polygon    The Polygon list for the object.
          */
@@ -40,8 +42,76 @@ public class GeometryCostMap extends GridCostMap {
         }
     }
 
+    // The duration of a slot of the expiry timer wheel, in milliseconds.
+    private static final long EXPIRY_TICK_MILLISECOND = 100;
+    // The number of slots of the expiry timer wheel.
+    private static final int EXPIRY_SLOTS = 128;
+    // The extra space added around the geometries when the grid grows, in meters.
+    private static final double GROW_MARGIN = 1.0;
+    // The grid shrinks when it is this many times larger than needed by the geometries.
+    private static final int SHRINK_FACTOR = 4;
+
+    /**
+     * A geometry added to the CostMap, with the cells its polygon touches.
+     */
+    private static final class Entry {
+        private final double[][] mVertices; // The polygon vertices, in meters
+        private final int mMinX; // The lower x limit of the polygon cells
+        private final int mMinY; // The lower y limit of the polygon cells
+        private final int mMaxX; // The upper x limit of the polygon cells, exclusive
+        private final int mMaxY; // The upper y limit of the polygon cells, exclusive
+
+        private Entry(double[][] vertices, int minX, int minY, int maxX, int maxY) {
+            mVertices = vertices;
+            mMinX = minX;
+            mMinY = minY;
+            mMaxX = maxX;
+            mMaxY = maxY;
+        }
+    }
+
     // TODO(playerone) Use ConcurrentLinkedQueue and remove all synchronization. This is part 3.
-    private final LinkedList<Geometry> mGeometryList = new LinkedList<>();
+    private final Map<Long, Entry> mEntries = new HashMap<>(); // The live geometries, by id
+    // Expires the geometry ids, so an update only visits the geometries that expire.
+    private final TimerWheel<Long> mExpiry =
+            new TimerWheel<>(EXPIRY_TICK_MILLISECOND, EXPIRY_SLOTS);
+    private final List<Long> mExpired = new ArrayList<>(); // The ids expired in an update
+    private long mNextId = 0; // The id of the next geometry
+    // Rasterizes the geometry polygons, reused between updates.
+    private final PolygonRasterizer mRasterizer;
+    // Counts the geometries covering each cell of the grid. A cell is an obstacle if its count is
+    // positive, so a geometry is added or expired by visiting only its own cells.
+    private int[] mCounts = null;
+    private int mCountsStartX = 0; // The x coordinate of the first column of the counts
+    private int mCountsStartY = 0; // The y coordinate of the first row of the counts
+    private int mCountsWidth = 0; // The width of the counts
+    private int mCountsHeight = 0; // The height of the counts
+    private int mCountsDelta = 0; // The change of count applied by mCountUpdater
+    // The region changed by the last update, in grid cells. Empty if the maximum is not greater.
+    private int mDirtyMinX = 0;
+    private int mDirtyMinY = 0;
+    private int mDirtyMaxX = 0;
+    private int mDirtyMaxY = 0;
+
+    // Applies mCountsDelta to the counts of the spans of a polygon.
+    private final PolygonRasterizer.SpanListener mCountUpdater =
+            new PolygonRasterizer.SpanListener() {
+        @Override
+        public void onSpan(int y, int minX, int maxX) {
+            int row = (y - mCountsStartY) * mCountsWidth - mCountsStartX;
+            for (int x = minX; x <= maxX; x++) {
+                int before = mCounts[row + x];
+                int after = before + mCountsDelta;
+                mCounts[row + x] = after;
+                if (before <= 0 && after > 0) {
+                    // TODO mCost is not used, cells covered by a geometry are set to OBSTACLE_COST.
+                    setCost(x, y, OBSTACLE_COST);
+                } else if (before > 0 && after <= 0) {
+                    setCost(x, y, MIN_COST);
+                }
+            }
+        }
+    };
 
     /**
      * Creates the CostMap.
@@ -52,6 +122,7 @@ public class GeometryCostMap extends GridCostMap {
     public GeometryCostMap(Source source, double resolution, double robotRadius) {
         super(source, resolution);
         mRobotRadius = robotRadius;
+        mRasterizer = new PolygonRasterizer(resolution);
     }
 
     /**
@@ -63,37 +134,58 @@ public class GeometryCostMap extends GridCostMap {
     }
 
     /**
-     * Updates the CostMap with geometries.
+     * Updates the CostMap with geometries. Geometries expire once the timestamp is after their
+     * expire time. Only the cells of the added and expired geometries are changed, unless the
+     * grid has to grow or shrink, and the changed region is available from getDirtyRegion().
      *
      * @param timeStamp The timestamp at which the update is called.
      * @param list      The new geometries to add to the CostMap.
      */
     public synchronized void update(long timeStamp, Collection<Geometry> list) {
+        mDirtyMinX = mDirtyMinY = Integer.MAX_VALUE;
+        mDirtyMaxX = mDirtyMaxY = Integer.MIN_VALUE;
+
         // Remove geometries that are expired.
-        Iterator<Geometry> iterator = mGeometryList.iterator();
-        while (iterator.hasNext()){
-            Geometry g = iterator.next();
-            if (g.mExpireTime < timeStamp) {
-                iterator.remove();
+        mExpired.clear();
+        mExpiry.advance(timeStamp, mExpired);
+        for (Long id : mExpired) {
+            Entry entry = mEntries.remove(id);
+            if (entry != null) {
+                updateCounts(entry, -1);
             }
         }
-        // Clear the associated grid.
-        clearGrid();
 
         // Add the new geometries.
-        if (!list.isEmpty()) {
-            mGeometryList.addAll(list);
+        for (Geometry g : list) {
+            Entry entry = createEntry(g);
+            if (entry == null) {
+                Log.w(TAG, "Ignoring empty geometry polygon");
+                continue;
+            }
+            long id = mNextId++;
+            mEntries.put(id, entry);
+            // The wheel expires keys at their expiry, while geometries expire after it.
+            mExpiry.schedule(id, g.mExpireTime == Long.MAX_VALUE ? g.mExpireTime
+                    : g.mExpireTime + 1);
+            ensureGridContains(entry);
+            updateCounts(entry, 1);
         }
 
-        // Create the new grid with valid geometries.
-        if (!mGeometryList.isEmpty()) {
+        if (!mEntries.isEmpty()) {
+            shrinkGrid();
             setValid(true);
-            fillCostMapWithGeometries();
             Log.d(TAG, "Costmap created " + getSource() + ": X: ["
                     + getLowerXLimit() + ", " + getUpperXLimit()
                     + "] Y: [" + getLowerYLimit()
                     + ", " + getUpperYLimit() + "]");
         } else {
+            if (mCounts != null) {
+                addDirtyRegion(mCountsStartX, mCountsStartY, mCountsStartX + mCountsWidth,
+                        mCountsStartY + mCountsHeight);
+                mCounts = null;
+                // Clear the associated grid.
+                clearGrid();
+            }
             setValid(false);
             Log.d(TAG, "Costmap not created " + getSource());
         }
@@ -101,68 +193,167 @@ public class GeometryCostMap extends GridCostMap {
     }
 
     /**
-     * Sets a costmap grid and fills it with the geometry polygons.
+     * Gets the region of the grid changed by the last update.
+     *
+     * @return An array of {minX, minY, maxX, maxY} in grid cells, where the maximums are
+     * exclusive, or null if no cells were changed.
      */
-    // TODO(playerone) remove sync
-    private synchronized void fillCostMapWithGeometries() {
-        if (mGeometryList.isEmpty()) {
-            Log.wtf(TAG, "Empty geometries list");
-            setValid(false);
-            return;
+    public synchronized int[] getDirtyRegion() {
+        if (mDirtyMinX >= mDirtyMaxX || mDirtyMinY >= mDirtyMaxY) {
+            return null;
         }
-        // Get the grid boundaries to determine the size of the cost map.
-        double[][] positions = findGeometriesBoundaries();
-        if (positions == null) {
-            Log.wtf(TAG, "Could not find grid boundaries");
-            setValid(false);
-            return;
+        return new int[]{mDirtyMinX, mDirtyMinY, mDirtyMaxX, mDirtyMaxY};
+    }
+
+    /**
+     * Creates the entry of a geometry, finding the cells touched by its polygon.
+     *
+     * @param geometry The geometry.
+     * @return The entry, or null if the polygon has no vertices.
+     */
+    private Entry createEntry(Geometry geometry) {
+        int size = geometry.mPolygon.getSize();
+        List<Transform> points = geometry.mPolygon.getPoints();
+        double[][] vertices = new double[size][];
+        for (int i = 0; i < size; i++) {
+            vertices[i] = points.get(i).getPosition();
         }
-        // Create the grid.
-        makeGrid(positions, MIN_COST);
-        for (Geometry g : mGeometryList) {
-            int size = g.mPolygon.getSize();
-            List<Transform> points = g.mPolygon.getPoints();
-            // DiscretizedVertices contain only X and Y.
-            int[][] discretizedVertices = new int[size][2];
-            for (int i = 0; i < size; i++) {
-                double[] pointPosition = points.get(i).getPosition();
-                discretizedVertices[i][0] = (int) Math.floor(pointPosition[0] / getResolution());
-                discretizedVertices[i][1] = (int) Math.floor(pointPosition[1] / getResolution());
-            }
-            // TODO mCost is not used, function below sets polygon regions to OBSTACLE_COST.
-            drawPolygonOnGrid(discretizedVertices);
+        mRasterizer.clear();
+        mRasterizer.addPolygon(vertices, false);
+        if (mRasterizer.isEmpty()) {
+            return null;
         }
+        return new Entry(vertices, mRasterizer.getLowerXLimit(),
+                mRasterizer.getLowerYLimit(), mRasterizer.getUpperXLimit(),
+                mRasterizer.getUpperYLimit());
     }
 
     /**
-     * Finds the boundaries of all the geometry polygons in X and Y.
-     * The boundaries are extended by robot radius in each direction.
+     * Adds to the counts of the cells covered by the polygon of a geometry, setting the cost of
+     * the cells that become covered or uncovered. The polygon must be inside of the counts.
      *
-     * @return array of doubles {{minX, minY}}, {{maxX, maxY}}.
+     * @param entry The geometry entry.
+     * @param delta The change of count, 1 to add the geometry or -1 to remove it.
      */
-    // TODO(playerone) remove sync
-    private synchronized double[][] findGeometriesBoundaries() {
-        if (mGeometryList.isEmpty()) {
-            Log.wtf(TAG, "Empty geometries list");
-            return null;
+    private void updateCounts(Entry entry, int delta) {
+        mRasterizer.clear();
+        mRasterizer.addPolygon(entry.mVertices, false);
+        mCountsDelta = delta;
+        mRasterizer.rasterize(mCountsStartX, mCountsStartY, mCountsStartX + mCountsWidth,
+                mCountsStartY + mCountsHeight, mCountUpdater);
+        addDirtyRegion(entry.mMinX, entry.mMinY, entry.mMaxX, entry.mMaxY);
+    }
+
+    /**
+     * Grows the grid if needed to contain a geometry, extended by the robot radius. The grid
+     * grows with a margin, so that nearby geometries do not each reallocate it.
+     *
+     * @param entry The geometry entry.
+     */
+    private void ensureGridContains(Entry entry) {
+        int radius = (int) Math.ceil(mRobotRadius / getResolution());
+        int minX = entry.mMinX - radius;
+        int minY = entry.mMinY - radius;
+        int maxX = entry.mMaxX + radius;
+        int maxY = entry.mMaxY + radius;
+        if (mCounts != null && minX >= mCountsStartX && minY >= mCountsStartY
+                && maxX <= mCountsStartX + mCountsWidth
+                && maxY <= mCountsStartY + mCountsHeight) {
+            return;
+        }
+        int margin = (int) Math.ceil(GROW_MARGIN / getResolution());
+        minX -= margin;
+        minY -= margin;
+        maxX += margin;
+        maxY += margin;
+        if (mCounts != null) {
+            minX = Math.min(minX, mCountsStartX);
+            minY = Math.min(minY, mCountsStartY);
+            maxX = Math.max(maxX, mCountsStartX + mCountsWidth);
+            maxY = Math.max(maxY, mCountsStartY + mCountsHeight);
+        }
+        reallocateGrid(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Shrinks the grid to the geometries extended by the robot radius, if it is much larger than
+     * needed, as once the grid has grown it is otherwise only released when all geometries have
+     * expired.
+     */
+    private void shrinkGrid() {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (Entry entry : mEntries.values()) {
+            minX = Math.min(minX, entry.mMinX);
+            minY = Math.min(minY, entry.mMinY);
+            maxX = Math.max(maxX, entry.mMaxX);
+            maxY = Math.max(maxY, entry.mMaxY);
         }
-        double minX = Double.MAX_VALUE;
-        double maxX = -Double.MAX_VALUE;
-        double minY = Double.MAX_VALUE;
-        double maxY = -Double.MAX_VALUE;
-        for (Geometry g : mGeometryList) {
-            int size = g.mPolygon.getSize();
-            List<Transform> points = g.mPolygon.getPoints();
-            for (int i = 0; i < size; i++) {
-                double[] pointPosition = points.get(i).getPosition();
-                minX = Math.min(minX, pointPosition[0]);
-                maxX = Math.max(maxX, pointPosition[0]);
-                minY = Math.min(minY, pointPosition[1]);
-                maxY = Math.max(maxY, pointPosition[1]);
+        int radius = (int) Math.ceil(mRobotRadius / getResolution());
+        minX -= radius;
+        minY -= radius;
+        maxX += radius;
+        maxY += radius;
+        if ((long) mCountsWidth * mCountsHeight
+                > (long) SHRINK_FACTOR * (maxX - minX) * (maxY - minY)) {
+            reallocateGrid(minX, minY, maxX, maxY);
+        }
+    }
+
+    /**
+     * Reallocates the grid and the counts to a new region, keeping the counts of the cells that
+     * are in both regions. The new region must contain all the geometries.
+     *
+     * @param minX The lower x limit, in grid cells.
+     * @param minY The lower y limit, in grid cells.
+     * @param maxX The upper x limit, in grid cells, exclusive.
+     * @param maxY The upper y limit, in grid cells, exclusive.
+     */
+    private void reallocateGrid(int minX, int minY, int maxX, int maxY) {
+        int width = maxX - minX;
+        int height = maxY - minY;
+        int[] counts = new int[width * height];
+        if (mCounts != null) {
+            addDirtyRegion(mCountsStartX, mCountsStartY, mCountsStartX + mCountsWidth,
+                    mCountsStartY + mCountsHeight);
+            int fromX = Math.max(minX, mCountsStartX);
+            int toX = Math.min(maxX, mCountsStartX + mCountsWidth);
+            int fromY = Math.max(minY, mCountsStartY);
+            int toY = Math.min(maxY, mCountsStartY + mCountsHeight);
+            for (int y = fromY; y < toY && fromX < toX; y++) {
+                System.arraycopy(mCounts,
+                        (y - mCountsStartY) * mCountsWidth + fromX - mCountsStartX,
+                        counts, (y - minY) * width + fromX - minX, toX - fromX);
             }
         }
-        return new double[][]{{minX - mRobotRadius, minY - mRobotRadius},
-                              {maxX + mRobotRadius, maxY + mRobotRadius}};
+        byte[] grid = new byte[width * height];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = counts[i] > 0 ? OBSTACLE_COST : MIN_COST;
+        }
+        mCounts = counts;
+        mCountsStartX = minX;
+        mCountsStartY = minY;
+        mCountsWidth = width;
+        mCountsHeight = height;
+        setGrid(grid, width, height, minX, minY);
+        addDirtyRegion(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Adds a region to the region changed by the update.
+     *
+     * @param minX The lower x limit, in grid cells.
+     * @param minY The lower y limit, in grid cells.
+     * @param maxX The upper x limit, in grid cells, exclusive.
+     * @param maxY The upper y limit, in grid cells, exclusive.
+     */
+    private void addDirtyRegion(int minX, int minY, int maxX, int maxY) {
+        mDirtyMinX = Math.min(mDirtyMinX, minX);
+        mDirtyMinY = Math.min(mDirtyMinY, minY);
+        mDirtyMaxX = Math.max(mDirtyMaxX, maxX);
+        mDirtyMaxY = Math.max(mDirtyMaxY, maxY);
     }
 
     /**
@@ -129,7 +129,8 @@ public abstract class GridCostMap extends CostMap {
      *
      */
     protected void clearGrid() {
-        checkArgument(mGrid.copyFrom(new byte[0]));
+        // Copying an empty array only succeeds when the grid is already empty, so reallocate it.
+        mGrid = new AtomicByteArray(0);
         mWidth.set(0);
         mHeight.set(0);
         mStartX.set(0);
@@ -155,7 +156,8 @@ public abstract class GridCostMap extends CostMap {
 
     /**
      * Sets the cost of a list of transforms, with a given inflation radius.
-     * The cost is even for all the elements.
+     * The cost is even for all the elements. Consecutive transforms closer than the radius are
+     * joined by sweeping the disk between them, instead of stamping the disk at each of them.
      *
      * @param transforms The list of transforms to set the costs for.
      * @param radius     The inflation radius in meters for each pose on the list.
@@ -167,11 +169,33 @@ public abstract class GridCostMap extends CostMap {
             Log.w(TAG, "Input transform is null");
             return;
         }
+        if (getSize() == 0) {
+            return;
+        }
+        DiskKernel kernel = DiskKernel.forRadius((int) Math.round(radius / getResolution()));
+        byte[] array = mGrid.clone();
+        int width = mWidth.get();
+        int height = mHeight.get();
+        int startX = mStartX.get();
+        int startY = mStartY.get();
+        CostMapPose previous = null;
         for (int i = 0; i < transforms.size(); i++) {
-            CostMapPose pathPose = discretize(transforms.get(i).getPosition(0),
+            CostMapPose pose = discretize(transforms.get(i).getPosition(0),
                     transforms.get(i).getPosition(1));
-            inflateCost(pathPose, radius, cost);
+            if (pose.equals(previous)) {
+                continue;
+            }
+            if (previous != null && kernel.isWithinRadius(previous.getX(), previous.getY(),
+                    pose.getX(), pose.getY())) {
+                kernel.sweep(array, width, height, startX, startY,
+                        previous.getX(), previous.getY(), pose.getX(), pose.getY(), cost);
+            } else {
+                kernel.stamp(array, width, height, startX, startY, pose.getX(), pose.getY(), cost);
+            }
+            previous = pose;
         }
+        // TODO(playerone) strictly speaking this is not thread safe. We need to use CAS.
+        checkArgument(mGrid.copyFrom(array));
     }
 
     /**
@@ -183,16 +207,21 @@ public abstract class GridCostMap extends CostMap {
      */
     @SuppressWarnings("WeakerAccess")
     protected void inflateCost(CostMapPose pose, double radius, byte cost) {
-        int discretizedRadius = (int) Math.round(radius / getResolution());
+        if (getSize() == 0) {
+            return;
+        }
+        DiskKernel kernel = DiskKernel.forRadius((int) Math.round(radius / getResolution()));
         int width = mWidth.get();
-        for (int j = -discretizedRadius; j <= discretizedRadius; j++) {
-            int x = pose.getX() + j;
-            for (int k = -discretizedRadius; k <= discretizedRadius; k++) {
-                int y = pose.getY() + k;
-                if (includesCoordinate(new CostMapPose(x, y)) &&
-                        j * j + k * k <= discretizedRadius * discretizedRadius) {
-                    mGrid.set((y - getLowerYLimit()) * width + x - getLowerXLimit(), cost);
-                }
+        int minX = getLowerXLimit();
+        int maxX = getUpperXLimit() - 1;
+        int minY = Math.max(pose.getY() - kernel.getRadius(), getLowerYLimit());
+        int maxY = Math.min(pose.getY() + kernel.getRadius(), getUpperYLimit() - 1);
+        for (int y = minY; y <= maxY; y++) {
+            int halfWidth = kernel.getHalfWidth(y - pose.getY());
+            int row = (y - getLowerYLimit()) * width - getLowerXLimit();
+            for (int x = Math.max(pose.getX() - halfWidth, minX);
+                    x <= Math.min(pose.getX() + halfWidth, maxX); x++) {
+                mGrid.set(row + x, cost);
             }
         }
     }
@@ -390,4 +419,35 @@ public abstract class GridCostMap extends CostMap {
         // TODO(playerone) strictly speaking this is not thread safe. We need to use CAS.
         checkArgument(mGrid.copyFrom(array));
     }
+
+    /**
+     * Sets the cost of all the cells covered by the polygons of a rasterizer, filling the inside
+     * of the polygons and not only their sides.
+     *
+     * @param rasterizer The rasterizer holding the polygons.
+     * @param cost       The cost to set.
+     */
+    void fillPolygonsOnGrid(PolygonRasterizer rasterizer, byte cost) {
+        if (rasterizer.isEmpty() || getSize() == 0) {
+            return;
+        }
+        byte[] array = mGrid.clone();
+        rasterizer.fill(array, mWidth.get(), mHeight.get(), mStartX.get(), mStartY.get(), cost);
+        // TODO(playerone) strictly speaking this is not thread safe. We need to use CAS.
+        checkArgument(mGrid.copyFrom(array));
+    }
+
+    /**
+     * Sets the cost of a single cell in place, without copying the grid. Cells outside of the grid
+     * are ignored. The caller is still responsible for calling onCostMapUpdate();
+     *
+     * @param x    The x coordinate in the CostMap coordinates.
+     * @param y    The y coordinate in the CostMap coordinates.
+     * @param cost The cost to set.
+     */
+    void setCost(int x, int y, byte cost) {
+        if (includesCoordinate(x, y)) {
+            mGrid.set((y - getLowerYLimit()) * mWidth.get() + x - getLowerXLimit(), cost);
+        }
+    }
 }
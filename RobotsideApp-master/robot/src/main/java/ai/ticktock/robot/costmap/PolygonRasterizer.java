@@ -0,0 +1,471 @@
+package ai.cellbots.robot.costmap;
+
+import java.util.Arrays;
+
+/**
+ * Rasterizes polygons on a grid with an active edge table scanline fill. The coverage is
+ * conservative and without anti-aliasing: a cell is covered if its center is inside the polygons
+ * or if an edge touches it, so walls thinner than a cell are never lost between scanlines.
+ * Polygons are merged with the non-zero winding rule, after orienting outlines counter-clockwise
+ * and holes clockwise, so overlapping polygons are joined and holes are cut out of their outline.
+ * Each covered cell is reported once, as part of a span of consecutive cells in a row.
+ *
+ * The coordinates follow the rest of the CostMaps, the cell (x, y) covering the square from
+ * (x * resolution, y * resolution) to ((x + 1) * resolution, (y + 1) * resolution).
+ *
+ * This class is not thread safe. Its buffers are kept between rasterizations, so it should be
+ * reused.
+ */
+final class PolygonRasterizer {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Receives the spans of covered cells.
+     */
+    interface SpanListener {
+        /**
+         * Called for each span of covered cells, in increasing order of rows and then of columns.
+         *
+         * @param y    The y coordinate of the row, in grid cells.
+         * @param minX The x coordinate of the first covered cell, in grid cells.
+         * @param maxX The x coordinate of the last covered cell, in grid cells. Inclusive.
+         */
+        void onSpan(int y, int minX, int maxX);
+    }
+
+    /**
+     * Sets the cost of the spans of covered cells in a grid.
+     */
+    private static final class GridWriter implements SpanListener {
+        private final byte[] mGrid;
+        private final int mWidth;
+        private final int mStartX;
+        private final int mStartY;
+        private final byte mCost;
+
+        /**
+         * Creates the writer.
+         *
+         * @param grid   The grid.
+         * @param width  The width of the grid.
+         * @param startX The x coordinate of the first column of the grid, in grid cells.
+         * @param startY The y coordinate of the first row of the grid, in grid cells.
+         * @param cost   The cost to set.
+         */
+        private GridWriter(byte[] grid, int width, int startX, int startY, byte cost) {
+            mGrid = grid;
+            mWidth = width;
+            mStartX = startX;
+            mStartY = startY;
+            mCost = cost;
+        }
+
+        @Override
+        public void onSpan(int y, int minX, int maxX) {
+            int row = (y - mStartY) * mWidth - mStartX;
+            Arrays.fill(mGrid, row + minX, row + maxX + 1, mCost);
+        }
+    }
+
+    private final double mResolution; // The width of a cell in meters
+
+    // The edges, in grid cell units, with the first end below the second end.
+    private int mEdgeCount = 0;
+    private double[] mX0 = new double[INITIAL_CAPACITY];
+    private double[] mY0 = new double[INITIAL_CAPACITY];
+    private double[] mX1 = new double[INITIAL_CAPACITY];
+    private double[] mY1 = new double[INITIAL_CAPACITY];
+    // The winding added when crossing each edge from left to right.
+    private int[] mWinding = new int[INITIAL_CAPACITY];
+    // The bounds of the edges, in grid cell units.
+    private double mMinX = Double.POSITIVE_INFINITY;
+    private double mMinY = Double.POSITIVE_INFINITY;
+    private double mMaxX = Double.NEGATIVE_INFINITY;
+    private double mMaxY = Double.NEGATIVE_INFINITY;
+
+    // Buffers for the rasterization.
+    private int[] mRowEdges = new int[INITIAL_CAPACITY]; // First edge starting in each row
+    private int[] mNextEdge = new int[INITIAL_CAPACITY]; // Next edge starting in the same row
+    private int[] mActiveEdges = new int[INITIAL_CAPACITY]; // The active edge table
+    private double[] mCrossings = new double[INITIAL_CAPACITY]; // The x of the crossings
+    private int[] mCrossingWindings = new int[INITIAL_CAPACITY]; // The winding of the crossings
+    private long[] mSpans = new long[INITIAL_CAPACITY]; // The packed spans of a row
+
+    /**
+     * Creates the rasterizer.
+     *
+     * @param resolution The width of a cell in meters.
+     */
+    PolygonRasterizer(double resolution) {
+        mResolution = resolution;
+    }
+
+    /**
+     * Removes all polygons.
+     */
+    void clear() {
+        mEdgeCount = 0;
+        mMinX = Double.POSITIVE_INFINITY;
+        mMinY = Double.POSITIVE_INFINITY;
+        mMaxX = Double.NEGATIVE_INFINITY;
+        mMaxY = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Checks if there are no polygons.
+     *
+     * @return True if there are no polygons.
+     */
+    boolean isEmpty() {
+        return mEdgeCount == 0;
+    }
+
+    /**
+     * Adds a polygon. The last vertex is joined with the first one. A polygon with one or two
+     * vertices covers only the cells touched by its vertex or its single edge.
+     *
+     * @param vertices The vertices of the polygon, in meters. Only x and y are used.
+     * @param hole     True if the polygon is a hole, which is cut out of the other polygons.
+     */
+    void addPolygon(double[][] vertices, boolean hole) {
+        int size = vertices.length;
+        if (size == 0) {
+            return;
+        }
+        // Orient by the signed area of the polygon, so the vertex order does not matter.
+        double area = 0;
+        for (int i = 0; i < size; i++) {
+            double[] a = vertices[i];
+            double[] b = vertices[(i + 1) % size];
+            area += a[0] * b[1] - b[0] * a[1];
+        }
+        addEdges(vertices, size, (area >= 0) != hole ? 1 : -1);
+    }
+
+    /**
+     * Adds a polyline, which only covers the cells touched by its edges. The polyline does not
+     * fill or cut out any polygon, even if it is closed.
+     *
+     * @param vertices The vertices of the polyline, in meters. Only x and y are used.
+     * @param closed   True to join the last vertex with the first one, to draw an outline.
+     */
+    void addPolyline(double[][] vertices, boolean closed) {
+        int size = vertices.length;
+        if (size == 0) {
+            return;
+        }
+        // A single vertex is kept as a degenerate edge, as for polygons.
+        addEdges(vertices, closed ? size : Math.max(1, size - 1), 0);
+    }
+
+    /**
+     * Adds the edges joining each vertex to the next one, wrapping around to the first vertex.
+     *
+     * @param vertices    The vertices, in meters.
+     * @param edgeCount   The number of edges to add, from the first vertex.
+     * @param orientation 1 for a counter-clockwise outline, -1 for a hole, or 0 for edges that
+     *                    only cover the cells they touch.
+     */
+    private void addEdges(double[][] vertices, int edgeCount, int orientation) {
+        int size = vertices.length;
+        ensureEdgeCapacity(mEdgeCount + edgeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            double xa = vertices[i][0] / mResolution;
+            double ya = vertices[i][1] / mResolution;
+            double xb = vertices[(i + 1) % size][0] / mResolution;
+            double yb = vertices[(i + 1) % size][1] / mResolution;
+            int e = mEdgeCount++;
+            if (ya <= yb) {
+                mX0[e] = xa;
+                mY0[e] = ya;
+                mX1[e] = xb;
+                mY1[e] = yb;
+                // A counter-clockwise outline is entered from the left across downward edges.
+                mWinding[e] = -orientation;
+            } else {
+                mX0[e] = xb;
+                mY0[e] = yb;
+                mX1[e] = xa;
+                mY1[e] = ya;
+                mWinding[e] = orientation;
+            }
+            mMinX = Math.min(mMinX, Math.min(xa, xb));
+            mMaxX = Math.max(mMaxX, Math.max(xa, xb));
+            mMinY = Math.min(mMinY, mY0[e]);
+            mMaxY = Math.max(mMaxY, mY1[e]);
+        }
+    }
+
+    /**
+     * Gets the lower x limit of the cells touched by the polygons.
+     *
+     * @return The x coordinate of the first column, in grid cells.
+     */
+    int getLowerXLimit() {
+        return (int) Math.floor(mMinX);
+    }
+
+    /**
+     * Gets the lower y limit of the cells touched by the polygons.
+     *
+     * @return The y coordinate of the first row, in grid cells.
+     */
+    int getLowerYLimit() {
+        return (int) Math.floor(mMinY);
+    }
+
+    /**
+     * Gets the upper x limit of the cells touched by the polygons.
+     *
+     * @return The x coordinate after the last column, in grid cells.
+     */
+    int getUpperXLimit() {
+        return (int) Math.floor(mMaxX) + 1;
+    }
+
+    /**
+     * Gets the upper y limit of the cells touched by the polygons.
+     *
+     * @return The y coordinate after the last row, in grid cells.
+     */
+    int getUpperYLimit() {
+        return (int) Math.floor(mMaxY) + 1;
+    }
+
+    /**
+     * Sets the cost of the cells covered by the polygons in a grid.
+     *
+     * @param grid   The grid, in rows of width cells.
+     * @param width  The width of the grid.
+     * @param height The height of the grid.
+     * @param startX The x coordinate of the first column of the grid, in grid cells.
+     * @param startY The y coordinate of the first row of the grid, in grid cells.
+     * @param cost   The cost to set.
+     */
+    void fill(byte[] grid, int width, int height, int startX, int startY, byte cost) {
+        fill(grid, width, height, startX, startY, cost,
+                startX, startY, startX + width, startY + height);
+    }
+
+    /**
+     * Sets the cost of the cells covered by the polygons in a rectangle of a grid.
+     *
+     * @param grid    The grid, in rows of width cells.
+     * @param width   The width of the grid.
+     * @param height  The height of the grid.
+     * @param startX  The x coordinate of the first column of the grid, in grid cells.
+     * @param startY  The y coordinate of the first row of the grid, in grid cells.
+     * @param cost    The cost to set.
+     * @param clipMinX The lower x limit of the rectangle, in grid cells.
+     * @param clipMinY The lower y limit of the rectangle, in grid cells.
+     * @param clipMaxX The upper x limit of the rectangle, in grid cells. Exclusive.
+     * @param clipMaxY The upper y limit of the rectangle, in grid cells. Exclusive.
+     */
+    void fill(byte[] grid, int width, int height, int startX, int startY, byte cost,
+            int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        rasterize(Math.max(clipMinX, startX), Math.max(clipMinY, startY),
+                Math.min(clipMaxX, startX + width), Math.min(clipMaxY, startY + height),
+                new GridWriter(grid, width, startX, startY, cost));
+    }
+
+    /**
+     * Rasterizes the polygons in a rectangle of cells.
+     *
+     * @param clipMinX The lower x limit of the rectangle, in grid cells.
+     * @param clipMinY The lower y limit of the rectangle, in grid cells.
+     * @param clipMaxX The upper x limit of the rectangle, in grid cells. Exclusive.
+     * @param clipMaxY The upper y limit of the rectangle, in grid cells. Exclusive.
+     * @param listener The listener receiving the spans of covered cells.
+     */
+    void rasterize(int clipMinX, int clipMinY, int clipMaxX, int clipMaxY,
+            SpanListener listener) {
+        if (mEdgeCount == 0 || clipMinX >= clipMaxX) {
+            return;
+        }
+        int firstRow = Math.max(clipMinY, getLowerYLimit());
+        int lastRow = Math.min(clipMaxY, getUpperYLimit()) - 1;
+        if (firstRow > lastRow) {
+            return;
+        }
+
+        // Build the edge table, listing each edge in the first row it touches.
+        int rows = lastRow - firstRow + 1;
+        if (mRowEdges.length < rows) {
+            mRowEdges = new int[rows];
+        }
+        Arrays.fill(mRowEdges, 0, rows, -1);
+        for (int e = 0; e < mEdgeCount; e++) {
+            int first = (int) Math.floor(mY0[e]);
+            int last = (int) Math.floor(mY1[e]);
+            if (last < firstRow || first > lastRow) {
+                continue;
+            }
+            int row = Math.max(first, firstRow) - firstRow;
+            mNextEdge[e] = mRowEdges[row];
+            mRowEdges[row] = e;
+        }
+
+        int activeCount = 0;
+        for (int y = firstRow; y <= lastRow; y++) {
+            for (int e = mRowEdges[y - firstRow]; e >= 0; e = mNextEdge[e]) {
+                mActiveEdges[activeCount++] = e;
+            }
+
+            // Cover the cells touched by the edges within the row, and find the crossings of
+            // the edges with the center line of the row.
+            int spanCount = 0;
+            int crossingCount = 0;
+            double center = y + 0.5;
+            for (int i = 0; i < activeCount; i++) {
+                int e = mActiveEdges[i];
+                double xLow;
+                double xHigh;
+                if (mY0[e] == mY1[e]) {
+                    xLow = mX0[e];
+                    xHigh = mX1[e];
+                } else {
+                    xLow = getX(e, Math.max(mY0[e], y));
+                    xHigh = getX(e, Math.min(mY1[e], y + 1));
+                    if (mWinding[e] != 0 && mY0[e] <= center && center < mY1[e]) {
+                        int c = crossingCount++;
+                        mCrossings[c] = getX(e, center);
+                        mCrossingWindings[c] = mWinding[e];
+                    }
+                }
+                spanCount = addSpan(spanCount, (int) Math.floor(Math.min(xLow, xHigh)),
+                        (int) Math.floor(Math.max(xLow, xHigh)), clipMinX, clipMaxX);
+            }
+
+            // Cover the cells with centers inside the polygons.
+            sortCrossings(crossingCount);
+            int winding = 0;
+            double start = 0;
+            for (int c = 0; c < crossingCount; c++) {
+                int previous = winding;
+                winding += mCrossingWindings[c];
+                if (previous <= 0 && winding > 0) {
+                    start = mCrossings[c];
+                } else if (previous > 0 && winding <= 0) {
+                    spanCount = addSpan(spanCount, (int) Math.ceil(start - 0.5),
+                            (int) Math.floor(mCrossings[c] - 0.5), clipMinX, clipMaxX);
+                }
+            }
+
+            emitSpans(y, spanCount, clipMinX, listener);
+
+            // Remove the edges that end in this row.
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                int e = mActiveEdges[i];
+                if (Math.floor(mY1[e]) > y) {
+                    mActiveEdges[kept++] = e;
+                }
+            }
+            activeCount = kept;
+        }
+    }
+
+    /**
+     * Gets the x coordinate of a non-horizontal edge at a y coordinate.
+     *
+     * @param e The edge.
+     * @param y The y coordinate, in grid cell units.
+     * @return The x coordinate, in grid cell units.
+     */
+    private double getX(int e, double y) {
+        return mX0[e] + (y - mY0[e]) * (mX1[e] - mX0[e]) / (mY1[e] - mY0[e]);
+    }
+
+    /**
+     * Adds a span of cells of the current row, clipped to the rectangle.
+     *
+     * @param spanCount The number of spans in the row.
+     * @param minX      The x coordinate of the first cell.
+     * @param maxX      The x coordinate of the last cell. Inclusive.
+     * @param clipMinX  The lower x limit of the rectangle.
+     * @param clipMaxX  The upper x limit of the rectangle. Exclusive.
+     * @return The new number of spans in the row.
+     */
+    private int addSpan(int spanCount, int minX, int maxX, int clipMinX, int clipMaxX) {
+        minX = Math.max(minX, clipMinX);
+        maxX = Math.min(maxX, clipMaxX - 1);
+        if (minX > maxX) {
+            return spanCount;
+        }
+        if (spanCount == mSpans.length) {
+            mSpans = Arrays.copyOf(mSpans, spanCount * 2);
+        }
+        // Relative to the rectangle both limits are non-negative, so spans sort by start.
+        mSpans[spanCount] = ((long) (minX - clipMinX) << 32) | (maxX - clipMinX);
+        return spanCount + 1;
+    }
+
+    /**
+     * Merges the overlapping and adjacent spans of a row and passes them to the listener.
+     *
+     * @param y         The y coordinate of the row.
+     * @param spanCount The number of spans in the row.
+     * @param clipMinX  The lower x limit of the rectangle.
+     * @param listener  The listener.
+     */
+    private void emitSpans(int y, int spanCount, int clipMinX, SpanListener listener) {
+        if (spanCount == 0) {
+            return;
+        }
+        Arrays.sort(mSpans, 0, spanCount);
+        int minX = (int) (mSpans[0] >>> 32);
+        int maxX = (int) mSpans[0];
+        for (int i = 1; i < spanCount; i++) {
+            int spanMinX = (int) (mSpans[i] >>> 32);
+            int spanMaxX = (int) mSpans[i];
+            if (spanMinX > maxX + 1) {
+                listener.onSpan(y, minX + clipMinX, maxX + clipMinX);
+                minX = spanMinX;
+            }
+            maxX = Math.max(maxX, spanMaxX);
+        }
+        listener.onSpan(y, minX + clipMinX, maxX + clipMinX);
+    }
+
+    /**
+     * Sorts the crossings of the current row by x coordinate. Insertion sort, since a row of a
+     * floor plan usually has few crossings.
+     *
+     * @param crossingCount The number of crossings.
+     */
+    private void sortCrossings(int crossingCount) {
+        for (int i = 1; i < crossingCount; i++) {
+            double x = mCrossings[i];
+            int winding = mCrossingWindings[i];
+            int j = i - 1;
+            while (j >= 0 && mCrossings[j] > x) {
+                mCrossings[j + 1] = mCrossings[j];
+                mCrossingWindings[j + 1] = mCrossingWindings[j];
+                j--;
+            }
+            mCrossings[j + 1] = x;
+            mCrossingWindings[j + 1] = winding;
+        }
+    }
+
+    /**
+     * Grows the edge buffers to hold a number of edges.
+     *
+     * @param capacity The number of edges.
+     */
+    private void ensureEdgeCapacity(int capacity) {
+        if (mX0.length >= capacity) {
+            return;
+        }
+        int length = Math.max(capacity, mX0.length * 2);
+        mX0 = Arrays.copyOf(mX0, length);
+        mY0 = Arrays.copyOf(mY0, length);
+        mX1 = Arrays.copyOf(mX1, length);
+        mY1 = Arrays.copyOf(mY1, length);
+        mWinding = Arrays.copyOf(mWinding, length);
+        mNextEdge = Arrays.copyOf(mNextEdge, length);
+        mActiveEdges = Arrays.copyOf(mActiveEdges, length);
+        mCrossings = Arrays.copyOf(mCrossings, length);
+        mCrossingWindings = Arrays.copyOf(mCrossingWindings, length);
+    }
+}
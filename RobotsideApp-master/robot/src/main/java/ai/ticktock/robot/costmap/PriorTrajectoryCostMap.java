@@ -134,9 +134,10 @@ public class PriorTrajectoryCostMap extends GridCostMap {
         makeGrid(positions, BACKGROUND_COST);
 
         // Set the prior trajectory on the grid, growing the path nodes by a circle
-        // around each node. Set the cost at middle cost for outer half of the circle
-        // and minimum cost for the inner half of the circle. Avoid unnecessary operations
-        // if rounding puts both halves of the circle at the same grid location.
+        // around each node, swept between close nodes. Set the cost at middle cost for outer
+        // half of the circle and minimum cost for the inner half of the circle. Avoid
+        // unnecessary operations if rounding puts both halves of the circle at the same grid
+        // location.
         if ((int) Math.round(PATH_GROWING_RADIUS / getResolution()) !=
                 (int) Math.round(HALF_PATH_GROWING_RADIUS / getResolution()))
         {
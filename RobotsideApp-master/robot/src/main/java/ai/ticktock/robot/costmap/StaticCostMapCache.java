@@ -0,0 +1,404 @@
+package ai.cellbots.robot.costmap;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the inflated static CostMaps of a world, so that they are not inflated and fused again
+ * each time the robot starts. There is a file per world, resolution, robot radius and inflation
+ * factor, which stores the inflated CostMaps of each static source and the fused static CostMaps.
+ * Each source is stored with the fingerprint of its raw grid, so a cached CostMap is only used if
+ * the source CostMap is unchanged. The file is memory mapped when loaded.
+ *
+ * This class is not thread safe, it is used by the CostMapManager thread.
+ */
+public class StaticCostMapCache {
+    private static final String TAG = StaticCostMapCache.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Header of the cache files, changed if the format or the algorithms change.
+    private static final int MAGIC = 0x43425343;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".costmap";
+
+    private final File mFile;
+    private final CostMapInflator mInflator;
+    private final CostMapFuser mFuser;
+    // The fingerprint of the current version of each static source.
+    private final Map<CostMap.Source, Long> mFingerprints = new EnumMap<>(CostMap.Source.class);
+    // The current inflated CostMaps of each static source.
+    private final Map<CostMap.Source, Map<CostMapInflator.Type, CostMap>> mInflated
+            = new EnumMap<>(CostMap.Source.class);
+    // The content of the file, loaded on first use.
+    private Snapshot mSnapshot = null;
+    private boolean mLoaded = false;
+
+    /**
+     * The content of a cache file.
+     */
+    private static final class Snapshot {
+        private final Map<CostMap.Source, Long> mFingerprints
+                = new EnumMap<>(CostMap.Source.class);
+        private final Map<CostMap.Source, Map<CostMapInflator.Type, CostMap>> mInflated
+                = new EnumMap<>(CostMap.Source.class);
+        private final Map<CostMapInflator.Type, CostMap> mFused
+                = new EnumMap<>(CostMapInflator.Type.class);
+    }
+
+    /**
+     * Creates the cache.
+     *
+     * @param directory The directory to store the cache files.
+     * @param worldUuid The uuid of the world.
+     * @param inflator  The inflator, which parameters are part of the key.
+     * @param fuser     The fuser.
+     */
+    public StaticCostMapCache(File directory, String worldUuid, CostMapInflator inflator,
+            CostMapFuser fuser) {
+        mInflator = inflator;
+        mFuser = fuser;
+        mFile = new File(directory, String.format(Locale.US, "%s_%s_%s_%s%s", worldUuid,
+                Double.toString(inflator.getResolution()),
+                Double.toString(inflator.getRobotRadius()),
+                Double.toString(inflator.getRadiusFactor()), SUFFIX));
+    }
+
+    /**
+     * Gets the file of the cache.
+     *
+     * @return The file.
+     */
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Computes the fingerprint of the raw grid of a CostMap.
+     *
+     * @param costMap The CostMap.
+     * @return The fingerprint.
+     */
+    static long fingerprint(CostMap costMap) {
+        ByteBuffer limits = ByteBuffer.allocate(4 * 4);
+        limits.putInt(costMap.getLowerXLimit());
+        limits.putInt(costMap.getLowerYLimit());
+        limits.putInt(costMap.getUpperXLimit());
+        limits.putInt(costMap.getUpperYLimit());
+        CRC32 crc = new CRC32();
+        crc.update(limits.array());
+        crc.update(costMap.getFullCostRegion());
+        return crc.getValue();
+    }
+
+    /**
+     * Gets the cached inflated CostMaps of a source. The current fingerprint of the source is
+     * stored for getFusedCostMaps().
+     *
+     * @param costMap The source CostMap.
+     * @return The inflated CostMaps by type, or null if they are not cached.
+     */
+    public Map<CostMapInflator.Type, CostMap> getInflatedCostMaps(CostMap costMap) {
+        long fingerprint = fingerprint(costMap);
+        mFingerprints.put(costMap.getSource(), fingerprint);
+        mInflated.remove(costMap.getSource());
+        Snapshot snapshot = getSnapshot();
+        if (snapshot == null || !snapshot.mInflated.containsKey(costMap.getSource())
+                || snapshot.mFingerprints.get(costMap.getSource()) != fingerprint) {
+            return null;
+        }
+        Log.i(TAG, "Using cached inflated CostMaps for " + costMap.getSource());
+        mInflated.put(costMap.getSource(), snapshot.mInflated.get(costMap.getSource()));
+        return snapshot.mInflated.get(costMap.getSource());
+    }
+
+    /**
+     * Stores the inflated CostMaps of a source, after getInflatedCostMaps() returned null.
+     *
+     * @param source   The source.
+     * @param costMaps The inflated CostMaps by type.
+     */
+    public void putInflatedCostMaps(CostMap.Source source,
+            Map<CostMapInflator.Type, CostMap> costMaps) {
+        mInflated.put(source, costMaps);
+    }
+
+    /**
+     * Gets the cached fused static CostMaps.
+     *
+     * @param sources The static sources that are fused.
+     * @return The fused CostMaps by type, or null if they are not cached for the current version
+     *         of the sources.
+     */
+    public Map<CostMapInflator.Type, CostMap> getFusedCostMaps(Collection<CostMap.Source> sources) {
+        Snapshot snapshot = getSnapshot();
+        if (snapshot == null || snapshot.mFused.isEmpty()
+                || !snapshot.mFingerprints.keySet().equals(new HashSet<>(sources))) {
+            return null;
+        }
+        for (CostMap.Source source : sources) {
+            if (!snapshot.mFingerprints.get(source).equals(mFingerprints.get(source))) {
+                return null;
+            }
+        }
+        Log.i(TAG, "Using cached fused static CostMaps");
+        return snapshot.mFused;
+    }
+
+    /**
+     * Stores the fused static CostMaps and writes the cache file, if all static sources have
+     * their inflated CostMaps.
+     *
+     * @param sources  The static sources that are fused.
+     * @param costMaps The fused CostMaps by type.
+     */
+    public void putFusedCostMaps(Collection<CostMap.Source> sources,
+            Map<CostMapInflator.Type, CostMap> costMaps) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        Snapshot snapshot = new Snapshot();
+        for (CostMap.Source source : sources) {
+            if (!mFingerprints.containsKey(source) || !mInflated.containsKey(source)) {
+                Log.i(TAG, "Not caching static CostMaps, missing source: " + source);
+                return;
+            }
+            snapshot.mFingerprints.put(source, mFingerprints.get(source));
+            snapshot.mInflated.put(source, mInflated.get(source));
+        }
+        snapshot.mFused.putAll(costMaps);
+        mSnapshot = snapshot;
+        mLoaded = true;
+        write(snapshot);
+    }
+
+    /**
+     * Gets the snapshot, loading it from the file on first use.
+     *
+     * @return The snapshot, or null if there is none.
+     */
+    private Snapshot getSnapshot() {
+        if (!mLoaded) {
+            mLoaded = true;
+            mSnapshot = read();
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Reads the cache file.
+     *
+     * @return The snapshot, or null if the file does not exist or is invalid.
+     */
+    private Snapshot read() {
+        if (!mFile.isFile()) {
+            return null;
+        }
+        ByteBuffer input;
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map static CostMap cache: " + mFile, e);
+            return null;
+        }
+        try {
+            if (input.getInt() != MAGIC || input.getInt() != VERSION
+                    || !getString(input).equals(mInflator.getClass().getName())
+                    || !getString(input).equals(mFuser.getClass().getName())) {
+                Log.i(TAG, "Ignoring static CostMap cache with another version: " + mFile);
+                return null;
+            }
+            Snapshot snapshot = new Snapshot();
+            int sourceCount = input.getInt();
+            for (int i = 0; i < sourceCount; i++) {
+                CostMap.Source source = CostMap.Source.valueOf(getString(input));
+                snapshot.mFingerprints.put(source, input.getLong());
+                snapshot.mInflated.put(source, getCostMaps(input, source));
+            }
+            snapshot.mFused.putAll(getCostMaps(input, null));
+            Log.i(TAG, "Loaded static CostMap cache: " + mFile);
+            return snapshot;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(TAG, "Invalid static CostMap cache: " + mFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cache file. The file is replaced atomically, so a partially written file is
+     * never read.
+     *
+     * @param snapshot The snapshot to write.
+     */
+    private void write(Snapshot snapshot) {
+        byte[] inflatorName = mInflator.getClass().getName().getBytes(UTF_8);
+        byte[] fuserName = mFuser.getClass().getName().getBytes(UTF_8);
+        int length = 4 + 4 + 4 + inflatorName.length + 4 + fuserName.length + 4
+                + getCostMapsLength(snapshot.mFused);
+        for (Map.Entry<CostMap.Source, Map<CostMapInflator.Type, CostMap>> entry
+                : snapshot.mInflated.entrySet()) {
+            length += 4 + entry.getKey().name().getBytes(UTF_8).length + 8
+                    + getCostMapsLength(entry.getValue());
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(length);
+        output.putInt(MAGIC);
+        output.putInt(VERSION);
+        putString(output, inflatorName);
+        putString(output, fuserName);
+        output.putInt(snapshot.mInflated.size());
+        for (Map.Entry<CostMap.Source, Map<CostMapInflator.Type, CostMap>> entry
+                : snapshot.mInflated.entrySet()) {
+            putString(output, entry.getKey().name().getBytes(UTF_8));
+            output.putLong(snapshot.mFingerprints.get(entry.getKey()));
+            putCostMaps(output, entry.getValue());
+        }
+        putCostMaps(output, snapshot.mFused);
+
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create static CostMap cache directory: " + directory);
+            return;
+        }
+        File temporary = new File(mFile.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temporary);
+            try {
+                stream.write(output.array());
+            } finally {
+                stream.close();
+            }
+            if (!temporary.renameTo(mFile)) {
+                Log.w(TAG, "Could not write static CostMap cache: " + mFile);
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+                return;
+            }
+            Log.i(TAG, "Wrote static CostMap cache: " + mFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing static CostMap cache: " + mFile, e);
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Gets the length of a map of CostMaps by type in the cache file.
+     *
+     * @param costMaps The CostMaps.
+     * @return The length in bytes.
+     */
+    private static int getCostMapsLength(Map<CostMapInflator.Type, CostMap> costMaps) {
+        int length = 4;
+        for (CostMap costMap : costMaps.values()) {
+            length += 4 + 1 + (4 * 4) + (costMap.getBoundingWidth() * costMap.getBoundingHeight());
+        }
+        return length;
+    }
+
+    /**
+     * Writes a map of CostMaps by type.
+     *
+     * @param output   The buffer to write.
+     * @param costMaps The CostMaps.
+     */
+    private static void putCostMaps(ByteBuffer output,
+            Map<CostMapInflator.Type, CostMap> costMaps) {
+        output.putInt(costMaps.size());
+        for (Map.Entry<CostMapInflator.Type, CostMap> entry : costMaps.entrySet()) {
+            CostMap costMap = entry.getValue();
+            output.putInt(entry.getKey().ordinal());
+            output.put((byte) (costMap.requiresInflation() ? 1 : 0));
+            output.putInt(costMap.getLowerXLimit());
+            output.putInt(costMap.getLowerYLimit());
+            output.putInt(costMap.getBoundingWidth());
+            output.putInt(costMap.getBoundingHeight());
+            output.put(costMap.getFullCostRegion());
+        }
+    }
+
+    /**
+     * Reads a map of CostMaps by type.
+     *
+     * @param input  The buffer to read.
+     * @param source The source of the CostMaps, or null for the fused CostMaps.
+     * @return The CostMaps.
+     */
+    private Map<CostMapInflator.Type, CostMap> getCostMaps(ByteBuffer input,
+            CostMap.Source source) {
+        Map<CostMapInflator.Type, CostMap> costMaps = new EnumMap<>(CostMapInflator.Type.class);
+        int count = input.getInt();
+        for (int i = 0; i < count; i++) {
+            int typeIndex = input.getInt();
+            if (typeIndex < 0 || typeIndex >= CostMapInflator.Type.values().length) {
+                throw new IllegalArgumentException("Invalid inflation type: " + typeIndex);
+            }
+            CostMapInflator.Type type = CostMapInflator.Type.values()[typeIndex];
+            boolean inflated = input.get() == 0;
+            int lowerX = input.getInt();
+            int lowerY = input.getInt();
+            int width = input.getInt();
+            int height = input.getInt();
+            if (width <= 0 || height <= 0 || (long) width * height > input.remaining()) {
+                throw new IllegalArgumentException("Invalid CostMap size: " + width + ", "
+                        + height);
+            }
+            byte[] grid = new byte[width * height];
+            input.get(grid);
+            CostMap.Source costMapSource = source;
+            if (costMapSource == null) {
+                costMapSource = type == CostMapInflator.Type.FULL_RADIUS
+                        ? CostMap.Source.STATIC_COSTMAP_FULLY_INFLATED
+                        : CostMap.Source.STATIC_COSTMAP_PROPORTIONALLY_INFLATED;
+            }
+            costMaps.put(type, new FixedGridCostMap(costMapSource, mInflator.getResolution(),
+                    width, height, lowerX, lowerY, grid, inflated));
+        }
+        return costMaps;
+    }
+
+    /**
+     * Writes a string.
+     *
+     * @param output The buffer to write.
+     * @param string The UTF-8 bytes of the string.
+     */
+    private static void putString(ByteBuffer output, byte[] string) {
+        output.putInt(string.length);
+        output.put(string);
+    }
+
+    /**
+     * Reads a string.
+     *
+     * @param input The buffer to read.
+     * @return The string.
+     */
+    private static String getString(ByteBuffer input) {
+        int length = input.getInt();
+        if (length < 0 || length > input.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        byte[] string = new byte[length];
+        input.get(string);
+        return new String(string, UTF_8);
+    }
+}
@@ -12,7 +12,6 @@ import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -25,6 +24,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import ai.cellbots.common.ThreadedShutdown;
 import ai.cellbots.common.TimedLoop;
+import ai.cellbots.common.TimerWheel;
 import ai.cellbots.common.Transform;
 import ai.cellbots.common.cloud.CloudPath;
 import ai.cellbots.common.cloud.CloudSingletonMonitor;
@@ -47,6 +47,9 @@ public abstract class Executive implements ThreadedShutdown {
     private static final long PROCESS_TIMEOUT_MILLISECOND = 24 * 60 * 60 * 1000;  // 24 hours.
     private static final int UPDATE_TIME_MILLISECOND = 100;
     private static final int MIN_PRIORITY_USER_GOAL = 100; // The lowest priority for user goals
+    // The slot duration and number of slots of the timer wheel expiring the goal states.
+    private static final long EXPIRY_TICK_MILLISECOND = 60 * 1000;  // 1 minute.
+    private static final int EXPIRY_SLOTS = 64;
 
     // Number of goals to leave when cleaning goals in the cloud.
     // TODO(playerone) Why don't we remove all of them?
@@ -66,15 +69,15 @@ public abstract class Executive implements ThreadedShutdown {
 
     // Storage for the world objects, representing physical objects in the robot's world. For
     // example POIs and docking stations. The specific objects and type of objects are stored here.
-    // The map of object uuid to world objects stored.
-    private final Map<String, WorldObject> mObjects = new HashMap<>();
+    // The immutable store of world objects, replaced on each update of the objects.
+    private volatile WorldObjectStore mObjects = WorldObjectStore.EMPTY;
     // The list of object type name to world object type stored.
     private final Map<String, WorldObjectType> mObjectTypes;
 
     // TODO(playerone) replace these HashMap with ConcurrentHashMap and remove synchronization.
     // Storage for the goal states, which specify the next steps for the robot to complete.
-    // A map of goal uuid to goal.
-    private final Map<String, Goal> mGoals = new HashMap<>();
+    // An index of goal uuid to goal, ordered by priority, timestamp and sequence.
+    private final GoalIndex mGoals;
     // A map of goal type name to goal type.
     private final Map<String, GoalType> mGoalTypes;
     // A map of goal uuid to the timestamp at which it was cancelled.
@@ -83,6 +86,14 @@ public abstract class Executive implements ThreadedShutdown {
     private final Map<String, Long> mCompletedGoals = new HashMap<>();
     // A map of goal uuid to the timestamp at which it was rejected.
     private final Map<String, Long> mRejectedGoals = new HashMap<>();
+    // The uuids of the completed and rejected goals, by the time their states expire.
+    private final TimerWheel<String> mGoalStateExpiry =
+            new TimerWheel<>(EXPIRY_TICK_MILLISECOND, EXPIRY_SLOTS);
+    private final List<String> mExpiredGoals = new ArrayList<>();
+    // True if the goals have changed since the best goal was last computed.
+    private boolean mGoalsChanged = true;
+    // The executive state when the best goal was last computed.
+    private ExecutiveStateCommand.ExecutiveState mLastExecutiveState = null;
 
     private RobotMetadata mMetadata; // The metadata of the robot
     private Transform mTransform; // Transform to the base of the robot
@@ -176,7 +187,7 @@ public abstract class Executive implements ThreadedShutdown {
     @SuppressWarnings("WeakerAccess")
     protected final synchronized void addGoal(Goal goal) {
         Log.d(TAG, "Adding a goal: " + goal.toString());
-        mGoals.put(goal.getUuid(), goal);
+        putGoal(goal);
         if (!goal.isLocal()) {
             CloudPath.ROBOT_GOALS_PATH_ENTITY.getDatabaseReference(mSession.getUserUuid(),
                     mSession.getRobotUuid(), goal.getUuid()).setValue(goal.toMap());
@@ -258,6 +269,7 @@ public abstract class Executive implements ThreadedShutdown {
         mROSNodeManager = rosNodeManager;
         mObjectTypes = Collections.unmodifiableMap(new HashMap<>(objectTypes));
         mGoalTypes = Collections.unmodifiableMap(new HashMap<>(goalTypes));
+        mGoals = new GoalIndex(mGoalTypes);
         mEnable = false;
 
         HashMap<String, Object> goalTypesInCloud = new HashMap<>();
@@ -295,15 +307,13 @@ public abstract class Executive implements ThreadedShutdown {
                     @Override
                     public void onDataSnapshot(DataSnapshot dataSnapshot) {
                         Log.d(TAG, "New DataSnapshot in Object monitor");
-                        List<WorldObject> objects = WorldObject.fromFirebase(dataSnapshot,
-                                mSession.getWorld().getUuid(), mObjectTypes);
-                        mObjects.clear();
+                        WorldObjectStore objects = WorldObjectStore.fromFirebase(mObjects,
+                                dataSnapshot, mSession.getWorld().getUuid(), mObjectTypes);
+                        mObjects = objects;
                         LinkedList<Transform> poiTransforms = new LinkedList<>();
                         LinkedList<String> poiNames = new LinkedList<>();
-                        for (WorldObject object : objects) {
-                            mObjects.put(object.getUuid(), object);
-                            if (object.getType().getName().equals("point_of_interest")
-                                    && object.getValue("location") != null
+                        for (WorldObject object : objects.getByType("point_of_interest")) {
+                            if (object.getValue("location") != null
                                     && object.getValue("name") != null) {
                                 poiTransforms.add((Transform) object.getValue("location"));
                                 poiNames.add(object.getValue("name").toString());
@@ -344,7 +354,7 @@ public abstract class Executive implements ThreadedShutdown {
                         }
                         synchronized (Executive.this) {
                             if (!mGoals.containsKey(goal.getUuid())) {
-                                mGoals.put(goal.getUuid(), goal);
+                                putGoal(goal);
                             }
                             onChildChanged(dataSnapshot, null);
                         }
@@ -358,13 +368,13 @@ public abstract class Executive implements ThreadedShutdown {
                                 return;
                             }
                             if (dataSnapshot.hasChild("cancel")) {
-                                mCancelledGoals.put(dataSnapshot.getKey(), new Date().getTime());
+                                cancelGoalState(dataSnapshot.getKey());
                             }
                             if (dataSnapshot.hasChild("complete")) {
-                                mCompletedGoals.put(dataSnapshot.getKey(), new Date().getTime());
+                                storeGoalState(mCompletedGoals, dataSnapshot.getKey());
                             }
                             if (dataSnapshot.hasChild("reject")) {
-                                mRejectedGoals.put(dataSnapshot.getKey(), new Date().getTime());
+                                storeGoalState(mRejectedGoals, dataSnapshot.getKey());
                             }
                         }
                         cleanUpRobotGoals(NUM_GOALS_TO_LEAVE);
@@ -374,7 +384,7 @@ public abstract class Executive implements ThreadedShutdown {
                     public void onChildRemoved(DataSnapshot dataSnapshot) {
                         synchronized (Executive.this) {
                             if (dataSnapshot != null) {
-                                mCancelledGoals.put(dataSnapshot.getKey(), new Date().getTime());
+                                cancelGoalState(dataSnapshot.getKey());
                             }
                         }
                         cleanUpRobotGoals(NUM_GOALS_TO_LEAVE);
@@ -384,7 +394,7 @@ public abstract class Executive implements ThreadedShutdown {
                     public void onChildMoved(DataSnapshot dataSnapshot, String s) {
                         synchronized (Executive.this) {
                             if (s != null) {
-                                mCancelledGoals.put(s, new Date().getTime());
+                                cancelGoalState(s);
                             }
                         }
                         onChildAdded(dataSnapshot, s);
@@ -458,25 +468,72 @@ public abstract class Executive implements ThreadedShutdown {
     }
 
     /**
-     * Removes the given goals in the goal store - e.g. rejected and completed goals. First removes
-     * all goals from the mGoals and then removes timed out entries for the given goal.
+     * Adds a goal to the goal index, unless it has already been completed or rejected.
      *
-     * @param goalStateStore The goal state store to update and update from.
-     * @param timestamp      The update start timestamp.
+     * @param goal The goal to add.
      */
-    private synchronized void removeGoalsInExecutive(
-            Map<String, Long> goalStateStore, long timestamp) {
-        LinkedList<String> removeGoals = new LinkedList<>();
-        for (Map.Entry<String, Long> goalState : goalStateStore.entrySet()) {
-            if (mGoals.containsKey(goalState.getKey())) {
-                mGoals.remove(goalState.getKey());
-            }
-            if (goalState.getValue() - PROCESS_TIMEOUT_MILLISECOND > timestamp) {
-                removeGoals.add(goalState.getKey());
-            }
+    private synchronized void putGoal(Goal goal) {
+        if (mCompletedGoals.containsKey(goal.getUuid())
+                || mRejectedGoals.containsKey(goal.getUuid())) {
+            return;
         }
-        for (String goal : removeGoals) {
-            goalStateStore.remove(goal);
+        mGoals.put(goal);
+        mGoalsChanged = true;
+    }
+
+    /**
+     * Stores that a goal has been cancelled.
+     *
+     * @param goalUuid The goal uuid.
+     */
+    private synchronized void cancelGoalState(String goalUuid) {
+        mCancelledGoals.put(goalUuid, new Date().getTime());
+        mGoalsChanged = true;
+    }
+
+    /**
+     * Stores a goal state - e.g. rejected or completed - and removes the goal from the goal index.
+     * The state expires after PROCESS_TIMEOUT_MILLISECOND.
+     *
+     * @param goalStateStore The goal state store to update.
+     * @param goalUuid       The goal uuid.
+     */
+    private synchronized void storeGoalState(Map<String, Long> goalStateStore, String goalUuid) {
+        long timestamp = new Date().getTime();
+        goalStateStore.put(goalUuid, timestamp);
+        mGoalStateExpiry.schedule(goalUuid, timestamp + PROCESS_TIMEOUT_MILLISECOND);
+        if (mGoals.remove(goalUuid) != null) {
+            mGoalsChanged = true;
+        }
+    }
+
+    /**
+     * Removes the timed out entries from the rejected and completed goal state stores.
+     *
+     * @param timestamp The update start timestamp.
+     */
+    private synchronized void expireGoalStates(long timestamp) {
+        mGoalStateExpiry.advance(timestamp, mExpiredGoals);
+        for (String goalUuid : mExpiredGoals) {
+            expireGoalState(mRejectedGoals, goalUuid, timestamp);
+            expireGoalState(mCompletedGoals, goalUuid, timestamp);
+        }
+        mExpiredGoals.clear();
+    }
+
+    /**
+     * Removes a goal state entry if it has timed out. The entry may have been stored again since
+     * it was scheduled to expire, in which case it is kept.
+     *
+     * @param goalStateStore The goal state store to update.
+     * @param goalUuid       The goal uuid.
+     * @param timestamp      The update start timestamp.
+     */
+    private static void expireGoalState(Map<String, Long> goalStateStore, String goalUuid,
+            long timestamp) {
+        Long stored = goalStateStore.get(goalUuid);
+        if (stored != null && stored + PROCESS_TIMEOUT_MILLISECOND <= timestamp) {
+            goalStateStore.remove(goalUuid);
         }
     }
 
@@ -515,18 +572,27 @@ public abstract class Executive implements ThreadedShutdown {
             executiveState = ExecutiveStateCommand.DEFAULT_EXECUTIVE_MODE;
         }
 
-        // Repeat until there are no new goals or we are waiting for a goal to complete.
-        while (true) {
-            // Remove all the rejected and completed goals from the local storage.
-            removeGoalsInExecutive(mRejectedGoals, timestamp);
-            removeGoalsInExecutive(mCompletedGoals, timestamp);
+        // Remove the timed out rejected and completed goal states.
+        expireGoalStates(timestamp);
 
-            // Create the world state.
-            WorldState worldState = new WorldState(getSession().getWorld(), mMetadata, tf,
-                    mObjects, mBatteryLow, mBatteryCritical, executiveState);
+        // Without a current goal, the best goal only changes if the goals or the executive state
+        // change, or if a goal must be queried against the world.
+        if (mCurrentGoal == null && !mGoalsChanged && !mGoals.hasQueryGoals()
+                && executiveState == mLastExecutiveState) {
+            onUpdate();
+            return;
+        }
+        mGoalsChanged = false;
+        mLastExecutiveState = executiveState;
 
+        // Create the world state.
+        WorldState worldState = new WorldState(getSession().getWorld(), mMetadata, tf,
+                mObjects, mBatteryLow, mBatteryCritical, executiveState);
+
+        // Repeat until there are no new goals or we are waiting for a goal to complete.
+        while (true) {
             // Compute the best goal.
-            Goal bestGoal = getBestGoal(worldState, mGoals.values());
+            Goal bestGoal = getBestGoal(worldState);
 
             if (bestGoal != null) {
                 // If the goal is already cancelled, then we must reject it and continue the search
@@ -609,7 +675,7 @@ public abstract class Executive implements ThreadedShutdown {
      * @param goalUuid The uuid of the goal to reject.
      */
     private void rejectGoal(String goalUuid) {
-        mRejectedGoals.put(goalUuid, new Date().getTime());
+        storeGoalState(mRejectedGoals, goalUuid);
         Map<String, Object> childMap = new HashMap<>();
         childMap.put("reject", "true");
         childMap.put("reject_timestamp", ServerValue.TIMESTAMP);
@@ -623,7 +689,7 @@ public abstract class Executive implements ThreadedShutdown {
      * @param goalUuid The uuid of the goal to complete.
      */
     private void completeGoal(String goalUuid) {
-        mCompletedGoals.put(goalUuid, new Date().getTime());
+        storeGoalState(mCompletedGoals, goalUuid);
         Map<String, Object> childMap = new HashMap<>();
         childMap.put("complete", "true");
         childMap.put("complete_timestamp", ServerValue.TIMESTAMP);
@@ -650,21 +716,15 @@ public abstract class Executive implements ThreadedShutdown {
     }
 
     /**
-     * Finds the best goal in a collection of goals.
+     * Finds the best goal in the goal index.
      *
      * @param worldState The state of the planner's current world.
-     * @param goals      The goals collection.
      * @return The best goal, or null if no goal can be executed.
      */
-    private Goal getBestGoal(WorldState worldState, Collection<Goal> goals) {
-        // Sort the currently acceptable goals by priority
-        ArrayList<Goal> sortedGoals = new ArrayList<>(goals.size());
-        sortedGoals.addAll(goals);
-        Collections.sort(sortedGoals);
-
-        // Find the best goal by looping through the sorted goals.
-        for (Goal goal : sortedGoals) {
-            if (mGoalTypes.get(goal.getType()).isQuery()) {
+    private Goal getBestGoal(WorldState worldState) {
+        // Find the best goal by looping through the goals, which are sorted by priority.
+        for (Goal goal : mGoals.ordered()) {
+            if (mGoals.isQuery(goal)) {
                 if (query(worldState, goal)) {
                     return goal;
                 }
@@ -0,0 +1,128 @@
+package ai.cellbots.robot.executive;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Stores the goals of the executive, indexed by uuid and ordered by priority, timestamp and
+ * sequence as in Goal.compareTo(), so the best goal is found without sorting all goals. Goals
+ * are immutable, so their order never changes while they are stored.
+ *
+ * This class is not thread safe.
+ */
+final class GoalIndex {
+    // Orders goals as Goal.compareTo(), breaking ties by uuid so no two goals are equal.
+    private static final Comparator<Goal> ORDER = new Comparator<Goal>() {
+        @Override
+        public int compare(Goal a, Goal b) {
+            int result = a.compareTo(b);
+            return result != 0 ? result : a.getUuid().compareTo(b.getUuid());
+        }
+    };
+
+    private final Map<String, Goal> mGoals = new HashMap<>(); // Goal uuid to goal
+    private final NavigableSet<Goal> mOrdered = new TreeSet<>(ORDER); // Goals, best first
+    private final Set<String> mQueryTypes; // Names of the goal types that must be queried
+    private int mQueryGoals = 0; // The number of goals of query types
+
+    /**
+     * Creates the index.
+     *
+     * @param goalTypes The goal types, indexed by name.
+     */
+    GoalIndex(Map<String, GoalType> goalTypes) {
+        Set<String> queryTypes = new HashSet<>();
+        for (Map.Entry<String, GoalType> goalType : goalTypes.entrySet()) {
+            if (goalType.getValue().isQuery()) {
+                queryTypes.add(goalType.getKey());
+            }
+        }
+        mQueryTypes = Collections.unmodifiableSet(queryTypes);
+    }
+
+    /**
+     * Adds a goal, replacing any goal with the same uuid.
+     *
+     * @param goal The goal.
+     */
+    void put(Goal goal) {
+        remove(goal.getUuid());
+        mGoals.put(goal.getUuid(), goal);
+        mOrdered.add(goal);
+        if (isQuery(goal)) {
+            mQueryGoals++;
+        }
+    }
+
+    /**
+     * Removes a goal.
+     *
+     * @param uuid The goal uuid.
+     * @return The removed goal, or null if it was not stored.
+     */
+    Goal remove(String uuid) {
+        Goal goal = mGoals.remove(uuid);
+        if (goal != null) {
+            mOrdered.remove(goal);
+            if (isQuery(goal)) {
+                mQueryGoals--;
+            }
+        }
+        return goal;
+    }
+
+    /**
+     * Checks if a goal is stored.
+     *
+     * @param uuid The goal uuid.
+     * @return True if stored.
+     */
+    boolean containsKey(String uuid) {
+        return mGoals.containsKey(uuid);
+    }
+
+    /**
+     * Gets the goals, best first.
+     *
+     * @return An unmodifiable view of the goals.
+     */
+    Collection<Goal> ordered() {
+        return Collections.unmodifiableSet(mOrdered);
+    }
+
+    /**
+     * Checks if a goal must be queried before it is started.
+     *
+     * @param goal The goal.
+     * @return True if the goal type is a query type.
+     */
+    boolean isQuery(Goal goal) {
+        return mQueryTypes.contains(goal.getType());
+    }
+
+    /**
+     * Checks if any stored goal must be queried, in which case the best goal depends on the
+     * state of the world and not only on the stored goals.
+     *
+     * @return True if there are goals of query types.
+     */
+    boolean hasQueryGoals() {
+        return mQueryGoals > 0;
+    }
+
+    /**
+     * Gets the number of goals.
+     *
+     * @return The number of goals.
+     */
+    int size() {
+        return mGoals.size();
+    }
+}
@@ -132,30 +132,39 @@ public class WorldObject {
         ArrayList<WorldObject> result = new ArrayList<>();
         if (dataSnapshot != null) {
             for (DataSnapshot child : dataSnapshot.getChildren()) {
-                if (!child.hasChild("type")) {
-                    continue;
+                WorldObject object = fromFirebaseValue(mapUuid, child.getKey(), child.getValue(),
+                        objectTypes);
+                if (object != null) {
+                    result.add(object);
                 }
-                Object typeObject = child.child("type").getValue();
-                if (typeObject == null) {
-                    continue;
-                }
-                String type = typeObject.toString();
-                if (!objectTypes.containsKey(type)) {
-                    continue;
-                }
-                Object map = child.getValue();
-                if (!(map instanceof Map)) {
-                    continue;
-                }
-                //noinspection unchecked
-                if (!WorldObject.isMapValid((Map<String, Object>) map, objectTypes.get(type))) {
-                    continue;
-                }
-                //noinspection unchecked
-                result.add(new WorldObject(mapUuid, child.getKey(), objectTypes.get(type),
-                        (Map<String, Object>) map));
             }
         }
         return result;
     }
+
+    /**
+     * Convert a single object from firebase.
+     * @param mapUuid The map uuid.
+     * @param uuid The uuid of the object.
+     * @param value The firebase value of the object.
+     * @param objectTypes The object types.
+     * @return The resulting world object, or null if the value is not a valid object.
+     */
+    @SuppressWarnings("unchecked")
+    static WorldObject fromFirebaseValue(String mapUuid, String uuid, Object value,
+            Map<String, WorldObjectType> objectTypes) {
+        if (uuid == null || !(value instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> map = (Map<String, Object>) value;
+        Object typeObject = map.get("type");
+        if (typeObject == null) {
+            return null;
+        }
+        WorldObjectType type = objectTypes.get(typeObject.toString());
+        if (!WorldObject.isMapValid(map, type)) {
+            return null;
+        }
+        return new WorldObject(mapUuid, uuid, type, map);
+    }
 }
@@ -0,0 +1,352 @@
+package ai.cellbots.robot.executive;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ai.cellbots.common.Transform;
+
+/**
+ * An immutable store of validated world objects, indexed by uuid and by type. Objects with a
+ * location are also bucketed in a uniform grid per type, for nearest object and within radius
+ * queries. A new store is created from each update of the objects, reusing the objects whose
+ * firebase values have not changed, so only the changed objects are validated and parsed again.
+ */
+public final class WorldObjectStore {
+    // The variable holding the location of an object.
+    public static final String LOCATION_VARIABLE = "location";
+    // The size of a grid cell in meters.
+    private static final double CELL_SIZE = 2.0;
+
+    // The empty store.
+    static final WorldObjectStore EMPTY = new WorldObjectStore(null,
+            Collections.<String, WorldObject>emptyMap(), Collections.<String, Object>emptyMap());
+
+    private final String mMapUuid; // The map uuid of the objects
+    private final Map<String, WorldObject> mObjects; // Object uuid to object
+    private final Map<String, Object> mValues; // Object uuid to firebase value
+    private final Map<String, List<WorldObject>> mObjectsByType; // Type name to objects
+    private final Map<String, Grid> mGridsByType; // Type name to grid of located objects
+
+    /**
+     * A uniform grid of located objects.
+     */
+    private static final class Grid {
+        private final Map<Long, List<WorldObject>> mCells = new HashMap<>();
+        private int mMinX = Integer.MAX_VALUE;
+        private int mMinY = Integer.MAX_VALUE;
+        private int mMaxX = Integer.MIN_VALUE;
+        private int mMaxY = Integer.MIN_VALUE;
+
+        /**
+         * Adds an object to the grid.
+         *
+         * @param object   The object.
+         * @param location The location of the object.
+         */
+        private void add(WorldObject object, Transform location) {
+            int x = toCell(location.getPosition(0));
+            int y = toCell(location.getPosition(1));
+            List<WorldObject> cell = mCells.get(toKey(x, y));
+            if (cell == null) {
+                cell = new ArrayList<>(1);
+                mCells.put(toKey(x, y), cell);
+            }
+            cell.add(object);
+            mMinX = Math.min(mMinX, x);
+            mMinY = Math.min(mMinY, y);
+            mMaxX = Math.max(mMaxX, x);
+            mMaxY = Math.max(mMaxY, y);
+        }
+
+        /**
+         * Gets the objects in a cell.
+         *
+         * @param x The cell x coordinate.
+         * @param y The cell y coordinate.
+         * @return The objects, or null if the cell is empty.
+         */
+        private List<WorldObject> get(int x, int y) {
+            return mCells.get(toKey(x, y));
+        }
+
+        /**
+         * Gets the number of rings around a cell before the first ring with cells with objects.
+         *
+         * @param x The cell x coordinate.
+         * @param y The cell y coordinate.
+         * @return The number of rings.
+         */
+        private int getMinRing(int x, int y) {
+            return Math.max(0, Math.max(Math.max(mMinX - x, x - mMaxX),
+                    Math.max(mMinY - y, y - mMaxY)));
+        }
+
+        /**
+         * Gets the number of rings around a cell needed to cover all cells with objects.
+         *
+         * @param x The cell x coordinate.
+         * @param y The cell y coordinate.
+         * @return The number of rings.
+         */
+        private int getMaxRing(int x, int y) {
+            return Math.max(Math.max(x - mMinX, mMaxX - x), Math.max(y - mMinY, mMaxY - y));
+        }
+    }
+
+    /**
+     * Creates the store.
+     *
+     * @param mapUuid The map uuid of the objects.
+     * @param objects The objects, indexed by uuid.
+     * @param values  The firebase values of the objects, indexed by uuid.
+     */
+    private WorldObjectStore(String mapUuid, Map<String, WorldObject> objects,
+            Map<String, Object> values) {
+        mMapUuid = mapUuid;
+        mObjects = Collections.unmodifiableMap(objects);
+        mValues = Collections.unmodifiableMap(values);
+        Map<String, List<WorldObject>> objectsByType = new HashMap<>();
+        Map<String, Grid> gridsByType = new HashMap<>();
+        for (WorldObject object : objects.values()) {
+            String type = object.getType().getName();
+            List<WorldObject> typeObjects = objectsByType.get(type);
+            if (typeObjects == null) {
+                typeObjects = new ArrayList<>();
+                objectsByType.put(type, typeObjects);
+            }
+            typeObjects.add(object);
+
+            Transform location = getLocation(object);
+            if (location != null) {
+                Grid grid = gridsByType.get(type);
+                if (grid == null) {
+                    grid = new Grid();
+                    gridsByType.put(type, grid);
+                }
+                grid.add(object, location);
+            }
+        }
+        for (Map.Entry<String, List<WorldObject>> typeObjects : objectsByType.entrySet()) {
+            typeObjects.setValue(Collections.unmodifiableList(typeObjects.getValue()));
+        }
+        mObjectsByType = objectsByType;
+        mGridsByType = gridsByType;
+    }
+
+    /**
+     * Creates a store from a firebase snapshot of the objects. The objects of the previous store
+     * are reused if their firebase values are unchanged.
+     *
+     * @param previous     The previous store.
+     * @param dataSnapshot The database snapshot.
+     * @param mapUuid      The map uuid.
+     * @param objectTypes  The object types.
+     * @return The new store.
+     */
+    static WorldObjectStore fromFirebase(WorldObjectStore previous, DataSnapshot dataSnapshot,
+            String mapUuid, Map<String, WorldObjectType> objectTypes) {
+        Map<String, Object> values = new HashMap<>();
+        if (dataSnapshot != null) {
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                if (child.getKey() != null) {
+                    values.put(child.getKey(), child.getValue());
+                }
+            }
+        }
+        return fromValues(previous, values, mapUuid, objectTypes);
+    }
+
+    /**
+     * Creates a store from the firebase values of the objects. The objects of the previous store
+     * are reused if their firebase values are unchanged.
+     *
+     * @param previous    The previous store.
+     * @param values      The firebase values, indexed by object uuid.
+     * @param mapUuid     The map uuid.
+     * @param objectTypes The object types.
+     * @return The new store.
+     */
+    static WorldObjectStore fromValues(WorldObjectStore previous, Map<String, Object> values,
+            String mapUuid, Map<String, WorldObjectType> objectTypes) {
+        boolean sameMap = mapUuid != null && mapUuid.equals(previous.mMapUuid);
+        Map<String, WorldObject> objects = new HashMap<>();
+        Map<String, Object> validValues = new HashMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String uuid = entry.getKey();
+            Object value = entry.getValue();
+            WorldObject object = sameMap ? previous.mObjects.get(uuid) : null;
+            if (object == null || value == null || !value.equals(previous.mValues.get(uuid))
+                    || objectTypes.get(object.getType().getName()) != object.getType()) {
+                object = WorldObject.fromFirebaseValue(mapUuid, uuid, value, objectTypes);
+            }
+            if (object != null) {
+                objects.put(uuid, object);
+                validValues.put(uuid, value);
+            }
+        }
+        return new WorldObjectStore(mapUuid, objects, validValues);
+    }
+
+    /**
+     * Gets the location of an object.
+     *
+     * @param object The object.
+     * @return The location, or null if the object has no location.
+     */
+    public static Transform getLocation(WorldObject object) {
+        Object location = object.getValue(LOCATION_VARIABLE);
+        return location instanceof Transform ? (Transform) location : null;
+    }
+
+    /**
+     * Gets an object.
+     *
+     * @param uuid The object uuid.
+     * @return The object, or null if non-existent.
+     */
+    public WorldObject get(String uuid) {
+        return mObjects.get(uuid);
+    }
+
+    /**
+     * Gets all objects.
+     *
+     * @return The objects. Empty if there are no objects.
+     */
+    public Collection<WorldObject> getAll() {
+        return mObjects.values();
+    }
+
+    /**
+     * Gets the objects of a type.
+     *
+     * @param type The object type name.
+     * @return The objects. Empty if there are no objects of the type.
+     */
+    public List<WorldObject> getByType(String type) {
+        List<WorldObject> objects = mObjectsByType.get(type);
+        return objects != null ? objects : Collections.<WorldObject>emptyList();
+    }
+
+    /**
+     * Gets the object of a type nearest to a point in the plane.
+     *
+     * @param type The object type name.
+     * @param x    The x coordinate of the point.
+     * @param y    The y coordinate of the point.
+     * @return The nearest object, or null if there are no located objects of the type.
+     */
+    public WorldObject getNearest(String type, double x, double y) {
+        Grid grid = mGridsByType.get(type);
+        if (grid == null) {
+            return null;
+        }
+        int cellX = toCell(x);
+        int cellY = toCell(y);
+        int maxRing = grid.getMaxRing(cellX, cellY);
+        WorldObject nearest = null;
+        double nearestDistanceSquared = Double.POSITIVE_INFINITY;
+        for (int ring = grid.getMinRing(cellX, cellY); ring <= maxRing; ring++) {
+            for (int cy = cellY - ring; cy <= cellY + ring; cy++) {
+                // Only the border of the ring, inner cells were visited by earlier rings.
+                int step = (cy == cellY - ring || cy == cellY + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int cx = cellX - ring; cx <= cellX + ring; cx += step) {
+                    List<WorldObject> cell = grid.get(cx, cy);
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (WorldObject object : cell) {
+                        double distanceSquared = getDistanceSquared(object, x, y);
+                        if (distanceSquared < nearestDistanceSquared) {
+                            nearest = object;
+                            nearestDistanceSquared = distanceSquared;
+                        }
+                    }
+                }
+            }
+            // Objects in the next rings are at least ring cells away.
+            double bound = ring * CELL_SIZE;
+            if (nearest != null && nearestDistanceSquared <= bound * bound) {
+                break;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Gets the objects of a type within a radius of a point in the plane.
+     *
+     * @param type   The object type name.
+     * @param x      The x coordinate of the point.
+     * @param y      The y coordinate of the point.
+     * @param radius The radius in meters.
+     * @return The objects within the radius. Empty if there are none.
+     */
+    public List<WorldObject> getWithinRadius(String type, double x, double y, double radius) {
+        Grid grid = mGridsByType.get(type);
+        if (grid == null) {
+            return Collections.emptyList();
+        }
+        List<WorldObject> result = new ArrayList<>();
+        int minX = Math.max(toCell(x - radius), grid.mMinX);
+        int maxX = Math.min(toCell(x + radius), grid.mMaxX);
+        int minY = Math.max(toCell(y - radius), grid.mMinY);
+        int maxY = Math.min(toCell(y + radius), grid.mMaxY);
+        for (int cy = minY; cy <= maxY; cy++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                List<WorldObject> cell = grid.get(cx, cy);
+                if (cell == null) {
+                    continue;
+                }
+                for (WorldObject object : cell) {
+                    if (getDistanceSquared(object, x, y) <= radius * radius) {
+                        result.add(object);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the planar distance from a located object to a point.
+     *
+     * @param object The object.
+     * @param x      The x coordinate of the point.
+     * @param y      The y coordinate of the point.
+     * @return The squared distance.
+     */
+    private static double getDistanceSquared(WorldObject object, double x, double y) {
+        Transform location = getLocation(object);
+        double dx = location.getPosition(0) - x;
+        double dy = location.getPosition(1) - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Converts a coordinate to a cell coordinate.
+     *
+     * @param value The coordinate in meters.
+     * @return The cell coordinate.
+     */
+    private static int toCell(double value) {
+        return (int) Math.floor(value / CELL_SIZE);
+    }
+
+    /**
+     * Computes the key of a cell.
+     *
+     * @param x The cell x coordinate.
+     * @param y The cell y coordinate.
+     * @return The key.
+     */
+    private static long toKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
@@ -15,7 +15,7 @@ import ai.cellbots.common.data.RobotMetadata;
  */
 public class WorldState {
     private final Map<Types.WorldStateKey, Object> mKeys;
-    private final Map<String, WorldObject> mWorldObjects;
+    private final WorldObjectStore mWorldObjects;
     private final DetailedWorld mWorld;
 
     /**
@@ -23,13 +23,13 @@ public class WorldState {
      * @param world The current detailed world.
      * @param metadata The robot metadata.
      * @param location The robot location.
-     * @param worldObjects The list of world objects.
+     * @param worldObjects The store of world objects.
      * @param batteryLow True if the battery is low.
      * @param batteryCritical True if the battery is critical.
      * @param executiveState The state of the executive planner.
      */
     public WorldState(DetailedWorld world, RobotMetadata metadata, Transform location,
-            Map<String, WorldObject> worldObjects, boolean batteryLow, boolean batteryCritical,
+            WorldObjectStore worldObjects, boolean batteryLow, boolean batteryCritical,
             ExecutiveStateCommand.ExecutiveState executiveState) {
         mWorld = world;
         Map<Types.WorldStateKey, Object> m = new HashMap<>();
@@ -40,7 +40,7 @@ public class WorldState {
         m.put(Types.WorldStateKey.ROBOT_EXECUTIVE_STATE, executiveState);
         m.put(Types.WorldStateKey.ROBOT_NAME,
                 (metadata != null && metadata.getRobotName() != null) ? metadata.getRobotName() : "");
-        mWorldObjects = Collections.unmodifiableMap(new HashMap<>(worldObjects));
+        mWorldObjects = worldObjects;
         mKeys = Collections.unmodifiableMap(m);
     }
 
@@ -60,10 +60,7 @@ public class WorldState {
      * @return The world object, or null if non-existent.
      */
     public WorldObject getWorldObject(String key) {
-        if (mWorldObjects.containsKey(key)) {
-            return mWorldObjects.get(key);
-        }
-        return null;
+        return mWorldObjects.get(key);
     }
 
     /**
@@ -72,7 +69,26 @@ public class WorldState {
      * @return Collection of world objects. Empty if there are no world objects.
      */
     public Collection<WorldObject> getWorldObjects() {
-        return mWorldObjects.values();
+        return mWorldObjects.getAll();
+    }
+
+    /**
+     * Get world objects of a type.
+     *
+     * @param type The world object type name.
+     * @return Collection of world objects. Empty if there are no world objects of the type.
+     */
+    public Collection<WorldObject> getWorldObjects(String type) {
+        return mWorldObjects.getByType(type);
+    }
+
+    /**
+     * Get the store of world objects, for spatial queries.
+     *
+     * @return The world object store.
+     */
+    public WorldObjectStore getWorldObjectStore() {
+        return mWorldObjects;
     }
 
     /**
@@ -65,10 +65,8 @@ final public class RandomDriverGoalProcessor extends GoalProcessor {
         HashMap<String, Object> params = new HashMap<>();
         params.put("map", worldState.getState(Types.WorldStateKey.ROBOT_MAP));
         LinkedList<Transform> pois = new LinkedList<>();
-        for (WorldObject worldObject : worldState.getWorldObjects()) {
-            if (worldObject.getType().getName().equals("point_of_interest")) {
-                pois.add((Transform) worldObject.getValue("location"));
-            }
+        for (WorldObject worldObject : worldState.getWorldObjects("point_of_interest")) {
+            pois.add((Transform) worldObject.getValue("location"));
         }
 
         synchronized (sRandom) {
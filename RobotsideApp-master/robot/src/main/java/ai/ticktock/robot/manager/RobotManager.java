@@ -4,6 +4,7 @@ import android.content.Context;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -68,6 +69,8 @@ public class RobotManager implements ThreadedShutdown, SLAMSystem.TransformListe
         SLAMSystem.PointCloudListener, SLAMSystem.StatusUpdateListener,
         CostMapManager.Listener {
     private final static String TAG = RobotManager.class.getSimpleName();
+    // Directory in the cache for the inflated static CostMaps of the worlds.
+    private final static String COSTMAP_CACHE_DIRECTORY = "costmaps";
 
     /**
      * On update of the color image.
@@ -366,7 +369,8 @@ public class RobotManager implements ThreadedShutdown, SLAMSystem.TransformListe
         }
 
         mCostMapManager = new CostMapManager(mROSNodeManager, session, costMaps, this,
-                inflator, fuser, configuration.getCostMapResolution());
+                inflator, fuser, configuration.getCostMapResolution(),
+                new File(parent.getCacheDir(), COSTMAP_CACHE_DIRECTORY));
 
         mRobotDriver.setListener(new RobotDriver.Listener() {
             @Override
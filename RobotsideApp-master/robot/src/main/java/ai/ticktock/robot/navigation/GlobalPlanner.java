@@ -25,11 +25,14 @@ public class GlobalPlanner implements ThreadedShutdown {
     private Transform mNextTransform;
 
     private PathFinder mPathFinder;
+    private final PathSimplifier mPathSimplifier = new PathSimplifier(SIMPLIFY_TOLERANCE);
 
     private Path mPath;
+    private Path mSimplifiedPath;
     private boolean mIsNewAction;
 
     private static final long LOOP_MILLISECONDS = 500; // milliseconds
+    private static final double SIMPLIFY_TOLERANCE = 0.05; // meters
 
     /**
      * Starts the GlobalPlanner.
@@ -67,6 +70,7 @@ public class GlobalPlanner implements ThreadedShutdown {
             mTransform = mNextTransform;
             if (mNextAction != mAction) {
                 mPath = null;
+                mSimplifiedPath = null;
                 mAction = mNextAction;
                 mIsNewAction = true;
             }
@@ -83,14 +87,12 @@ public class GlobalPlanner implements ThreadedShutdown {
                     (int) Math.floor(mAction.getTransform().getPosition(1)
                             / mCostMap.getResolution()));
             Path path = computePlan(origin, target);
-            Log.i(TAG, "Generated plan: " + path);
+            Path simplifiedPath = mPathSimplifier.simplify(path, mCostMap);
+            Log.i(TAG, "Generated plan: " + simplifiedPath);
             synchronized (this) {
                 mIsNewAction = false;
-                if (path != null) {
-                    mPath = path;
-                } else {
-                    mPath = null;
-                }
+                mPath = path;
+                mSimplifiedPath = simplifiedPath;
             }
         } else {
             if (mAction == null) {
@@ -103,7 +105,10 @@ public class GlobalPlanner implements ThreadedShutdown {
                     Log.w(TAG, "No plan because of not being localized");
                 }
             }
-            mPath = null;
+            synchronized (this) {
+                mPath = null;
+                mSimplifiedPath = null;
+            }
         }
     }
 
@@ -172,6 +177,19 @@ public class GlobalPlanner implements ThreadedShutdown {
         return null;
     }
 
+    /**
+     * Gets the simplified plan for an action, a compact polyline of the plan for consumers that
+     * do not need every cell.
+     *
+     * @param action The action to get the plan for, or null if not generated.
+     */
+    final synchronized Path getSimplifiedPath(DriveAction action) {
+        if (mAction == action && mSimplifiedPath != null) {
+            return mSimplifiedPath.copy();
+        }
+        return null;
+    }
+
     /**
      * Computes a new plan for the origin and the target.
      *
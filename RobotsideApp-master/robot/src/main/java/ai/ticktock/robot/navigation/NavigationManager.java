@@ -29,7 +29,7 @@ public class NavigationManager extends Controller<DriveAction> {
     private final EventProcessor mListenerEvents;
     private RecoveryState mRecoveryState;
     private List<Transform> mLastLocalPath;
-    private Path mLastGlobalPath;
+    private Path mLastSimplifiedGlobalPath;
 
     /**
      * The update listener.
@@ -38,7 +38,7 @@ public class NavigationManager extends Controller<DriveAction> {
         /**
          * On the update of a new path.
          *
-         * @param path The new path.
+         * @param path The new path, simplified to a polyline.
          */
         void onPath(Path path);
         /**
@@ -78,7 +78,7 @@ public class NavigationManager extends Controller<DriveAction> {
                 Path globalPath;
                 List<Transform> localPath;
                 synchronized (this) {
-                    globalPath = mLastGlobalPath;
+                    globalPath = mLastSimplifiedGlobalPath;
                     localPath = mLastLocalPath;
                 }
                 mListener.onPath(globalPath);
@@ -180,7 +180,8 @@ public class NavigationManager extends Controller<DriveAction> {
 
         Log.i(TAG, "Saving paths");
         synchronized (this) {
-            mLastGlobalPath = globalPath == null ? null : globalPath.copy();
+            mLastSimplifiedGlobalPath = globalPath == null ? null
+                    : mGlobalPlanner.getSimplifiedPath(action);
             mLastLocalPath = mLocalPlanner.getPath();
             if (mLastLocalPath != null) {
                 mLastLocalPath = new ArrayList<>(mLastLocalPath);
@@ -0,0 +1,237 @@
+package ai.cellbots.robot.navigation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.cellbots.robot.costmap.CostMap;
+import ai.cellbots.robot.costmap.CostMapPose;
+
+/**
+ * Reduces a dense path of grid cells, as returned by the path finders, to a compact polyline.
+ * Collinear cells are removed first, then the path is simplified with Douglas-Peucker, and
+ * finally the remaining corners are shortcut where there is a line of sight. A segment is only
+ * simplified if every cell on the straight line is no more costly than the most costly cell of
+ * the path it replaces, so the polyline never crosses obstacles or cuts into higher cost areas.
+ */
+public class PathSimplifier {
+    private final double mTolerance;
+
+    /**
+     * Creates the path simplifier.
+     *
+     * @param tolerance The Douglas-Peucker tolerance in meters.
+     */
+    public PathSimplifier(double tolerance) {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Simplifies a path.
+     *
+     * @param path    The dense path.
+     * @param costMap The CostMap the path was computed on. If null or invalid, only collinear
+     *                cells are removed.
+     * @return The simplified path, or null if the path is null.
+     */
+    public Path simplify(Path path, CostMap costMap) {
+        if (path == null) {
+            return null;
+        }
+        List<CostMapPose> poses = path.asList();
+        if (poses.size() <= 2) {
+            return new Path(poses);
+        }
+        List<Integer> vertices = removeCollinear(poses);
+        if (costMap != null && costMap.isValid()) {
+            vertices = douglasPeucker(poses, vertices, costMap,
+                    mTolerance / costMap.getResolution());
+            vertices = shortcut(poses, vertices, costMap);
+        }
+        List<CostMapPose> result = new ArrayList<>(vertices.size());
+        for (int vertex : vertices) {
+            result.add(poses.get(vertex));
+        }
+        return new Path(result);
+    }
+
+    /**
+     * Removes the cells in the middle of straight runs of the path.
+     *
+     * @param poses The dense path.
+     * @return The indices of the kept cells.
+     */
+    static List<Integer> removeCollinear(List<CostMapPose> poses) {
+        List<Integer> vertices = new ArrayList<>();
+        vertices.add(0);
+        for (int i = 1; i < poses.size() - 1; i++) {
+            CostMapPose previous = poses.get(vertices.get(vertices.size() - 1));
+            CostMapPose current = poses.get(i);
+            CostMapPose next = poses.get(i + 1);
+            long ax = current.getX() - previous.getX();
+            long ay = current.getY() - previous.getY();
+            long bx = next.getX() - current.getX();
+            long by = next.getY() - current.getY();
+            // Keep the cell unless the path continues in the same direction.
+            if (ax * by - ay * bx != 0 || ax * bx + ay * by <= 0) {
+                vertices.add(i);
+            }
+        }
+        vertices.add(poses.size() - 1);
+        return vertices;
+    }
+
+    /**
+     * Simplifies the path with Douglas-Peucker, keeping a vertex if removing it would move the
+     * path by more than the tolerance or if the replacing segment is not clear.
+     *
+     * @param poses     The dense path.
+     * @param vertices  The indices of the current vertices.
+     * @param costMap   The CostMap.
+     * @param tolerance The tolerance in cells.
+     * @return The indices of the kept vertices.
+     */
+    static List<Integer> douglasPeucker(List<CostMapPose> poses, List<Integer> vertices,
+            CostMap costMap, double tolerance) {
+        boolean[] keep = new boolean[vertices.size()];
+        keep[0] = true;
+        keep[vertices.size() - 1] = true;
+        int[] stack = new int[2 * vertices.size()];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = vertices.size() - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            if (last - first < 2) {
+                continue;
+            }
+            CostMapPose start = poses.get(vertices.get(first));
+            CostMapPose end = poses.get(vertices.get(last));
+            int farthest = -1;
+            double farthestDistance = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceToSegment(poses.get(vertices.get(i)), start, end);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthestDistance > tolerance
+                    || !isClear(poses, vertices.get(first), vertices.get(last), costMap)) {
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                result.add(vertices.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Shortcuts the path, connecting each vertex to the farthest following vertex in sight.
+     *
+     * @param poses    The dense path.
+     * @param vertices The indices of the current vertices.
+     * @param costMap  The CostMap.
+     * @return The indices of the kept vertices.
+     */
+    static List<Integer> shortcut(List<CostMapPose> poses, List<Integer> vertices,
+            CostMap costMap) {
+        List<Integer> result = new ArrayList<>();
+        int anchor = 0;
+        result.add(vertices.get(anchor));
+        while (anchor < vertices.size() - 1) {
+            int next = anchor + 1;
+            while (next + 1 < vertices.size()
+                    && isClear(poses, vertices.get(anchor), vertices.get(next + 1), costMap)) {
+                next++;
+            }
+            result.add(vertices.get(next));
+            anchor = next;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the distance from a cell to a segment.
+     *
+     * @param pose  The cell.
+     * @param start The start of the segment.
+     * @param end   The end of the segment.
+     * @return The distance in cells.
+     */
+    private static double distanceToSegment(CostMapPose pose, CostMapPose start, CostMapPose end) {
+        double dx = end.getX() - start.getX();
+        double dy = end.getY() - start.getY();
+        double px = pose.getX() - start.getX();
+        double py = pose.getY() - start.getY();
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1,
+                (px * dx + py * dy) / lengthSquared));
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+
+    /**
+     * Checks if the straight line between two cells of the path may replace the path between
+     * them. Every cell the line touches must be free and no more costly than the most costly
+     * cell of the replaced part of the path.
+     *
+     * @param poses   The dense path.
+     * @param first   The index of the first cell.
+     * @param last    The index of the last cell.
+     * @param costMap The CostMap.
+     * @return True if the line is clear.
+     */
+    static boolean isClear(List<CostMapPose> poses, int first, int last, CostMap costMap) {
+        int maxCost = CostMap.MIN_COST;
+        for (int i = first; i <= last; i++) {
+            maxCost = Math.max(maxCost, costMap.getCost(poses.get(i)));
+        }
+        if (maxCost > CostMap.MAX_FREE_COST) {
+            maxCost = CostMap.MAX_FREE_COST;
+        }
+        CostMapPose start = poses.get(first);
+        CostMapPose end = poses.get(last);
+        int x = start.getX();
+        int y = start.getY();
+        int dx = Math.abs(end.getX() - x);
+        int dy = Math.abs(end.getY() - y);
+        int stepX = end.getX() > x ? 1 : -1;
+        int stepY = end.getY() > y ? 1 : -1;
+        if (costMap.getCost(x, y) > maxCost) {
+            return false;
+        }
+        // Walk every cell the segment between the cell centers passes through.
+        for (int ix = 0, iy = 0; ix < dx || iy < dy;) {
+            long decision = (1 + 2L * ix) * dy - (1 + 2L * iy) * dx;
+            if (decision == 0) {
+                // The line passes through a corner, so check both cells beside it.
+                if (costMap.getCost(x + stepX, y) > maxCost
+                        || costMap.getCost(x, y + stepY) > maxCost) {
+                    return false;
+                }
+                x += stepX;
+                y += stepY;
+                ix++;
+                iy++;
+            } else if (decision < 0) {
+                x += stepX;
+                ix++;
+            } else {
+                y += stepY;
+                iy++;
+            }
+            if (costMap.getCost(x, y) > maxCost) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
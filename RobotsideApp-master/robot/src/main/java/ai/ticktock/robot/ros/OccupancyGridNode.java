@@ -1,10 +1,8 @@
 package ai.cellbots.robot.ros;
 
 import android.support.annotation.NonNull;
-import android.util.Log;
 
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.internal.message.MessageBuffers;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.ros.internal.node.topic.SubscriberIdentifier;
 import org.ros.message.Time;
 import org.ros.namespace.GraphName;
@@ -13,24 +11,47 @@ import org.ros.node.topic.Publisher;
 import org.ros.node.topic.PublisherListener;
 import org.ros.rosjava_geometry.Quaternion;
 
-import java.io.IOException;
+import java.nio.ByteOrder;
 
 import ai.cellbots.robot.costmap.CostMap;
+import map_msgs.OccupancyGridUpdate;
 import nav_msgs.OccupancyGrid;
 
 /**
- * A node for an obstacle grid.
+ * A node for an obstacle grid. The full grid is published as a keyframe on the latched grid
+ * topic periodically, or when its bounds change. In between, only the rectangle that changed
+ * since the last published grid is sent on the "_updates" topic, as map_server and rviz expect.
  */
 class OccupancyGridNode extends ROSNode {
     private static final String TAG = OccupancyGridNode.class.getSimpleName();
     private static final double ADF_ORIGIN_ABOVE_GROUND = 1.4;
+    // The longest time between two full grids, in milliseconds.
+    private static final long KEYFRAME_INTERVAL_MILLIS = 10000;
+    // If the changed rectangle covers more than this fraction of the grid, send a full grid.
+    private static final double KEYFRAME_AREA_FRACTION = 0.5;
+    // Maps a cost byte to the occupancy byte published.
+    private static final byte[] OCCUPANCY_LOOKUP = createOccupancyLookup();
+
     private final CostMap.Source mSource;
 
     private Publisher<OccupancyGrid> mOccupancyGridPublisher = null;
+    private Publisher<OccupancyGridUpdate> mOccupancyGridUpdatePublisher = null;
 
     private CostMap mLastPublishedCostMap = null;
     private CostMap mLatchCostMap = null;
 
+    // The last published grid and its bounds, in grid cells.
+    private byte[] mPublishedGrid = null;
+    private int mPublishedLowerX = 0;
+    private int mPublishedLowerY = 0;
+    private int mPublishedWidth = 0;
+    private int mPublishedHeight = 0;
+    private double mPublishedResolution = 0.0;
+    private long mLastKeyframeTime = 0;
+    private boolean mKeyframeRequired = true;
+    // The buffer the next grid is remapped into, swapped with mPublishedGrid once published.
+    private byte[] mWorkGrid = null;
+
     /**
      * Constructor
      *
@@ -43,20 +64,42 @@ class OccupancyGridNode extends ROSNode {
         start();
     }
 
+    /**
+     * Creates the lookup table from cost bytes to occupancy bytes.
+     *
+     * @return The lookup table, indexed by the unsigned cost byte.
+     */
+    private static byte[] createOccupancyLookup() {
+        byte[] lookup = new byte[256];
+        for (int i = 0; i < lookup.length; i++) {
+            byte cost = (byte) i;
+            if (CostMap.isObstacle(cost)) {
+                lookup[i] = 0;
+            } else {
+                lookup[i] = (byte) (255 - cost);
+            }
+        }
+        return lookup;
+    }
+
     /**
      * Called to start the node.
      */
     @Override
     protected void onStart() {
+        String topic = "/occupancy/" + mSource.toString().toLowerCase();
         Publisher<OccupancyGrid> publisher = getNode().newPublisher(
-                GraphName.of("/occupancy/" + mSource.toString().toLowerCase()), OccupancyGrid._TYPE);
+                GraphName.of(topic), OccupancyGrid._TYPE);
         publisher.setLatchMode(true);
         publisher.addListener(new PublisherListener<OccupancyGrid>() {
             @Override
             public void onNewSubscriber(Publisher<OccupancyGrid> publisher,
                     SubscriberIdentifier subscriberIdentifier) {
                 synchronized (OccupancyGridNode.this) {
+                    // The new subscriber needs a full grid to apply the updates to.
+                    mKeyframeRequired = true;
                     if (mLatchCostMap != null) {
+                        mLastPublishedCostMap = null;
                         publishGrid(mLatchCostMap);
                     }
                 }
@@ -82,11 +125,15 @@ class OccupancyGridNode extends ROSNode {
             public void onMasterUnregistrationFailure(Publisher<OccupancyGrid> occupancyGridPublisher) {
             }
         });
-        mOccupancyGridPublisher = publisher;
+        synchronized (this) {
+            mOccupancyGridUpdatePublisher = getNode().newPublisher(
+                    GraphName.of(topic + "_updates"), OccupancyGridUpdate._TYPE);
+            mOccupancyGridPublisher = publisher;
+        }
     }
 
     /**
-     * Publish an occupancy grid.
+     * Publish an occupancy grid, either in full or as an update of the changed rectangle.
      * @param costMap The CostMap to publish.
      */
     @SuppressWarnings("WeakerAccess")
@@ -99,6 +146,8 @@ class OccupancyGridNode extends ROSNode {
 
         if (mOccupancyGridPublisher == null
                 || mOccupancyGridPublisher.getNumberOfSubscribers() <= 0) {
+            // Updates are useless without a full grid, so send one to the next subscriber.
+            mKeyframeRequired = true;
             return;
         }
 
@@ -107,13 +156,88 @@ class OccupancyGridNode extends ROSNode {
         }
         mLastPublishedCostMap = costMap;
 
+        int lowerX = costMap.getLowerXLimit();
+        int lowerY = costMap.getLowerYLimit();
+        int width = costMap.getUpperXLimit() - lowerX;
+        int height = costMap.getUpperYLimit() - lowerY;
+        if (mWorkGrid == null || mWorkGrid.length != width * height) {
+            mWorkGrid = new byte[width * height];
+        }
+        byte[] grid = mWorkGrid;
+        // Copy the costs once, rather than looking up each cell through the CostMap.
+        byte[] costs = costMap.getFullCostRegion();
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = OCCUPANCY_LOOKUP[costs[i] & 0xFF];
+        }
+
+        long now = System.currentTimeMillis();
+        boolean keyframe = mKeyframeRequired || mPublishedGrid == null
+                || now - mLastKeyframeTime >= KEYFRAME_INTERVAL_MILLIS
+                || lowerX != mPublishedLowerX || lowerY != mPublishedLowerY
+                || width != mPublishedWidth || height != mPublishedHeight
+                || costMap.getResolution() != mPublishedResolution;
+
+        if (keyframe) {
+            publishFullGrid(costMap, grid, width, height, now);
+        } else {
+            // Find the bounding rectangle of the cells changed since the last published grid.
+            int minX = width;
+            int minY = height;
+            int maxX = -1;
+            int maxY = -1;
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                int x = 0;
+                while (x < width && grid[row + x] == mPublishedGrid[row + x]) {
+                    x++;
+                }
+                if (x == width) {
+                    continue;
+                }
+                minX = Math.min(minX, x);
+                x = width - 1;
+                while (grid[row + x] == mPublishedGrid[row + x]) {
+                    x--;
+                }
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = y;
+            }
+            if (maxY < 0) {
+                return;
+            }
+            int updateWidth = maxX - minX + 1;
+            int updateHeight = maxY - minY + 1;
+            if (updateWidth * updateHeight > KEYFRAME_AREA_FRACTION * width * height) {
+                publishFullGrid(costMap, grid, width, height, now);
+            } else {
+                publishGridUpdate(grid, width, minX, minY, updateWidth, updateHeight, now);
+            }
+        }
+
+        mWorkGrid = mPublishedGrid;
+        mPublishedGrid = grid;
+        mPublishedLowerX = lowerX;
+        mPublishedLowerY = lowerY;
+        mPublishedWidth = width;
+        mPublishedHeight = height;
+        mPublishedResolution = costMap.getResolution();
+    }
+
+    /**
+     * Publish the full occupancy grid.
+     * @param costMap The CostMap the grid was computed from.
+     * @param grid The occupancy grid.
+     * @param width The width of the grid.
+     * @param height The height of the grid.
+     * @param now The current time in milliseconds.
+     */
+    private void publishFullGrid(CostMap costMap, byte[] grid, int width, int height, long now) {
         OccupancyGrid occupancyGridMessage = mOccupancyGridPublisher.newMessage();
-        occupancyGridMessage.getHeader().setStamp(Time.fromMillis(System.currentTimeMillis()));
+        occupancyGridMessage.getHeader().setStamp(Time.fromMillis(now));
         occupancyGridMessage.getHeader().setFrameId("/map");
-        occupancyGridMessage.getInfo().setWidth(
-                costMap.getUpperXLimit() - costMap.getLowerXLimit());
-        occupancyGridMessage.getInfo().setHeight(
-                costMap.getUpperYLimit() - costMap.getLowerYLimit());
+        occupancyGridMessage.getInfo().setWidth(width);
+        occupancyGridMessage.getInfo().setHeight(height);
         occupancyGridMessage.getInfo().setResolution((float) costMap.getResolution());
         occupancyGridMessage.getInfo().getOrigin().getPosition().setX(
                 costMap.getLowerXLimit() * costMap.getResolution());
@@ -123,25 +247,40 @@ class OccupancyGridNode extends ROSNode {
         Quaternion.identity().toQuaternionMessage(
                 occupancyGridMessage.getInfo().getOrigin().getOrientation());
 
-        ChannelBufferOutputStream output = new ChannelBufferOutputStream(
-                MessageBuffers.dynamicBuffer());
-
-        byte[] outputGrid = costMap.getFullCostRegion();
-        for (int i = 0; i < outputGrid.length; i++) {
-            if (CostMap.isObstacle(outputGrid[i])) {
-                outputGrid[i] = 0;
-            } else {
-                outputGrid[i] = (byte)(255 - outputGrid[i]);
-            }
-        }
-        try {
-            output.write(outputGrid);
-        } catch (IOException e) {
-            Log.w(TAG, "Unable to send message, error writing grid", e);
-            return;
-        }
-        occupancyGridMessage.setData(output.buffer());
+        // The message is serialized later on the publisher's thread, so the grid is copied
+        // since its buffer is reused for the next CostMap.
+        occupancyGridMessage.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN,
+                grid.clone()));
         // Publish OccupancyGrid message
         mOccupancyGridPublisher.publish(occupancyGridMessage);
+        mLastKeyframeTime = now;
+        mKeyframeRequired = false;
+    }
+
+    /**
+     * Publish a rectangle of the occupancy grid as an update of the last published grid.
+     * @param grid The occupancy grid.
+     * @param width The width of the grid.
+     * @param x The x coordinate of the rectangle, in grid cells from the grid origin.
+     * @param y The y coordinate of the rectangle, in grid cells from the grid origin.
+     * @param updateWidth The width of the rectangle.
+     * @param updateHeight The height of the rectangle.
+     * @param now The current time in milliseconds.
+     */
+    private void publishGridUpdate(byte[] grid, int width, int x, int y,
+            int updateWidth, int updateHeight, long now) {
+        byte[] data = new byte[updateWidth * updateHeight];
+        for (int row = 0; row < updateHeight; row++) {
+            System.arraycopy(grid, (y + row) * width + x, data, row * updateWidth, updateWidth);
+        }
+        OccupancyGridUpdate updateMessage = mOccupancyGridUpdatePublisher.newMessage();
+        updateMessage.getHeader().setStamp(Time.fromMillis(now));
+        updateMessage.getHeader().setFrameId("/map");
+        updateMessage.setX(x);
+        updateMessage.setY(y);
+        updateMessage.setWidth(updateWidth);
+        updateMessage.setHeight(updateHeight);
+        updateMessage.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, data));
+        mOccupancyGridUpdatePublisher.publish(updateMessage);
     }
 }
@@ -8,7 +8,9 @@ import org.ros.node.topic.Publisher;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import ai.cellbots.robot.vision.PointCloud;
 import sensor_msgs.PointCloud2;
@@ -19,10 +21,17 @@ import sensor_msgs.PointField;
  */
 class PointCloudNode extends ROSNode {
     private Publisher<PointCloud2> mPointCloudPublisher = null;
+    // The field descriptors, shared by all messages.
+    private List<PointField> mFields = null;
+    // The interleaved point data of the last message, reused for the next one.
+    private float[] mContent = new float[0];
 
     private static final String[] POINT_CLOUD_FIELD_NAMES = {"x", "y", "z", "i", "rgb"};
     private static final int FLOAT_SIZE = 4;
+    private static final int POINT_FLOATS = POINT_CLOUD_FIELD_NAMES.length;
     private static final float PURPLE_COLOR = Float.intBitsToFloat(0xFF00FF);
+    // The maximum number of points in a message, larger clouds are decimated.
+    private static final int MAX_POINTS_PER_MESSAGE = 20000;
 
 
     /**
@@ -39,77 +48,72 @@ class PointCloudNode extends ROSNode {
      * Called when the system is started.
      */
     @Override
-    protected void onStart() {
+    protected synchronized void onStart() {
+        List<PointField> fields = new ArrayList<>(POINT_CLOUD_FIELD_NAMES.length);
+        int offset = 0;
+        for (String field : POINT_CLOUD_FIELD_NAMES) {
+            PointField ptf = getNode().getTopicMessageFactory().newFromType(PointField._TYPE);
+            ptf.setCount(1);
+            ptf.setDatatype(PointField.FLOAT32);
+            ptf.setName(field);
+            ptf.setOffset(offset);
+            offset += FLOAT_SIZE;
+
+            fields.add(ptf);
+        }
+        mFields = Collections.unmodifiableList(fields);
         mPointCloudPublisher = getNode().newPublisher(
                 GraphName.of("/point_cloud"), PointCloud2._TYPE);
     }
 
     /**
-     * Publish a point cloud.
+     * Publish a point cloud. Clouds larger than MAX_POINTS_PER_MESSAGE are decimated.
      *
      * @param pointCloud  The PointCloud containing the image data.
      * @param colorsValid True if the point cloud colors are valid.
      * @param pointColors The coloration of the point cloud by the system.
      */
     @SuppressWarnings("WeakerAccess")
-    public void publishPointCloud(PointCloud pointCloud, boolean colorsValid, float[] pointColors) {
-        if (mPointCloudPublisher.getNumberOfSubscribers() > 0
+    public synchronized void publishPointCloud(PointCloud pointCloud, boolean colorsValid,
+            float[] pointColors) {
+        if (mPointCloudPublisher != null && mPointCloudPublisher.getNumberOfSubscribers() > 0
                 && pointCloud != null && pointCloud.getPointCount() > 0) {
             if (pointCloud.getFormat() != PointCloud.Format.X_Y_Z_I) {
                 throw new Error("Unsupported point cloud format: " + pointCloud.getFormat());
             }
 
-            sensor_msgs.PointCloud2 pt = mPointCloudPublisher.newMessage();
-            LinkedList<PointField> fields = new LinkedList<>();
-            int offset = 0;
-
-            for (String field : POINT_CLOUD_FIELD_NAMES) {
-                PointField ptf = getNode().getTopicMessageFactory().newFromType(PointField._TYPE);
-                ptf.setCount(1);
-                ptf.setDatatype(PointField.FLOAT32);
-                ptf.setName(field);
-                ptf.setOffset(offset);
-                offset += FLOAT_SIZE;
+            int pointCount = pointCloud.getPointCount();
+            int stride = (pointCount + MAX_POINTS_PER_MESSAGE - 1) / MAX_POINTS_PER_MESSAGE;
+            int outputCount = (pointCount + stride - 1) / stride;
+            int colorCount = (pointColors != null && colorsValid) ? pointColors.length : 0;
 
-                fields.add(ptf);
+            if (mContent.length < outputCount * POINT_FLOATS) {
+                mContent = new float[outputCount * POINT_FLOATS];
+            }
+            float[] points = pointCloud.getPoints();
+            int output = 0;
+            for (int i = 0; i < pointCount; i += stride) {
+                System.arraycopy(points, i * 4, mContent, output, 4);
+                mContent[output + 4] = i < colorCount ? pointColors[i] : PURPLE_COLOR;
+                output += POINT_FLOATS;
             }
 
-            pt.setFields(fields);
-
-            pt.setWidth(pointCloud.getPointCount());
+            sensor_msgs.PointCloud2 pt = mPointCloudPublisher.newMessage();
+            pt.setFields(mFields);
+            pt.setWidth(outputCount);
             pt.setHeight(1);
-            pt.setPointStep(FLOAT_SIZE * fields.size());
+            pt.setPointStep(FLOAT_SIZE * POINT_FLOATS);
             pt.setIsDense(true);
-            pt.setRowStep(pt.getWidth());
+            pt.setRowStep(pt.getPointStep() * pt.getWidth());
             pt.setIsBigendian(false);
 
-            byte[] content = new byte[pointCloud.getPointCount() * FLOAT_SIZE * fields.size()];
-            ByteBuffer writer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
-            float[] points = pointCloud.getPoints();
-
-            if (pointColors != null && colorsValid) {
-                for (int i = 0; i < pointCloud.getPointCount() && i < pointColors.length; i++) {
-                    for (int k = 0; k < 4; k++) {
-                        writer.putFloat(points[(i * 4) + k]);
-                    }
-                    writer.putFloat(pointColors[i]);
-                }
-                for (int i = pointColors.length; i < pointCloud.getPointCount(); i++) {
-                    for (int k = 0; k < 4; k++) {
-                        writer.putFloat(points[(i * 4) + k]);
-                    }
-                    writer.putFloat(PURPLE_COLOR);
-                }
-            } else {
-                for (int i = 0; i < pointCloud.getPointCount(); i++) {
-                    for (int k = 0; k < 4; k++) {
-                        writer.putFloat(points[(i * 4) + k]);
-                    }
-                    writer.putFloat(PURPLE_COLOR);
-                }
-            }
+            // The message is serialized later on the publisher's thread, so it owns its buffer.
+            // The floats are written in one bulk put and the buffer is wrapped without a copy.
+            ByteBuffer content = ByteBuffer.allocate(output * FLOAT_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            content.asFloatBuffer().put(mContent, 0, output);
 
-            pt.setData(ChannelBuffers.copiedBuffer(ByteOrder.LITTLE_ENDIAN, content));
+            pt.setData(ChannelBuffers.wrappedBuffer(content));
             pt.getHeader().setStamp(Time.fromMillis((long) (pointCloud.getTimestamp() * 1000.0)));
             pt.getHeader().setFrameId("/camera_depth");
             mPointCloudPublisher.publish(pt);
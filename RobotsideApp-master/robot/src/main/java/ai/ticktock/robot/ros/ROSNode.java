@@ -79,10 +79,15 @@ abstract class ROSNode extends AbstractNodeMain implements NodeMain, ThreadedShu
      */
     @Override
     public void shutdown() {
-        if (mNodeMainExecutor != null) {
-            mNodeMainExecutor.shutdown();
+        // Take the executor under the lock so that concurrent shutdowns only stop it once.
+        NodeMainExecutor executor;
+        synchronized (this) {
+            executor = mNodeMainExecutor;
             mNodeMainExecutor = null;
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     /**
@@ -8,31 +8,59 @@ import org.ros.rosjava_geometry.Quaternion;
 import org.ros.rosjava_geometry.Vector3;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import ai.cellbots.common.TimedLoop;
 import ai.cellbots.common.Transform;
 import geometry_msgs.TransformStamped;
 import tf2_msgs.TFMessage;
 
 /**
- * Publish all the ROS transforms.
+ * Publish all the ROS transforms. Dynamic transforms are collected and published together in
+ * one TFMessage per tick, keeping only the latest transform of each frame, so the rate on /tf
+ * is capped. Static transforms, such as the POIs, are published on the latched /tf_static only
+ * when they change.
  */
-class TransformROSNode extends ROSNode {
+class TransformROSNode extends ROSNode implements TimedLoop.Looped {
+    // The default maximum rate of the dynamic transforms, in Hz.
+    static final double DEFAULT_MAX_RATE = 20.0;
+
+    private final long mTickMillis;
+    private final TimedLoop mTimedLoop;
+
     private Publisher<TFMessage> mTfPublisher = null;
     private Publisher<TFMessage> mStaticTfPublisher = null;
 
-    private List<Transform> mInitialListTransforms;
-    private List<String> mInitialListNames;
+    // The dynamic transforms due in the next tick, and their parents, by child frame.
+    private final Map<String, Transform> mPendingTransforms = new LinkedHashMap<>();
+    private final Map<String, String> mPendingParents = new LinkedHashMap<>();
+
+    // The static POI transforms, published once on start if set before.
+    private List<Transform> mPointOfInterestTransforms = null;
+    private List<String> mPointOfInterestNames = null;
 
     /**
      * Constructor
      *
      * @param nodeConfiguration The configuration for this node.
+     * @param maxRate           The maximum rate of the dynamic transforms, in Hz.
      */
-    TransformROSNode(NodeConfiguration nodeConfiguration) {
+    TransformROSNode(NodeConfiguration nodeConfiguration, double maxRate) {
         super(nodeConfiguration, "cellbots/tf");
+        mTickMillis = Math.max(1, (long) (1000.0 / maxRate));
         start();
+        mTimedLoop = new TimedLoop("TransformROSNode", this, mTickMillis);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param nodeConfiguration The configuration for this node.
+     */
+    TransformROSNode(NodeConfiguration nodeConfiguration) {
+        this(nodeConfiguration, DEFAULT_MAX_RATE);
     }
 
     /**
@@ -45,8 +73,8 @@ class TransformROSNode extends ROSNode {
         mStaticTfPublisher = getNode().newPublisher(
                 GraphName.of("/tf_static"), TFMessage._TYPE);
         mStaticTfPublisher.setLatchMode(true);
-        if (mInitialListNames != null && mInitialListTransforms != null) {
-            publishPointOfInterestPoses(mInitialListTransforms, mInitialListNames);
+        if (mPointOfInterestNames != null && mPointOfInterestTransforms != null) {
+            publishStaticTransforms();
         }
     }
 
@@ -59,7 +87,7 @@ class TransformROSNode extends ROSNode {
      * @return The ROS TransformStamped.
      */
     private geometry_msgs.TransformStamped toTransform(ai.cellbots.common.Transform l, String frame,
-            @SuppressWarnings("SameParameterValue") String parent) {
+            String parent) {
         TransformStamped sf = getNode().getTopicMessageFactory().newFromType(TransformStamped._TYPE);
         org.ros.rosjava_geometry.Transform tf = new org.ros.rosjava_geometry.Transform(
                 new Vector3(l.getPosition(0), l.getPosition(1), l.getPosition(2)),
@@ -74,6 +102,18 @@ class TransformROSNode extends ROSNode {
         return sf;
     }
 
+    /**
+     * Queue a dynamic transform for the next tick, replacing any queued transform of the frame.
+     *
+     * @param transform The Transform.
+     * @param frame     The ROS coordinate child frame.
+     * @param parent    The ROS coordinate parent frame.
+     */
+    private void queueTransform(Transform transform, String frame, String parent) {
+        mPendingTransforms.put(frame, transform);
+        mPendingParents.put(frame, parent);
+    }
+
     /**
      * Publish the device and base poses.
      *
@@ -81,21 +121,16 @@ class TransformROSNode extends ROSNode {
      * @param base The base transform in the map frame.
      */
     @SuppressWarnings("WeakerAccess")
-    public void publishRobotPose(Transform device, Transform base) {
-        if (mTfPublisher == null || getNode() == null || (device == null && base == null)) {
+    public synchronized void publishRobotPose(Transform device, Transform base) {
+        if (mTfPublisher == null || getNode() == null
+                || mTfPublisher.getNumberOfSubscribers() <= 0) {
             return;
         }
-        if (mTfPublisher.getNumberOfSubscribers() > 0) {
-            TFMessage mm = mTfPublisher.newMessage();
-            LinkedList<TransformStamped> tf = new LinkedList<>();
-            if (device != null) {
-                tf.add(toTransform(device, "/device", "/map"));
-            }
-            if (base != null) {
-                tf.add(toTransform(base, "/base_link", "/map"));
-            }
-            mm.setTransforms(tf);
-            mTfPublisher.publish(mm);
+        if (device != null) {
+            queueTransform(device, "/device", "/map");
+        }
+        if (base != null) {
+            queueTransform(base, "/base_link", "/map");
         }
     }
 
@@ -105,21 +140,16 @@ class TransformROSNode extends ROSNode {
      * @param depthLocation The device depth location in the map frame.
      */
     @SuppressWarnings("WeakerAccess")
-    public void publishPointCloudPose(Transform depthLocation) {
-        if (mTfPublisher == null || getNode() == null || depthLocation == null) {
+    public synchronized void publishPointCloudPose(Transform depthLocation) {
+        if (mTfPublisher == null || getNode() == null || depthLocation == null
+                || mTfPublisher.getNumberOfSubscribers() <= 0) {
             return;
         }
-        if (mTfPublisher.getNumberOfSubscribers() > 0) {
-            TFMessage mm = mTfPublisher.newMessage();
-            LinkedList<TransformStamped> tf = new LinkedList<>();
-            tf.add(toTransform(depthLocation, "/camera_depth", "/map"));
-            mm.setTransforms(tf);
-            mTfPublisher.publish(mm);
-        }
+        queueTransform(depthLocation, "/camera_depth", "/map");
     }
 
     /**
-     * Publish the POI poses.
+     * Publish the POI poses. They are only sent if they differ from the last published POIs.
      *
      * @param transforms The locations.
      * @param names      The names.
@@ -129,17 +159,70 @@ class TransformROSNode extends ROSNode {
         if (transforms == null || names == null) {
             return;
         }
-        if (mStaticTfPublisher == null || getNode() == null) {
-            mInitialListTransforms = new ArrayList<>(transforms);
-            mInitialListNames = new ArrayList<>(names);
+        if (transforms.equals(mPointOfInterestTransforms) && names.equals(mPointOfInterestNames)) {
             return;
         }
+        mPointOfInterestTransforms = new ArrayList<>(transforms);
+        mPointOfInterestNames = new ArrayList<>(names);
+        if (mStaticTfPublisher != null && getNode() != null) {
+            publishStaticTransforms();
+        }
+    }
+
+    /**
+     * Publish all the static transforms in one message on the latched /tf_static.
+     */
+    private void publishStaticTransforms() {
         TFMessage mm = mStaticTfPublisher.newMessage();
-        LinkedList<TransformStamped> tf = new LinkedList<>();
-        for (int i = 0; i < transforms.size() && i < names.size(); i++) {
-            tf.add(toTransform(transforms.get(i), "/pois/" + names.get(i), "/map"));
+        int count = Math.min(mPointOfInterestTransforms.size(), mPointOfInterestNames.size());
+        List<TransformStamped> tf = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tf.add(toTransform(mPointOfInterestTransforms.get(i),
+                    "/pois/" + mPointOfInterestNames.get(i), "/map"));
         }
         mm.setTransforms(tf);
         mStaticTfPublisher.publish(mm);
     }
+
+    /**
+     * Publish the dynamic transforms due in this tick in one message.
+     *
+     * @return True, the loop continues until shutdown.
+     */
+    @Override
+    public synchronized boolean update() {
+        if (mPendingTransforms.isEmpty() || mTfPublisher == null || getNode() == null) {
+            return true;
+        }
+        if (mTfPublisher.getNumberOfSubscribers() > 0) {
+            TFMessage mm = mTfPublisher.newMessage();
+            List<TransformStamped> tf = new ArrayList<>(mPendingTransforms.size());
+            for (Map.Entry<String, Transform> entry : mPendingTransforms.entrySet()) {
+                tf.add(toTransform(entry.getValue(), entry.getKey(),
+                        mPendingParents.get(entry.getKey())));
+            }
+            mm.setTransforms(tf);
+            mTfPublisher.publish(mm);
+        }
+        mPendingTransforms.clear();
+        mPendingParents.clear();
+        return true;
+    }
+
+    /**
+     * Shutdown the node.
+     */
+    @Override
+    public void shutdown() {
+        mTimedLoop.shutdown();
+        super.shutdown();
+    }
+
+    /**
+     * Wait for the node to shutdown. The loop shuts down the node when it exits.
+     */
+    @Override
+    public void waitShutdown() {
+        mTimedLoop.waitShutdown();
+    }
 }
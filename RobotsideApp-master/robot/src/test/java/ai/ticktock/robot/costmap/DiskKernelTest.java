@@ -0,0 +1,89 @@
+package ai.cellbots.robot.costmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DiskKernelTest {
+    // Tests the row half widths of small disks.
+    @Test
+    public void testHalfWidths() {
+        DiskKernel subject = DiskKernel.forRadius(2);
+        assertEquals(2, subject.getRadius());
+        assertEquals(-1, subject.getHalfWidth(-3));
+        assertEquals(0, subject.getHalfWidth(-2));
+        assertEquals(1, subject.getHalfWidth(-1));
+        assertEquals(2, subject.getHalfWidth(0));
+        assertEquals(1, subject.getHalfWidth(1));
+        assertEquals(0, subject.getHalfWidth(2));
+        assertEquals(-1, subject.getHalfWidth(3));
+        assertEquals(0, DiskKernel.forRadius(-1).getRadius());
+        assertEquals(subject, DiskKernel.forRadius(2));
+    }
+
+    // Tests stamping disks against the cells within the radius, clipped to the grid.
+    @Test
+    public void testStamp() {
+        Random random = new Random(1);
+        for (int test = 0; test < 200; test++) {
+            DiskKernel subject = DiskKernel.forRadius(random.nextInt(8));
+            int centerX = random.nextInt(30) - 10;
+            int centerY = random.nextInt(30) - 10;
+            byte[] grid = new byte[20 * 15];
+            subject.stamp(grid, 20, 15, -3, 2, centerX, centerY, (byte) 54);
+
+            byte[] expectedGrid = new byte[20 * 15];
+            int r = subject.getRadius();
+            for (int y = 0; y < 15; y++) {
+                for (int x = 0; x < 20; x++) {
+                    int dx = x - 3 - centerX;
+                    int dy = y + 2 - centerY;
+                    if (dx * dx + dy * dy <= r * r) {
+                        expectedGrid[y * 20 + x] = 54;
+                    }
+                }
+            }
+            assertArrayEquals(expectedGrid, grid);
+        }
+    }
+
+    // Tests sweeping capsules against the cells within the radius of the segment.
+    @Test
+    public void testSweep() {
+        Random random = new Random(2);
+        for (int test = 0; test < 500; test++) {
+            DiskKernel subject = DiskKernel.forRadius(random.nextInt(6));
+            int x0 = random.nextInt(30) - 10;
+            int y0 = random.nextInt(30) - 10;
+            int x1 = random.nextInt(30) - 10;
+            int y1 = random.nextInt(30) - 10;
+            byte[] grid = new byte[20 * 15];
+            subject.sweep(grid, 20, 15, -3, 2, x0, y0, x1, y1, (byte) 54);
+
+            byte[] expectedGrid = new byte[20 * 15];
+            double r = subject.getRadius();
+            for (int y = 0; y < 15; y++) {
+                for (int x = 0; x < 20; x++) {
+                    double px = x - 3;
+                    double py = y + 2;
+                    // Distance from the cell to the closest point of the segment.
+                    double dx = x1 - x0;
+                    double dy = y1 - y0;
+                    double t = (dx == 0 && dy == 0) ? 0
+                            : ((px - x0) * dx + (py - y0) * dy) / (dx * dx + dy * dy);
+                    t = Math.max(0, Math.min(1, t));
+                    double ex = px - (x0 + t * dx);
+                    double ey = py - (y0 + t * dy);
+                    if (ex * ex + ey * ey <= r * r + 1e-9) {
+                        expectedGrid[y * 20 + x] = 54;
+                    }
+                }
+            }
+            assertArrayEquals("Sweep " + x0 + ", " + y0 + " to " + x1 + ", " + y1 + " radius "
+                    + r, expectedGrid, grid);
+        }
+    }
+}
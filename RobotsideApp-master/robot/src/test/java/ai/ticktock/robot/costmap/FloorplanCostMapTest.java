@@ -0,0 +1,51 @@
+package ai.cellbots.robot.costmap;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ai.cellbots.common.World;
+
+public class FloorplanCostMapTest {
+    private static final double RESOLUTION = 0.1;
+
+    /**
+     * Makes a square floor plan polygon.
+     */
+    private static World.FloorPlanPolygon square(float min, float max, boolean closed,
+            int layer) {
+        List<float[]> vertices = Arrays.asList(new float[]{min, min}, new float[]{max, min},
+                new float[]{max, max}, new float[]{min, max});
+        return new World.FloorPlanPolygon(vertices, closed, (max - min) * (max - min), layer);
+    }
+
+    // Tests that a closed wall ring only blocks its sides, while furniture is filled.
+    @Test
+    public void testWallsAreOutlines() {
+        FloorplanCostMap subject = new FloorplanCostMap(null, RESOLUTION);
+        subject.onFloorplan(Arrays.asList(new World.FloorPlanLevel(0.0, 2.0, Arrays.asList(
+                square(0.05f, 2.05f, true, World.FloorPlanPolygon.LAYER_WALLS),
+                square(0.55f, 0.95f, true, World.FloorPlanPolygon.LAYER_FURNITURE),
+                square(1.25f, 1.75f, false, World.FloorPlanPolygon.LAYER_WALLS)))));
+
+        // The sides of the ring, including its closing edge, are obstacles.
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(0, 10));
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(20, 10));
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(10, 0));
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(10, 20));
+        // The room inside the ring is free.
+        assertEquals(CostMap.MIN_COST, subject.getCost(3, 3));
+        assertEquals(CostMap.MIN_COST, subject.getCost(11, 11));
+        // The furniture is filled.
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(7, 7));
+        // The open wall has no closing edge, from its last vertex back to its first one.
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(15, 12));
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(17, 15));
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(15, 17));
+        assertEquals(CostMap.MIN_COST, subject.getCost(12, 15));
+        assertEquals(CostMap.MIN_COST, subject.getCost(15, 15));
+    }
+}
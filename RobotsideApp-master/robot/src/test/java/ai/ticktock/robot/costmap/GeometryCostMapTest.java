@@ -0,0 +1,165 @@
+package ai.cellbots.robot.costmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import ai.cellbots.common.Polygon;
+import ai.cellbots.common.Transform;
+
+public class GeometryCostMapTest {
+    private static final double RESOLUTION = 0.1;
+    private static final double ROBOT_RADIUS = 0.3;
+
+    // Tests that geometries expire only after their expire time.
+    @Test
+    public void testExpiry() {
+        GeometryCostMap subject = new GeometryCostMap(CostMap.Source.COMPUTER_VISION,
+                RESOLUTION, ROBOT_RADIUS);
+        subject.update(1000, Collections.singletonList(square(1000, 0.0, 0.0, 0.5)));
+        assertTrue(subject.isValid());
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(2, 2));
+        // The robot radius is kept around the geometry.
+        assertTrue(subject.getLowerXLimit() <= -3);
+        assertTrue(subject.getUpperYLimit() >= 8);
+
+        subject.clear(1000);
+        assertTrue(subject.isValid());
+        assertEquals(CostMap.OBSTACLE_COST, subject.getCost(2, 2));
+        // Nothing expired, so no cells changed.
+        assertNull(subject.getDirtyRegion());
+
+        subject.clear(1001);
+        assertFalse(subject.isValid());
+        assertEquals(0, subject.getSize());
+        assertNotNull(subject.getDirtyRegion());
+    }
+
+    // Tests random insertions and expiries against a full rebuild of the live geometries.
+    @Test
+    public void testRandomUpdates() {
+        Random random = new Random(1);
+        GeometryCostMap subject = new GeometryCostMap(CostMap.Source.COMPUTER_VISION,
+                RESOLUTION, ROBOT_RADIUS);
+        List<GeometryCostMap.Geometry> live = new ArrayList<>();
+        List<double[][]> liveVertices = new ArrayList<>();
+        List<Long> liveExpireTimes = new ArrayList<>();
+        byte[] previous = new byte[0];
+        int previousX = 0;
+        int previousY = 0;
+        int previousWidth = 0;
+        long time = 0;
+        for (int step = 0; step < 300; step++) {
+            time += random.nextInt(400);
+            List<GeometryCostMap.Geometry> added = new ArrayList<>();
+            int count = random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                double[][] vertices = new double[1 + random.nextInt(5)][];
+                double centerX = random.nextDouble() * 20.0 - 10.0;
+                double centerY = random.nextDouble() * 20.0 - 10.0;
+                Transform[] points = new Transform[vertices.length];
+                for (int v = 0; v < vertices.length; v++) {
+                    vertices[v] = new double[]{centerX + random.nextDouble() * 2.0,
+                            centerY + random.nextDouble() * 2.0};
+                    points[v] = new Transform(vertices[v][0], vertices[v][1], 0, 0);
+                }
+                long expireTime = time + random.nextInt(5000);
+                GeometryCostMap.Geometry geometry = new GeometryCostMap.Geometry(
+                        expireTime, CostMap.OBSTACLE_COST, new Polygon(points));
+                added.add(geometry);
+                live.add(geometry);
+                liveVertices.add(vertices);
+                liveExpireTimes.add(expireTime);
+            }
+            subject.update(time, added);
+
+            // Find the live geometries, as the old implementation did.
+            PolygonRasterizer bounds = new PolygonRasterizer(RESOLUTION);
+            for (int i = live.size() - 1; i >= 0; i--) {
+                if (liveExpireTimes.get(i) < time && !added.contains(live.get(i))) {
+                    live.remove(i);
+                    liveVertices.remove(i);
+                    liveExpireTimes.remove(i);
+                } else {
+                    bounds.addPolygon(liveVertices.get(i), false);
+                }
+            }
+            assertEquals(!live.isEmpty(), subject.isValid());
+            if (live.isEmpty()) {
+                assertEquals(0, subject.getSize());
+            } else {
+                int radius = (int) Math.ceil(ROBOT_RADIUS / RESOLUTION);
+                assertTrue(subject.getLowerXLimit() <= bounds.getLowerXLimit() - radius);
+                assertTrue(subject.getLowerYLimit() <= bounds.getLowerYLimit() - radius);
+                assertTrue(subject.getUpperXLimit() >= bounds.getUpperXLimit() + radius);
+                assertTrue(subject.getUpperYLimit() >= bounds.getUpperYLimit() + radius);
+            }
+
+            byte[] grid = subject.getFullCostRegion();
+            int width = subject.getBoundingWidth();
+            byte[] expectedGrid = new byte[grid.length];
+            // Fill each polygon alone, as the windings of self intersecting polygons would
+            // otherwise cancel out.
+            for (double[][] vertices : liveVertices) {
+                PolygonRasterizer expected = new PolygonRasterizer(RESOLUTION);
+                expected.addPolygon(vertices, false);
+                expected.fill(expectedGrid, width, subject.getBoundingHeight(),
+                        subject.getLowerXLimit(), subject.getLowerYLimit(),
+                        CostMap.OBSTACLE_COST);
+            }
+            for (int i = 0; i < grid.length; i++) {
+                assertEquals("Step " + step + " cell " + i, expectedGrid[i], grid[i]);
+            }
+
+            // Every cell that changed since the previous update must be in the dirty region.
+            int[] dirty = subject.getDirtyRegion();
+            for (int y = subject.getLowerYLimit(); y < subject.getUpperYLimit(); y++) {
+                for (int x = subject.getLowerXLimit(); x < subject.getUpperXLimit(); x++) {
+                    byte before = getCell(previous, previousWidth, previousX, previousY, x, y);
+                    if (before != subject.getCost(x, y)) {
+                        assertNotNull(dirty);
+                        assertTrue(x >= dirty[0] && y >= dirty[1]
+                                && x < dirty[2] && y < dirty[3]);
+                    }
+                }
+            }
+            previous = grid;
+            previousX = subject.getLowerXLimit();
+            previousY = subject.getLowerYLimit();
+            previousWidth = width;
+        }
+    }
+
+    /**
+     * Makes a square geometry.
+     */
+    private static GeometryCostMap.Geometry square(long expireTime, double x, double y,
+            double size) {
+        return new GeometryCostMap.Geometry(expireTime, CostMap.OBSTACLE_COST,
+                new Polygon(new Transform[]{
+                        new Transform(x, y, 0, 0),
+                        new Transform(x + size, y, 0, 0),
+                        new Transform(x + size, y + size, 0, 0),
+                        new Transform(x, y + size, 0, 0)}));
+    }
+
+    /**
+     * Gets the cost of a cell of a grid, or zero outside of the grid.
+     */
+    private static byte getCell(byte[] grid, int width, int startX, int startY, int x, int y) {
+        if (width == 0 || x < startX || x >= startX + width || y < startY
+                || (y - startY) * width + x - startX >= grid.length) {
+            return 0;
+        }
+        return grid[(y - startY) * width + x - startX];
+    }
+}
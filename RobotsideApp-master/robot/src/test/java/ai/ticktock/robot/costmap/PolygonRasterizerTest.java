@@ -0,0 +1,220 @@
+package ai.cellbots.robot.costmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class PolygonRasterizerTest {
+    /* Fill a ring, an outline with a hole, and a wall thinner than a cell.
+
+         |---|---|---|---|---|---|
+         |127|127|127|127|   |127|
+         |---|---|---|---|---|---|
+         |127|   |   |127|   |127|
+         |---|---|---|---|---|---|
+         |127|   |   |127|   |127|
+         |---|---|---|---|---|---|
+         |127|127|127|127|   |127|
+         |---|---|---|---|---|---|
+    */
+    @Test
+    public void testFillRingAndThinWall() {
+        PolygonRasterizer subject = new PolygonRasterizer(1.0);
+        subject.addPolygon(new double[][]{{0.5, 0.5}, {3.5, 0.5}, {3.5, 3.5}, {0.5, 3.5}},
+                false);
+        // The hole is clockwise, it is oriented by the hole flag and not the vertex order.
+        subject.addPolygon(new double[][]{{0.9, 0.9}, {0.9, 3.1}, {3.1, 3.1}, {3.1, 0.9}},
+                true);
+        subject.addPolygon(new double[][]{{5.4, 0.2}, {5.6, 0.2}, {5.6, 3.8}, {5.4, 3.8}},
+                false);
+        byte[] grid = new byte[24];
+        subject.fill(grid, 6, 4, 0, 0, (byte) 127);
+
+        byte[] expectedGrid = new byte[]{
+                127, 127, 127, 127,   0, 127,
+                127,   0,   0, 127,   0, 127,
+                127,   0,   0, 127,   0, 127,
+                127, 127, 127, 127,   0, 127};
+        assertArrayEquals(expectedGrid, grid);
+        assertEquals(0, subject.getLowerXLimit());
+        assertEquals(0, subject.getLowerYLimit());
+        assertEquals(6, subject.getUpperXLimit());
+        assertEquals(4, subject.getUpperYLimit());
+    }
+
+    /* Draw an open U shaped wall, which is neither closed nor filled.
+
+         |---|---|---|---|
+         |127|127|127|127|
+         |---|---|---|---|
+         |127|   |   |127|
+         |---|---|---|---|
+         |127|   |   |127|
+         |---|---|---|---|
+         |127|   |   |127|
+         |---|---|---|---|
+    */
+    @Test
+    public void testOpenPolyline() {
+        PolygonRasterizer subject = new PolygonRasterizer(1.0);
+        subject.addPolyline(new double[][]{{0.5, 3.5}, {0.5, 0.5}, {3.5, 0.5}, {3.5, 3.5}},
+                false);
+        byte[] grid = new byte[16];
+        subject.fill(grid, 4, 4, 0, 0, (byte) 127);
+
+        byte[] expectedGrid = new byte[]{
+                127, 127, 127, 127,
+                127,   0,   0, 127,
+                127,   0,   0, 127,
+                127,   0,   0, 127};
+        assertArrayEquals(expectedGrid, grid);
+
+        // A polyline inside a closed polygon does not cut it out.
+        subject.addPolygon(new double[][]{{1.2, 1.2}, {2.8, 1.2}, {2.8, 2.8}, {1.2, 2.8}},
+                false);
+        grid = new byte[16];
+        subject.fill(grid, 4, 4, 0, 0, (byte) 127);
+        expectedGrid = new byte[]{
+                127, 127, 127, 127,
+                127, 127, 127, 127,
+                127, 127, 127, 127,
+                127,   0,   0, 127};
+        assertArrayEquals(expectedGrid, grid);
+    }
+
+    // Tests random polygons against the cells that are inside or touched by an edge.
+    @Test
+    public void testRandomPolygons() {
+        Random random = new Random(1);
+        for (int test = 0; test < 200; test++) {
+            PolygonRasterizer subject = new PolygonRasterizer(1.0);
+            List<double[][]> polygons = new ArrayList<>();
+            List<Boolean> holes = new ArrayList<>();
+            int count = 1 + random.nextInt(3);
+            for (int p = 0; p < count; p++) {
+                double[][] vertices = new double[1 + random.nextInt(8)][2];
+                for (double[] vertex : vertices) {
+                    vertex[0] = random.nextDouble() * 30.0 - 10.0;
+                    vertex[1] = random.nextDouble() * 30.0 - 10.0;
+                }
+                boolean hole = p > 0 && random.nextBoolean();
+                polygons.add(vertices);
+                holes.add(hole);
+                subject.addPolygon(vertices, hole);
+            }
+
+            final Set<Long> covered = new HashSet<>();
+            subject.rasterize(-5, -5, 15, 15, new PolygonRasterizer.SpanListener() {
+                @Override
+                public void onSpan(int y, int minX, int maxX) {
+                    for (int x = minX; x <= maxX; x++) {
+                        // Each cell must be reported only once.
+                        assertTrue(covered.add(toKey(x, y)));
+                    }
+                }
+            });
+
+            for (int y = -5; y < 15; y++) {
+                for (int x = -5; x < 15; x++) {
+                    boolean expected = getWinding(polygons, holes, x + 0.5, y + 0.5) > 0;
+                    for (double[][] vertices : polygons) {
+                        for (int i = 0; i < vertices.length; i++) {
+                            expected |= touchesCell(vertices[i],
+                                    vertices[(i + 1) % vertices.length], x, y);
+                        }
+                    }
+                    assertEquals("Cell " + x + ", " + y, expected,
+                            covered.contains(toKey(x, y)));
+                }
+            }
+        }
+    }
+
+    // Tests that filling a rectangle of the grid only changes the rectangle.
+    @Test
+    public void testClippedFill() {
+        Random random = new Random(2);
+        PolygonRasterizer subject = new PolygonRasterizer(0.05);
+        for (int p = 0; p < 5; p++) {
+            double[][] vertices = new double[3 + random.nextInt(5)][2];
+            for (double[] vertex : vertices) {
+                vertex[0] = random.nextDouble() * 2.0 - 0.5;
+                vertex[1] = random.nextDouble() * 2.0 - 0.5;
+            }
+            subject.addPolygon(vertices, false);
+        }
+        byte[] full = new byte[40 * 30];
+        subject.fill(full, 40, 30, -3, 2, (byte) 100);
+        byte[] clipped = new byte[40 * 30];
+        subject.fill(clipped, 40, 30, -3, 2, (byte) 100, 5, 10, 20, 100);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                boolean inside = x - 3 >= 5 && x - 3 < 20 && y + 2 >= 10;
+                assertEquals(inside ? full[y * 40 + x] : 0, clipped[y * 40 + x]);
+            }
+        }
+    }
+
+    /**
+     * Computes the winding of the polygons around a point, orienting outlines counter-clockwise
+     * and holes clockwise.
+     */
+    private static int getWinding(List<double[][]> polygons, List<Boolean> holes, double x,
+            double y) {
+        int total = 0;
+        for (int p = 0; p < polygons.size(); p++) {
+            double[][] vertices = polygons.get(p);
+            double area = 0;
+            int winding = 0;
+            for (int i = 0; i < vertices.length; i++) {
+                double[] a = vertices[i];
+                double[] b = vertices[(i + 1) % vertices.length];
+                area += a[0] * b[1] - b[0] * a[1];
+                double side = (b[0] - a[0]) * (y - a[1]) - (x - a[0]) * (b[1] - a[1]);
+                if (a[1] <= y && b[1] > y && side > 0) {
+                    winding++;
+                } else if (a[1] > y && b[1] <= y && side < 0) {
+                    winding--;
+                }
+            }
+            total += ((area >= 0) != holes.get(p)) ? winding : -winding;
+        }
+        return total;
+    }
+
+    /**
+     * Checks if a segment touches the square of a cell, by clipping it to the square.
+     */
+    private static boolean touchesCell(double[] a, double[] b, int x, int y) {
+        double low = 0;
+        double high = 1;
+        double[] start = {a[0], a[1]};
+        double[] delta = {b[0] - a[0], b[1] - a[1]};
+        int[] min = {x, y};
+        for (int axis = 0; axis < 2; axis++) {
+            if (delta[axis] == 0) {
+                if (start[axis] < min[axis] || start[axis] > min[axis] + 1) {
+                    return false;
+                }
+                continue;
+            }
+            double t0 = (min[axis] - start[axis]) / delta[axis];
+            double t1 = (min[axis] + 1 - start[axis]) / delta[axis];
+            low = Math.max(low, Math.min(t0, t1));
+            high = Math.min(high, Math.max(t0, t1));
+        }
+        return low <= high;
+    }
+
+    private static long toKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
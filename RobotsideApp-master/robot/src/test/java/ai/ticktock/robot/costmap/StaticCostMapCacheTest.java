@@ -0,0 +1,128 @@
+package ai.cellbots.robot.costmap;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+public class StaticCostMapCacheTest {
+    private static final double RESOLUTION = 1.0;
+    private static final double ROBOT_RADIUS = 1.0;
+    private static final List<CostMap.Source> SOURCES
+            = Collections.singletonList(CostMap.Source.FLOORPLAN);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final SimpleCostMapInflator mInflator =
+            new SimpleCostMapInflator(RESOLUTION, ROBOT_RADIUS, 0.5);
+    private final TrivialCostMapFuser mFuser = new TrivialCostMapFuser(null, RESOLUTION);
+
+    /**
+     * Creates a floorplan CostMap with an obstacle.
+     *
+     * @param obstacle The index of the obstacle.
+     * @return The CostMap.
+     */
+    private static CostMap floorplan(int obstacle) {
+        byte[] grid = new byte[5 * 4];
+        grid[obstacle] = CostMap.OBSTACLE_COST;
+        return new FixedGridCostMap(CostMap.Source.FLOORPLAN, RESOLUTION, 5, 4, -2, 3, grid);
+    }
+
+    /**
+     * Inflates and fuses a CostMap as the CostMapManager does, storing it in the cache.
+     *
+     * @param cache   The cache.
+     * @param costMap The CostMap.
+     * @return The fused CostMaps.
+     */
+    private Map<CostMapInflator.Type, CostMap> compute(StaticCostMapCache cache,
+            CostMap costMap) {
+        Map<CostMapInflator.Type, CostMap> inflated = new EnumMap<>(CostMapInflator.Type.class);
+        inflated.put(CostMapInflator.Type.FULL_RADIUS, new FixedGridCostMap(costMap.getSource(),
+                RESOLUTION, 5, 4, -2, 3, mInflator.inflateCostMapFullRadius(costMap), true));
+        inflated.put(CostMapInflator.Type.FACTOR_RADIUS, new FixedGridCostMap(costMap.getSource(),
+                RESOLUTION, 5, 4, -2, 3, mInflator.inflateCostMapFactorRadius(costMap), true));
+        cache.putInflatedCostMaps(costMap.getSource(), inflated);
+        Map<CostMapInflator.Type, CostMap> fused = new EnumMap<>(CostMapInflator.Type.class);
+        fused.put(CostMapInflator.Type.FULL_RADIUS, mFuser.fuseCostMaps(
+                Collections.singletonList(inflated.get(CostMapInflator.Type.FULL_RADIUS)),
+                CostMap.Source.STATIC_COSTMAP_FULLY_INFLATED));
+        fused.put(CostMapInflator.Type.FACTOR_RADIUS, mFuser.fuseCostMaps(
+                Collections.singletonList(inflated.get(CostMapInflator.Type.FACTOR_RADIUS)),
+                CostMap.Source.STATIC_COSTMAP_PROPORTIONALLY_INFLATED));
+        cache.putFusedCostMaps(SOURCES, fused);
+        return fused;
+    }
+
+    /**
+     * Asserts two CostMaps are equal.
+     *
+     * @param expected The expected CostMap.
+     * @param actual   The actual CostMap.
+     */
+    private static void assertCostMapEquals(CostMap expected, CostMap actual) {
+        Assert.assertEquals(expected.getSource(), actual.getSource());
+        Assert.assertEquals(expected.getLowerXLimit(), actual.getLowerXLimit());
+        Assert.assertEquals(expected.getLowerYLimit(), actual.getLowerYLimit());
+        Assert.assertEquals(expected.getUpperXLimit(), actual.getUpperXLimit());
+        Assert.assertEquals(expected.getUpperYLimit(), actual.getUpperYLimit());
+        Assert.assertEquals(expected.requiresInflation(), actual.requiresInflation());
+        Assert.assertArrayEquals(expected.getFullCostRegion(), actual.getFullCostRegion());
+    }
+
+    /**
+     * Tests that the CostMaps are read back from the file.
+     */
+    @Test
+    public void testRoundTrip() {
+        StaticCostMapCache cache = new StaticCostMapCache(mFolder.getRoot(), "world",
+                mInflator, mFuser);
+        CostMap costMap = floorplan(7);
+        Assert.assertNull(cache.getInflatedCostMaps(costMap));
+        Map<CostMapInflator.Type, CostMap> fused = compute(cache, costMap);
+        Assert.assertTrue(cache.getFile().isFile());
+
+        StaticCostMapCache loaded = new StaticCostMapCache(mFolder.getRoot(), "world",
+                mInflator, mFuser);
+        Map<CostMapInflator.Type, CostMap> inflated = loaded.getInflatedCostMaps(costMap);
+        Assert.assertNotNull(inflated);
+        CostMap full = inflated.get(CostMapInflator.Type.FULL_RADIUS);
+        Assert.assertArrayEquals(mInflator.inflateCostMapFullRadius(costMap),
+                full.getFullCostRegion());
+        Assert.assertFalse(full.requiresInflation());
+        Map<CostMapInflator.Type, CostMap> loadedFused = loaded.getFusedCostMaps(SOURCES);
+        Assert.assertNotNull(loadedFused);
+        for (CostMapInflator.Type type : CostMapInflator.Type.values()) {
+            assertCostMapEquals(fused.get(type), loadedFused.get(type));
+        }
+    }
+
+    /**
+     * Tests that the cache is not used if the source or the parameters changed.
+     */
+    @Test
+    public void testInvalidation() {
+        compute(new StaticCostMapCache(mFolder.getRoot(), "world", mInflator, mFuser),
+                floorplan(7));
+
+        StaticCostMapCache changed = new StaticCostMapCache(mFolder.getRoot(), "world",
+                mInflator, mFuser);
+        Assert.assertNull(changed.getInflatedCostMaps(floorplan(8)));
+        Assert.assertNull(changed.getFusedCostMaps(SOURCES));
+
+        StaticCostMapCache otherRadius = new StaticCostMapCache(mFolder.getRoot(), "world",
+                new SimpleCostMapInflator(RESOLUTION, ROBOT_RADIUS * 2, 0.5), mFuser);
+        Assert.assertNull(otherRadius.getInflatedCostMaps(floorplan(7)));
+
+        StaticCostMapCache otherWorld = new StaticCostMapCache(mFolder.getRoot(), "other",
+                mInflator, mFuser);
+        Assert.assertNull(otherWorld.getInflatedCostMaps(floorplan(7)));
+    }
+}
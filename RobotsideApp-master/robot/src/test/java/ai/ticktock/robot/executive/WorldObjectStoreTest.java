@@ -0,0 +1,125 @@
+package ai.cellbots.robot.executive;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ai.cellbots.common.Transform;
+
+/**
+ * Tests the WorldObjectStore class.
+ */
+public class WorldObjectStoreTest {
+    private static final String POI = "point_of_interest";
+    private static final String MAP = "map";
+    private static final Map<String, WorldObjectType> TYPES =
+            WorldObjectType.createHardcodedObjects();
+
+    /**
+     * Makes the firebase value of a POI.
+     *
+     * @param name The name of the POI.
+     * @param x    The x coordinate.
+     * @param y    The y coordinate.
+     * @return The firebase value.
+     */
+    private static Map<String, Object> poi(String name, double x, double y) {
+        Map<String, Object> location = new HashMap<>();
+        location.put("px", x);
+        location.put("py", y);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("location", location);
+        variables.put("name", name);
+        Map<String, Object> value = new HashMap<>();
+        value.put("type", POI);
+        value.put("variables", variables);
+        return value;
+    }
+
+    /**
+     * Tests that invalid objects are skipped and unchanged objects are reused.
+     */
+    @Test
+    public void testUpdate() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", poi("a", 1.0, 2.0));
+        values.put("b", poi("b", 3.0, 4.0));
+        Map<String, Object> invalid = new HashMap<>();
+        invalid.put("type", POI);
+        values.put("c", invalid);
+        values.put("d", "not a map");
+        WorldObjectStore first =
+                WorldObjectStore.fromValues(WorldObjectStore.EMPTY, values, MAP, TYPES);
+        Assert.assertEquals(2, first.getAll().size());
+        Assert.assertEquals(2, first.getByType(POI).size());
+        Assert.assertTrue(first.getByType("other").isEmpty());
+        Assert.assertNull(first.get("c"));
+
+        // Fresh but equal values, as firebase returns for each snapshot.
+        values.put("a", poi("a", 1.0, 2.0));
+        values.put("b", poi("b", 5.0, 6.0));
+        WorldObjectStore second = WorldObjectStore.fromValues(first, values, MAP, TYPES);
+        Assert.assertSame(first.get("a"), second.get("a"));
+        Assert.assertNotSame(first.get("b"), second.get("b"));
+        Assert.assertEquals(5.0,
+                WorldObjectStore.getLocation(second.get("b")).getPosition(0), 0.0);
+
+        // Objects are not reused across maps.
+        WorldObjectStore third = WorldObjectStore.fromValues(second, values, "other", TYPES);
+        Assert.assertNotSame(second.get("a"), third.get("a"));
+        Assert.assertEquals("other", third.get("a").getMapUuid());
+    }
+
+    /**
+     * Tests the spatial queries against a linear scan.
+     */
+    @Test
+    public void testSpatialQueries() {
+        Random random = new Random(1);
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            values.put("poi" + i, poi("poi" + i,
+                    random.nextDouble() * 100.0 - 50.0, random.nextDouble() * 60.0 - 10.0));
+        }
+        WorldObjectStore store =
+                WorldObjectStore.fromValues(WorldObjectStore.EMPTY, values, MAP, TYPES);
+        for (int i = 0; i < 200; i++) {
+            double x = random.nextDouble() * 300.0 - 150.0;
+            double y = random.nextDouble() * 300.0 - 150.0;
+            double radius = random.nextDouble() * 20.0;
+
+            WorldObject nearest = null;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            List<String> within = new ArrayList<>();
+            for (WorldObject object : store.getAll()) {
+                Transform location = WorldObjectStore.getLocation(object);
+                double distance = Math.hypot(location.getPosition(0) - x,
+                        location.getPosition(1) - y);
+                if (distance < nearestDistance) {
+                    nearest = object;
+                    nearestDistance = distance;
+                }
+                if (distance <= radius) {
+                    within.add(object.getUuid());
+                }
+            }
+            Assert.assertSame(nearest, store.getNearest(POI, x, y));
+
+            List<String> found = new ArrayList<>();
+            for (WorldObject object : store.getWithinRadius(POI, x, y, radius)) {
+                found.add(object.getUuid());
+            }
+            Assert.assertEquals(within.size(), found.size());
+            Assert.assertEquals(new HashSet<>(within), new HashSet<>(found));
+        }
+        Assert.assertNull(store.getNearest("other", 0.0, 0.0));
+        Assert.assertTrue(WorldObjectStore.EMPTY.getWithinRadius(POI, 0.0, 0.0, 10.0).isEmpty());
+    }
+}
@@ -0,0 +1,145 @@
+package ai.cellbots.robot.navigation;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ai.cellbots.robot.costmap.CostMap;
+import ai.cellbots.robot.costmap.CostMapPose;
+import ai.cellbots.robot.costmap.FixedGridCostMap;
+
+/**
+ * Tests the PathSimplifier class.
+ */
+public class PathSimplifierTest {
+    private static final double RESOLUTION = 0.1;
+
+    /**
+     * Makes a path from a list of coordinates.
+     *
+     * @param coordinates The x and y coordinates of the cells.
+     * @return The path.
+     */
+    private static Path path(int... coordinates) {
+        List<CostMapPose> poses = new ArrayList<>();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            poses.add(new CostMapPose(coordinates[i], coordinates[i + 1]));
+        }
+        return new Path(poses);
+    }
+
+    /**
+     * Tests that straight runs are reduced to their ends without a CostMap.
+     */
+    @Test
+    public void testRemoveCollinear() {
+        Path dense = path(0, 0, 1, 0, 2, 0, 3, 1, 4, 2, 4, 3, 4, 4);
+        Path simplified = new PathSimplifier(0.0).simplify(dense, null);
+        Assert.assertEquals(path(0, 0, 2, 0, 4, 2, 4, 4), simplified);
+    }
+
+    /**
+     * Tests that a path backtracking on itself keeps the turning cell.
+     */
+    @Test
+    public void testKeepReversal() {
+        Assert.assertEquals(
+                Arrays.asList(0, 2, 3),
+                PathSimplifier.removeCollinear(path(0, 0, 1, 0, 2, 0, 1, 0).asList()));
+    }
+
+    /**
+     * Tests that a path in free space is reduced to a single segment.
+     */
+    @Test
+    public void testShortcutFreeSpace() {
+        CostMap costMap = new FixedGridCostMap(null, RESOLUTION, 5, 5, 0, 0, new byte[25]);
+        Path dense = path(0, 0, 1, 0, 2, 0, 3, 0, 4, 0, 4, 1, 4, 2, 4, 3, 4, 4);
+        Path simplified = new PathSimplifier(0.0).simplify(dense, costMap);
+        Assert.assertEquals(path(0, 0, 4, 4), simplified);
+    }
+
+    /**
+     * Tests that the path is not shortcut through an obstacle.
+     */
+    @Test
+    public void testObstacleCorner() {
+        byte[] costs = {
+                  0,   0,   0,   0,   0,
+                  0,   0,   0,   0,   0,
+                  0,   0, 127,   0,   0,
+                  0,   0,   0,   0,   0,
+                  0,   0,   0,   0,   0};
+        CostMap costMap = new FixedGridCostMap(null, RESOLUTION, 5, 5, 0, 0, costs);
+        Path dense = path(0, 0, 1, 0, 2, 0, 3, 0, 4, 0, 4, 1, 4, 2, 4, 3, 4, 4);
+        Path simplified = new PathSimplifier(1.0).simplify(dense, costMap);
+        Assert.assertTrue(simplified.size() > 2);
+        for (int i = 0; i < simplified.size() - 1; i++) {
+            Path segment = new Path(new CostMapPose[]{simplified.get(i), simplified.get(i + 1)});
+            Assert.assertFalse(PathUtil.isPathThroughObstacle(segment, costMap));
+            Assert.assertTrue(PathSimplifier.isClear(segment.asList(), 0, 1, costMap));
+        }
+        Assert.assertEquals(dense.get(0), simplified.get(0));
+        Assert.assertEquals(dense.last(), simplified.last());
+    }
+
+    /**
+     * Tests that a line passing exactly through a corner next to an obstacle is not clear.
+     */
+    @Test
+    public void testDiagonalCorner() {
+        byte[] costs = {
+                  0, 127,
+                  0,   0};
+        CostMap costMap = new FixedGridCostMap(null, RESOLUTION, 2, 2, 0, 0, costs);
+        Assert.assertFalse(PathSimplifier.isClear(path(0, 0, 0, 1, 1, 1).asList(), 0, 2,
+                costMap));
+        Assert.assertTrue(PathSimplifier.isClear(path(0, 0, 0, 1).asList(), 0, 1, costMap));
+    }
+
+    /**
+     * Tests that the path is not shortcut through cells more costly than the path.
+     */
+    @Test
+    public void testHigherCost() {
+        byte[] costs = {
+                  0,   0,   0,
+                  0, 100,   0,
+                  0,   0,   0};
+        CostMap costMap = new FixedGridCostMap(null, RESOLUTION, 3, 3, 0, 0, costs);
+        Path dense = path(0, 0, 1, 0, 2, 0, 2, 1, 2, 2);
+        Assert.assertEquals(path(0, 0, 2, 0, 2, 2),
+                new PathSimplifier(0.0).simplify(dense, costMap));
+    }
+
+    /**
+     * Tests that Douglas-Peucker removes small deviations within the tolerance.
+     */
+    @Test
+    public void testTolerance() {
+        CostMap costMap = new FixedGridCostMap(null, RESOLUTION, 10, 3, 0, 0, new byte[30]);
+        List<CostMapPose> dense =
+                path(0, 0, 1, 0, 2, 0, 3, 1, 4, 1, 5, 1, 6, 0, 7, 0, 8, 0, 9, 0).asList();
+        List<Integer> vertices = PathSimplifier.removeCollinear(dense);
+        Assert.assertEquals(Arrays.asList(0, 2, 3, 5, 6, 9), vertices);
+        Assert.assertEquals(Arrays.asList(0, 9),
+                PathSimplifier.douglasPeucker(dense, vertices, costMap, 1.5));
+        Assert.assertEquals(vertices,
+                PathSimplifier.douglasPeucker(dense, vertices, costMap, 0.3));
+    }
+
+    /**
+     * Tests short and null paths.
+     */
+    @Test
+    public void testShortPaths() {
+        PathSimplifier simplifier = new PathSimplifier(0.1);
+        Assert.assertNull(simplifier.simplify(null, null));
+        Assert.assertEquals(path(1, 1), simplifier.simplify(path(1, 1), null));
+        Assert.assertEquals(path(1, 1, 2, 2), simplifier.simplify(path(1, 1, 2, 2), null));
+    }
+}
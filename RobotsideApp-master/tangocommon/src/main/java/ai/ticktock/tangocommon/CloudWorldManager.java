@@ -32,7 +32,6 @@ import com.google.firebase.storage.UploadTask;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -125,6 +124,15 @@ public class CloudWorldManager {
         return new File(getCloudWorldDataDirectory(), uuid);
     }
 
+    /**
+     * Get the directory for the data derived from the worlds, such as the smoothed paths.
+     *
+     * @return The cache directory.
+     */
+    private File getWorldCacheDirectory() {
+        return new File(mParent.getCacheDir(), CLOUD_WORLD_DATA_DIRECTORY);
+    }
+
     /**
      * Check if a world data file exists and is valid.
      *
@@ -1393,14 +1401,13 @@ public class CloudWorldManager {
             return DetailedWorld.VPS_WORLD;
         }
         synchronized (mParent) {
-            FileInputStream fs;
-            try {
-                fs = new FileInputStream(getWorldDataFile(w.getUuid()));
-            } catch (FileNotFoundException e) {
-                Log.e(TAG, "Failed to load data file for world: ", e);
+            File file = getWorldDataFile(w.getUuid());
+            if (!file.isFile()) {
+                Log.e(TAG, "Failed to load data file for world: " + file);
                 return null;
             }
-            return DetailedWorld.loadDetailedWorldFromInputStream(w.getUuid(), w.getName(), fs, params);
+            return DetailedWorld.loadDetailedWorldFromFile(w.getUuid(), w.getName(), file,
+                    getWorldCacheDirectory(), params);
         }
     }
 
@@ -23,30 +23,89 @@ import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.hardware.Camera.Size;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.internal.message.MessageBuffers;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.concurrent.CancellableLoop;
 import org.ros.message.Time;
 import org.ros.namespace.NameResolver;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.nio.ByteOrder;
+
 /**
  * Publishes preview frames.
+ * <p>
+ * Frames are only compressed while the image topic has subscribers, and
+ * camera info is only published while its own topic has subscribers. The
+ * camera thread copies each accepted frame into a pending buffer and returns,
+ * and a worker loop compresses the most recent pending frame, so frames that
+ * arrive while the worker is busy are dropped rather than queued. If a byte
+ * budget is set, the JPEG quality is adjusted after each frame to keep the
+ * compressed frames within it.
  * 
  * @author damonkohler@google.com (Damon Kohler)
  */
 class CompressedImagePublisher implements RawImageListener {
 
+  /**
+   * The JPEG quality used when there is no byte budget, and the initial
+   * quality otherwise.
+   */
+  static final int DEFAULT_QUALITY = 20;
+
+  private static final int MINIMUM_QUALITY = 5;
+  private static final int MAXIMUM_QUALITY = 90;
+  private static final int QUALITY_STEP = 5;
+
+  /**
+   * Frames larger than the budget by this factor lower the quality, frames
+   * smaller by this factor raise it.
+   */
+  private static final double QUALITY_HYSTERESIS = 1.2;
+
   private final ConnectedNode connectedNode;
   private final Publisher<sensor_msgs.CompressedImage> imagePublisher;
   private final Publisher<sensor_msgs.CameraInfo> cameraInfoPublisher;
+  private final long minimumFrameIntervalNanos;
+  private final int frameByteBudget;
+  private final Object mutex;
 
+  // Guarded by mutex.
+  private byte[] pendingBuffer;
+  private Size pendingSize;
+  private Time pendingTime;
+  private boolean pending;
+  private boolean pendingImage;
+  private boolean pendingCameraInfo;
+  private long lastFrameNanos;
+
+  // Owned by the worker loop.
   private byte[] rawImageBuffer;
   private Size rawImageSize;
   private YuvImage yuvImage;
   private Rect rect;
-  private ChannelBufferOutputStream stream;
+  private int quality;
+  private int expectedSize;
 
   public CompressedImagePublisher(ConnectedNode connectedNode) {
+    this(connectedNode, 0, 0);
+  }
+
+  /**
+   * @param connectedNode
+   *          the node to publish with
+   * @param frameRate
+   *          the maximum number of frames published per second, or 0 for no
+   *          limit
+   * @param bytesPerSecond
+   *          the budget of compressed bytes per second, or 0 to compress at
+   *          {@link #DEFAULT_QUALITY}; a frame rate is required for a budget
+   */
+  public CompressedImagePublisher(ConnectedNode connectedNode, double frameRate,
+      int bytesPerSecond) {
+    Preconditions.checkArgument(frameRate >= 0);
+    Preconditions.checkArgument(bytesPerSecond >= 0);
+    Preconditions.checkArgument(bytesPerSecond == 0 || frameRate > 0);
     this.connectedNode = connectedNode;
     NameResolver resolver = connectedNode.getResolver().newChild("camera");
     imagePublisher =
@@ -54,40 +113,132 @@ class CompressedImagePublisher implements RawImageListener {
             sensor_msgs.CompressedImage._TYPE);
     cameraInfoPublisher =
         connectedNode.newPublisher(resolver.resolve("camera_info"), sensor_msgs.CameraInfo._TYPE);
-    stream = new ChannelBufferOutputStream(MessageBuffers.dynamicBuffer());
+    minimumFrameIntervalNanos = frameRate > 0 ? (long) (1e9 / frameRate) : 0;
+    frameByteBudget = bytesPerSecond > 0 ? (int) (bytesPerSecond / frameRate) : 0;
+    mutex = new Object();
+    quality = DEFAULT_QUALITY;
+    connectedNode.executeCancellableLoop(new CancellableLoop() {
+      @Override
+      protected void loop() throws InterruptedException {
+        publishPendingFrame();
+      }
+    });
   }
 
   @Override
   public void onNewRawImage(byte[] data, Size size) {
     Preconditions.checkNotNull(data);
     Preconditions.checkNotNull(size);
-    if (data != rawImageBuffer || !size.equals(rawImageSize)) {
-      rawImageBuffer = data;
+    boolean publishImage = imagePublisher.getNumberOfSubscribers() > 0;
+    boolean publishCameraInfo = cameraInfoPublisher.getNumberOfSubscribers() > 0;
+    if (!publishImage && !publishCameraInfo) {
+      return;
+    }
+    long now = System.nanoTime();
+    synchronized (mutex) {
+      if (lastFrameNanos != 0 && now - lastFrameNanos < minimumFrameIntervalNanos) {
+        return;
+      }
+      lastFrameNanos = now;
+      // The camera reuses data once this returns, so it is copied. A pending
+      // frame that the worker has not taken yet is overwritten.
+      if (publishImage) {
+        if (pendingBuffer == null || pendingBuffer.length != data.length) {
+          pendingBuffer = new byte[data.length];
+        }
+        System.arraycopy(data, 0, pendingBuffer, 0, data.length);
+      }
+      pendingImage = publishImage;
+      pendingCameraInfo = publishCameraInfo;
+      pendingSize = size;
+      pendingTime = connectedNode.getCurrentTime();
+      pending = true;
+      mutex.notifyAll();
+    }
+  }
+
+  /**
+   * Waits for a pending frame, then compresses and publishes it and its camera
+   * info.
+   */
+  private void publishPendingFrame() throws InterruptedException {
+    Size size;
+    Time currentTime;
+    boolean publishImage;
+    boolean publishCameraInfo;
+    synchronized (mutex) {
+      while (!pending) {
+        mutex.wait();
+      }
+      publishImage = pendingImage;
+      if (publishImage) {
+        // Swap the buffers, so that the camera thread can copy the next frame
+        // while this one is compressed.
+        byte[] buffer = pendingBuffer;
+        pendingBuffer = rawImageBuffer;
+        rawImageBuffer = buffer;
+      }
+      size = pendingSize;
+      currentTime = pendingTime;
+      publishCameraInfo = pendingCameraInfo;
+      pending = false;
+    }
+
+    String frameId = "camera";
+    if (publishImage) {
+      publishImage(size, currentTime, frameId);
+    }
+    if (publishCameraInfo) {
+      sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
+      cameraInfo.getHeader().setStamp(currentTime);
+      cameraInfo.getHeader().setFrameId(frameId);
+      cameraInfo.setWidth(size.width);
+      cameraInfo.setHeight(size.height);
+      cameraInfoPublisher.publish(cameraInfo);
+    }
+  }
+
+  /**
+   * Compresses and publishes the frame in the raw image buffer.
+   */
+  private void publishImage(Size size, Time currentTime, String frameId) {
+    if (yuvImage == null || yuvImage.getYuvData() != rawImageBuffer
+        || !size.equals(rawImageSize)) {
       rawImageSize = size;
       yuvImage = new YuvImage(rawImageBuffer, ImageFormat.NV21, size.width, size.height, null);
       rect = new Rect(0, 0, size.width, size.height);
     }
 
-    Time currentTime = connectedNode.getCurrentTime();
-    String frameId = "camera";
-
     sensor_msgs.CompressedImage image = imagePublisher.newMessage();
     image.setFormat("jpeg");
     image.getHeader().setStamp(currentTime);
     image.getHeader().setFrameId(frameId);
 
-    Preconditions.checkState(yuvImage.compressToJpeg(rect, 20, stream));
-    image.setData(stream.buffer().copy());
-    stream.buffer().clear();
-
+    // The message is serialized later on the publisher's thread, so each
+    // message gets its own buffer. It is sized from the previous frame so that
+    // it rarely grows, and is handed to the message without a copy.
+    ChannelBufferOutputStream stream =
+        new ChannelBufferOutputStream(ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN,
+            Math.max(expectedSize, 1024)));
+    Preconditions.checkState(yuvImage.compressToJpeg(rect, quality, stream));
+    int compressedSize = stream.buffer().readableBytes();
+    expectedSize = compressedSize + compressedSize / 8;
+    image.setData(stream.buffer());
     imagePublisher.publish(image);
+    adjustQuality(compressedSize);
+  }
 
-    sensor_msgs.CameraInfo cameraInfo = cameraInfoPublisher.newMessage();
-    cameraInfo.getHeader().setStamp(currentTime);
-    cameraInfo.getHeader().setFrameId(frameId);
-
-    cameraInfo.setWidth(size.width);
-    cameraInfo.setHeight(size.height);
-    cameraInfoPublisher.publish(cameraInfo);
+  /**
+   * Steps the quality toward the byte budget of a frame.
+   */
+  private void adjustQuality(int compressedSize) {
+    if (frameByteBudget == 0) {
+      return;
+    }
+    if (compressedSize > frameByteBudget * QUALITY_HYSTERESIS) {
+      quality = Math.max(MINIMUM_QUALITY, quality - QUALITY_STEP);
+    } else if (compressedSize * QUALITY_HYSTERESIS < frameByteBudget) {
+      quality = Math.min(MAXIMUM_QUALITY, quality + QUALITY_STEP);
+    }
   }
-}
\ No newline at end of file
+}
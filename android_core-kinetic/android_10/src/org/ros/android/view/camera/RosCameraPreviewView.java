@@ -30,6 +30,9 @@ import org.ros.node.NodeMain;
  */
 public class RosCameraPreviewView extends CameraPreviewView implements NodeMain {
 
+  private double frameRate;
+  private int bytesPerSecond;
+
   public RosCameraPreviewView(Context context) {
     super(context);
   }
@@ -42,6 +45,22 @@ public class RosCameraPreviewView extends CameraPreviewView implements NodeMain
     super(context, attrs, defStyle);
   }
 
+  /**
+   * Limits the published frames and their size. Takes effect when the node
+   * starts.
+   *
+   * @param frameRate
+   *          the maximum number of frames published per second, or 0 for no
+   *          limit
+   * @param bytesPerSecond
+   *          the budget of compressed bytes per second, or 0 for a fixed JPEG
+   *          quality
+   */
+  public void setPublishingLimits(double frameRate, int bytesPerSecond) {
+    this.frameRate = frameRate;
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
   @Override
   public GraphName getDefaultNodeName() {
     return GraphName.of("ros_camera_preview_view");
@@ -49,7 +68,7 @@ public class RosCameraPreviewView extends CameraPreviewView implements NodeMain
 
   @Override
   public void onStart(ConnectedNode connectedNode) {
-    setRawImageListener(new CompressedImagePublisher(connectedNode));
+    setRawImageListener(new CompressedImagePublisher(connectedNode, frameRate, bytesPerSecond));
   }
 
   @Override
@@ -99,7 +99,17 @@ public class TextureBitmap implements OpenGlDrawable {
         }
       }
     }
-    update(origin, stride, resolution, fillColor);
+    update(this.pixels, origin, resolution);
+  }
+
+  /**
+   * Updates the texture from an array of {@link #STRIDE} by {@link #HEIGHT}
+   * pixels, without copying it to an intermediate array.
+   */
+  public void updateFromPixelArray(int[] pixels, float resolution, Transform origin) {
+    Preconditions.checkArgument(pixels.length == HEIGHT * STRIDE);
+    Preconditions.checkNotNull(origin);
+    update(pixels, origin, resolution);
   }
 
   public void updateFromPixelBuffer(ChannelBuffer pixels, int stride, float resolution,
@@ -118,14 +128,14 @@ public class TextureBitmap implements OpenGlDrawable {
         }
       }
     }
-    update(origin, stride, resolution, fillColor);
+    update(this.pixels, origin, resolution);
   }
 
   public void clearHandle() {
     handle = null;
   }
 
-  private void update(Transform origin, int stride, float resolution, int fillColor) {
+  private void update(int[] pixels, Transform origin, float resolution) {
     this.origin = origin;
     scaledWidth = STRIDE * resolution;
     scaledHeight = HEIGHT * resolution;
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.ros.android.view.visualization;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * Vertices of float coordinates that are uploaded to a vertex buffer object
+ * once per update, rather than submitted from client memory on every draw.
+ * <p>
+ * Updates are written to a back buffer, which can be filled on another thread
+ * while the front buffer is drawn, and then swapped in. If the OpenGL context
+ * does not support OpenGL ES 1.1, the front buffer is drawn from client
+ * memory instead.
+ *
+ * @author damonkohler@google.com (Damon Kohler)
+ */
+public class VertexBufferObject {
+
+  private final int components;
+  private final int stride;
+  private final Object mutex;
+
+  private ByteBuffer frontBuffer;
+  private ByteBuffer backBuffer;
+  private int vertexCount;
+  private GL10 gl;
+  private int[] handle;
+  private boolean reload;
+
+  /**
+   * @param components
+   *          the number of coordinates drawn for each vertex
+   * @param stride
+   *          the number of bytes between two vertices, which may include
+   *          coordinates that are not drawn
+   */
+  public VertexBufferObject(int components, int stride) {
+    Preconditions.checkArgument(stride >= components * Float.SIZE / 8);
+    this.components = components;
+    this.stride = stride;
+    mutex = new Object();
+  }
+
+  /**
+   * Returns the back buffer, in native byte order and with room for the given
+   * number of vertices. It is reused between updates.
+   */
+  public ByteBuffer getBackBuffer(int vertexCount) {
+    int size = vertexCount * stride;
+    if (backBuffer == null || backBuffer.capacity() < size) {
+      backBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+    backBuffer.clear();
+    backBuffer.limit(size);
+    return backBuffer;
+  }
+
+  /**
+   * Makes the back buffer the one drawn, and uploads it on the next draw.
+   *
+   * @param vertexCount
+   *          the number of vertices written to the back buffer
+   */
+  public void swapBuffers(int vertexCount) {
+    synchronized (mutex) {
+      ByteBuffer tmp = frontBuffer;
+      frontBuffer = backBuffer;
+      backBuffer = tmp;
+      this.vertexCount = vertexCount;
+      reload = true;
+    }
+  }
+
+  public void drawPoints(GL10 gl, int first, Color color, float size) {
+    synchronized (mutex) {
+      if (bind(gl) > first) {
+        color.apply(gl);
+        gl.glPointSize(size);
+        gl.glDrawArrays(GL10.GL_POINTS, first, vertexCount - first);
+      }
+      unbind(gl);
+    }
+  }
+
+  public void drawTriangleFan(GL10 gl, Color color) {
+    synchronized (mutex) {
+      if (bind(gl) > 0) {
+        color.apply(gl);
+        gl.glDrawArrays(GL10.GL_TRIANGLE_FAN, 0, vertexCount);
+      }
+      unbind(gl);
+    }
+  }
+
+  /**
+   * Sets the vertex pointer to the front buffer, uploading it first if it
+   * changed or the context is new.
+   *
+   * @return the number of vertices to draw
+   */
+  private int bind(GL10 gl) {
+    if (frontBuffer == null || vertexCount == 0) {
+      return 0;
+    }
+    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+    if (gl instanceof GL11) {
+      GL11 gl11 = (GL11) gl;
+      if (this.gl != gl || handle == null) {
+        // Buffers of a previous context are gone with it.
+        this.gl = gl;
+        handle = new int[1];
+        gl11.glGenBuffers(1, handle, 0);
+        reload = true;
+      }
+      gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, handle[0]);
+      if (reload) {
+        frontBuffer.position(0);
+        gl11.glBufferData(GL11.GL_ARRAY_BUFFER, vertexCount * stride, frontBuffer,
+            GL11.GL_DYNAMIC_DRAW);
+        reload = false;
+      }
+      gl11.glVertexPointer(components, GL10.GL_FLOAT, stride, 0);
+    } else {
+      frontBuffer.position(0);
+      gl.glVertexPointer(components, GL10.GL_FLOAT, stride, frontBuffer);
+    }
+    return vertexCount;
+  }
+
+  private void unbind(GL10 gl) {
+    gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
+    if (gl instanceof GL11) {
+      ((GL11) gl).glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+    }
+  }
+}
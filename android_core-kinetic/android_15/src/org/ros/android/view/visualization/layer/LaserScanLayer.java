@@ -17,14 +17,14 @@
 package org.ros.android.view.visualization.layer;
 
 import org.ros.android.view.visualization.Color;
-import org.ros.android.view.visualization.Vertices;
+import org.ros.android.view.visualization.VertexBufferObject;
 import org.ros.android.view.visualization.VisualizationView;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Subscriber;
 
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -42,12 +42,11 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
   private static final Color OCCUPIED_SPACE_COLOR = Color.fromHexAndAlpha("377dfa", 0.3f);
   private static final float LASER_SCAN_POINT_SIZE = 10.f;
   private static final int LASER_SCAN_STRIDE = 15;
+  private static final int VERTEX_SIZE = 3 * 4;
 
-  private final Object mutex;
+  private final VertexBufferObject vertices;
 
   private GraphName frame;
-  private FloatBuffer vertexFrontBuffer;
-  private FloatBuffer vertexBackBuffer;
 
   public LaserScanLayer(String topicName) {
     this(GraphName.of(topicName));
@@ -55,21 +54,15 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
 
   public LaserScanLayer(GraphName topicName) {
     super(topicName, sensor_msgs.LaserScan._TYPE);
-    mutex = new Object();
+    vertices = new VertexBufferObject(3, VERTEX_SIZE);
   }
 
   @Override
   public void draw(VisualizationView view, GL10 gl) {
-    if (vertexFrontBuffer != null) {
-      synchronized (mutex) {
-        Vertices.drawTriangleFan(gl, vertexFrontBuffer, FREE_SPACE_COLOR);
-        // Drop the first point which is required for the triangle fan but is
-        // not a range reading.
-        FloatBuffer pointVertices = vertexFrontBuffer.duplicate();
-        pointVertices.position(3);
-        Vertices.drawPoints(gl, pointVertices, OCCUPIED_SPACE_COLOR, LASER_SCAN_POINT_SIZE);
-      }
-    }
+    vertices.drawTriangleFan(gl, FREE_SPACE_COLOR);
+    // Drop the first point which is required for the triangle fan but is
+    // not a range reading.
+    vertices.drawPoints(gl, 1, OCCUPIED_SPACE_COLOR, LASER_SCAN_POINT_SIZE);
   }
 
   @Override
@@ -88,15 +81,11 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
   private void updateVertexBuffer(LaserScan laserScan, int stride) {
     int vertexCount = 0;
     float[] ranges = laserScan.getRanges();
-    int size = ((ranges.length / stride) + 2) * 3;
-    if (vertexBackBuffer == null || vertexBackBuffer.capacity() < size) {
-      vertexBackBuffer = Vertices.allocateBuffer(size);
-    }
-    vertexBackBuffer.clear();
+    ByteBuffer vertexBackBuffer = vertices.getBackBuffer((ranges.length / stride) + 2);
     // We start with the origin of the triangle fan.
-    vertexBackBuffer.put(0);
-    vertexBackBuffer.put(0);
-    vertexBackBuffer.put(0);
+    vertexBackBuffer.putFloat(0);
+    vertexBackBuffer.putFloat(0);
+    vertexBackBuffer.putFloat(0);
     vertexCount++;
     float minimumRange = laserScan.getRangeMin();
     float maximumRange = laserScan.getRangeMax();
@@ -110,20 +99,14 @@ public class LaserScanLayer extends SubscriberLayer<sensor_msgs.LaserScan> imple
       // look a lot nicer.
       if (minimumRange < range && range < maximumRange) {
         // x, y, z
-        vertexBackBuffer.put((float) (range * Math.cos(angle)));
-        vertexBackBuffer.put((float) (range * Math.sin(angle)));
-        vertexBackBuffer.put(0);
+        vertexBackBuffer.putFloat((float) (range * Math.cos(angle)));
+        vertexBackBuffer.putFloat((float) (range * Math.sin(angle)));
+        vertexBackBuffer.putFloat(0);
         vertexCount++;
       }
       angle += angleIncrement * stride;
     }
-    vertexBackBuffer.position(0);
-    vertexBackBuffer.limit(vertexCount * 3);
-    synchronized (mutex) {
-      FloatBuffer tmp = vertexFrontBuffer;
-      vertexFrontBuffer = vertexBackBuffer;
-      vertexBackBuffer = tmp;
-    }
+    vertices.swapBuffers(vertexCount);
   }
 
   @Override
@@ -22,7 +22,6 @@ import com.google.common.collect.Lists;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.ros.android.view.visualization.TextureBitmap;
 import org.ros.android.view.visualization.VisualizationView;
-import org.ros.internal.message.MessageBuffers;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
@@ -30,6 +29,7 @@ import org.ros.rosjava_geometry.Quaternion;
 import org.ros.rosjava_geometry.Transform;
 import org.ros.rosjava_geometry.Vector3;
 
+import java.util.Arrays;
 import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
@@ -54,15 +54,45 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
    */
   private static final int COLOR_UNKNOWN = 0xffdddddd;
 
+  /**
+   * Maps an occupancy value, as an unsigned byte, to its color.
+   */
+  private static final int[] PALETTE = createPalette();
+
+  private static int[] createPalette() {
+    int[] palette = new int[256];
+    for (int i = 0; i < palette.length; i++) {
+      byte pixel = (byte) i;
+      if (pixel == -1) {
+        palette[i] = COLOR_UNKNOWN;
+      } else if (pixel < 50) {
+        palette[i] = COLOR_FREE;
+      } else {
+        palette[i] = COLOR_OCCUPIED;
+      }
+    }
+    return palette;
+  }
+
   /**
    * In order to draw maps with a size outside the maximum size of a texture,
    * we split the map into multiple tiles and draw one texture per tile.
    */
   private class Tile {
 
-    private final ChannelBuffer pixelBuffer = MessageBuffers.dynamicBuffer();
     private final TextureBitmap textureBitmap = new TextureBitmap();
 
+    /**
+     * The occupancy values of the last message, row by row with a pitch of
+     * {@link TextureBitmap#STRIDE}.
+     */
+    private final byte[] source = new byte[TextureBitmap.STRIDE * TextureBitmap.HEIGHT];
+
+    /**
+     * The colors of {@link #source}, uploaded to the texture.
+     */
+    private final int[] pixels = new int[TextureBitmap.STRIDE * TextureBitmap.HEIGHT];
+
     /**
      * Resolution of the {@link nav_msgs.OccupancyGrid}.
      */
@@ -98,16 +128,58 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
       textureBitmap.clearHandle();
     }
 
-    public void writeInt(int value) {
-      pixelBuffer.writeInt(value);
-    }
-
-    public void update() {
+    /**
+     * Converts the cells of the tile that changed since the last message and
+     * uploads the texture if any did.
+     *
+     * @param data
+     *          the occupancy values of the whole map
+     * @param offset
+     *          the index of the first value of the map in {@code data}
+     * @param width
+     *          the width of the map
+     * @param left
+     *          the first column of the tile in the map
+     * @param top
+     *          the first row of the tile in the map
+     * @param rows
+     *          the number of rows of the tile
+     * @param reset
+     *          {@code true} if the tile must be converted entirely, i.e. if
+     *          it was never drawn or the map geometry changed
+     */
+    public void update(byte[] data, int offset, int width, int left, int top, int rows,
+        boolean reset) {
       Preconditions.checkNotNull(origin);
-      Preconditions.checkNotNull(stride);
-      textureBitmap.updateFromPixelBuffer(pixelBuffer, stride, resolution, origin, COLOR_UNKNOWN);
-      pixelBuffer.clear();
-      ready = true;
+      boolean dirty = reset || !ready;
+      if (dirty) {
+        Arrays.fill(pixels, COLOR_UNKNOWN);
+        for (int y = 0; y < rows; y++) {
+          int sourceIndex = offset + (top + y) * width + left;
+          int targetIndex = y * TextureBitmap.STRIDE;
+          System.arraycopy(data, sourceIndex, source, targetIndex, stride);
+          for (int x = 0; x < stride; x++) {
+            pixels[targetIndex + x] = PALETTE[source[targetIndex + x] & 0xff];
+          }
+        }
+      } else {
+        for (int y = 0; y < rows; y++) {
+          int sourceIndex = offset + (top + y) * width + left;
+          int targetIndex = y * TextureBitmap.STRIDE;
+          for (int x = 0; x < stride; x++, sourceIndex++, targetIndex++) {
+            byte pixel = data[sourceIndex];
+            if (pixel != source[targetIndex]) {
+              source[targetIndex] = pixel;
+              pixels[targetIndex] = PALETTE[pixel & 0xff];
+              dirty = true;
+            }
+          }
+        }
+      }
+      if (dirty) {
+        textureBitmap.updateFromPixelArray(pixels, resolution, origin);
+        ready = true;
+      }
     }
 
     public void setOrigin(Transform origin) {
@@ -124,6 +196,11 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
   private boolean ready;
   private GraphName frame;
   private GL10 previousGl;
+  private int previousWidth;
+  private int previousHeight;
+  private float previousResolution;
+  private Transform previousOrigin;
+  private byte[] messageData;
 
   public OccupancyGridLayer(String topic) {
     this(GraphName.of(topic));
@@ -133,6 +210,7 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
     super(topic, nav_msgs.OccupancyGrid._TYPE);
     tiles = Lists.newCopyOnWriteArrayList();
     ready = false;
+    messageData = new byte[0];
   }
 
   @Override
@@ -176,50 +254,61 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
     final int numTiles = numTilesWide * numTilesHigh;
     final Transform origin = Transform.fromPoseMessage(message.getInfo().getOrigin());
 
+    // Tiles are only compared with the previous message if it had the same
+    // geometry, otherwise they are converted entirely.
+    final boolean reset = width != previousWidth || height != previousHeight
+        || resolution != previousResolution || !origin.equals(previousOrigin);
+    previousWidth = width;
+    previousHeight = height;
+    previousResolution = resolution;
+    previousOrigin = origin;
+
     while (tiles.size() < numTiles) {
       tiles.add(new Tile(resolution));
     }
+    // Drop the tiles of a larger previous map, which would otherwise keep
+    // drawing its stale occupancy data.
+    while (tiles.size() > numTiles) {
+      tiles.remove(tiles.size() - 1).clearHandle();
+    }
 
-    for (int y = 0; y < numTilesHigh; ++y) {
-      for (int x = 0; x < numTilesWide; ++x) {
-        final int tileIndex = y * numTilesWide + x;
-        tiles.get(tileIndex).setOrigin(origin.multiply(new Transform(new Vector3(x *
-            resolution * TextureBitmap.STRIDE,
-            y * resolution * TextureBitmap.HEIGHT, 0.), Quaternion.identity())));
-        if (x < numTilesWide - 1) {
-          tiles.get(tileIndex).setStride(TextureBitmap.STRIDE);
-        } else {
-          tiles.get(tileIndex).setStride(width % TextureBitmap.STRIDE);
+    if (reset) {
+      for (int y = 0; y < numTilesHigh; ++y) {
+        for (int x = 0; x < numTilesWide; ++x) {
+          final int tileIndex = y * numTilesWide + x;
+          tiles.get(tileIndex).setOrigin(origin.multiply(new Transform(new Vector3(x *
+              resolution * TextureBitmap.STRIDE,
+              y * resolution * TextureBitmap.HEIGHT, 0.), Quaternion.identity())));
+          tiles.get(tileIndex).setStride(
+              Math.min(TextureBitmap.STRIDE, width - x * TextureBitmap.STRIDE));
         }
       }
     }
 
-    int x = 0;
-    int y = 0;
     final ChannelBuffer buffer = message.getData();
-    while (buffer.readable()) {
-      Preconditions.checkState(y < height);
-      final int tileIndex = (y / TextureBitmap.STRIDE) * numTilesWide + x / TextureBitmap.STRIDE;
-      final byte pixel = buffer.readByte();
-      if (pixel == -1) {
-        tiles.get(tileIndex).writeInt(COLOR_UNKNOWN);
-      } else {
-        if (pixel < 50) {
-          tiles.get(tileIndex).writeInt(COLOR_FREE);
-        } else {
-          tiles.get(tileIndex).writeInt(COLOR_OCCUPIED);
-        }
-      }
-
-      ++x;
-      if (x == width) {
-        x = 0;
-        ++y;
+    final int length = width * height;
+    Preconditions.checkState(buffer.readableBytes() >= length);
+    final byte[] data;
+    final int offset;
+    if (buffer.hasArray()) {
+      data = buffer.array();
+      offset = buffer.arrayOffset() + buffer.readerIndex();
+    } else {
+      if (messageData.length < length) {
+        messageData = new byte[length];
       }
+      buffer.getBytes(buffer.readerIndex(), messageData, 0, length);
+      data = messageData;
+      offset = 0;
     }
 
-    for (Tile tile : tiles) {
-      tile.update();
+    for (int y = 0; y < numTilesHigh; ++y) {
+      final int top = y * TextureBitmap.STRIDE;
+      final int rows = Math.min(TextureBitmap.HEIGHT, height - top);
+      for (int x = 0; x < numTilesWide; ++x) {
+        tiles.get(y * numTilesWide + x).update(data, offset, width, x * TextureBitmap.STRIDE,
+            top, rows, reset);
+      }
     }
 
     frame = GraphName.of(message.getHeader().getFrameId());
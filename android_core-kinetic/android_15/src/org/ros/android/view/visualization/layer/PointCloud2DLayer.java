@@ -20,15 +20,15 @@ import com.google.common.base.Preconditions;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.ros.android.view.visualization.Color;
-import org.ros.android.view.visualization.Vertices;
+import org.ros.android.view.visualization.VertexBufferObject;
 import org.ros.android.view.visualization.VisualizationView;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Subscriber;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -46,12 +46,15 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
   private static final Color FREE_SPACE_COLOR = Color.fromHexAndAlpha("377dfa", 0.1f);
   private static final Color OCCUPIED_SPACE_COLOR = Color.fromHexAndAlpha("377dfa", 0.3f);
   private static final float POINT_SIZE = 10.f;
+  private static final int POINT_STEP = 16;
 
-  private final Object mutex;
+  /**
+   * The points are drawn straight from the message layout: x and y are drawn,
+   * z and the padding are skipped by the stride.
+   */
+  private final VertexBufferObject vertices;
 
   private GraphName frame;
-  private FloatBuffer vertexFrontBuffer;
-  private FloatBuffer vertexBackBuffer;
 
   public PointCloud2DLayer(String topicName) {
     this(GraphName.of(topicName));
@@ -59,21 +62,15 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
 
   public PointCloud2DLayer(GraphName topicName) {
     super(topicName, PointCloud2._TYPE);
-    mutex = new Object();
+    vertices = new VertexBufferObject(2, POINT_STEP);
   }
 
   @Override
   public void draw(VisualizationView view, GL10 gl) {
-    if (vertexFrontBuffer != null) {
-      synchronized (mutex) {
-        Vertices.drawTriangleFan(gl, vertexFrontBuffer, FREE_SPACE_COLOR);
-        // Drop the first point which is required for the triangle fan but is
-        // not a range reading.
-        FloatBuffer pointVertices = vertexFrontBuffer.duplicate();
-        pointVertices.position(3);
-        Vertices.drawPoints(gl, pointVertices, OCCUPIED_SPACE_COLOR, POINT_SIZE);
-      }
-    }
+    vertices.drawTriangleFan(gl, FREE_SPACE_COLOR);
+    // Drop the first point which is required for the triangle fan but is
+    // not a range reading.
+    vertices.drawPoints(gl, 1, OCCUPIED_SPACE_COLOR, POINT_SIZE);
   }
 
   @Override
@@ -99,35 +96,24 @@ public class PointCloud2DLayer extends SubscriberLayer<PointCloud2> implements T
     Preconditions.checkArgument(pointCloud.getFields().get(0).getDatatype() == PointField.FLOAT32);
     Preconditions.checkArgument(pointCloud.getFields().get(1).getDatatype() == PointField.FLOAT32);
     Preconditions.checkArgument(pointCloud.getFields().get(2).getDatatype() == PointField.FLOAT32);
-    Preconditions.checkArgument(pointCloud.getPointStep() == 16);
+    Preconditions.checkArgument(pointCloud.getPointStep() == POINT_STEP);
     Preconditions.checkArgument(pointCloud.getData().order().equals(ByteOrder.LITTLE_ENDIAN));
-    final int size = (pointCloud.getRowStep() / pointCloud.getPointStep() +
-        1 /* triangle fan origin */) * 3 /* x, y, z */;
-    if (vertexBackBuffer == null || vertexBackBuffer.capacity() < size) {
-      vertexBackBuffer = Vertices.allocateBuffer(size);
-    }
-    vertexBackBuffer.clear();
-    // We start with the origin of the triangle fan.
-    vertexBackBuffer.put(0.f);
-    vertexBackBuffer.put(0.f);
-    vertexBackBuffer.put(0.f);
-
     final ChannelBuffer buffer = pointCloud.getData();
-    while (buffer.readable()) {
-      vertexBackBuffer.put(buffer.readFloat());
-      vertexBackBuffer.put(buffer.readFloat());
-      vertexBackBuffer.put(0.f);
-      // Discard z data.
-      buffer.readFloat();
-      // Discard intensity.
-      buffer.readFloat();
+    final int pointCount = buffer.readableBytes() / POINT_STEP;
+    ByteBuffer vertexBuffer = vertices.getBackBuffer(pointCount + 1 /* triangle fan origin */);
+    // We start with the origin of the triangle fan.
+    for (int i = 0; i < POINT_STEP / 4; i++) {
+      vertexBuffer.putFloat(0.f);
     }
-    vertexBackBuffer.position(0);
-    synchronized (mutex) {
-      FloatBuffer tmp = vertexFrontBuffer;
-      vertexFrontBuffer = vertexBackBuffer;
-      vertexBackBuffer = tmp;
+    if (vertexBuffer.order().equals(ByteOrder.LITTLE_ENDIAN)) {
+      // The points are already in the layout and byte order of the vertices.
+      buffer.getBytes(buffer.readerIndex(), vertexBuffer);
+    } else {
+      for (int i = buffer.readerIndex(); vertexBuffer.hasRemaining(); i += 4) {
+        vertexBuffer.putFloat(buffer.getFloat(i));
+      }
     }
+    vertices.swapBuffers(pointCount + 1);
   }
 
   @Override
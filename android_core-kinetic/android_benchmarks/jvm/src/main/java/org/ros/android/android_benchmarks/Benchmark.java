@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.android_benchmarks;
+
+/**
+ * A benchmark that adds its measurements to a {@link BenchmarkReport}.
+ */
+public abstract class Benchmark {
+
+  /**
+   * An operation timed by {@link Benchmark#measure(Operation, long)}.
+   */
+  protected interface Operation {
+    void run() throws Exception;
+  }
+
+  private final String name;
+
+  protected Benchmark(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the name under which the results are reported
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param report
+   *          the report to add the results to
+   */
+  public abstract void run(BenchmarkReport report) throws Exception;
+
+  /**
+   * Runs an operation repeatedly for a warm up period, then for a measured
+   * period of the same length.
+   *
+   * @param operation
+   *          the operation
+   * @param durationNanos
+   *          the minimum duration of each period
+   * @return the mean duration of the operation in nanoseconds
+   */
+  protected static double measure(Operation operation, long durationNanos) throws Exception {
+    time(operation, durationNanos);
+    return time(operation, durationNanos);
+  }
+
+  private static double time(Operation operation, long durationNanos) throws Exception {
+    long operations = 0;
+    long batch = 1;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      for (long i = 0; i < batch; i++) {
+        operation.run();
+      }
+      operations += batch;
+      elapsed = System.nanoTime() - start;
+      // Grow the batches while they are short, so that reading the clock does
+      // not dominate fast operations.
+      if (elapsed * 4 < durationNanos) {
+        batch *= 2;
+      }
+    } while (elapsed < durationNanos);
+    return (double) elapsed / operations;
+  }
+}
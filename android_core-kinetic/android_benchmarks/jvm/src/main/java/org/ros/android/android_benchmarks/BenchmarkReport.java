@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.android_benchmarks;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Collects benchmark results and writes them as JSON, so that they can be
+ * compared between builds.
+ * <p>
+ * Each result is identified by its benchmark, configuration and metric, for
+ * instance {@code pubsub}, {@code size=1024} and {@code latency_p50}.
+ */
+public class BenchmarkReport {
+
+  /**
+   * Notified of each result as it is added.
+   */
+  public interface Listener {
+    void onResult(String summary);
+  }
+
+  private static final class Result {
+
+    private final String benchmark;
+    private final String configuration;
+    private final String metric;
+    private final double value;
+    private final String unit;
+
+    Result(String benchmark, String configuration, String metric, double value, String unit) {
+      this.benchmark = benchmark;
+      this.configuration = configuration;
+      this.metric = metric;
+      this.value = value;
+      this.unit = unit;
+    }
+
+    @Override
+    public String toString() {
+      String name = configuration.isEmpty() ? benchmark : benchmark + " " + configuration;
+      return String.format(Locale.US, "%s %s: %.3f %s", name, metric, value, unit);
+    }
+  }
+
+  private final Date date;
+  private final Map<String, String> environment;
+  private final List<Result> results;
+  private Listener listener;
+
+  public BenchmarkReport() {
+    date = new Date();
+    environment = Maps.newLinkedHashMap();
+    for (String property : new String[] { "java.version", "java.vm.name", "os.name", "os.arch" }) {
+      environment.put(property, System.getProperty(property));
+    }
+    environment.put("processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+    results = Lists.newArrayList();
+  }
+
+  public synchronized void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Adds a result.
+   *
+   * @param benchmark
+   *          the name of the benchmark
+   * @param configuration
+   *          the parameters of the measurement, or an empty string
+   * @param metric
+   *          the name of the measured quantity
+   * @param value
+   *          the measured value
+   * @param unit
+   *          the unit of the value
+   */
+  public synchronized void add(String benchmark, String configuration, String metric,
+      double value, String unit) {
+    Result result = new Result(benchmark, configuration, metric, value, unit);
+    results.add(result);
+    if (listener != null) {
+      listener.onResult(result.toString());
+    }
+  }
+
+  /**
+   * @return one line per result
+   */
+  public synchronized List<String> summarize() {
+    List<String> lines = Lists.newArrayList();
+    for (Result result : results) {
+      lines.add(result.toString());
+    }
+    return lines;
+  }
+
+  public synchronized String toJson() {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"date\": ").append(quote(format.format(date)));
+    json.append(",\n  \"environment\": {");
+    boolean first = true;
+    for (Map.Entry<String, String> entry : environment.entrySet()) {
+      json.append(first ? "\n    " : ",\n    ");
+      json.append(quote(entry.getKey())).append(": ").append(quote(entry.getValue()));
+      first = false;
+    }
+    json.append("\n  },\n  \"results\": [");
+    first = true;
+    for (Result result : results) {
+      json.append(first ? "\n    {" : ",\n    {");
+      json.append("\"benchmark\": ").append(quote(result.benchmark));
+      json.append(", \"configuration\": ").append(quote(result.configuration));
+      json.append(", \"metric\": ").append(quote(result.metric));
+      json.append(", \"value\": ");
+      if (Double.isNaN(result.value) || Double.isInfinite(result.value)) {
+        json.append("null");
+      } else {
+        json.append(result.value);
+      }
+      json.append(", \"unit\": ").append(quote(result.unit)).append("}");
+      first = false;
+    }
+    json.append("\n  ]\n}\n");
+    return json.toString();
+  }
+
+  /**
+   * Writes the report as JSON.
+   *
+   * @param file
+   *          the file, which parent directories are created
+   */
+  public void write(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(toJson());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.android_benchmarks;
+
+import com.google.common.collect.Lists;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ros.RosCore;
+import org.ros.exception.RosRuntimeException;
+import org.ros.node.DefaultNodeMainExecutor;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.NodeMainExecutor;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all the benchmarks and collects their results in a
+ * {@link BenchmarkReport}.
+ * <p>
+ * {@link #main(String[])} runs the suite headless against an in-process
+ * master and writes the report to the file given as its argument.
+ */
+public class BenchmarkSuite {
+
+  private static final Log log = LogFactory.getLog(BenchmarkSuite.class);
+
+  private static final String DEFAULT_REPORT_FILE = "benchmarks.json";
+  private static final long MASTER_START_TIMEOUT_SECONDS = 10;
+
+  private final List<Benchmark> benchmarks;
+
+  /**
+   * @param nodeMainExecutor
+   *          the executor that runs the nodes of the benchmarks
+   * @param nodeConfiguration
+   *          the configuration of the nodes, which is copied for each node
+   */
+  public BenchmarkSuite(NodeMainExecutor nodeMainExecutor, NodeConfiguration nodeConfiguration) {
+    benchmarks = Lists.newArrayList();
+    benchmarks.add(new PubsubBenchmark(nodeMainExecutor, nodeConfiguration));
+    benchmarks.add(new SerializationBenchmark(nodeConfiguration));
+    benchmarks.add(new TransformBenchmark(nodeConfiguration));
+  }
+
+  /**
+   * Runs the benchmarks one after the other.
+   *
+   * @param report
+   *          the report to add the results to
+   */
+  public void run(BenchmarkReport report) throws Exception {
+    for (Benchmark benchmark : benchmarks) {
+      log.info("Running benchmark: " + benchmark.getName());
+      benchmark.run(report);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    File reportFile = new File(args.length > 0 ? args[0] : DEFAULT_REPORT_FILE);
+    RosCore rosCore = RosCore.newPrivate();
+    rosCore.start();
+    NodeMainExecutor nodeMainExecutor = DefaultNodeMainExecutor.newDefault();
+    try {
+      if (!rosCore.awaitStart(MASTER_START_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new RosRuntimeException("Timed out starting the master.");
+      }
+      BenchmarkReport report = new BenchmarkReport();
+      report.setListener(new BenchmarkReport.Listener() {
+        @Override
+        public void onResult(String summary) {
+          System.out.println(summary);
+        }
+      });
+      new BenchmarkSuite(nodeMainExecutor, NodeConfiguration.newPrivate(rosCore.getUri()))
+          .run(report);
+      report.write(reportFile);
+      System.out.println("Report written to " + reportFile.getAbsolutePath());
+    } finally {
+      nodeMainExecutor.shutdown();
+      rosCore.shutdown();
+    }
+  }
+}
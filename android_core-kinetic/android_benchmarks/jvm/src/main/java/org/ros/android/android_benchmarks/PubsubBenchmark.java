@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.android_benchmarks;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.exception.RosRuntimeException;
+import org.ros.message.MessageListener;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.NodeMainExecutor;
+import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the round-trip latency and the throughput of messages of several
+ * sizes between two nodes. One node publishes pings, the other echoes them
+ * back as pongs. The sequence number of a ping is stored in its layout's data
+ * offset, so that the payload can be shared by all the pings of a size.
+ */
+public class PubsubBenchmark extends Benchmark {
+
+  private static final int[] MESSAGE_SIZES = { 64, 1024, 64 * 1024, 1024 * 1024 };
+  private static final int MAXIMUM_LATENCY_SAMPLES = 1000;
+  private static final int MINIMUM_LATENCY_SAMPLES = 50;
+  private static final long LATENCY_SAMPLE_BYTES = 64L * 1024 * 1024;
+  private static final int THROUGHPUT_WINDOW = 8;
+  private static final long THROUGHPUT_DURATION_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final long TIMEOUT_SECONDS = 10;
+  private static final GraphName PING_TOPIC = GraphName.of("benchmark/ping");
+  private static final GraphName PONG_TOPIC = GraphName.of("benchmark/pong");
+
+  private final NodeMainExecutor nodeMainExecutor;
+  private final NodeConfiguration nodeConfiguration;
+
+  private abstract static class BenchmarkNode extends AbstractNodeMain {
+
+    private final GraphName name;
+    private final CountDownLatch started;
+    protected Publisher<std_msgs.UInt8MultiArray> publisher;
+
+    BenchmarkNode(GraphName name) {
+      this.name = name;
+      started = new CountDownLatch(1);
+    }
+
+    @Override
+    public GraphName getDefaultNodeName() {
+      return name;
+    }
+
+    protected void onStarted() {
+      started.countDown();
+    }
+
+    void awaitStart() throws InterruptedException {
+      if (!started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new RosRuntimeException("Timed out starting " + name);
+      }
+    }
+  }
+
+  private static final class EchoNode extends BenchmarkNode {
+
+    EchoNode() {
+      super(GraphName.of("benchmark/pubsub_echo"));
+    }
+
+    @Override
+    public void onStart(ConnectedNode connectedNode) {
+      publisher = connectedNode.newPublisher(PONG_TOPIC, std_msgs.UInt8MultiArray._TYPE);
+      Subscriber<std_msgs.UInt8MultiArray> subscriber =
+          connectedNode.newSubscriber(PING_TOPIC, std_msgs.UInt8MultiArray._TYPE);
+      subscriber.addMessageListener(new MessageListener<std_msgs.UInt8MultiArray>() {
+        @Override
+        public void onNewMessage(std_msgs.UInt8MultiArray ping) {
+          std_msgs.UInt8MultiArray pong = publisher.newMessage();
+          pong.getLayout().setDataOffset(ping.getLayout().getDataOffset());
+          pong.setData(ping.getData());
+          publisher.publish(pong);
+        }
+      });
+      onStarted();
+    }
+  }
+
+  private static final class PingNode extends BenchmarkNode {
+
+    private final BlockingQueue<Integer> pongs;
+    private final Semaphore window;
+    private final AtomicLong received;
+    private volatile boolean queuePongs;
+
+    PingNode() {
+      super(GraphName.of("benchmark/pubsub_ping"));
+      pongs = new LinkedBlockingQueue<Integer>();
+      window = new Semaphore(THROUGHPUT_WINDOW);
+      received = new AtomicLong();
+    }
+
+    @Override
+    public void onStart(ConnectedNode connectedNode) {
+      publisher = connectedNode.newPublisher(PING_TOPIC, std_msgs.UInt8MultiArray._TYPE);
+      Subscriber<std_msgs.UInt8MultiArray> subscriber =
+          connectedNode.newSubscriber(PONG_TOPIC, std_msgs.UInt8MultiArray._TYPE);
+      subscriber.addMessageListener(new MessageListener<std_msgs.UInt8MultiArray>() {
+        @Override
+        public void onNewMessage(std_msgs.UInt8MultiArray pong) {
+          received.incrementAndGet();
+          if (queuePongs) {
+            pongs.add(pong.getLayout().getDataOffset());
+          } else {
+            window.release();
+          }
+        }
+      });
+      onStarted();
+    }
+
+    void ping(byte[] payload, int sequence) {
+      std_msgs.UInt8MultiArray ping = publisher.newMessage();
+      ping.getLayout().setDataOffset(sequence);
+      ping.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, payload));
+      publisher.publish(ping);
+    }
+
+    /**
+     * Waits for the pong of a ping.
+     *
+     * @return {@code true} if it arrived within the timeout
+     */
+    boolean awaitPong(int sequence, long timeoutNanos) throws InterruptedException {
+      long deadline = System.nanoTime() + timeoutNanos;
+      while (true) {
+        Integer pong = pongs.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (pong == null) {
+          return false;
+        }
+        if (pong == sequence) {
+          return true;
+        }
+      }
+    }
+  }
+
+  public PubsubBenchmark(NodeMainExecutor nodeMainExecutor, NodeConfiguration nodeConfiguration) {
+    super("pubsub");
+    this.nodeMainExecutor = nodeMainExecutor;
+    this.nodeConfiguration = nodeConfiguration;
+  }
+
+  @Override
+  public void run(BenchmarkReport report) throws Exception {
+    EchoNode echoNode = new EchoNode();
+    PingNode pingNode = new PingNode();
+    nodeMainExecutor.execute(echoNode, NodeConfiguration.copyOf(nodeConfiguration));
+    nodeMainExecutor.execute(pingNode, NodeConfiguration.copyOf(nodeConfiguration));
+    try {
+      echoNode.awaitStart();
+      pingNode.awaitStart();
+      connect(pingNode);
+      for (int size : MESSAGE_SIZES) {
+        byte[] payload = new byte[size];
+        measureLatency(report, pingNode, payload);
+        measureThroughput(report, pingNode, payload);
+      }
+    } finally {
+      nodeMainExecutor.shutdownNodeMain(pingNode);
+      nodeMainExecutor.shutdownNodeMain(echoNode);
+    }
+  }
+
+  /**
+   * Pings until a pong arrives, since messages published before the
+   * connections are established are lost.
+   */
+  private void connect(PingNode pingNode) throws InterruptedException {
+    pingNode.queuePongs = true;
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    byte[] payload = new byte[1];
+    // These sequence numbers are not used by the measurements, so that late
+    // pongs are ignored.
+    for (int sequence = Integer.MIN_VALUE; System.nanoTime() < deadline; sequence++) {
+      pingNode.ping(payload, sequence);
+      if (pingNode.awaitPong(sequence, TimeUnit.MILLISECONDS.toNanos(100))) {
+        return;
+      }
+    }
+    throw new RosRuntimeException("Timed out connecting the pubsub benchmark nodes.");
+  }
+
+  private void measureLatency(BenchmarkReport report, PingNode pingNode, byte[] payload)
+      throws InterruptedException {
+    int samples =
+        (int) Math.max(MINIMUM_LATENCY_SAMPLES,
+            Math.min(MAXIMUM_LATENCY_SAMPLES, LATENCY_SAMPLE_BYTES / payload.length));
+    long[] latencies = new long[samples];
+    pingNode.queuePongs = true;
+    pingNode.pongs.clear();
+    // The first samples are discarded as a warm up.
+    for (int i = -samples / 10; i < samples; i++) {
+      long start = System.nanoTime();
+      pingNode.ping(payload, i);
+      if (!pingNode.awaitPong(i, TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS))) {
+        throw new RosRuntimeException("Timed out waiting for pong " + i);
+      }
+      if (i >= 0) {
+        latencies[i] = System.nanoTime() - start;
+      }
+    }
+    Arrays.sort(latencies);
+    long total = 0;
+    for (long latency : latencies) {
+      total += latency;
+    }
+    String configuration = "size=" + payload.length;
+    report.add(getName(), configuration, "latency_mean", total / 1e3 / samples, "us");
+    report.add(getName(), configuration, "latency_p50", latencies[samples / 2] / 1e3, "us");
+    report.add(getName(), configuration, "latency_p90", latencies[samples * 9 / 10] / 1e3, "us");
+    report.add(getName(), configuration, "latency_p99", latencies[samples * 99 / 100] / 1e3,
+        "us");
+  }
+
+  /**
+   * Keeps {@link #THROUGHPUT_WINDOW} pings in flight, so that the publisher
+   * queues never drop messages.
+   */
+  private void measureThroughput(BenchmarkReport report, PingNode pingNode, byte[] payload)
+      throws InterruptedException {
+    pingNode.queuePongs = false;
+    pingNode.received.set(0);
+    long start = System.nanoTime();
+    int sequence = 0;
+    while (System.nanoTime() - start < THROUGHPUT_DURATION_NANOS) {
+      if (!pingNode.window.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new RosRuntimeException("Timed out waiting for pongs.");
+      }
+      pingNode.ping(payload, sequence++);
+    }
+    if (!pingNode.window.tryAcquire(THROUGHPUT_WINDOW, TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      throw new RosRuntimeException("Timed out waiting for pongs.");
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    pingNode.window.release(THROUGHPUT_WINDOW);
+    long received = pingNode.received.get();
+    String configuration = "size=" + payload.length;
+    report.add(getName(), configuration, "round_trips_per_second", received / seconds, "1/s");
+    report.add(getName(), configuration, "throughput", received * (double) payload.length
+        / seconds / (1024 * 1024), "MiB/s");
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.android_benchmarks;
+
+import com.google.common.collect.Lists;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageDeserializer;
+import org.ros.message.MessageFactory;
+import org.ros.message.MessageSerializationFactory;
+import org.ros.message.MessageSerializer;
+import org.ros.node.NodeConfiguration;
+
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of serializing and deserializing the large messages the
+ * robot publishes: an {@link nav_msgs.OccupancyGrid} and a
+ * {@link sensor_msgs.PointCloud2} of XYZI points with a color.
+ */
+public class SerializationBenchmark extends Benchmark {
+
+  private static final int[] GRID_SIZES = { 256, 1024 };
+  private static final int[] POINT_COUNTS = { 1000, 20000 };
+  private static final String[] POINT_FIELD_NAMES = { "x", "y", "z", "i", "rgb" };
+  private static final int FLOAT_SIZE = 4;
+  private static final long DURATION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final MessageFactory messageFactory;
+  private final MessageSerializationFactory messageSerializationFactory;
+
+  public SerializationBenchmark(NodeConfiguration nodeConfiguration) {
+    super("serialization");
+    messageFactory = nodeConfiguration.getTopicMessageFactory();
+    messageSerializationFactory = nodeConfiguration.getMessageSerializationFactory();
+  }
+
+  @Override
+  public void run(BenchmarkReport report) throws Exception {
+    for (int size : GRID_SIZES) {
+      measure(report, nav_msgs.OccupancyGrid._TYPE, "size=" + size + "x" + size,
+          newOccupancyGrid(size));
+    }
+    for (int count : POINT_COUNTS) {
+      measure(report, sensor_msgs.PointCloud2._TYPE, "points=" + count, newPointCloud(count));
+    }
+  }
+
+  private nav_msgs.OccupancyGrid newOccupancyGrid(int size) {
+    nav_msgs.OccupancyGrid grid = messageFactory.newFromType(nav_msgs.OccupancyGrid._TYPE);
+    grid.getHeader().setFrameId("/map");
+    grid.getInfo().setWidth(size);
+    grid.getInfo().setHeight(size);
+    grid.getInfo().setResolution(0.05f);
+    grid.getInfo().getOrigin().getOrientation().setW(1);
+    byte[] data = new byte[size * size];
+    for (int i = 0; i < data.length; i++) {
+      // Mostly free space, with some unknown and occupied cells.
+      data[i] = (byte) (i % 7 == 0 ? -1 : (i % 13 == 0 ? 100 : 0));
+    }
+    grid.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, data));
+    return grid;
+  }
+
+  private sensor_msgs.PointCloud2 newPointCloud(int count) {
+    sensor_msgs.PointCloud2 cloud = messageFactory.newFromType(sensor_msgs.PointCloud2._TYPE);
+    cloud.getHeader().setFrameId("/camera_depth");
+    List<sensor_msgs.PointField> fields = Lists.newArrayList();
+    for (int i = 0; i < POINT_FIELD_NAMES.length; i++) {
+      sensor_msgs.PointField field = messageFactory.newFromType(sensor_msgs.PointField._TYPE);
+      field.setName(POINT_FIELD_NAMES[i]);
+      field.setOffset(i * FLOAT_SIZE);
+      field.setDatatype(sensor_msgs.PointField.FLOAT32);
+      field.setCount(1);
+      fields.add(field);
+    }
+    cloud.setFields(fields);
+    int pointStep = POINT_FIELD_NAMES.length * FLOAT_SIZE;
+    cloud.setWidth(count);
+    cloud.setHeight(1);
+    cloud.setPointStep(pointStep);
+    cloud.setRowStep(pointStep * count);
+    cloud.setIsDense(true);
+    ChannelBuffer data =
+        ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN, pointStep * count);
+    for (int i = 0; i < count * POINT_FIELD_NAMES.length; i++) {
+      data.writeFloat(i * 0.001f);
+    }
+    cloud.setData(data);
+    return cloud;
+  }
+
+  private <T> void measure(BenchmarkReport report, String type, String configuration,
+      final T message) throws Exception {
+    final MessageSerializer<T> serializer =
+        messageSerializationFactory.newMessageSerializer(type);
+    final MessageDeserializer<T> deserializer =
+        messageSerializationFactory.newMessageDeserializer(type);
+    // The buffer is reused, as the publisher's buffer pool does.
+    final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 1024);
+
+    double serializeNanos = measure(new Operation() {
+      @Override
+      public void run() {
+        buffer.clear();
+        serializer.serialize(message, buffer);
+      }
+    }, DURATION_NANOS);
+    int serializedSize = buffer.readableBytes();
+    double deserializeNanos = measure(new Operation() {
+      @Override
+      public void run() {
+        deserializer.deserialize(buffer.duplicate());
+      }
+    }, DURATION_NANOS);
+
+    String name = getName() + " " + type;
+    report.add(name, configuration, "serialized_size", serializedSize, "bytes");
+    report.add(name, configuration, "serialize_time", serializeNanos / 1e3, "us");
+    report.add(name, configuration, "serialize_throughput",
+        serializedSize / (serializeNanos / 1e9) / (1024 * 1024), "MiB/s");
+    report.add(name, configuration, "deserialize_time", deserializeNanos / 1e3, "us");
+    report.add(name, configuration, "deserialize_throughput",
+        serializedSize / (deserializeNanos / 1e9) / (1024 * 1024), "MiB/s");
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.android_benchmarks;
+
+import org.ros.message.MessageFactory;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.NodeConfiguration;
+import org.ros.rosjava_geometry.FrameTransform;
+import org.ros.rosjava_geometry.FrameTransformTree;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate of updates and lookups of a {@link FrameTransformTree}
+ * holding the frames the robot publishes, from the camera to the map.
+ */
+public class TransformBenchmark extends Benchmark {
+
+  private static final String[] FRAMES = { "map", "odom", "base_link", "camera" };
+  private static final int HISTORY = 100;
+  private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long DURATION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final MessageFactory messageFactory;
+
+  public TransformBenchmark(NodeConfiguration nodeConfiguration) {
+    super("transform");
+    messageFactory = nodeConfiguration.getTopicMessageFactory();
+  }
+
+  @Override
+  public void run(BenchmarkReport report) throws Exception {
+    final FrameTransformTree tree = new FrameTransformTree();
+    final geometry_msgs.TransformStamped[] transforms =
+        new geometry_msgs.TransformStamped[FRAMES.length - 1];
+    for (int i = 0; i < transforms.length; i++) {
+      transforms[i] = messageFactory.newFromType(geometry_msgs.TransformStamped._TYPE);
+      transforms[i].getHeader().setFrameId(FRAMES[i]);
+      transforms[i].setChildFrameId(FRAMES[i + 1]);
+      transforms[i].getTransform().getTranslation().setX(i + 1);
+      transforms[i].getTransform().getRotation().setW(1);
+    }
+    final long[] stamp = new long[] { 0 };
+    final Operation update = new Operation() {
+      @Override
+      public void run() {
+        stamp[0] += PERIOD_NANOS;
+        Time time = Time.fromNano(stamp[0]);
+        for (geometry_msgs.TransformStamped transform : transforms) {
+          transform.getHeader().setStamp(time);
+          tree.update(transform);
+        }
+      }
+    };
+    for (int i = 0; i < HISTORY; i++) {
+      update.run();
+    }
+
+    double updateNanos = measure(update, DURATION_NANOS);
+    report.add(getName(), "frames=" + FRAMES.length, "update_rate",
+        transforms.length * 1e9 / updateNanos, "1/s");
+
+    final GraphName source = GraphName.of(FRAMES[FRAMES.length - 1]);
+    final GraphName target = GraphName.of(FRAMES[0]);
+    double lookupNanos = measure(new Operation() {
+      @Override
+      public void run() {
+        FrameTransform frameTransform = tree.transform(source, target);
+        if (frameTransform == null) {
+          throw new IllegalStateException("No transform from " + source + " to " + target);
+        }
+      }
+    }, DURATION_NANOS);
+    report.add(getName(), "frames=" + FRAMES.length, "latest_lookup_rate", 1e9 / lookupNanos,
+        "1/s");
+
+    // Look up the transforms of the camera a few periods in the past.
+    final Time past = Time.fromNano(stamp[0] - PERIOD_NANOS * HISTORY / 10 - PERIOD_NANOS / 3);
+    double timedLookupNanos = measure(new Operation() {
+      @Override
+      public void run() {
+        if (tree.get(source, past) == null) {
+          throw new IllegalStateException("No transform for " + source + " at " + past);
+        }
+      }
+    }, DURATION_NANOS);
+    report.add(getName(), "history=" + HISTORY, "timed_lookup_rate", 1e9 / timedLookupNanos,
+        "1/s");
+  }
+}
@@ -17,48 +17,68 @@
 package org.ros.android.android_benchmarks;
 
 import android.os.Bundle;
-import org.ros.android.MessageCallable;
+import android.widget.TextView;
 import org.ros.android.RosActivity;
-import org.ros.android.view.RosTextView;
 import org.ros.node.NodeConfiguration;
 import org.ros.node.NodeMainExecutor;
-import org.ros.rosjava_benchmarks.MessagesBenchmark;
+
+import java.io.File;
 
 /**
+ * Runs the {@link BenchmarkSuite}, shows its results as they come and writes
+ * its report to the application's files directory.
+ *
  * @author damonkohler@google.com (Damon Kohler)
  */
 public class MainActivity extends RosActivity {
 
-  private RosTextView<std_msgs.String> rosTextView;
+  private static final String REPORT_FILE = "benchmarks.json";
+
+  private TextView textView;
 
   public MainActivity() {
     super("Benchmarks", "Benchmarks");
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.main);
-    rosTextView = (RosTextView<std_msgs.String>) findViewById(R.id.text);
-    rosTextView.setTopicName("status");
-    rosTextView.setMessageType(std_msgs.String._TYPE);
-    rosTextView.setMessageToStringCallable(new MessageCallable<String, std_msgs.String>() {
-      @Override
-      public String call(std_msgs.String message) {
-        return message.getData();
-      }
-    });
+    textView = (TextView) findViewById(R.id.text);
   }
 
   @Override
-  protected void init(NodeMainExecutor nodeMainExecutor) {
-    NodeConfiguration nodeConfiguration = NodeConfiguration.newPrivate();
+  protected void init(final NodeMainExecutor nodeMainExecutor) {
+    final NodeConfiguration nodeConfiguration = NodeConfiguration.newPrivate();
     nodeConfiguration.setMasterUri(getMasterUri());
-    nodeMainExecutor.execute(rosTextView, nodeConfiguration);
-    // TODO(damonkohler): Support launching different benchmarks via the UI.
-    // nodeMainExecutor.execute(new PubsubBenchmark(), nodeConfiguration);
-    // nodeMainExecutor.execute(new TransformBenchmark(), nodeConfiguration);
-    nodeMainExecutor.execute(new MessagesBenchmark(), nodeConfiguration);
+    new Thread() {
+      @Override
+      public void run() {
+        BenchmarkReport report = new BenchmarkReport();
+        report.setListener(new BenchmarkReport.Listener() {
+          @Override
+          public void onResult(String summary) {
+            appendLine(summary);
+          }
+        });
+        try {
+          new BenchmarkSuite(nodeMainExecutor, nodeConfiguration).run(report);
+          File reportFile = new File(getFilesDir(), REPORT_FILE);
+          report.write(reportFile);
+          appendLine("Report written to " + reportFile.getAbsolutePath());
+        } catch (Exception e) {
+          appendLine("Benchmarks failed: " + e);
+        }
+      }
+    }.start();
+  }
+
+  private void appendLine(final String line) {
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        textView.append(line + "\n");
+      }
+    });
   }
 }
@@ -16,31 +16,19 @@
 
 package org.ros.android.compressed_map_transport;
 
+import com.google.common.base.Preconditions;
+
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
-import org.ros.exception.RosRuntimeException;
-import org.ros.internal.message.MessageBuffers;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.topic.Publisher;
 import org.ros.node.topic.Subscriber;
 
-import java.awt.Image;
-import java.awt.Transparency;
-import java.awt.color.ColorSpace;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.ComponentColorModel;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.Raster;
-import java.awt.image.SampleModel;
-import java.awt.image.WritableRaster;
-import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.nio.ByteOrder;
 
 /**
  * Scales, compresses, and relays {@link nav_msgs.OccupancyGrid} messages.
@@ -57,6 +45,8 @@ public class CompressedMapTransport extends AbstractNodeMain {
 
   private Publisher<nav_msgs.OccupancyGrid> publisher;
   private Subscriber<nav_msgs.OccupancyGrid> subscriber;
+  private TiledPngEncoder encoder;
+  private byte[] data;
 
   @Override
   public GraphName getDefaultNodeName() {
@@ -67,6 +57,10 @@ public class CompressedMapTransport extends AbstractNodeMain {
   public void onStart(ConnectedNode connectedNode) {
     publisher = connectedNode.newPublisher(TOPIC_OUT, nav_msgs.OccupancyGrid._TYPE);
     publisher.setLatchMode(true);
+    encoder =
+        new TiledPngEncoder(connectedNode.getScheduledExecutorService(), MAXIMUM_WIDTH,
+            MAXIMUM_HEIGHT);
+    data = new byte[0];
     subscriber = connectedNode.newSubscriber(TOPIC_IN, nav_msgs.OccupancyGrid._TYPE);
     subscriber.addMessageListener(new MessageListener<nav_msgs.OccupancyGrid>() {
       @Override
@@ -78,70 +72,45 @@ public class CompressedMapTransport extends AbstractNodeMain {
     });
   }
 
+  @Override
+  public void onShutdown(Node node) {
+    if (encoder != null) {
+      encoder.close();
+    }
+  }
+
   private nav_msgs.OccupancyGrid scaleAndCompressOccupancyGrid(nav_msgs.OccupancyGrid message) {
-    BufferedImage bufferedImage = newGrayscaleBufferedImage(message);
-    BufferedImage scaledBufferedImage = scaleBufferedImage(bufferedImage);
-    ChannelBuffer buffer = MessageBuffers.dynamicBuffer();
-    ChannelBufferOutputStream outputStream = new ChannelBufferOutputStream(buffer);
-    try {
-      ImageIO.write(scaledBufferedImage, IMAGE_FORMAT, outputStream);
-    } catch (IOException e) {
-      throw new RosRuntimeException(e);
+    int width = message.getInfo().getWidth();
+    int height = message.getInfo().getHeight();
+    ChannelBuffer messageData = message.getData();
+    int length = width * height;
+    Preconditions.checkState(messageData.readableBytes() >= length);
+    byte[][] parts;
+    if (messageData.hasArray()) {
+      parts =
+          encoder.encode(messageData.array(),
+              messageData.arrayOffset() + messageData.readerIndex(), width, height);
+    } else {
+      if (data.length < length) {
+        data = new byte[length];
+      }
+      messageData.getBytes(messageData.readerIndex(), data, 0, length);
+      parts = encoder.encode(data, 0, width, height);
     }
     nav_msgs.OccupancyGrid compressedMessage = publisher.newMessage();
     compressedMessage.getHeader().setFrameId(message.getHeader().getFrameId());
     compressedMessage.getHeader().setStamp(message.getHeader().getStamp());
     compressedMessage.getInfo().setMapLoadTime(message.getInfo().getMapLoadTime());
     compressedMessage.getInfo().setOrigin(message.getInfo().getOrigin());
-    compressedMessage.getInfo().setWidth(scaledBufferedImage.getWidth());
-    compressedMessage.getInfo().setHeight(scaledBufferedImage.getHeight());
+    compressedMessage.getInfo().setWidth(encoder.getScaledWidth());
+    compressedMessage.getInfo().setHeight(encoder.getScaledHeight());
     float resolution =
         message.getInfo().getResolution() * message.getInfo().getHeight()
-            / scaledBufferedImage.getHeight();
+            / encoder.getScaledHeight();
     compressedMessage.getInfo().setResolution(resolution);
-    compressedMessage.setData(buffer);
+    // The encoder never modifies the parts it returns, so they are wrapped
+    // rather than copied.
+    compressedMessage.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, parts));
     return compressedMessage;
   }
-
-  private BufferedImage newGrayscaleBufferedImage(nav_msgs.OccupancyGrid message) {
-    int width = message.getInfo().getWidth();
-    int height = message.getInfo().getHeight();
-    ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_GRAY);
-    ColorModel colorModel =
-        new ComponentColorModel(colorSpace, new int[] { 8 }, false, false, Transparency.OPAQUE,
-            DataBuffer.TYPE_BYTE);
-    SampleModel sampleModel = colorModel.createCompatibleSampleModel(width, height);
-    // There is a bug in DataBuffer that causes WritableRaster to ignore the
-    // offset. As a result, we have to make a copy of the data here so that the
-    // array is guaranteed to start with the first readable byte.
-    byte[] data = new byte[message.getData().readableBytes()];
-    message.getData().readBytes(data);
-    DataBuffer dataBuffer = new DataBufferByte(data, data.length, 0);
-    WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, null);
-    BufferedImage bufferedImage = new BufferedImage(colorModel, raster, false, null);
-    return bufferedImage;
-  }
-
-  private BufferedImage scaleBufferedImage(BufferedImage bufferedImage) {
-    int height = bufferedImage.getHeight();
-    int width = bufferedImage.getWidth();
-    BufferedImage scaledBufferedImage = bufferedImage;
-    if (height > MAXIMUM_HEIGHT || width > MAXIMUM_WIDTH) {
-      // Setting the width or height to -1 causes the scaling method to maintain
-      // the image's aspect ratio.
-      int scaledHeight = -1;
-      int scaledWidth = -1;
-      if (height > width) {
-        scaledHeight = MAXIMUM_HEIGHT;
-      } else {
-        scaledWidth = MAXIMUM_WIDTH;
-      }
-      Image image = bufferedImage.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_SMOOTH);
-      scaledBufferedImage =
-          new BufferedImage(image.getWidth(null), image.getHeight(null),
-              BufferedImage.TYPE_BYTE_GRAY);
-      scaledBufferedImage.getGraphics().drawImage(image, 0, 0, null);
-    }
-    return scaledBufferedImage;
-  }
 }
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.compressed_map_transport;
+
+import org.ros.exception.RosRuntimeException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Scales a grayscale grid down to a maximum size and encodes it as a PNG.
+ * <p>
+ * The image is split into strips of {@link #STRIP_HEIGHT} rows. Each strip is
+ * deflated on its own and ends on a byte boundary, so the compressed strips
+ * can be concatenated into a single zlib stream. A strip is stored as a
+ * complete IDAT chunk together with a hash of the grid rows it was scaled
+ * from, and is only scaled and compressed again when those rows change. The
+ * changed strips are compressed in parallel.
+ * <p>
+ * The strip encoders are kept in a bounded pool and their native deflate
+ * memory is released by {@link #close()}.
+ *
+ * @author damonkohler@google.com (Damon Kohler)
+ */
+class TiledPngEncoder {
+
+  /**
+   * The number of rows of the scaled image in a strip.
+   */
+  static final int STRIP_HEIGHT = 64;
+
+  private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a,
+      '\n' };
+  private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+  // An empty final block of fixed Huffman codes, which ends the deflate stream.
+  private static final byte[] DEFLATE_TRAILER = { 0x03, 0x00 };
+  private static final int ADLER_BASE = 65521;
+  private static final int FILTER_SUB = 1;
+
+  private final ExecutorService executorService;
+  private final int maximumWidth;
+  private final int maximumHeight;
+  private final BlockingQueue<StripEncoder> idleStripEncoders;
+
+  private int width;
+  private int height;
+  private int scaledWidth;
+  private int scaledHeight;
+  // Maps a column of the scaled image to the first column of the grid it averages.
+  private int[] columnStarts;
+  private Strip[] strips;
+  private boolean closed;
+
+  TiledPngEncoder(ExecutorService executorService, int maximumWidth, int maximumHeight) {
+    this.executorService = executorService;
+    this.maximumWidth = maximumWidth;
+    this.maximumHeight = maximumHeight;
+    idleStripEncoders =
+        new ArrayBlockingQueue<StripEncoder>(Runtime.getRuntime().availableProcessors());
+    strips = new Strip[0];
+  }
+
+  int getScaledWidth() {
+    return scaledWidth;
+  }
+
+  int getScaledHeight() {
+    return scaledHeight;
+  }
+
+  /**
+   * Encodes a grid, reusing the strips that did not change since the last
+   * call.
+   *
+   * @param data
+   *          the grid, row by row
+   * @param offset
+   *          the index of the first cell in {@code data}
+   * @param width
+   *          the width of the grid
+   * @param height
+   *          the height of the grid
+   * @return the parts of the PNG file, which must not be modified
+   */
+  synchronized byte[][] encode(final byte[] data, final int offset, int width, int height) {
+    if (width != this.width || height != this.height) {
+      resize(width, height);
+    }
+
+    List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+    List<Strip> changed = new ArrayList<Strip>();
+    for (final Strip strip : strips) {
+      CRC32 crc32 = new CRC32();
+      Adler32 adler32 = new Adler32();
+      int start = offset + strip.firstGridRow * width;
+      int length = (strip.lastGridRow - strip.firstGridRow) * width;
+      crc32.update(data, start, length);
+      adler32.update(data, start, length);
+      long hash = (crc32.getValue() << 32) | adler32.getValue();
+      if (strip.chunk != null && strip.hash == hash) {
+        continue;
+      }
+      strip.hash = hash;
+      changed.add(strip);
+      futures.add(executorService.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          StripEncoder stripEncoder = idleStripEncoders.poll();
+          if (stripEncoder == null) {
+            stripEncoder = new StripEncoder();
+          }
+          try {
+            return stripEncoder.encode(strip, data, offset);
+          } finally {
+            release(stripEncoder);
+          }
+        }
+      }));
+    }
+    try {
+      for (int i = 0; i < changed.size(); i++) {
+        changed.get(i).chunk = futures.get(i).get();
+      }
+    } catch (InterruptedException e) {
+      invalidate(changed);
+      Thread.currentThread().interrupt();
+      throw new RosRuntimeException(e);
+    } catch (ExecutionException e) {
+      invalidate(changed);
+      throw new RosRuntimeException(e.getCause());
+    }
+
+    byte[][] parts = new byte[strips.length + 5][];
+    int part = 0;
+    parts[part++] = PNG_SIGNATURE;
+    parts[part++] = newHeaderChunk();
+    parts[part++] = newChunk("IDAT", ZLIB_HEADER);
+    long adler = 1;
+    for (Strip strip : strips) {
+      parts[part++] = strip.chunk;
+      adler = combineAdler32(adler, strip.adler32, strip.rawLength);
+    }
+    ByteBuffer end = ByteBuffer.allocate(DEFLATE_TRAILER.length + 4);
+    end.put(DEFLATE_TRAILER);
+    end.putInt((int) adler);
+    parts[part++] = newChunk("IDAT", end.array());
+    parts[part] = newChunk("IEND", new byte[0]);
+    return parts;
+  }
+
+  /**
+   * Ends the deflaters of the idle strip encoders. Strip encoders that are
+   * still running are ended when they finish.
+   */
+  void close() {
+    synchronized (idleStripEncoders) {
+      closed = true;
+      for (StripEncoder stripEncoder : idleStripEncoders) {
+        stripEncoder.end();
+      }
+      idleStripEncoders.clear();
+    }
+  }
+
+  /**
+   * Returns a strip encoder to the pool, or ends it if the pool is full or
+   * the encoder is closed.
+   */
+  private void release(StripEncoder stripEncoder) {
+    synchronized (idleStripEncoders) {
+      if (!closed && idleStripEncoders.offer(stripEncoder)) {
+        return;
+      }
+    }
+    stripEncoder.end();
+  }
+
+  private void invalidate(List<Strip> changed) {
+    for (Strip strip : changed) {
+      strip.chunk = null;
+    }
+  }
+
+  /**
+   * Computes the size of the scaled image and the grid rows of each strip.
+   * Setting the size to the maximum on the longest side maintains the image's
+   * aspect ratio.
+   */
+  private void resize(int width, int height) {
+    this.width = width;
+    this.height = height;
+    scaledWidth = width;
+    scaledHeight = height;
+    if (height > maximumHeight || width > maximumWidth) {
+      if (height > width) {
+        scaledHeight = maximumHeight;
+        scaledWidth = Math.max(1, width * maximumHeight / height);
+      } else {
+        scaledWidth = maximumWidth;
+        scaledHeight = Math.max(1, height * maximumWidth / width);
+      }
+    }
+    columnStarts = new int[scaledWidth + 1];
+    for (int x = 0; x <= scaledWidth; x++) {
+      columnStarts[x] = (int) ((long) x * width / scaledWidth);
+    }
+    strips = new Strip[(scaledHeight + STRIP_HEIGHT - 1) / STRIP_HEIGHT];
+    for (int i = 0; i < strips.length; i++) {
+      int firstRow = i * STRIP_HEIGHT;
+      int lastRow = Math.min(scaledHeight, firstRow + STRIP_HEIGHT);
+      strips[i] = new Strip(firstRow, lastRow, gridRow(firstRow), gridRow(lastRow));
+    }
+  }
+
+  /**
+   * @return the first grid row averaged into a row of the scaled image
+   */
+  private int gridRow(int scaledRow) {
+    return (int) ((long) scaledRow * height / scaledHeight);
+  }
+
+  private byte[] newHeaderChunk() {
+    ByteBuffer header = ByteBuffer.allocate(13);
+    header.putInt(scaledWidth);
+    header.putInt(scaledHeight);
+    header.put((byte) 8); // Bit depth.
+    header.put((byte) 0); // Grayscale.
+    header.put((byte) 0); // Deflate.
+    header.put((byte) 0); // Adaptive filtering.
+    header.put((byte) 0); // No interlace.
+    return newChunk("IHDR", header.array());
+  }
+
+  private static byte[] newChunk(String type, byte[] data) {
+    return newChunk(type, data, data.length);
+  }
+
+  private static byte[] newChunk(String type, byte[] data, int length) {
+    ByteBuffer chunk = ByteBuffer.allocate(length + 12);
+    chunk.putInt(length);
+    for (int i = 0; i < 4; i++) {
+      chunk.put((byte) type.charAt(i));
+    }
+    chunk.put(data, 0, length);
+    CRC32 crc32 = new CRC32();
+    crc32.update(chunk.array(), 4, length + 4);
+    chunk.putInt((int) crc32.getValue());
+    return chunk.array();
+  }
+
+  /**
+   * Computes the Adler-32 checksum of two concatenated sequences from their
+   * checksums, as zlib's adler32_combine does.
+   */
+  static long combineAdler32(long adler1, long adler2, long length2) {
+    long remainder = length2 % ADLER_BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - remainder;
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum2 >= ((long) ADLER_BASE << 1)) {
+      sum2 -= ((long) ADLER_BASE << 1);
+    }
+    if (sum2 >= ADLER_BASE) {
+      sum2 -= ADLER_BASE;
+    }
+    return sum1 | (sum2 << 16);
+  }
+
+  /**
+   * A strip of the scaled image and its cached IDAT chunk.
+   */
+  private static final class Strip {
+
+    private final int firstRow;
+    private final int lastRow;
+    private final int firstGridRow;
+    private final int lastGridRow;
+
+    private long hash;
+    private byte[] chunk;
+    private long adler32;
+    private long rawLength;
+
+    Strip(int firstRow, int lastRow, int firstGridRow, int lastGridRow) {
+      this.firstRow = firstRow;
+      this.lastRow = lastRow;
+      this.firstGridRow = firstGridRow;
+      this.lastGridRow = lastGridRow;
+    }
+  }
+
+  /**
+   * Scales, filters and compresses strips, reusing its buffers between strips.
+   * It is used by one thread at a time.
+   */
+  private final class StripEncoder {
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private byte[] scanlines = new byte[0];
+    private byte[] buffer = new byte[8192];
+    private int[] sums = new int[0];
+
+    /**
+     * @return the IDAT chunk of the strip
+     */
+    byte[] encode(Strip strip, byte[] data, int offset) {
+      int rowLength = scaledWidth + 1;
+      int rawLength = (strip.lastRow - strip.firstRow) * rowLength;
+      if (scanlines.length < rawLength) {
+        scanlines = new byte[rawLength];
+      }
+      if (sums.length < scaledWidth) {
+        sums = new int[scaledWidth];
+      }
+      for (int y = strip.firstRow, i = 0; y < strip.lastRow; y++, i += rowLength) {
+        scaleRow(data, offset, y, scanlines, i + 1);
+        // The Sub filter stores the difference with the pixel to the left,
+        // which makes the runs of a map compress well.
+        scanlines[i] = FILTER_SUB;
+        for (int x = scaledWidth; x > 1; x--) {
+          scanlines[i + x] -= scanlines[i + x - 1];
+        }
+      }
+      Adler32 adler32 = new Adler32();
+      adler32.update(scanlines, 0, rawLength);
+      strip.adler32 = adler32.getValue();
+      strip.rawLength = rawLength;
+
+      // A sync flush ends the strip on a byte boundary without ending the
+      // stream, so that the strips can be concatenated.
+      deflater.reset();
+      deflater.setInput(scanlines, 0, rawLength);
+      output.reset();
+      int length;
+      do {
+        length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        output.write(buffer, 0, length);
+      } while (length == buffer.length);
+      return newChunk("IDAT", output.toByteArray(), output.size());
+    }
+
+    void end() {
+      deflater.end();
+    }
+
+    /**
+     * Averages the grid cells covered by a row of the scaled image.
+     */
+    private void scaleRow(byte[] data, int offset, int y, byte[] target, int targetOffset) {
+      int firstGridRow = gridRow(y);
+      int lastGridRow = Math.max(firstGridRow + 1, gridRow(y + 1));
+      if (scaledWidth == width && lastGridRow == firstGridRow + 1) {
+        System.arraycopy(data, offset + firstGridRow * width, target, targetOffset, width);
+        return;
+      }
+      for (int x = 0; x < scaledWidth; x++) {
+        sums[x] = 0;
+      }
+      for (int gridY = firstGridRow; gridY < lastGridRow; gridY++) {
+        int row = offset + gridY * width;
+        for (int x = 0; x < scaledWidth; x++) {
+          int sum = 0;
+          for (int gridX = columnStarts[x]; gridX < columnStarts[x + 1]; gridX++) {
+            sum += data[row + gridX] & 0xff;
+          }
+          sums[x] += sum;
+        }
+      }
+      int rows = lastGridRow - firstGridRow;
+      for (int x = 0; x < scaledWidth; x++) {
+        int count = rows * (columnStarts[x + 1] - columnStarts[x]);
+        target[targetOffset + x] = (byte) ((sums[x] + count / 2) / count);
+      }
+    }
+  }
+}
@@ -19,14 +19,24 @@ package org.ros.android.acm_serial;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ros.concurrent.CancellableLoop;
-import org.ros.exception.RosRuntimeException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Constantly reads from an {@link InputStream} into a buffer.
+ * Constantly reads from an {@link InputStream} into a circular buffer.
+ * <p>
+ * Readers block until the read loop has buffered some bytes, and the read loop
+ * blocks while the buffer is full, so neither side spins while the other is
+ * idle. Bytes are copied once into the buffer and once out of it, with no
+ * compaction. Once the wrapped stream ends or fails, the buffered bytes are
+ * still returned before reads report the end of the stream or the failure.
  * 
  * @author damonkohler@google.com (Damon Kohler)
  */
@@ -38,10 +48,22 @@ public class PollingInputStream extends InputStream {
   private final static int BUFFER_CAPACITY = 512 * 1024;
   private final static int READ_SIZE = 256;
 
+  private final InputStream inputStream;
   private final byte[] readBuffer;
+  private final Lock lock;
+  private final Condition notEmpty;
+  private final Condition notFull;
+  private final CancellableLoop readLoop;
 
+  // The following fields are guarded by lock. The bytes from readPosition to
+  // readPosition + available, modulo the capacity, are unread. Readers only
+  // advance readPosition while decreasing available, so the read loop can fill
+  // the free space that follows them without holding the lock.
   private int readPosition;
-  private int writePosition;
+  private int available;
+  private boolean endOfStream;
+  private IOException exception;
+  private boolean closed;
 
   /**
    * @param inputStream
@@ -50,72 +72,250 @@ public class PollingInputStream extends InputStream {
    *          used to execute the read loop
    */
   public PollingInputStream(final InputStream inputStream, ExecutorService executorService) {
-    readBuffer = new byte[BUFFER_CAPACITY];
+    this(inputStream, executorService, BUFFER_CAPACITY);
+  }
+
+  /**
+   * @param inputStream
+   *          the {@link InputStream} to read from
+   * @param executorService
+   *          used to execute the read loop
+   * @param capacity
+   *          the size of the buffer in bytes
+   */
+  PollingInputStream(final InputStream inputStream, ExecutorService executorService,
+      int capacity) {
+    this.inputStream = inputStream;
+    readBuffer = new byte[capacity];
+    lock = new ReentrantLock();
+    notEmpty = lock.newCondition();
+    notFull = lock.newCondition();
     readPosition = 0;
-    writePosition = 0;
-    executorService.execute(new CancellableLoop() {
+    available = 0;
+    readLoop = new CancellableLoop() {
       @Override
       protected void loop() throws InterruptedException {
-        try {
-          while (remaining() < READ_SIZE) {
-            if (readPosition < remaining()) {
-              // There isn't enough room to compact the buffer yet. We will most
-              // likely start dropping messages.
-              log.error("Not enough room to compact buffer.");
-              Thread.yield();
-              continue;
-            }
-            synchronized (readBuffer) {
-              int remaining = remaining();
-              System.arraycopy(readBuffer, writePosition, readBuffer, 0, remaining);
-              writePosition = remaining;
-              readPosition = 0;
-              if (DEBUG) {
-                log.info(String.format("Buffer compacted. %d bytes remaining.", remaining()));
-              }
-            }
-          }
-          int bytesRead = inputStream.read(readBuffer, writePosition, READ_SIZE);
-          if (bytesRead < 0) {
-            throw new IOException("Stream closed.");
-          }
-          writePosition += bytesRead;
-        } catch (IOException e) {
-          throw new RosRuntimeException(e);
+        if (!fill()) {
+          cancel();
         }
       }
-    });
+    };
+    executorService.execute(readLoop);
+  }
+
+  /**
+   * Reads once from the wrapped stream into the free space of the buffer,
+   * waiting for free space if the buffer is full.
+   * 
+   * @return false if the read loop should stop
+   * @throws InterruptedException
+   *           if interrupted while waiting for free space
+   */
+  private boolean fill() throws InterruptedException {
+    int writePosition;
+    int length;
+    lock.lock();
+    try {
+      while (available == readBuffer.length && !closed) {
+        if (DEBUG) {
+          log.info("Buffer full, waiting for a reader.");
+        }
+        notFull.await();
+      }
+      if (closed) {
+        return false;
+      }
+      writePosition = readPosition + available;
+      if (writePosition < readBuffer.length) {
+        length = readBuffer.length - writePosition;
+      } else {
+        writePosition -= readBuffer.length;
+        length = readPosition - writePosition;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    int bytesRead;
+    IOException readException = null;
+    try {
+      bytesRead = inputStream.read(readBuffer, writePosition, Math.min(length, READ_SIZE));
+    } catch (IOException e) {
+      bytesRead = -1;
+      readException = e;
+    }
+
+    lock.lock();
+    try {
+      if (bytesRead < 0) {
+        if (readException != null && !closed) {
+          log.error("Failed to read from stream.", readException);
+          exception = readException;
+        }
+        endOfStream = true;
+      } else if (!closed) {
+        available += bytesRead;
+        if (DEBUG) {
+          log.info(String.format("Read %d bytes. %d bytes available.", bytesRead, available));
+        }
+      }
+      notEmpty.signalAll();
+      return bytesRead >= 0;
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
-  public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
-    int bytesRead = 0;
-    if (length > 0) {
-      while (available() == 0) {
-        // Block until there are bytes to read.
-        Thread.yield();
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    return read(buffer, offset, length, 0, false);
+  }
+
+  /**
+   * Reads up to {@code length} bytes, waiting at most the given time for the
+   * first byte to be available. Only the bytes that are available are copied.
+   * 
+   * @param buffer
+   *          the buffer to read into
+   * @param offset
+   *          the offset in the buffer
+   * @param length
+   *          the maximum number of bytes to read
+   * @param timeout
+   *          the maximum time to wait
+   * @param unit
+   *          the unit of the timeout
+   * @return the number of bytes read, 0 if the timeout elapsed, or -1 at the
+   *         end of the stream
+   * @throws IOException
+   *           if the wrapped stream failed or the thread was interrupted
+   */
+  public int read(byte[] buffer, int offset, int length, long timeout, TimeUnit unit)
+      throws IOException {
+    return read(buffer, offset, length, unit.toNanos(timeout), true);
+  }
+
+  private int read(byte[] buffer, int offset, int length, long timeoutNanos, boolean timed)
+      throws IOException {
+    // As before, the bounds are only checked by the copy, so a length past the
+    // end of the buffer is allowed while the available bytes fit.
+    if (offset < 0 || length < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (length == 0) {
+      return 0;
+    }
+    lock.lock();
+    try {
+      if (!awaitAvailable(timeoutNanos, timed)) {
+        return endOfStream || closed ? -1 : 0;
       }
-      synchronized (readBuffer) {
-        bytesRead = Math.min(length, available());
-        System.arraycopy(readBuffer, readPosition, buffer, offset, bytesRead);
-        readPosition += bytesRead;
+      int bytesRead = Math.min(length, available);
+      int firstLength = Math.min(bytesRead, readBuffer.length - readPosition);
+      System.arraycopy(readBuffer, readPosition, buffer, offset, firstLength);
+      if (firstLength < bytesRead) {
+        System.arraycopy(readBuffer, 0, buffer, offset + firstLength, bytesRead - firstLength);
       }
+      consume(bytesRead);
+      return bytesRead;
+    } finally {
+      lock.unlock();
     }
-    return bytesRead;
   }
 
   @Override
   public int read() throws IOException {
-    byte[] buffer = new byte[1];
-    return read(buffer, 0, 1);
+    lock.lock();
+    try {
+      if (!awaitAvailable(0, false)) {
+        return -1;
+      }
+      int value = readBuffer[readPosition] & 0xff;
+      consume(1);
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until bytes are available. Must be called with the lock held.
+   * 
+   * @param timeoutNanos
+   *          the maximum time to wait if timed
+   * @param timed
+   *          true to wait at most timeoutNanos
+   * @return true if bytes are available, false at the end of the stream or if
+   *         the timeout elapsed
+   * @throws IOException
+   *           if the wrapped stream failed or the thread was interrupted
+   */
+  private boolean awaitAvailable(long timeoutNanos, boolean timed) throws IOException {
+    long nanos = timeoutNanos;
+    try {
+      while (available == 0) {
+        if (exception != null) {
+          throw new IOException("Failed to read from stream.", exception);
+        }
+        if (endOfStream || closed) {
+          return false;
+        }
+        if (!timed) {
+          notEmpty.await();
+        } else if (nanos > 0) {
+          nanos = notEmpty.awaitNanos(nanos);
+        } else {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Marks bytes as read and wakes the read loop. Must be called with the lock
+   * held.
+   * 
+   * @param length
+   *          the number of bytes read
+   */
+  private void consume(int length) {
+    readPosition += length;
+    if (readPosition >= readBuffer.length) {
+      readPosition -= readBuffer.length;
+    }
+    available -= length;
+    notFull.signal();
   }
 
   @Override
   public int available() throws IOException {
-    return writePosition - readPosition;
+    lock.lock();
+    try {
+      return available;
+    } finally {
+      lock.unlock();
+    }
   }
 
-  private int remaining() {
-    return BUFFER_CAPACITY - writePosition;
+  /**
+   * Stops the read loop, wakes blocked readers and closes the wrapped stream.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      closed = true;
+      available = 0;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    readLoop.cancel();
+    inputStream.close();
   }
 }
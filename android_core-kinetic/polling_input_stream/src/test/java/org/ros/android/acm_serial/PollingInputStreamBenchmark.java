@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ros.android.acm_serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the throughput of a {@link PollingInputStream} against the
+ * {@link PipedInputStream} it wraps, and the CPU time it uses while the stream
+ * is idle. Run with {@code main}, it is not part of the unit tests.
+ */
+public class PollingInputStreamBenchmark {
+
+  private static final int PIPE_SIZE = 64 * 1024;
+  private static final int WRITE_SIZE = 4096;
+  private static final int READ_SIZE = 4096;
+  private static final int TOTAL_BYTES = 64 * 1024 * 1024;
+  private static final long IDLE_MILLIS = 2000;
+
+  public static void main(String[] args) throws Exception {
+    ExecutorService executorService = Executors.newCachedThreadPool();
+    try {
+      for (int i = 0; i < 2; i++) {
+        PipedInputStream pipedInputStream = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream);
+        report("piped", throughput(pipedOutputStream, pipedInputStream));
+        pipedInputStream = new PipedInputStream(PIPE_SIZE);
+        pipedOutputStream = new PipedOutputStream(pipedInputStream);
+        report("polling", throughput(pipedOutputStream,
+            new PollingInputStream(pipedInputStream, executorService)));
+      }
+      PipedInputStream pipedInputStream = new PipedInputStream(PIPE_SIZE);
+      new PipedOutputStream(pipedInputStream);
+      PollingInputStream pollingInputStream =
+          new PollingInputStream(pipedInputStream, executorService);
+      System.out.println(String.format("idle: %.1f ms CPU per second",
+          idleCpuMillisPerSecond(pollingInputStream)));
+      pollingInputStream.close();
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static void report(String name, long nanos) {
+    System.out.println(String.format("%s: %.1f MB/s", name,
+        TOTAL_BYTES / (nanos / 1e9) / (1024 * 1024)));
+  }
+
+  /**
+   * Writes {@link #TOTAL_BYTES} to the pipe from another thread and reads them
+   * from the input stream.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  private static long throughput(final PipedOutputStream pipedOutputStream,
+      InputStream inputStream) throws IOException, InterruptedException {
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[WRITE_SIZE];
+        try {
+          for (int written = 0; written < TOTAL_BYTES; written += buffer.length) {
+            pipedOutputStream.write(buffer);
+          }
+          // Keep the pipe open until the reader is done.
+          Thread.sleep(Long.MAX_VALUE);
+        } catch (IOException e) {
+          // The reader closed the pipe.
+        } catch (InterruptedException e) {
+          // Done.
+        }
+      }
+    };
+    writer.setDaemon(true);
+    long start = System.nanoTime();
+    writer.start();
+    byte[] buffer = new byte[READ_SIZE];
+    for (int read = 0; read < TOTAL_BYTES;) {
+      int bytesRead = inputStream.read(buffer, 0, buffer.length);
+      if (bytesRead < 0) {
+        throw new IOException("Unexpected end of stream.");
+      }
+      read += bytesRead;
+    }
+    long elapsed = System.nanoTime() - start;
+    writer.interrupt();
+    writer.join();
+    inputStream.close();
+    return elapsed;
+  }
+
+  /**
+   * Blocks a reader on the idle input stream and measures the CPU time used by
+   * all threads.
+   *
+   * @return the CPU time in milliseconds per second of wall time
+   */
+  private static double idleCpuMillisPerSecond(final InputStream inputStream)
+      throws InterruptedException {
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          inputStream.read();
+        } catch (IOException e) {
+          // Closed.
+        }
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+    Thread.sleep(100);
+    long start = totalCpuNanos();
+    Thread.sleep(IDLE_MILLIS);
+    long cpuNanos = totalCpuNanos() - start;
+    reader.interrupt();
+    return cpuNanos / 1e6 / (IDLE_MILLIS / 1000.0);
+  }
+
+  private static long totalCpuNanos() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    long total = 0;
+    for (long id : threadMXBean.getAllThreadIds()) {
+      long nanos = threadMXBean.getThreadCpuTime(id);
+      if (nanos > 0) {
+        total += nanos;
+      }
+    }
+    return total;
+  }
+}
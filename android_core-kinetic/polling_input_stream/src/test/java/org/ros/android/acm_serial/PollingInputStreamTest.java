@@ -18,13 +18,18 @@ package org.ros.android.acm_serial;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author damonkohler@google.com (Damon Kohler)
@@ -87,4 +92,100 @@ public class PollingInputStreamTest {
     }
     assertArrayEquals(expectedBuffer, actualBuffer);
   }
+
+  @Test
+  public void testWrapAround() throws IOException {
+    PipedInputStream pipedInputStream = new PipedInputStream();
+    PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream);
+    PollingInputStream pollingInputStream =
+        new PollingInputStream(pipedInputStream, Executors.newCachedThreadPool(), 16);
+    byte[] expectedBuffer = new byte[1000];
+    for (int i = 0; i < expectedBuffer.length; i++) {
+      expectedBuffer[i] = (byte) i;
+    }
+    // The buffer is much smaller than the data, so the writer blocks until
+    // the reader catches up, and both wrap around the buffer many times.
+    pipedOutputStream.write(expectedBuffer, 0, 10);
+    byte[] actualBuffer = new byte[1000];
+    int bytesRead = 0;
+    while (bytesRead < 10) {
+      bytesRead += pollingInputStream.read(actualBuffer, bytesRead, 7);
+    }
+    pipedOutputStream.write(expectedBuffer, 10, 990);
+    while (bytesRead < 1000) {
+      bytesRead += pollingInputStream.read(actualBuffer, bytesRead, 1000 - bytesRead);
+    }
+    assertArrayEquals(expectedBuffer, actualBuffer);
+  }
+
+  @Test
+  public void testReadTimeout() throws IOException {
+    PipedInputStream pipedInputStream = new PipedInputStream();
+    PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream);
+    PollingInputStream pollingInputStream =
+        new PollingInputStream(pipedInputStream, Executors.newCachedThreadPool());
+    byte[] actualBuffer = new byte[4];
+    long start = System.nanoTime();
+    assertEquals(0, pollingInputStream.read(actualBuffer, 0, 4, 50, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    pipedOutputStream.write(42);
+    assertEquals(1, pollingInputStream.read(actualBuffer, 0, 4, 10, TimeUnit.SECONDS));
+    assertEquals(42, actualBuffer[0]);
+  }
+
+  @Test
+  public void testEndOfStream() throws IOException {
+    PollingInputStream pollingInputStream = new PollingInputStream(
+        new ByteArrayInputStream(new byte[] { 1, 2, 3 }), Executors.newCachedThreadPool());
+    byte[] actualBuffer = new byte[3];
+    int bytesRead = 0;
+    while (bytesRead < 3) {
+      bytesRead += pollingInputStream.read(actualBuffer, bytesRead, 3 - bytesRead);
+    }
+    assertArrayEquals(new byte[] { 1, 2, 3 }, actualBuffer);
+    assertEquals(-1, pollingInputStream.read());
+    assertEquals(-1, pollingInputStream.read(actualBuffer, 0, 3));
+  }
+
+  @Test
+  public void testStreamFailure() throws IOException {
+    InputStream failingInputStream = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Device detached.");
+      }
+    };
+    PollingInputStream pollingInputStream =
+        new PollingInputStream(failingInputStream, Executors.newCachedThreadPool());
+    try {
+      pollingInputStream.read();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Device detached.", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testCloseWakesReader() throws Exception {
+    PipedInputStream pipedInputStream = new PipedInputStream();
+    new PipedOutputStream(pipedInputStream);
+    final PollingInputStream pollingInputStream =
+        new PollingInputStream(pipedInputStream, Executors.newCachedThreadPool());
+    final int[] result = new int[] { 0 };
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result[0] = pollingInputStream.read();
+        } catch (IOException e) {
+          result[0] = -2;
+        }
+      }
+    };
+    reader.start();
+    Thread.sleep(50);
+    pollingInputStream.close();
+    reader.join(5000);
+    assertEquals(-1, result[0]);
+  }
 }